@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The wire format for bulk coordinates, compared to the decimal format 
+ * used before.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class CoordinateCodecBenchmark {
+
+  private static final int COUNT = 10000;
+
+  private final CoordinateCodec codec = new CoordinateCodec();
+  private double[] latitudes;
+  private double[] longitudes;
+  private String encoded;
+
+  @Setup( Level.Trial )
+  public void setUp() {
+    Random random = new Random( 42 );
+    latitudes = new double[ COUNT ];
+    longitudes = new double[ COUNT ];
+    for( int i = 0; i < COUNT; i++ ) {
+      latitudes[ i ] = 35 + random.nextDouble() * 25;
+      longitudes[ i ] = -10 + random.nextDouble() * 40;
+    }
+    JsWriter writer = JsWriter.obtain();
+    writeEncoded( writer );
+    String script = writer.finish();
+    String literal = script.substring( script.indexOf( '"' ) + 1, 
+                                       script.lastIndexOf( '"' ) );
+    encoded = literal.replace( "\\\\", "\\" );
+  }
+
+  @Benchmark
+  public int encode() {
+    JsWriter writer = JsWriter.obtain();
+    writeEncoded( writer );
+    int result = writer.length();
+    writer.recycle();
+    return result;
+  }
+
+  @Benchmark
+  public int encodeDecimal() {
+    JsWriter writer = JsWriter.obtain();
+    writer.beginArray();
+    for( int i = 0; i < COUNT; i++ ) {
+      writer.coordinate( latitudes[ i ] ).coordinate( longitudes[ i ] );
+    }
+    writer.endArray();
+    int result = writer.length();
+    writer.recycle();
+    return result;
+  }
+
+  @Benchmark
+  public double[] decode() {
+    return CoordinateCodec.decode( encoded, CoordinateCodec.DEFAULT_PRECISION );
+  }
+
+  private void writeEncoded( final JsWriter writer ) {
+    writer.beginCoordinates( codec );
+    for( int i = 0; i < COUNT; i++ ) {
+      writer.coordinates( latitudes[ i ], longitudes[ i ] );
+    }
+    writer.endCoordinates();
+  }
+
+}
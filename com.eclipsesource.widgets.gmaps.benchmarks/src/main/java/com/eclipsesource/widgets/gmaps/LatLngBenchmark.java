@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class LatLngBenchmark {
+
+  private final LatLng latLng = new LatLng( 52.520008, 13.404954 );
+  private final LatLng equal = new LatLng( 52.520008, 13.404954 );
+  private final LatLng other = new LatLng( 52.520008, 13.404955 );
+
+  @Benchmark
+  public int hashCodeOf() {
+    return latLng.hashCode();
+  }
+
+  @Benchmark
+  public boolean equalsEqual() {
+    return latLng.equals( equal );
+  }
+
+  @Benchmark
+  public boolean equalsOther() {
+    return latLng.equals( other );
+  }
+
+  @Benchmark
+  public String toStringOf() {
+    return latLng.toString();
+  }
+
+}
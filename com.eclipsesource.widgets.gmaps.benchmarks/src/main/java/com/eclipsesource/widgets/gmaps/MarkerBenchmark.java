@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Bulk markers: adding them (projection, quadtree and clusters), and 
+ * creating the scripts for the viewport and the clusters when the map 
+ * is panned.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class MarkerBenchmark {
+
+  private static final LatLngBounds EUROPE 
+    = new LatLngBounds( new LatLng( 35, -10 ), new LatLng( 60, 30 ) );
+  private static final LatLngBounds BERLIN 
+    = new LatLngBounds( new LatLng( 52.3, 13.0 ), new LatLng( 52.7, 13.8 ) );
+  private static final LatLngBounds MUNICH 
+    = new LatLngBounds( new LatLng( 48.0, 11.3 ), new LatLng( 48.3, 11.8 ) );
+
+  @Param( { "10000", "100000" } )
+  private int count;
+
+  private double[] latitudes;
+  private double[] longitudes;
+  private CommandQueue commands;
+  private MarkerLayer layer;
+  private MarkerLayer clusteredLayer;
+  private boolean toggle;
+
+  @Setup( Level.Trial )
+  public void setUp() {
+    Random random = new Random( 42 );
+    latitudes = new double[ count ];
+    longitudes = new double[ count ];
+    for( int i = 0; i < count; i++ ) {
+      latitudes[ i ] = 35 + random.nextDouble() * 25;
+      longitudes[ i ] = -10 + random.nextDouble() * 40;
+    }
+    commands = new CommandQueue( null, new MapMetrics( null ) );
+    CoordinateCodec codec = new CoordinateCodec();
+    layer = new MarkerLayer( commands, codec, 11 );
+    layer.add( latitudes, longitudes, null );
+    clusteredLayer = new MarkerLayer( commands, codec, 5 );
+    clusteredLayer.setClustering( true );
+    clusteredLayer.add( latitudes, longitudes, null );
+    commands.drain();
+  }
+
+  @Benchmark
+  public int[] add() {
+    MarkerLayer markers = createLayer();
+    return markers.add( latitudes, longitudes, null );
+  }
+
+  @Benchmark
+  public int[] addClustered() {
+    MarkerLayer markers = createLayer();
+    markers.setClustering( true );
+    return markers.add( latitudes, longitudes, null );
+  }
+
+  @Benchmark
+  public String panViewport() {
+    // Every pan replaces all markers in the browser
+    toggle = !toggle;
+    layer.setBounds( toggle ? BERLIN : MUNICH );
+    return commands.drain();
+  }
+
+  @Benchmark
+  public String panClusters() {
+    toggle = !toggle;
+    clusteredLayer.setBounds( toggle ? EUROPE : BERLIN );
+    return commands.drain();
+  }
+
+  private static MarkerLayer createLayer() {
+    CommandQueue commands = new CommandQueue( null, new MapMetrics( null ) );
+    return new MarkerLayer( commands, new CoordinateCodec(), 8 );
+  }
+
+}
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Updates of the retained overlays: 10,000 labelled markers of which 5% 
+ * move per update, as in a dashboard refreshed once per second.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class OverlaysBenchmark {
+
+  private static final int COUNT = 10000;
+
+  private CommandQueue commands;
+  private Overlays overlays;
+  private Random random;
+
+  @Setup( Level.Trial )
+  public void setUp() {
+    random = new Random( 42 );
+    commands = new CommandQueue( null, new MapMetrics( null ) );
+    overlays = new Overlays( commands, new CoordinateCodec() );
+    for( int i = 0; i < COUNT; i++ ) {
+      overlays.add( 48 + i * 0.0001, 11, "Vehicle " + i, 0x3366CC );
+    }
+    commands.drain();
+  }
+
+  @Benchmark
+  public String addAll() {
+    Overlays added = new Overlays( commands, new CoordinateCodec() );
+    for( int i = 0; i < COUNT; i++ ) {
+      added.add( 48 + i * 0.0001, 11, "Vehicle \"" + i + "\"", 0x3366CC );
+    }
+    return commands.drain();
+  }
+
+  @Benchmark
+  public String moveFivePercent() {
+    for( int i = 0; i < COUNT / 20; i++ ) {
+      int id = random.nextInt( COUNT );
+      overlays.move( id, 
+                     overlays.getLatitude( id ) + 0.0001, 
+                     overlays.getLongitude( id ) );
+    }
+    return commands.drain();
+  }
+
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Simplification of a long polyline and the scripts created for it when 
+ * zooming.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class PolylineBenchmark {
+
+  private static final int COUNT = 100000;
+  private static final LatLngBounds WORLD 
+    = new LatLngBounds( new LatLng( -80, -180 ), new LatLng( 80, 180 ) );
+
+  private double[] latitudes;
+  private double[] longitudes;
+  private double[] x;
+  private double[] y;
+  private CommandQueue commands;
+  private PolylineLayer layer;
+  private int zoom;
+
+  @Setup( Level.Trial )
+  public void setUp() {
+    // A winding track around the world
+    latitudes = new double[ COUNT ];
+    longitudes = new double[ COUNT ];
+    x = new double[ COUNT ];
+    y = new double[ COUNT ];
+    for( int i = 0; i < COUNT; i++ ) {
+      latitudes[ i ] = 40 * Math.sin( i / 2000.0 ) + Math.sin( i / 7.0 ) / 10;
+      longitudes[ i ] = -179 + i * 358.0 / COUNT;
+      x[ i ] = Mercator.toX( longitudes[ i ] );
+      y[ i ] = Mercator.toY( latitudes[ i ] );
+    }
+    commands = new CommandQueue( null, new MapMetrics( null ) );
+    layer = new PolylineLayer( commands, new CoordinateCodec(), 0 );
+    layer.add( latitudes, longitudes );
+    layer.setBounds( WORLD );
+    commands.drain();
+  }
+
+  @Benchmark
+  public double[] computeImportance() {
+    return Simplifier.computeImportance( x, y );
+  }
+
+  @Benchmark
+  public String zoom() {
+    // The levels are cached after the first iteration, this measures 
+    // clipping and encoding
+    zoom = ( zoom + 1 ) % 6;
+    layer.setZoom( zoom );
+    return commands.drain();
+  }
+
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The scripts created by the setters of GMap and their way through the 
+ * CommandQueue. The GMap methods themselves need a Display, so the scripts 
+ * are built here the same way GMap builds them.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ScriptBenchmark {
+
+  private final CommandQueue commands 
+    = new CommandQueue( null, new MapMetrics( null ) );
+  private final LatLng center = new LatLng( 52.520008, 13.404954 );
+
+  @Benchmark
+  public String setCenterScript() {
+    JsWriter script = JsWriter.obtain();
+    script.call( "setCenter" ).latLng( center ).end();
+    return script.finish();
+  }
+
+  @Benchmark
+  public String initScript() {
+    // as in GMap.initMap, with a few scripts queued before loading
+    commands.add( "setZoom", "setZoom( 12 );" );
+    commands.add( "setType", "setType( google.maps.MapTypeId.HYBRID );" );
+    JsWriter script = JsWriter.obtain();
+    script.call( "init" ).latLng( center ).value( 8 );
+    script.expression( "google.maps.MapTypeId.ROADMAP" ).end();
+    commands.drain( script );
+    return script.finish();
+  }
+
+  @Benchmark
+  public String setterBurst() {
+    // Redundant calls within one event cycle, only the last one is sent
+    for( int zoom = 0; zoom < 10; zoom++ ) {
+      JsWriter script = JsWriter.obtain();
+      script.call( "setZoom" ).value( zoom ).end();
+      commands.add( "setZoom", script.finish() );
+      script = JsWriter.obtain();
+      script.call( "setCenter" ).latLng( center ).end();
+      commands.add( "setCenter", script.finish() );
+    }
+    return commands.drain();
+  }
+
+  @Benchmark
+  public int appendCoordinate() {
+    JsWriter writer = JsWriter.obtain();
+    writer.coordinate( center.latitude ).coordinate( center.longitude );
+    int result = writer.length();
+    writer.recycle();
+    return result;
+  }
+
+  @Benchmark
+  public int appendString() {
+    JsWriter writer = JsWriter.obtain();
+    writer.string( "Brandenburger Tor, \"Berlin\" <Mitte>" );
+    int result = writer.length();
+    writer.recycle();
+    return result;
+  }
+
+}
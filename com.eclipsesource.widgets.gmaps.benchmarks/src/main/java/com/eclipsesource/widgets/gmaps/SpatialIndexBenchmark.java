@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Queries on a SpatialIndex of positions spread over Europe: the 20 nearest
+ * positions, all within 5 km, and all within the bounds of a city. Building
+ * the index is measured separately.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class SpatialIndexBenchmark {
+
+  private static final LatLngBounds BERLIN 
+    = new LatLngBounds( new LatLng( 52.3, 13.0 ), new LatLng( 52.7, 13.8 ) );
+
+  @Param( { "100000", "1000000" } )
+  private int count;
+
+  private double[] latitudes;
+  private double[] longitudes;
+  private SpatialIndex index;
+  private Random random;
+  private final int[] result = new int[ 1000 ];
+
+  @Setup( Level.Trial )
+  public void setUp() {
+    random = new Random( 42 );
+    latitudes = new double[ count ];
+    longitudes = new double[ count ];
+    for( int i = 0; i < count; i++ ) {
+      latitudes[ i ] = 35 + random.nextDouble() * 25;
+      longitudes[ i ] = -10 + random.nextDouble() * 40;
+    }
+    index = new SpatialIndex( latitudes, longitudes );
+  }
+
+  @Benchmark
+  @OutputTimeUnit( TimeUnit.MILLISECONDS )
+  public SpatialIndex build() {
+    return new SpatialIndex( latitudes, longitudes );
+  }
+
+  @Benchmark
+  public int nearest20() {
+    int[] nearest = new int[ 20 ];
+    return index.nearest( nextLatitude(), nextLongitude(), nearest );
+  }
+
+  @Benchmark
+  public int withinDistance() {
+    return index.withinDistance( nextLatitude(), 
+                                 nextLongitude(), 
+                                 5000, 
+                                 result );
+  }
+
+  @Benchmark
+  public int query() {
+    return index.query( BERLIN, result );
+  }
+
+  private double nextLatitude() {
+    return 35 + random.nextDouble() * 25;
+  }
+
+  private double nextLongitude() {
+    return -10 + random.nextDouble() * 40;
+  }
+
+}
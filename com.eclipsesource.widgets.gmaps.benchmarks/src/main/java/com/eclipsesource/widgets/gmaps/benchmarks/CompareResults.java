@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares JMH results (written with "-rf csv") with a baseline and reports
+ * benchmarks whose throughput dropped or whose allocation per operation
+ * (from "-prof gc") grew by more than the tolerance. Exits with 1 if there 
+ * are regressions, so it can be used in a build.
+ * 
+ * Usage: CompareResults baseline.csv results.csv [tolerance, default 0.2]
+ */
+public final class CompareResults {
+
+  private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+  private CompareResults() {
+    // prevent instantiation
+  }
+
+  public static void main( final String[] args ) throws IOException {
+    if( args.length < 2 ) {
+      System.err.println( "Usage: CompareResults baseline.csv results.csv " 
+                          + "[tolerance]" );
+      System.exit( 2 );
+    }
+    double tolerance = args.length > 2 ? Double.parseDouble( args[ 2 ] ) : 0.2;
+    Map<String, double[]> baseline = read( args[ 0 ] );
+    Map<String, double[]> results = read( args[ 1 ] );
+    int regressions = 0;
+    for( Map.Entry<String, double[]> entry : results.entrySet() ) {
+      String key = entry.getKey();
+      double[] expected = baseline.get( key );
+      double actual = entry.getValue()[ 0 ];
+      if( expected == null ) {
+        System.out.println( "NEW         " + key + ": " + format( actual ) );
+      } else {
+        double ratio = actual / expected[ 0 ];
+        boolean allocation = key.endsWith( ALLOCATION );
+        // Throughput should not drop, allocation should not grow
+        boolean regression = allocation 
+                           ? ratio > 1 + tolerance && actual - expected[ 0 ] > 1
+                           : ratio < 1 - tolerance;
+        if( regression ) {
+          regressions++;
+        }
+        System.out.println( ( regression ? "REGRESSION  " : "ok          " ) 
+                            + key + ": " + format( expected[ 0 ] ) + " -> " 
+                            + format( actual ) + " (" 
+                            + format( ratio * 100 ) + "%)" );
+      }
+    }
+    System.out.println( regressions + " regression(s)" );
+    System.exit( regressions > 0 ? 1 : 0 );
+  }
+
+  /**
+   * Returns the score and error of every benchmark and its allocation per
+   * operation, keyed by name and parameters.
+   */
+  private static Map<String, double[]> read( final String file ) 
+    throws IOException 
+  {
+    Map<String, double[]> result = new LinkedHashMap<String, double[]>();
+    BufferedReader reader = new BufferedReader( new FileReader( file ) );
+    try {
+      List<String> header = split( reader.readLine() );
+      int scoreIndex = header.indexOf( "Score" );
+      int errorIndex = header.indexOf( "Score Error (99.9%)" );
+      String line;
+      while( ( line = reader.readLine() ) != null ) {
+        List<String> fields = split( line );
+        StringBuilder key = new StringBuilder( fields.get( 0 ) );
+        for( int i = 0; i < header.size(); i++ ) {
+          String value = i < fields.size() ? fields.get( i ) : "";
+          if( header.get( i ).startsWith( "Param: " ) && value.length() > 0 ) {
+            key.append( ' ' );
+            key.append( header.get( i ).substring( 7 ) );
+            key.append( '=' );
+            key.append( value );
+          }
+        }
+        // Other secondary results (e.g. gc.count) depend on the run time
+        String name = fields.get( 0 );
+        if( name.indexOf( ':' ) == -1 || name.endsWith( ALLOCATION ) ) {
+          double score = parse( fields.get( scoreIndex ) );
+          double error = parse( fields.get( errorIndex ) );
+          result.put( key.toString(), new double[] { score, error } );
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return result;
+  }
+
+  private static List<String> split( final String line ) {
+    List<String> result = new ArrayList<String>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    for( int i = 0; i < line.length(); i++ ) {
+      char ch = line.charAt( i );
+      if( ch == '"' ) {
+        quoted = !quoted;
+      } else if( ch == ',' && !quoted ) {
+        result.add( field.toString() );
+        field.setLength( 0 );
+      } else {
+        field.append( ch );
+      }
+    }
+    result.add( field.toString() );
+    return result;
+  }
+
+  private static double parse( final String value ) {
+    return value.length() == 0 || "NaN".equals( value ) 
+         ? Double.NaN 
+         : Double.parseDouble( value );
+  }
+
+  private static String format( final double value ) {
+    return String.format( "%.2f", Double.valueOf( value ) );
+  }
+
+}
@@ -0,0 +1,336 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import junit.framework.TestCase;
+
+public class BatchGeocoderTest extends TestCase {
+
+  private static final long TIMEOUT = 10000;
+  private static final long DAY = 24 * 60 * 60 * 1000L;
+
+  private TestGeocoder geocoder;
+  private RecordingCallback callback;
+
+  protected void setUp() throws Exception {
+    geocoder = new TestGeocoder();
+    callback = new RecordingCallback( 8 );
+  }
+
+  public void testGeocode() throws InterruptedException {
+    BatchGeocoder batch = new BatchGeocoder( geocoder, null, 2, 1000 );
+    String[] addresses = new String[] { "a", "b", TestGeocoder.UNKNOWN, null };
+    BatchGeocoder.Job job = batch.geocode( addresses, callback );
+    assertTrue( job.await( TIMEOUT ) );
+    assertTrue( job.isDone() );
+    assertFalse( job.isCancelled() );
+    assertEquals( 4, job.getSize() );
+    assertEquals( 4, job.getCompletedCount() );
+    assertEquals( "a", callback.getResult( 0 ).address );
+    assertEquals( "b", callback.getResult( 1 ).address );
+    assertNull( callback.getResult( 2 ) );
+    assertNull( callback.getResult( 3 ) );
+    assertEquals( 1, callback.awaitFinished() );
+    assertFalse( callback.wasCancelled() );
+    assertEquals( 3, geocoder.getRequests() );
+  }
+
+  public void testReverseGeocode() throws InterruptedException {
+    BatchGeocoder batch = new BatchGeocoder( geocoder, null, 2, 1000 );
+    LatLng[] locations = new LatLng[] { 
+      new LatLng( 1, 2 ), 
+      new LatLng( 3, 4 ), 
+      null 
+    };
+    BatchGeocoder.Job job = batch.reverseGeocode( locations, callback );
+    assertTrue( job.await( TIMEOUT ) );
+    assertEquals( "1.0,2.0", callback.getAddress( 0 ) );
+    assertEquals( "3.0,4.0", callback.getAddress( 1 ) );
+    assertNull( callback.getAddress( 2 ) );
+    assertEquals( 1, callback.awaitFinished() );
+  }
+
+  public void testCachedResultsAreNotRequested() throws InterruptedException 
+  {
+    GeocodeCache cache = new GeocodeCache( 10, DAY, 4 );
+    GeocodeResult cached = new GeocodeResult( "a", new LatLng( 5, 6 ), null );
+    cache.put( "a", cached );
+    BatchGeocoder batch = new BatchGeocoder( geocoder, cache, 1, 1000 );
+    BatchGeocoder.Job job 
+      = batch.geocode( new String[] { "a", "b" }, callback );
+    assertTrue( job.await( TIMEOUT ) );
+    assertSame( cached, callback.getResult( 0 ) );
+    assertEquals( 1, geocoder.getRequests() );
+    assertNotNull( cache.get( "b" ) );
+  }
+
+  public void testEmptyBatch() throws InterruptedException {
+    BatchGeocoder batch = new BatchGeocoder( geocoder, null, 2, 1000 );
+    BatchGeocoder.Job job = batch.geocode( new String[ 0 ], callback );
+    assertTrue( job.await( TIMEOUT ) );
+    assertEquals( 0, job.getCompletedCount() );
+    assertEquals( 1, callback.awaitFinished() );
+  }
+
+  public void testCancel() throws InterruptedException {
+    geocoder.setBlocked( true );
+    BatchGeocoder batch = new BatchGeocoder( geocoder, null, 1, 1000 );
+    BatchGeocoder.Job job 
+      = batch.geocode( new String[] { "a", "b", "c" }, callback );
+    geocoder.awaitRequests( 1 );
+    job.cancel();
+    geocoder.setBlocked( false );
+    assertTrue( job.await( TIMEOUT ) );
+    assertTrue( job.isCancelled() );
+    assertEquals( 1, callback.awaitFinished() );
+    assertTrue( callback.wasCancelled() );
+    assertEquals( 1, geocoder.getRequests() );
+  }
+
+  public void testMaxConcurrency() throws InterruptedException {
+    geocoder.setDelay( 20 );
+    BatchGeocoder batch = new BatchGeocoder( geocoder, null, 2, 1000 );
+    String[] addresses = new String[ 8 ];
+    for( int i = 0; i < addresses.length; i++ ) {
+      addresses[ i ] = "address " + i;
+    }
+    BatchGeocoder.Job job = batch.geocode( addresses, callback );
+    assertTrue( job.await( TIMEOUT ) );
+    assertEquals( 8, geocoder.getRequests() );
+    assertTrue( geocoder.getMaxConcurrentRequests() <= 2 );
+  }
+
+  public void testGeocoderExceptionIsReportedAsFailure() 
+    throws InterruptedException 
+  {
+    BatchGeocoder batch = new BatchGeocoder( geocoder, null, 1, 1000 );
+    String[] addresses = new String[] { "a", TestGeocoder.FAILING, "c" };
+    BatchGeocoder.Job job = batch.geocode( addresses, callback );
+    assertTrue( job.await( TIMEOUT ) );
+    assertEquals( 3, job.getCompletedCount() );
+    assertNull( callback.getResult( 1 ) );
+    assertEquals( "c", callback.getResult( 2 ).address );
+    assertEquals( 1, callback.awaitFinished() );
+  }
+
+  public void testCallbackExceptionDoesNotStopJob() 
+    throws InterruptedException 
+  {
+    callback.setFailingIndex( 0 );
+    BatchGeocoder batch = new BatchGeocoder( geocoder, null, 1, 1000 );
+    BatchGeocoder.Job job 
+      = batch.geocode( new String[] { "a", "b" }, callback );
+    assertTrue( job.await( TIMEOUT ) );
+    assertEquals( 2, job.getCompletedCount() );
+    assertEquals( "b", callback.getResult( 1 ).address );
+    assertEquals( 1, callback.awaitFinished() );
+  }
+
+  public void testMaxConcurrencyIsSharedByJobs() throws InterruptedException {
+    geocoder.setDelay( 20 );
+    BatchGeocoder batch = new BatchGeocoder( geocoder, null, 2, 1000 );
+    String[] addresses = new String[] { "a", "b", "c", "d" };
+    BatchGeocoder.Job job1 = batch.geocode( addresses, callback );
+    BatchGeocoder.Job job2 
+      = batch.geocode( addresses, new RecordingCallback( 4 ) );
+    assertTrue( job1.await( TIMEOUT ) );
+    assertTrue( job2.await( TIMEOUT ) );
+    assertEquals( 8, geocoder.getRequests() );
+    assertTrue( geocoder.getMaxConcurrentRequests() <= 2 );
+  }
+
+  public void testIllegalArguments() {
+    try {
+      new BatchGeocoder( null, null, 1, 1 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    try {
+      new BatchGeocoder( geocoder, null, 0, 1 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    try {
+      new BatchGeocoder( geocoder, null, 1, 0 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+  }
+
+  public void testNullArguments() {
+    BatchGeocoder batch = new BatchGeocoder( geocoder, null, 1, 1 );
+    try {
+      batch.geocode( null, callback );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    try {
+      batch.geocode( new String[] { "a" }, null );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    try {
+      batch.reverseGeocode( null, callback );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    try {
+      batch.reverseGeocode( new LatLng[] { new LatLng( 1, 2 ) }, null );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    assertEquals( 0, geocoder.getRequests() );
+  }
+
+  private static final class TestGeocoder implements Geocoder {
+
+    static final String UNKNOWN = "unknown";
+    static final String FAILING = "failing";
+
+    private int requests = 0;
+    private int concurrentRequests = 0;
+    private int maxConcurrentRequests = 0;
+    private long delay = 0;
+    private boolean blocked = false;
+
+    public GeocodeResult geocode( final String address ) {
+      beginRequest();
+      try {
+        if( FAILING.equals( address ) ) {
+          throw new IllegalStateException( "Service unavailable" );
+        }
+        GeocodeResult result = null;
+        if( !UNKNOWN.equals( address ) ) {
+          result = new GeocodeResult( address, new LatLng( 1, 2 ), null );
+        }
+        return result;
+      } finally {
+        endRequest();
+      }
+    }
+
+    public String reverseGeocode( final LatLng location ) {
+      beginRequest();
+      try {
+        return location.latitude + "," + location.longitude;
+      } finally {
+        endRequest();
+      }
+    }
+
+    synchronized void setDelay( final long delay ) {
+      this.delay = delay;
+    }
+
+    synchronized void setBlocked( final boolean blocked ) {
+      this.blocked = blocked;
+      notifyAll();
+    }
+
+    synchronized int getRequests() {
+      return requests;
+    }
+
+    synchronized int getMaxConcurrentRequests() {
+      return maxConcurrentRequests;
+    }
+
+    synchronized void awaitRequests( final int count ) 
+      throws InterruptedException 
+    {
+      long end = System.currentTimeMillis() + TIMEOUT;
+      while( requests < count && System.currentTimeMillis() < end ) {
+        wait( 10 );
+      }
+    }
+
+    private synchronized void beginRequest() {
+      requests++;
+      concurrentRequests++;
+      maxConcurrentRequests 
+        = Math.max( maxConcurrentRequests, concurrentRequests );
+      notifyAll();
+      long end = System.currentTimeMillis() + delay;
+      try {
+        while( blocked || System.currentTimeMillis() < end ) {
+          wait( 5 );
+        }
+      } catch( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private synchronized void endRequest() {
+      concurrentRequests--;
+    }
+  }
+
+  private static final class RecordingCallback 
+    implements BatchGeocoder.Callback 
+  {
+
+    private final GeocodeResult[] results;
+    private final String[] addresses;
+    private int finishedCount = 0;
+    private boolean cancelled;
+    private int failingIndex = -1;
+
+    RecordingCallback( final int size ) {
+      results = new GeocodeResult[ size ];
+      addresses = new String[ size ];
+    }
+
+    public synchronized void geocoded( final int index, 
+                                       final GeocodeResult result ) 
+    {
+      results[ index ] = result;
+      if( index == failingIndex ) {
+        throw new IllegalStateException( "Callback failed" );
+      }
+    }
+
+    public synchronized void reverseGeocoded( final int index, 
+                                              final String address ) 
+    {
+      addresses[ index ] = address;
+    }
+
+    public synchronized void finished( final boolean cancelled ) {
+      finishedCount++;
+      this.cancelled = cancelled;
+      notifyAll();
+    }
+
+    synchronized void setFailingIndex( final int failingIndex ) {
+      this.failingIndex = failingIndex;
+    }
+
+    synchronized GeocodeResult getResult( final int index ) {
+      return results[ index ];
+    }
+
+    synchronized String getAddress( final int index ) {
+      return addresses[ index ];
+    }
+
+    synchronized int awaitFinished() throws InterruptedException {
+      // Note: finished is called right after the job is done
+      long end = System.currentTimeMillis() + TIMEOUT;
+      while( finishedCount == 0 && System.currentTimeMillis() < end ) {
+        wait( 10 );
+      }
+      return finishedCount;
+    }
+
+    synchronized boolean wasCancelled() {
+      return cancelled;
+    }
+  }
+}
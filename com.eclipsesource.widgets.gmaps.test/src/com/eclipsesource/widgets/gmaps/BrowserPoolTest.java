@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.SWTException;
+import org.eclipse.swt.browser.Browser;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Shell;
+
+import junit.framework.TestCase;
+
+/**
+ * Needs a display and a browser, see the "ui" profile in the pom.
+ */
+public class BrowserPoolTest extends TestCase {
+
+  private static final long TIMEOUT = 10000;
+
+  private Display display;
+  private Shell shell;
+  private BrowserPool pool;
+
+  protected void setUp() throws Exception {
+    display = Display.getDefault();
+    shell = new Shell( display );
+    pool = BrowserPool.getPool( display );
+    pool.setMaxSize( 2 );
+  }
+
+  protected void tearDown() throws Exception {
+    pool.setMaxSize( 0 );
+    pool.setIdleTimeout( 5 * 60 * 1000 );
+    shell.dispose();
+  }
+
+  public void testPoolPerDisplay() {
+    assertSame( pool, BrowserPool.getPool( display ) );
+  }
+
+  public void testAcquireFromEmptyPool() {
+    assertNull( pool.acquire( shell ) );
+  }
+
+  public void testReleaseAndAcquire() {
+    Browser browser = new Browser( shell, SWT.NONE );
+    assertTrue( pool.release( browser, true ) );
+    assertEquals( 1, pool.getSize() );
+    assertNotSame( shell, browser.getParent() );
+    assertSame( browser, pool.acquire( shell ) );
+    assertSame( shell, browser.getParent() );
+    assertEquals( 0, pool.getSize() );
+    assertTrue( pool.isLoaded( browser ) );
+  }
+
+  public void testAcquireMostRecentlyReleased() {
+    Browser first = new Browser( shell, SWT.NONE );
+    Browser second = new Browser( shell, SWT.NONE );
+    pool.release( first, true );
+    pool.release( second, true );
+    assertSame( second, pool.acquire( shell ) );
+    assertSame( first, pool.acquire( shell ) );
+  }
+
+  public void testReleaseNotReusable() {
+    Browser browser = new Browser( shell, SWT.NONE );
+    assertFalse( pool.release( browser, false ) );
+    assertEquals( 0, pool.getSize() );
+    assertSame( shell, browser.getParent() );
+  }
+
+  public void testReleaseToDisabledPool() {
+    pool.setMaxSize( 0 );
+    assertFalse( pool.release( new Browser( shell, SWT.NONE ), true ) );
+    assertEquals( 0, pool.getSize() );
+  }
+
+  public void testReleaseToFullPool() {
+    pool.setMaxSize( 1 );
+    assertTrue( pool.release( new Browser( shell, SWT.NONE ), true ) );
+    assertFalse( pool.release( new Browser( shell, SWT.NONE ), true ) );
+    assertEquals( 1, pool.getSize() );
+  }
+
+  public void testSetMaxSizeDisposesExcess() {
+    Browser first = new Browser( shell, SWT.NONE );
+    Browser second = new Browser( shell, SWT.NONE );
+    pool.release( first, true );
+    pool.release( second, true );
+    pool.setMaxSize( 1 );
+    assertTrue( first.isDisposed() );
+    assertFalse( second.isDisposed() );
+    assertEquals( 1, pool.getSize() );
+  }
+
+  public void testIdleBrowsersAreEvicted() throws InterruptedException {
+    pool.setIdleTimeout( 10 );
+    Browser browser = new Browser( shell, SWT.NONE );
+    pool.release( browser, true );
+    long end = System.currentTimeMillis() + TIMEOUT;
+    while( !browser.isDisposed() && System.currentTimeMillis() < end ) {
+      if( !display.readAndDispatch() ) {
+        Thread.sleep( 10 );
+      }
+    }
+    assertTrue( browser.isDisposed() );
+    assertEquals( 0, pool.getSize() );
+  }
+
+  public void testIllegalArguments() {
+    try {
+      pool.setMaxSize( -1 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    try {
+      pool.setIdleTimeout( 0 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+  }
+
+  public void testAccessFromOtherThread() throws InterruptedException {
+    final Throwable[] error = new Throwable[ 1 ];
+    Thread thread = new Thread() {
+      public void run() {
+        try {
+          pool.getSize();
+        } catch( SWTException exception ) {
+          error[ 0 ] = exception;
+        }
+      }
+    };
+    thread.start();
+    thread.join();
+    assertNotNull( error[ 0 ] );
+  }
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class CameraDispatcherTest extends TestCase {
+
+  private static final long TIMEOUT = 10000;
+
+  private CameraDispatcher dispatcher;
+  private RecordingListener listener;
+
+  protected void setUp() throws Exception {
+    dispatcher = new CameraDispatcher();
+    listener = new RecordingListener();
+    dispatcher.addListener( listener );
+  }
+
+  protected void tearDown() throws Exception {
+    listener.setBlocked( false );
+    dispatcher.dispose();
+  }
+
+  public void testListeners() {
+    assertTrue( dispatcher.hasListeners() );
+    dispatcher.removeListener( listener );
+    assertFalse( dispatcher.hasListeners() );
+  }
+
+  public void testDispatch() throws InterruptedException {
+    CameraEvent event = createEvent( 1, 2 );
+    dispatcher.dispatch( event );
+    List events = listener.awaitEvents( 1 );
+    assertEquals( 1, events.size() );
+    assertSame( event, events.get( 0 ) );
+  }
+
+  public void testEventsAreMergedWhileListenerIsBusy() 
+    throws InterruptedException 
+  {
+    listener.setBlocked( true );
+    dispatcher.dispatch( createEvent( 1, 2 ) );
+    listener.awaitEvents( 1 );
+    dispatcher.dispatch( createEvent( 2, 3 ) );
+    dispatcher.dispatch( createEvent( 3, 4 ) );
+    listener.setBlocked( false );
+    List events = listener.awaitEvents( 2 );
+    assertEquals( 2, events.size() );
+    CameraEvent merged = ( CameraEvent )events.get( 1 );
+    assertEquals( 2, merged.oldZoom );
+    assertEquals( 4, merged.newZoom );
+  }
+
+  public void testMergedEventWithoutChangesIsSkipped() 
+    throws InterruptedException 
+  {
+    listener.setBlocked( true );
+    dispatcher.dispatch( createEvent( 1, 2 ) );
+    listener.awaitEvents( 1 );
+    dispatcher.dispatch( createEvent( 2, 3 ) );
+    dispatcher.dispatch( createEvent( 3, 2 ) );
+    listener.setBlocked( false );
+    Thread.sleep( 50 );
+    dispatcher.dispatch( createEvent( 2, 4 ) );
+    List events = listener.awaitEvents( 2 );
+    Thread.sleep( 50 );
+    assertEquals( 2, listener.getEvents().size() );
+    CameraEvent event = ( CameraEvent )events.get( 1 );
+    assertEquals( 2, event.oldZoom );
+    assertEquals( 4, event.newZoom );
+  }
+
+  public void testListenerExceptionDoesNotStopDispatching() 
+    throws InterruptedException 
+  {
+    dispatcher.removeListener( listener );
+    dispatcher.addListener( new CameraListener() {
+      public void cameraChanged( final CameraEvent event ) {
+        throw new IllegalStateException( "Listener failed" );
+      }
+    } );
+    dispatcher.addListener( listener );
+    dispatcher.dispatch( createEvent( 1, 2 ) );
+    listener.awaitEvents( 1 );
+    dispatcher.dispatch( createEvent( 2, 3 ) );
+    assertEquals( 2, listener.awaitEvents( 2 ).size() );
+  }
+
+  public void testDispose() throws InterruptedException {
+    dispatcher.dispose();
+    dispatcher.dispatch( createEvent( 1, 2 ) );
+    Thread.sleep( 50 );
+    assertEquals( 0, listener.getEvents().size() );
+  }
+
+  private static CameraEvent createEvent( final int oldZoom, 
+                                          final int newZoom ) 
+  {
+    LatLng center = new LatLng( 1, 2 );
+    return new CameraEvent( center, center, oldZoom, newZoom, null, null );
+  }
+
+  private static final class RecordingListener implements CameraListener {
+
+    private final List events = new ArrayList();
+    private boolean blocked = false;
+
+    public synchronized void cameraChanged( final CameraEvent event ) {
+      events.add( event );
+      notifyAll();
+      try {
+        while( blocked ) {
+          wait();
+        }
+      } catch( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    synchronized void setBlocked( final boolean blocked ) {
+      this.blocked = blocked;
+      notifyAll();
+    }
+
+    synchronized List getEvents() {
+      return new ArrayList( events );
+    }
+
+    synchronized List awaitEvents( final int count ) 
+      throws InterruptedException 
+    {
+      long end = System.currentTimeMillis() + TIMEOUT;
+      while( events.size() < count && System.currentTimeMillis() < end ) {
+        wait( 10 );
+      }
+      return new ArrayList( events );
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import junit.framework.TestCase;
+
+public class CameraEventTest extends TestCase {
+
+  private static final LatLng BERLIN = new LatLng( 52.52, 13.405 );
+  private static final LatLng PARIS = new LatLng( 48.857, 2.352 );
+  private static final LatLng ROME = new LatLng( 41.903, 12.496 );
+
+  public void testChanges() {
+    CameraEvent event 
+      = new CameraEvent( BERLIN, PARIS, 5, 5, bounds( 1 ), bounds( 1 ) );
+    assertEquals( CameraEvent.CENTER, event.changes );
+    assertTrue( event.isCenterChanged() );
+    assertFalse( event.isZoomChanged() );
+    assertFalse( event.isBoundsChanged() );
+    event = new CameraEvent( BERLIN, BERLIN, 5, 6, bounds( 1 ), bounds( 2 ) );
+    assertEquals( CameraEvent.ZOOM | CameraEvent.BOUNDS, event.changes );
+  }
+
+  public void testBoundsNotKnownYet() {
+    CameraEvent event = new CameraEvent( BERLIN, BERLIN, 5, 5, null, null );
+    assertEquals( 0, event.changes );
+    event = new CameraEvent( BERLIN, BERLIN, 5, 5, null, bounds( 1 ) );
+    assertEquals( CameraEvent.BOUNDS, event.changes );
+  }
+
+  public void testMerge() {
+    CameraEvent first 
+      = new CameraEvent( BERLIN, PARIS, 5, 6, bounds( 1 ), bounds( 2 ) );
+    CameraEvent second 
+      = new CameraEvent( PARIS, ROME, 6, 6, bounds( 2 ), bounds( 3 ) );
+    CameraEvent merged = CameraEvent.merge( first, second );
+    assertEquals( BERLIN, merged.oldCenter );
+    assertEquals( ROME, merged.newCenter );
+    assertEquals( 5, merged.oldZoom );
+    assertEquals( 6, merged.newZoom );
+    assertEquals( bounds( 1 ), merged.oldBounds );
+    assertEquals( bounds( 3 ), merged.newBounds );
+    assertEquals(   CameraEvent.CENTER | CameraEvent.ZOOM | CameraEvent.BOUNDS, 
+                  merged.changes );
+  }
+
+  public void testMergeBackToStart() {
+    CameraEvent first 
+      = new CameraEvent( BERLIN, PARIS, 5, 6, bounds( 1 ), bounds( 2 ) );
+    CameraEvent second 
+      = new CameraEvent( PARIS, BERLIN, 6, 5, bounds( 2 ), bounds( 1 ) );
+    assertEquals( 0, CameraEvent.merge( first, second ).changes );
+  }
+
+  static LatLngBounds bounds( final int size ) {
+    return new LatLngBounds( new LatLng( -size, -size ), 
+                             new LatLng( size, size ) );
+  }
+}
@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class ClusterIndexTest extends TestCase {
+
+  private static final int MAX_ZOOM = Mercator.MAX_ZOOM;
+
+  private ClusterIndex index;
+
+  protected void setUp() throws Exception {
+    index = new ClusterIndex();
+  }
+
+  public void testEmpty() {
+    for( int zoom = 0; zoom <= MAX_ZOOM; zoom++ ) {
+      assertEquals( -1, index.getLevel( zoom ).next( 0 ) );
+    }
+  }
+
+  public void testAddSingleMarker() {
+    index.add( 3, 52.5, 13.4 );
+    for( int zoom = 0; zoom <= MAX_ZOOM; zoom++ ) {
+      ClusterIndex.Level level = index.getLevel( zoom );
+      int cluster = level.next( 0 );
+      assertEquals( 1, level.getCount( cluster ) );
+      assertEquals( 3, level.getMarkerId( cluster ) );
+      assertEquals( 52.5, level.getLatitude( cluster ), 1e-9 );
+      assertEquals( 13.4, level.getLongitude( cluster ), 1e-9 );
+      assertEquals( -1, level.next( cluster + 1 ) );
+    }
+  }
+
+  public void testClusterNearbyMarkers() {
+    index.add( 0, 52.50, 13.40 );
+    index.add( 1, 52.52, 13.42 );
+    ClusterIndex.Level world = index.getLevel( 0 );
+    int cluster = world.next( 0 );
+    assertEquals( 2, world.getCount( cluster ) );
+    assertEquals( -1, world.getMarkerId( cluster ) );
+    assertEquals( 52.51, world.getLatitude( cluster ), 1e-9 );
+    assertEquals( 13.41, world.getLongitude( cluster ), 1e-9 );
+    ClusterIndex.Level street = index.getLevel( MAX_ZOOM );
+    assertEquals( 2, countClusters( street ) );
+  }
+
+  public void testAddAll() {
+    MarkerStore store = createStore( 1000 );
+    index.addAll( store );
+    ClusterIndex other = new ClusterIndex();
+    for( int id = 0; id < store.size(); id++ ) {
+      other.add( id, store.getLatitude( id ), store.getLongitude( id ) );
+    }
+    for( int zoom = 0; zoom <= MAX_ZOOM; zoom++ ) {
+      assertEquals( countMarkers( other.getLevel( zoom ) ), 
+                    countMarkers( index.getLevel( zoom ) ) );
+      assertEquals( countClusters( other.getLevel( zoom ) ), 
+                    countClusters( index.getLevel( zoom ) ) );
+    }
+    assertEquals( 1000, countMarkers( index.getLevel( 5 ) ) );
+  }
+
+  public void testMove() {
+    index.add( 0, 52.5, 13.4 );
+    index.add( 1, 52.5, 13.4 );
+    index.remove( 1, 52.5, 13.4 );
+    index.add( 1, -33.9, 151.2 );
+    ClusterIndex.Level level = index.getLevel( 10 );
+    assertEquals( 2, countClusters( level ) );
+    int cluster = level.next( 0 );
+    while( cluster != -1 ) {
+      assertEquals( 1, level.getCount( cluster ) );
+      int id = level.getMarkerId( cluster );
+      double latitude = id == 0 ? 52.5 : -33.9;
+      assertEquals( latitude, level.getLatitude( cluster ), 1e-9 );
+      cluster = level.next( cluster + 1 );
+    }
+  }
+
+  public void testRemoveAll() {
+    MarkerStore store = createStore( 500 );
+    index.addAll( store );
+    for( int id = 0; id < store.size(); id++ ) {
+      index.remove( id, store.getLatitude( id ), store.getLongitude( id ) );
+    }
+    for( int zoom = 0; zoom <= MAX_ZOOM; zoom++ ) {
+      assertEquals( -1, index.getLevel( zoom ).next( 0 ) );
+    }
+  }
+
+  public void testMovingMarkersReusesSlots() {
+    Random random = new Random( 1 );
+    double[] latitudes = new double[ 100 ];
+    double[] longitudes = new double[ 100 ];
+    for( int id = 0; id < 100; id++ ) {
+      latitudes[ id ] = random.nextDouble() * 160 - 80;
+      longitudes[ id ] = random.nextDouble() * 360 - 180;
+      index.add( id, latitudes[ id ], longitudes[ id ] );
+    }
+    for( int step = 0; step < 100; step++ ) {
+      for( int id = 0; id < 100; id++ ) {
+        index.remove( id, latitudes[ id ], longitudes[ id ] );
+        latitudes[ id ] = random.nextDouble() * 160 - 80;
+        longitudes[ id ] = random.nextDouble() * 360 - 180;
+        index.add( id, latitudes[ id ], longitudes[ id ] );
+      }
+    }
+    ClusterIndex.Level level = index.getLevel( MAX_ZOOM );
+    assertEquals( 100, countMarkers( level ) );
+    assertEquals( 100, countClusters( level ) );
+    // at most one moved marker's slot is in use twice during a move
+    assertTrue( level.size() <= 101 );
+  }
+
+  public void testQuery() {
+    MarkerStore store = createStore( 2000 );
+    index.addAll( store );
+    Random random = new Random( 2 );
+    for( int zoom = 0; zoom <= MAX_ZOOM; zoom += 4 ) {
+      ClusterIndex.Level level = index.getLevel( zoom );
+      for( int i = 0; i < 20; i++ ) {
+        double x1 = random.nextDouble();
+        double y1 = random.nextDouble();
+        double size = random.nextDouble() / ( 1 << zoom ) * 4;
+        IntList result = new IntList();
+        level.query( x1, y1, x1 + size, y1 + size, result );
+        assertEquals( queryAll( level, zoom, x1, y1, size ), toSet( result ) );
+      }
+    }
+  }
+
+  public void testQueryAcrossAntimeridian() {
+    index.add( 0, 0, 179.9 );
+    index.add( 1, 0, -179.9 );
+    index.add( 2, 0, 0 );
+    ClusterIndex.Level level = index.getLevel( 10 );
+    IntList result = new IntList();
+    double x1 = Mercator.toX( 179 );
+    double x2 = Mercator.toX( -179 ) + 1;
+    level.query( x1, 0.4, x2, 0.6, result );
+    assertEquals( 2, result.size() );
+    for( int i = 0; i < result.size(); i++ ) {
+      assertTrue( level.getMarkerId( result.get( i ) ) != 2 );
+    }
+  }
+
+  private static MarkerStore createStore( final int count ) {
+    Random random = new Random( count );
+    double[] latitudes = new double[ count ];
+    double[] longitudes = new double[ count ];
+    for( int i = 0; i < count; i++ ) {
+      // mostly in a few dense areas, as usual
+      double latitude = ( i % 4 ) * 10 + random.nextGaussian();
+      double longitude = ( i % 3 ) * 20 + random.nextGaussian();
+      latitudes[ i ] = Math.max( -85, Math.min( 85, latitude ) );
+      longitudes[ i ] = longitude;
+    }
+    MarkerStore result = new MarkerStore();
+    result.add( latitudes, longitudes, null );
+    return result;
+  }
+
+  private static int countClusters( final ClusterIndex.Level level ) {
+    int result = 0;
+    int cluster = level.next( 0 );
+    while( cluster != -1 ) {
+      result++;
+      cluster = level.next( cluster + 1 );
+    }
+    return result;
+  }
+
+  private static int countMarkers( final ClusterIndex.Level level ) {
+    int result = 0;
+    int cluster = level.next( 0 );
+    while( cluster != -1 ) {
+      result += level.getCount( cluster );
+      cluster = level.next( cluster + 1 );
+    }
+    return result;
+  }
+
+  /**
+   * Finds the clusters whose cells intersect the rectangle by testing the
+   * cell of the position of each cluster.
+   */
+  private static Set queryAll( final ClusterIndex.Level level, 
+                               final int zoom, 
+                               final double x1, 
+                               final double y1, 
+                               final double size ) 
+  {
+    int cells = 1 << ( zoom + 8 - ClusterIndex.CELL_SIZE_SHIFT );
+    int minX = ( int )Math.floor( x1 * cells );
+    int maxX = ( int )Math.floor( ( x1 + size ) * cells );
+    int minY = ( int )Math.floor( y1 * cells );
+    int maxY = ( int )Math.floor( ( y1 + size ) * cells );
+    Set result = new HashSet();
+    int cluster = level.next( 0 );
+    while( cluster != -1 ) {
+      int x = ( int )( Mercator.toX( level.getLongitude( cluster ) ) * cells );
+      int y = ( int )( Mercator.toY( level.getLatitude( cluster ) ) * cells );
+      boolean inX = x >= minX && x <= maxX || x + cells <= maxX;
+      if( inX && y >= minY && y <= maxY ) {
+        result.add( new Integer( cluster ) );
+      }
+      cluster = level.next( cluster + 1 );
+    }
+    return result;
+  }
+
+  private static Set toSet( final IntList list ) {
+    Set result = new HashSet();
+    for( int i = 0; i < list.size(); i++ ) {
+      assertTrue( result.add( new Integer( list.get( i ) ) ) );
+    }
+    return result;
+  }
+}
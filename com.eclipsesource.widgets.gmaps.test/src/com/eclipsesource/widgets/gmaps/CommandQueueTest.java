@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import junit.framework.TestCase;
+
+public class CommandQueueTest extends TestCase {
+
+  private CommandQueue queue;
+
+  protected void setUp() throws Exception {
+    // Note: The browser is only used once the queue is ready
+    queue = new CommandQueue( null, new MapMetrics( null ) );
+  }
+
+  public void testDrainKeepsOrder() {
+    queue.add( "a();" );
+    queue.add( "b();" );
+    assertEquals( "a();\nb();\n", queue.drain() );
+    assertEquals( "", queue.drain() );
+  }
+
+  public void testScriptsWithoutKeyAreNotCoalesced() {
+    queue.add( "a();" );
+    queue.add( "a();" );
+    assertEquals( "a();\na();\n", queue.drain() );
+  }
+
+  public void testKeyedScriptReplacesPendingScript() {
+    queue.add( "center", "setCenter( 1 );" );
+    queue.add( "b();" );
+    queue.add( "center", "setCenter( 2 );" );
+    queue.add( "zoom", "setZoom( 3 );" );
+    assertEquals( "setCenter( 2 );\nb();\nsetZoom( 3 );\n", queue.drain() );
+  }
+
+  public void testDrainClearsKeys() {
+    queue.add( "center", "setCenter( 1 );" );
+    queue.drain();
+    queue.add( "b();" );
+    queue.add( "center", "setCenter( 2 );" );
+    assertEquals( "b();\nsetCenter( 2 );\n", queue.drain() );
+  }
+
+  public void testNothingIsSentBeforeReady() {
+    queue.add( "a();" );
+    queue.flush();
+    assertEquals( "a();\n", queue.drain() );
+  }
+
+  public void testCommandIsCreatedOnDrain() {
+    final int[] count = new int[ 1 ];
+    CommandQueue.Command command = new CommandQueue.Command() {
+      public String createScript() {
+        count[ 0 ]++;
+        return "clusters( " + count[ 0 ] + " );";
+      }
+    };
+    queue.add( "clusters", command );
+    queue.add( "clusters", command );
+    assertEquals( 0, count[ 0 ] );
+    assertEquals( "clusters( 1 );\n", queue.drain() );
+  }
+
+  public void testCommandWithoutScriptIsSkipped() {
+    queue.add( "a();" );
+    queue.add( null, new CommandQueue.Command() {
+      public String createScript() {
+        return null;
+      }
+    } );
+    assertEquals( "a();\n", queue.drain() );
+  }
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class CoordinateCodecTest extends TestCase {
+
+  private static final String PREFIX = "decodeCoordinates( \"";
+
+  public void testRoundTrip() {
+    double[] values = new double[] { 
+      52.520008, 13.404954, 
+      -33.868820, 151.209290, 
+      0, 0, 
+      90, -180, 
+      -90, 180, 
+      40.712776, -74.005974
+    };
+    CoordinateCodec codec = new CoordinateCodec();
+    double[] decoded = decode( encode( codec, values ), 6 );
+    assertEquals( values.length, decoded.length );
+    for( int i = 0; i < values.length; i++ ) {
+      assertEquals( values[ i ], decoded[ i ], 0.0000005 );
+    }
+  }
+
+  public void testRoundTripAllPrecisions() {
+    double[] values = new double[] { 48.137154, 11.576124, 48.1, 11.6 };
+    for( int precision = 0; precision <= 7; precision++ ) {
+      CoordinateCodec codec = new CoordinateCodec();
+      codec.setPrecision( precision );
+      double[] decoded = decode( encode( codec, values ), precision );
+      double tolerance = 0.5 / Math.pow( 10, precision ) + 1e-9;
+      assertEquals( values.length, decoded.length );
+      for( int i = 0; i < values.length; i++ ) {
+        assertEquals( values[ i ], decoded[ i ], tolerance );
+      }
+    }
+  }
+
+  public void testRoundTripRandomValues() {
+    Random random = new Random( 42 );
+    double[] values = new double[ 2000 ];
+    for( int i = 0; i < values.length; i += 2 ) {
+      values[ i ] = random.nextDouble() * 180 - 90;
+      values[ i + 1 ] = random.nextDouble() * 360 - 180;
+    }
+    CoordinateCodec codec = new CoordinateCodec();
+    codec.setPrecision( 7 );
+    double[] decoded = decode( encode( codec, values ), 7 );
+    for( int i = 0; i < values.length; i++ ) {
+      assertEquals( values[ i ], decoded[ i ], 0.00000005 );
+    }
+  }
+
+  public void testEncodeRestartsForEachScript() {
+    double[] values = new double[] { 10, 20 };
+    CoordinateCodec codec = new CoordinateCodec();
+    String first = encode( codec, values );
+    String second = encode( codec, values );
+    assertEquals( first, second );
+  }
+
+  public void testDecodeEmpty() {
+    assertEquals( 0, CoordinateCodec.decode( "", 6 ).length );
+  }
+
+  public void testSetIllegalPrecision() {
+    CoordinateCodec codec = new CoordinateCodec();
+    try {
+      codec.setPrecision( 8 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    assertEquals( CoordinateCodec.DEFAULT_PRECISION, codec.getPrecision() );
+  }
+
+  public void testDecodeIllegalPrecision() {
+    assertDecodeFails( "??", -1 );
+    assertDecodeFails( "??", 8 );
+    assertDecodeFails( "??", Integer.MAX_VALUE );
+  }
+
+  public void testDecodeIllegalCharacter() {
+    // below '?' (63) and above '~' (126)
+    assertDecodeFails( " ", 6 );
+    assertDecodeFails( "?\u007f", 6 );
+    assertDecodeFails( "?\u00e4", 6 );
+  }
+
+  public void testDecodeTruncatedValue() {
+    // '_' (0x20 + 63) announces another chunk
+    assertDecodeFails( "?_", 6 );
+  }
+
+  public void testDecodeTooLongValue() {
+    assertDecodeFails( "______________?", 6 );
+  }
+
+  private static String encode( final CoordinateCodec codec, 
+                                final double[] values ) 
+  {
+    JsWriter script = JsWriter.obtain();
+    script.beginCoordinates( codec );
+    for( int i = 0; i < values.length; i += 2 ) {
+      script.coordinates( values[ i ], values[ i + 1 ] );
+    }
+    script.endCoordinates();
+    String result = script.finish();
+    String suffix = "\", " + codec.getPrecision() + " )";
+    assertTrue( result.startsWith( PREFIX ) );
+    assertTrue( result.endsWith( suffix ) );
+    return result.substring( PREFIX.length(), 
+                             result.length() - suffix.length() );
+  }
+
+  private static double[] decode( final String literal, final int precision ) {
+    // the encoded string is written as JavaScript string literal
+    StringBuffer encoded = new StringBuffer();
+    for( int i = 0; i < literal.length(); i++ ) {
+      char ch = literal.charAt( i );
+      if( ch == '\\' ) {
+        ch = literal.charAt( ++i );
+      }
+      encoded.append( ch );
+    }
+    return CoordinateCodec.decode( encoded.toString(), precision );
+  }
+
+  private static void assertDecodeFails( final String encoded, 
+                                         final int precision ) 
+  {
+    try {
+      CoordinateCodec.decode( encoded, precision );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+  }
+}
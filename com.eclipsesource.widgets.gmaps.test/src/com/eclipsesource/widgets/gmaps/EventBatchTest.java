@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import junit.framework.TestCase;
+
+public class EventBatchTest extends TestCase {
+
+  private static final String EVENT = "\u001e";
+  private static final String FIELD = "\u001f";
+
+  public void testEmpty() {
+    assertFalse( new EventBatch( "" ).next() );
+    assertFalse( new EventBatch( null ).next() );
+    assertFalse( new EventBatch( EVENT + EVENT ).next() );
+  }
+
+  public void testSingleEvent() {
+    EventBatch events = new EventBatch( "k" + FIELD + "52.5" + FIELD + "13.4" );
+    assertTrue( events.next() );
+    assertEquals( EventBatch.CLICK, events.getType() );
+    assertEquals( 2, events.getFieldCount() );
+    assertTrue( events.isValid() );
+    assertEquals( 52.5, events.getDouble( 0 ), 0 );
+    assertEquals( 13.4, events.getDouble( 1 ), 0 );
+    assertFalse( events.next() );
+  }
+
+  public void testSeveralEvents() {
+    String batch =   "d" + FIELD + "7" + FIELD + "1.5" + FIELD + "-2.5"
+                   + EVENT
+                   + EVENT
+                   + "a" + FIELD + "Main Street" + FIELD + "3" + FIELD + "4"
+                   + EVENT
+                   + "c" + FIELD + "_p~iF~ps|U" + FIELD + "5";
+    EventBatch events = new EventBatch( batch );
+    assertTrue( events.next() );
+    assertEquals( EventBatch.MARKER_DRAGGED, events.getType() );
+    assertTrue( events.isValid() );
+    assertEquals( 7, events.getInt( 0 ) );
+    assertEquals( -2.5, events.getDouble( 2 ), 0 );
+    assertTrue( events.next() );
+    assertEquals( EventBatch.ADDRESS_RESOLVED, events.getType() );
+    assertTrue( events.isValid() );
+    assertEquals( "Main Street", events.getString( 0 ) );
+    assertTrue( events.next() );
+    assertEquals( EventBatch.CAMERA, events.getType() );
+    assertTrue( events.isValid() );
+    assertEquals( "_p~iF~ps|U", events.getString( 0 ) );
+    assertEquals( 5, events.getInt( 1 ) );
+    assertFalse( events.next() );
+  }
+
+  public void testEmptyFields() {
+    String batch =   "g" + FIELD + "Nowhere" + FIELD + FIELD + "0" + FIELD 
+                   + "0" + FIELD + "0" + FIELD + "0" + FIELD + "0" + FIELD 
+                   + "0";
+    EventBatch events = new EventBatch( batch );
+    assertTrue( events.next() );
+    assertEquals( 8, events.getFieldCount() );
+    assertEquals( "", events.getString( 1 ) );
+    assertTrue( events.isValid() );
+  }
+
+  public void testInvalidEvents() {
+    assertInvalid( "x" + FIELD + "1" + FIELD + "2" );
+    assertInvalid( "k" + FIELD + "1" );
+    assertInvalid( "k" + FIELD + "1" + FIELD + "2" + FIELD + "3" );
+    assertInvalid( "k" + FIELD + "1" + FIELD + "north" );
+    assertInvalid( "k" + FIELD + "NaN" + FIELD + "2" );
+    assertInvalid( "k" + FIELD + "Infinity" + FIELD + "2" );
+    assertInvalid( "d" + FIELD + "" + FIELD + "1" + FIELD + "2" );
+    assertInvalid( "c" + FIELD + "???" + FIELD + "six" );
+  }
+
+  public void testGetMissingField() {
+    EventBatch events = new EventBatch( "k" + FIELD + "1" );
+    events.next();
+    try {
+      events.getDouble( 1 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+  }
+
+  public void testGetMalformedNumber() {
+    EventBatch events = new EventBatch( "k" + FIELD + "x" + FIELD + "1" );
+    events.next();
+    try {
+      events.getDouble( 0 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+  }
+
+  public void testToString() {
+    EventBatch events = new EventBatch( "k" + FIELD + "1" + FIELD + "2" );
+    events.next();
+    assertEquals( "k|1|2", events.toString() );
+  }
+
+  public void testToStringShortensLongEvents() {
+    StringBuffer address = new StringBuffer();
+    for( int i = 0; i < 100; i++ ) {
+      address.append( 'x' );
+    }
+    EventBatch events 
+      = new EventBatch( "a" + FIELD + address + FIELD + "1" + FIELD + "2" );
+    events.next();
+    assertEquals( 64, events.toString().length() );
+  }
+
+  private static void assertInvalid( final String batch ) {
+    EventBatch events = new EventBatch( batch );
+    assertTrue( events.next() );
+    assertFalse( batch, events.isValid() );
+  }
+}
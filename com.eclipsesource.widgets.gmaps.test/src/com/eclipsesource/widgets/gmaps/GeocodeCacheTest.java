@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import junit.framework.TestCase;
+
+public class GeocodeCacheTest extends TestCase {
+
+  private static final long DAY = 24 * 60 * 60 * 1000L;
+
+  public void testNormalize() {
+    assertEquals( "main street 1 berlin", 
+                  GeocodeCache.normalize( "  Main  Street 1,Berlin " ) );
+    assertEquals( "", GeocodeCache.normalize( " , " ) );
+  }
+
+  public void testGetAndPut() {
+    GeocodeCache cache = new GeocodeCache( 10, DAY, 4 );
+    GeocodeResult result = createResult( "Berlin" );
+    assertNull( cache.get( "Berlin" ) );
+    cache.put( "Berlin", result );
+    assertSame( result, cache.get( "berlin" ) );
+    assertSame( result, cache.get( " BERLIN " ) );
+    assertEquals( 1, cache.size() );
+    assertEquals( 2, cache.getHits() );
+    assertEquals( 1, cache.getMisses() );
+  }
+
+  public void testNullResultsAreNotCached() {
+    GeocodeCache cache = new GeocodeCache( 10, DAY, 4 );
+    cache.put( "Nowhere", null );
+    assertEquals( 0, cache.size() );
+  }
+
+  public void testReverseLookupsUsePrecision() {
+    GeocodeCache cache = new GeocodeCache( 10, DAY, 3 );
+    cache.putAddress( new LatLng( 52.52001, 13.40502 ), "Berlin" );
+    LatLng nearby = new LatLng( 52.5204, 13.4046 );
+    assertEquals( "Berlin", cache.getAddress( nearby ) );
+    assertNull( cache.getAddress( new LatLng( 52.521, 13.405 ) ) );
+    assertNull( cache.getAddress( new LatLng( -52.52, 13.405 ) ) );
+  }
+
+  public void testChangingPrecisionClearsReverseLookups() {
+    GeocodeCache cache = new GeocodeCache( 10, DAY, 3 );
+    cache.put( "Berlin", createResult( "Berlin" ) );
+    cache.putAddress( new LatLng( 52.52, 13.405 ), "Berlin" );
+    cache.setPrecision( 4 );
+    assertEquals( 1, cache.size() );
+    assertNull( cache.getAddress( new LatLng( 52.52, 13.405 ) ) );
+  }
+
+  public void testIllegalArguments() {
+    try {
+      new GeocodeCache( 10, DAY, 8 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    try {
+      new GeocodeCache( -1, DAY, 4 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    try {
+      new GeocodeCache( 10, -1, 4 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+  }
+
+  public void testEvictsLeastRecentlyUsed() {
+    GeocodeCache cache = new GeocodeCache( 2, DAY, 4 );
+    cache.put( "a", createResult( "a" ) );
+    cache.put( "b", createResult( "b" ) );
+    cache.get( "a" );
+    cache.put( "c", createResult( "c" ) );
+    assertEquals( 2, cache.size() );
+    assertNotNull( cache.get( "a" ) );
+    assertNull( cache.get( "b" ) );
+    assertNotNull( cache.get( "c" ) );
+    assertEquals( 1, cache.getEvictions() );
+  }
+
+  public void testZeroSizeCachesNothing() {
+    GeocodeCache cache = new GeocodeCache( 0, DAY, 4 );
+    cache.put( "a", createResult( "a" ) );
+    assertEquals( 0, cache.size() );
+  }
+
+  public void testExpiredEntries() throws InterruptedException {
+    GeocodeCache cache = new GeocodeCache( 10, 1, 4 );
+    cache.put( "a", createResult( "a" ) );
+    Thread.sleep( 20 );
+    assertNull( cache.get( "a" ) );
+    assertEquals( 0, cache.size() );
+    assertEquals( 1, cache.getEvictions() );
+  }
+
+  public void testHitRate() {
+    GeocodeCache cache = new GeocodeCache( 10, DAY, 4 );
+    assertEquals( 0, cache.getHitRate(), 0 );
+    cache.put( "a", createResult( "a" ) );
+    cache.get( "a" );
+    cache.get( "b" );
+    assertEquals( 0.5, cache.getHitRate(), 0 );
+  }
+
+  private static GeocodeResult createResult( final String address ) {
+    return new GeocodeResult( address, new LatLng( 1, 2 ), null );
+  }
+}
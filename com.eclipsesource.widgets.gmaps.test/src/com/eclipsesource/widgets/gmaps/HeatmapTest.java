@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+
+public class HeatmapTest extends TestCase {
+
+  private Heatmap heatmap;
+
+  protected void setUp() throws Exception {
+    heatmap = new Heatmap();
+  }
+
+  protected void tearDown() throws Exception {
+    heatmap.dispose();
+  }
+
+  public void testAdd() {
+    long version = heatmap.getVersion();
+    assertEquals( 0, heatmap.add( 1, 2 ) );
+    int first = heatmap.add( new double[] { 3, 5 }, new double[] { 4, 6 } );
+    assertEquals( 1, first );
+    assertEquals( 3, heatmap.size() );
+    assertEquals( version + 2, heatmap.getVersion() );
+  }
+
+  public void testRemove() {
+    int id = heatmap.add( 1, 2 );
+    heatmap.add( 3, 4 );
+    long version = heatmap.getVersion();
+    heatmap.remove( id );
+    assertEquals( 1, heatmap.size() );
+    assertEquals( version + 1, heatmap.getVersion() );
+    try {
+      heatmap.remove( id );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+  }
+
+  public void testIllegalArguments() {
+    try {
+      heatmap.add( Double.NaN, 1 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    try {
+      heatmap.add( new double[] { 1 }, new double[ 0 ] );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    try {
+      heatmap.setMaximum( 0 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    assertEquals( 0, heatmap.size() );
+    assertNull( heatmap.getTile( 1, 2, 0 ) );
+  }
+
+  public void testEmptyTile() throws IOException {
+    BufferedImage image = decode( heatmap.getTile( 0, 0, 0 ) );
+    assertEquals( Mercator.TILE_SIZE, image.getWidth() );
+    assertEquals( 0, getAlpha( image, 128, 128 ) );
+  }
+
+  public void testTileShowsPoints() throws IOException {
+    for( int i = 0; i < 50; i++ ) {
+      heatmap.add( 52.52, 13.405 );
+    }
+    BufferedImage image = decode( heatmap.getTile( 0, 0, 0 ) );
+    int x = ( int )( Mercator.toX( 13.405 ) * Mercator.TILE_SIZE );
+    int y = ( int )( Mercator.toY( 52.52 ) * Mercator.TILE_SIZE );
+    assertTrue( getAlpha( image, x, y ) > 0 );
+    assertEquals( 0, getAlpha( image, x + 40, y ) );
+    assertEquals( 0, getAlpha( image, x, y + 40 ) );
+  }
+
+  public void testTilesAreCached() {
+    heatmap.add( 52.52, 13.405 );
+    byte[] tile = heatmap.getTile( 0, 0, 0 );
+    assertSame( tile, heatmap.getTile( 0, 0, 0 ) );
+  }
+
+  public void testAddInvalidatesTilesAroundPoint() {
+    heatmap.add( 52.52, 13.405 );
+    heatmap.add( -33.87, 151.21 );
+    byte[] berlin = getTile( 3, 52.52, 13.405 );
+    byte[] sydney = getTile( 3, -33.87, 151.21 );
+    heatmap.add( 52.53, 13.406 );
+    assertNotSame( berlin, getTile( 3, 52.52, 13.405 ) );
+    assertSame( sydney, getTile( 3, -33.87, 151.21 ) );
+  }
+
+  public void testSetMaximum() {
+    heatmap.add( 52.52, 13.405 );
+    byte[] tile = heatmap.getTile( 0, 0, 0 );
+    long version = heatmap.getVersion();
+    heatmap.setMaximum( 5 );
+    assertEquals( 5, heatmap.getMaximum(), 0 );
+    assertEquals( version + 1, heatmap.getVersion() );
+    assertNotSame( tile, heatmap.getTile( 0, 0, 0 ) );
+  }
+
+  public void testChangeListener() {
+    final int[] changes = new int[ 1 ];
+    Runnable listener = new Runnable() {
+      public void run() {
+        changes[ 0 ]++;
+      }
+    };
+    heatmap.addChangeListener( listener );
+    int id = heatmap.add( 1, 2 );
+    heatmap.remove( id );
+    heatmap.setMaximum( 10 );
+    assertEquals( 3, changes[ 0 ] );
+    heatmap.removeChangeListener( listener );
+    heatmap.add( 1, 2 );
+    assertEquals( 3, changes[ 0 ] );
+  }
+
+  public void testDispose() {
+    assertSame( heatmap, TileSources.get( heatmap.getId() ) );
+    heatmap.dispose();
+    assertNull( TileSources.get( heatmap.getId() ) );
+  }
+
+  public void testIdsAreRandom() {
+    Heatmap other = new Heatmap();
+    String id = heatmap.getId();
+    assertEquals( 32, id.length() );
+    for( int i = 0; i < id.length(); i++ ) {
+      assertTrue( Character.digit( id.charAt( i ), 16 ) != -1 );
+    }
+    assertFalse( id.equals( other.getId() ) );
+    other.dispose();
+  }
+
+  public void testUnusedHeatmapIsUnregistered() throws InterruptedException {
+    String id = new Heatmap().getId();
+    for( int i = 0; i < 100 && TileSources.get( id ) != null; i++ ) {
+      System.gc();
+      Thread.sleep( 10 );
+    }
+    assertNull( TileSources.get( id ) );
+  }
+
+  private byte[] getTile( final int zoom, 
+                          final double latitude, 
+                          final double longitude ) 
+  {
+    int x = ( int )( Mercator.toX( longitude ) * ( 1 << zoom ) );
+    int y = ( int )( Mercator.toY( latitude ) * ( 1 << zoom ) );
+    return heatmap.getTile( zoom, x, y );
+  }
+
+  private static BufferedImage decode( final byte[] png ) throws IOException {
+    return ImageIO.read( new ByteArrayInputStream( png ) );
+  }
+
+  private static int getAlpha( final BufferedImage image, 
+                               final int x, 
+                               final int y ) 
+  {
+    return image.getRGB( x, y ) >>> 24;
+  }
+}
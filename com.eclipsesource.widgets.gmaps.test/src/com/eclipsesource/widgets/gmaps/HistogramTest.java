@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import junit.framework.TestCase;
+
+public class HistogramTest extends TestCase {
+
+  public void testEmpty() {
+    Histogram histogram = new Histogram();
+    assertEquals( 0, histogram.getCount() );
+    assertEquals( 0, histogram.getMean(), 0 );
+    assertEquals( 0, histogram.getMax() );
+    assertEquals( 0, histogram.getPercentile( 50 ) );
+  }
+
+  public void testRecord() {
+    Histogram histogram = new Histogram();
+    histogram.record( 10 );
+    histogram.record( 20 );
+    histogram.record( 30 );
+    assertEquals( 3, histogram.getCount() );
+    assertEquals( 20, histogram.getMean(), 0 );
+    assertEquals( 30, histogram.getMax() );
+  }
+
+  public void testNegativeValuesCountAsZero() {
+    Histogram histogram = new Histogram();
+    histogram.record( -5 );
+    assertEquals( 1, histogram.getCount() );
+    assertEquals( 0, histogram.getMax() );
+    assertEquals( 0, histogram.getPercentile( 100 ) );
+  }
+
+  public void testPercentileIsUpperLimit() {
+    Histogram histogram = new Histogram();
+    for( int i = 1; i <= 100; i++ ) {
+      histogram.record( i );
+    }
+    long median = histogram.getPercentile( 50 );
+    // buckets are powers of two
+    assertTrue( median >= 50 );
+    assertTrue( median < 100 );
+    assertEquals( 63, median );
+    assertEquals( 100, histogram.getPercentile( 100 ) );
+    assertEquals( 1, histogram.getPercentile( 1 ) );
+  }
+
+  public void testPercentileIsAtMostMax() {
+    Histogram histogram = new Histogram();
+    histogram.record( 3 );
+    histogram.record( 5000 );
+    assertEquals( 3, histogram.getPercentile( 50 ) );
+    assertEquals( 5000, histogram.getPercentile( 99 ) );
+  }
+
+  public void testIllegalPercentile() {
+    Histogram histogram = new Histogram();
+    try {
+      histogram.getPercentile( 101 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+  }
+
+  public void testReset() {
+    Histogram histogram = new Histogram();
+    histogram.record( 10 );
+    histogram.reset();
+    assertEquals( 0, histogram.getCount() );
+    assertEquals( 0, histogram.getMax() );
+    assertEquals( 0, histogram.getPercentile( 99 ) );
+  }
+}
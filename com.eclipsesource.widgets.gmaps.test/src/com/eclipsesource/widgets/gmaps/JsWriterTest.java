@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import junit.framework.TestCase;
+
+public class JsWriterTest extends TestCase {
+
+  public void testCall() {
+    JsWriter writer = JsWriter.obtain();
+    writer.call( "setZoom" ).value( 12 ).value( true ).end();
+    assertEquals( "setZoom( 12, true );", writer.finish() );
+  }
+
+  public void testNestedCallsAndArrays() {
+    JsWriter writer = JsWriter.obtain();
+    writer.call( "a" );
+    writer.beginArray().value( 1 ).value( 2 ).endArray();
+    writer.call( "b" ).end();
+    writer.beginArray().endArray();
+    writer.end();
+    assertEquals( "a( [1,2], b(  ), [] );", writer.finish() );
+  }
+
+  public void testStatements() {
+    JsWriter writer = JsWriter.obtain();
+    writer.call( "a" ).end();
+    writer.call( "b" ).end();
+    writer.statement( "c();" );
+    assertEquals( "a(  );b(  );c();\n", writer.finish() );
+  }
+
+  public void testValues() {
+    JsWriter writer = JsWriter.obtain();
+    writer.beginArray();
+    writer.value( 0 ).value( -7 ).value( Long.MAX_VALUE );
+    writer.value( Long.MIN_VALUE ).value( false ).expression( "x.y" );
+    writer.endArray();
+    String expected 
+      = "[0,-7,9223372036854775807,-9223372036854775808,false,x.y]";
+    assertEquals( expected, writer.finish() );
+  }
+
+  public void testString() {
+    assertEquals( "\"Main Street 1\"", string( "Main Street 1" ) );
+    assertEquals( "\"\"", string( "" ) );
+    assertEquals( "null", string( null ) );
+  }
+
+  public void testStringEscapesQuotesAndBackslashes() {
+    assertEquals( "\"a\\\"b\\\\c'd\"", string( "a\"b\\c'd" ) );
+  }
+
+  public void testStringEscapesScriptEnd() {
+    assertEquals( "\"\\u003c/script>\"", string( "</script>" ) );
+  }
+
+  public void testStringEscapesLineTerminators() {
+    assertEquals( "\"a\\nb\\rc\"", string( "a\nb\rc" ) );
+    assertEquals( "\"\\u2028\\u2029\"", string( "\u2028\u2029" ) );
+  }
+
+  public void testStringEscapesControlCharacters() {
+    assertEquals( "\"\\t\\u0000\\u001f\"", string( "\t\u0000\u001f" ) );
+  }
+
+  public void testCoordinate() {
+    assertEquals( "52.520008", coordinate( 52.520008 ) );
+    assertEquals( "-0.500000", coordinate( -0.5 ) );
+    assertEquals( "0.000000", coordinate( 0 ) );
+    assertEquals( "-180.000000", coordinate( -180 ) );
+    assertEquals( "0.000001", coordinate( 0.0000012 ) );
+  }
+
+  public void testLargeCoordinate() {
+    assertEquals( "100000000000.000000", coordinate( 1e11 ) );
+    assertEquals( "-100000000000.000000", coordinate( -1e11 ) );
+    assertEquals( "1.0E13", coordinate( 1e13 ) );
+    assertEquals( "-1.0E20", coordinate( -1e20 ) );
+    assertEquals( "NaN", coordinate( Double.NaN ) );
+  }
+
+  public void testLatLngAndBounds() {
+    JsWriter writer = JsWriter.obtain();
+    writer.call( "f" );
+    writer.latLng( new LatLng( 1, 2 ) );
+    writer.bounds( new LatLngBounds( new LatLng( -1, -2 ), 
+                                     new LatLng( 3, 4 ) ) );
+    writer.end();
+    assertEquals(   "f( [1.000000,2.000000], "
+                  + "[-1.000000,-2.000000,3.000000,4.000000] );", 
+                  writer.finish() );
+  }
+
+  public void testInts() {
+    IntList values = new IntList();
+    values.add( 3 );
+    values.add( -1 );
+    JsWriter writer = JsWriter.obtain();
+    writer.ints( values ).ints( new IntList() );
+    assertEquals( "[3,-1][]", writer.finish() );
+  }
+
+  public void testGrowsBeyondInitialCapacity() {
+    StringBuffer expected = new StringBuffer();
+    JsWriter writer = JsWriter.obtain();
+    for( int i = 0; i < 1000; i++ ) {
+      writer.statement( "f" + i + "();" );
+      expected.append( "f" + i + "();\n" );
+    }
+    assertEquals( expected.toString(), writer.finish() );
+  }
+
+  public void testWriterIsReusedAfterFinish() {
+    JsWriter writer = JsWriter.obtain();
+    writer.call( "a" );
+    writer.beginArray().value( 1 );
+    writer.finish();
+    JsWriter reused = JsWriter.obtain();
+    assertSame( writer, reused );
+    assertEquals( 0, reused.length() );
+    reused.value( 2 ).value( 3 );
+    assertEquals( "2, 3", reused.finish() );
+  }
+
+  public void testWriterIsReusedAfterRecycle() {
+    JsWriter writer = JsWriter.obtain();
+    writer.string( "unused" );
+    writer.recycle();
+    JsWriter reused = JsWriter.obtain();
+    assertSame( writer, reused );
+    assertEquals( "", reused.finish() );
+  }
+
+  private static String string( final String value ) {
+    return JsWriter.obtain().string( value ).finish();
+  }
+
+  private static String coordinate( final double value ) {
+    return JsWriter.obtain().coordinate( value ).finish();
+  }
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import junit.framework.TestCase;
+
+public class MarkerLayerTest extends TestCase {
+
+  private static final LatLngBounds WORLD 
+    = new LatLngBounds( new LatLng( -85, -180 ), new LatLng( 85, 180 ) );
+
+  private CommandQueue commands;
+  private MarkerLayer layer;
+
+  protected void setUp() throws Exception {
+    commands = new CommandQueue( null, new MapMetrics( null ) );
+    layer = new MarkerLayer( commands, new CoordinateCodec(), 0 );
+    layer.setBounds( WORLD );
+  }
+
+  public void testClusters() {
+    layer.setClustering( true );
+    addMarkers( 3 );
+    layer.remove( new int[] { 1 } );
+    assertClusterCounts( "[2]" );
+  }
+
+  public void testMoveUnknownMarker() {
+    layer.setClustering( true );
+    addMarkers( 3 );
+    layer.remove( new int[] { 1 } );
+    drain();
+    try {
+      layer.move( 1, -40, -120 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    try {
+      layer.move( 3, -40, -120 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    layer.move( 0, 50, 10 );
+    assertClusterCounts( "[2]" );
+  }
+
+  public void testRemoveUnknownMarker() {
+    layer.setClustering( true );
+    addMarkers( 3 );
+    layer.remove( new int[] { 1 } );
+    drain();
+    try {
+      layer.remove( new int[] { 1 } );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    try {
+      layer.remove( new int[] { 3 } );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    layer.move( 0, 50, 10 );
+    assertClusterCounts( "[2]" );
+    assertFalse( layer.contains( 1 ) );
+  }
+
+  public void testMoveWithoutClustering() {
+    addMarkers( 2 );
+    assertTrue( drain().startsWith( "addMarkers( [0,1]" ) );
+    layer.move( 1, 51, 11 );
+    assertTrue( drain().startsWith( "moveMarker( 1, [51.000000,11.000000]" ) );
+    try {
+      layer.move( 2, 0, 0 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    assertEquals( "", drain() );
+  }
+
+  private void addMarkers( final int count ) {
+    double[] latitudes = new double[ count ];
+    double[] longitudes = new double[ count ];
+    for( int i = 0; i < count; i++ ) {
+      latitudes[ i ] = 50;
+      longitudes[ i ] = 10;
+    }
+    layer.add( latitudes, longitudes, null );
+  }
+
+  private void assertClusterCounts( final String expected ) {
+    String script = drain();
+    int start = script.indexOf( "setClusters( " );
+    assertTrue( script, start != -1 );
+    int counts = script.indexOf( ", " + expected + ", [", start );
+    assertTrue( script, counts != -1 );
+  }
+
+  private String drain() {
+    return commands.drain();
+  }
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import junit.framework.TestCase;
+
+public class OverlaysTest extends TestCase {
+
+  private static final String NO_COORDINATES = "decodeCoordinates( \"\", 6 )";
+
+  private CommandQueue commands;
+  private Overlays overlays;
+
+  protected void setUp() throws Exception {
+    commands = new CommandQueue( null, new MapMetrics( null ) );
+    overlays = new Overlays( commands, new CoordinateCodec() );
+  }
+
+  public void testAdd() {
+    int first = overlays.add( 1, 2, "a", Overlays.DEFAULT_COLOR );
+    int second = overlays.add( 3, 4, null, 0xFF0000 );
+    assertEquals( 0, first );
+    assertEquals( 1, second );
+    assertEquals( 2, overlays.size() );
+    assertEquals( 3, overlays.getLatitude( second ), 0 );
+    assertEquals(   "updateOverlays( [], [0,1], "
+                  + "decodeCoordinates( \"_c`|@_gayB_gayB_gayB\", 6 ), "
+                  + "[\"a\",-1,null,16711680], "
+                  + "[], " + NO_COORDINATES + ", "
+                  + "[], [] );", 
+                  drain() );
+  }
+
+  public void testChangesAreSentOnce() {
+    int id = overlays.add( 0, 0, "a", 0 );
+    drain();
+    overlays.move( id, 0, 0.000001 );
+    overlays.move( id, 0, 0.000002 );
+    overlays.setLabel( id, "b" );
+    overlays.setLabel( id, "c\"" );
+    assertEquals(   "updateOverlays( [], [], " + NO_COORDINATES + ", [], "
+                  + "[0], decodeCoordinates( \"?C\", 6 ), "
+                  + "[0], [\"c\\\"\",0] );", 
+                  drain() );
+  }
+
+  public void testChangedBackIsNotSent() {
+    int id = overlays.add( 1, 2, "a", 0xFF );
+    drain();
+    overlays.move( id, 5, 6 );
+    overlays.move( id, 1, 2 );
+    overlays.setColor( id, 0xFF00 );
+    overlays.setColor( id, 0xFF );
+    assertEquals( "", drain() );
+  }
+
+  public void testAddedAndRemovedIsNotSent() {
+    int id = overlays.add( 1, 2, "a", 0 );
+    overlays.remove( id );
+    assertFalse( overlays.contains( id ) );
+    assertEquals( 0, overlays.size() );
+    assertEquals( "", drain() );
+  }
+
+  public void testRemove() {
+    overlays.add( 1, 2, "a", 0 );
+    int id = overlays.add( 1, 2, "b", 0 );
+    drain();
+    overlays.move( id, 3, 4 );
+    overlays.remove( id );
+    assertEquals(   "updateOverlays( [1], [], " + NO_COORDINATES + ", [], "
+                  + "[], " + NO_COORDINATES + ", [], [] );", 
+                  drain() );
+  }
+
+  public void testClear() {
+    overlays.add( 1, 2, "a", 0 );
+    overlays.add( 1, 2, "b", 0 );
+    drain();
+    overlays.clear();
+    assertEquals( 0, overlays.size() );
+    assertEquals(   "updateOverlays( [0,1], [], " + NO_COORDINATES + ", [], "
+                  + "[], " + NO_COORDINATES + ", [], [] );", 
+                  drain() );
+  }
+
+  public void testIdsAreNotReused() {
+    int id = overlays.add( 1, 2, "a", 0 );
+    overlays.remove( id );
+    assertEquals( id + 1, overlays.add( 1, 2, "a", 0 ) );
+  }
+
+  public void testUnknownId() {
+    try {
+      overlays.move( 0, 1, 2 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    int id = overlays.add( 1, 2, "a", 0 );
+    overlays.remove( id );
+    try {
+      overlays.setLabel( id, "b" );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+  }
+
+  public void testIllegalArguments() {
+    try {
+      overlays.add( Double.NaN, 2, "a", 0 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    try {
+      overlays.add( 1, 2, "a", 0x1000000 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    assertEquals( 0, overlays.size() );
+    assertEquals( "", drain() );
+  }
+
+  public void testManyOverlays() {
+    for( int i = 0; i < 1000; i++ ) {
+      overlays.add( i % 90, i % 180, null, Overlays.DEFAULT_COLOR );
+    }
+    drain();
+    overlays.remove( 999 );
+    assertEquals( 999, overlays.size() );
+    assertTrue( drain().startsWith( "updateOverlays( [999], [], " ) );
+  }
+
+  private String drain() {
+    // scripts are written as statements, one per line
+    return commands.drain().trim();
+  }
+}
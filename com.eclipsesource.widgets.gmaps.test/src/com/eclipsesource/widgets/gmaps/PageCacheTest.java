@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import junit.framework.TestCase;
+
+public class PageCacheTest extends TestCase {
+
+  private static final String PAGE = Activator.MAP_PAGE;
+
+  protected void setUp() throws Exception {
+    PageCache.clear();
+  }
+
+  protected void tearDown() throws Exception {
+    PageCache.clear();
+  }
+
+  public void testGetInlinesScripts() {
+    String page = PageCache.get( PAGE );
+    assertTrue( page.indexOf( "<script type=\"text/javascript\">" ) != -1 );
+    assertEquals( -1, page.indexOf( "src=\"./GMap.js\"" ) );
+  }
+
+  public void testGetReadsPageOnce() {
+    long hits = PageCache.getHits();
+    long misses = PageCache.getMisses();
+    String page = PageCache.get( PAGE );
+    assertSame( page, PageCache.get( PAGE ) );
+    assertEquals( hits + 1, PageCache.getHits() );
+    assertEquals( misses + 1, PageCache.getMisses() );
+  }
+
+  public void testPreload() {
+    long hits = PageCache.getHits();
+    long misses = PageCache.getMisses();
+    PageCache.preload( PAGE );
+    PageCache.preload( PAGE );
+    PageCache.get( PAGE );
+    assertEquals( hits + 1, PageCache.getHits() );
+    assertEquals( misses + 1, PageCache.getMisses() );
+  }
+
+  public void testClear() {
+    long misses = PageCache.getMisses();
+    String page = PageCache.get( PAGE );
+    PageCache.clear();
+    assertEquals( page, PageCache.get( PAGE ) );
+    assertEquals( misses + 2, PageCache.getMisses() );
+  }
+
+  public void testGetHash() {
+    String hash = PageCache.getHash( PAGE );
+    assertEquals( 32, hash.length() );
+    PageCache.clear();
+    assertEquals( hash, PageCache.getHash( PAGE ) );
+  }
+
+  public void testMissingPageIsNotCached() {
+    long misses = PageCache.getMisses();
+    String page = PageCache.get( "Missing.html" );
+    assertTrue( page.indexOf( "File not found!" ) != -1 );
+    assertFalse( PageCache.contains( "Missing.html" ) );
+    PageCache.get( "Missing.html" );
+    assertEquals( misses + 2, PageCache.getMisses() );
+  }
+}
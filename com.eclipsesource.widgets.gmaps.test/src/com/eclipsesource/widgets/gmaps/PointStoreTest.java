@@ -0,0 +1,262 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+public class PointStoreTest extends TestCase {
+
+  private File file;
+
+  protected void setUp() throws Exception {
+    file = File.createTempFile( "points", ".gmps" );
+    file.delete();
+  }
+
+  protected void tearDown() throws Exception {
+    file.delete();
+  }
+
+  public void testAdd() {
+    PointStore store = new PointStore( 0 );
+    assertEquals( 0, store.add( 52.5, 13.4 ) );
+    assertEquals( 1, store.add( -33.9, 151.2 ) );
+    assertEquals( 2, store.size() );
+    assertEquals( 52.5, store.getLatitude( 0 ), 0 );
+    assertEquals( 151.2, store.getLongitude( 1 ), 0 );
+  }
+
+  public void testGrow() {
+    checkGrow( new PointStore( 1 ) );
+    checkGrow( new PointStore( 1, true ) );
+  }
+
+  public void testAddArrays() {
+    PointStore store = new PointStore( 0 );
+    store.add( 1, 2 );
+    int first = store.add( new double[] { 3, 5, 7 }, new double[] { 4, 6, 8 } );
+    assertEquals( 1, first );
+    assertEquals( 4, store.size() );
+    double[] latitudes = new double[ 4 ];
+    double[] longitudes = new double[ 4 ];
+    store.getLatitudes( 1, latitudes, 1, 3 );
+    store.getLongitudes( 0, longitudes, 0, 4 );
+    assertEquals( 0, latitudes[ 0 ], 0 );
+    assertEquals( 3, latitudes[ 1 ], 0 );
+    assertEquals( 7, latitudes[ 3 ], 0 );
+    assertEquals( 2, longitudes[ 0 ], 0 );
+    assertEquals( 8, longitudes[ 3 ], 0 );
+  }
+
+  public void testSet() {
+    PointStore store = new PointStore( 0 );
+    store.add( 1, 2 );
+    store.set( 0, 3, 4 );
+    assertEquals( 3, store.getLatitude( 0 ), 0 );
+    assertEquals( 4, store.getLongitude( 0 ), 0 );
+  }
+
+  public void testAttributes() {
+    PointStore store = new PointStore( 2 );
+    assertEquals( 2, store.getAttributeCount() );
+    int id = store.add( 1, 2 );
+    assertEquals( 0, store.getAttribute( id, 1 ), 0 );
+    store.setAttribute( id, 1, 42 );
+    assertEquals( 42, store.getAttribute( id, 1 ), 0 );
+    assertEquals( 0, store.getAttribute( id, 0 ), 0 );
+    try {
+      store.getAttribute( id, 2 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+  }
+
+  public void testQuery() {
+    PointStore store = new PointStore( 0 );
+    for( int i = 0; i < 100; i++ ) {
+      store.add( i - 50, i - 50 );
+    }
+    LatLngBounds bounds 
+      = new LatLngBounds( new LatLng( -10, -10 ), new LatLng( 10, 10 ) );
+    int[] result = new int[ 30 ];
+    assertEquals( 21, store.query( bounds, result ) );
+    assertEquals( 40, result[ 0 ] );
+    assertEquals( 60, result[ 20 ] );
+    int[] small = new int[ 5 ];
+    assertEquals( 21, store.query( bounds, small ) );
+    assertEquals( 44, small[ 4 ] );
+  }
+
+  public void testCursor() {
+    PointStore store = new PointStore( 1 );
+    store.add( new double[] { 1, 3, 5 }, new double[] { 2, 4, 6 } );
+    store.setAttribute( 2, 0, 7 );
+    PointStore.Cursor cursor = store.cursor();
+    for( int round = 0; round < 2; round++ ) {
+      for( int i = 0; i < 3; i++ ) {
+        assertTrue( cursor.next() );
+        assertEquals( i, cursor.getId() );
+        assertEquals( i * 2 + 1, cursor.getLatitude(), 0 );
+        assertEquals( i * 2 + 2, cursor.getLongitude(), 0 );
+      }
+      assertEquals( 7, cursor.getAttribute( 0 ), 0 );
+      assertFalse( cursor.next() );
+      cursor.reset();
+    }
+  }
+
+  public void testCursorOnEmptyStore() {
+    PointStore.Cursor cursor = new PointStore( 0 ).cursor();
+    assertFalse( cursor.next() );
+    try {
+      cursor.getLatitude();
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+  }
+
+  public void testClear() {
+    PointStore store = new PointStore( 0 );
+    store.add( 1, 2 );
+    store.clear();
+    assertEquals( 0, store.size() );
+    assertEquals( 0, store.add( 3, 4 ) );
+  }
+
+  public void testIllegalArguments() {
+    PointStore store = new PointStore( 0 );
+    store.add( 1, 2 );
+    try {
+      store.add( Double.NaN, 2 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    try {
+      store.add( new double[] { 1, 2 }, new double[] { 1 } );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    try {
+      store.getLatitude( 1 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    try {
+      store.getLatitudes( 0, new double[ 2 ], 0, 2 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    try {
+      new PointStore( -1 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    assertEquals( 1, store.size() );
+  }
+
+  public void testMappedStoreIsKept() throws IOException {
+    PointStore store = PointStore.map( file, 100, 1 );
+    store.add( new double[] { 1, 3 }, new double[] { 2, 4 } );
+    store.setAttribute( 1, 0, 5 );
+    store.flush();
+    PointStore reopened = PointStore.map( file, 100, 1 );
+    assertEquals( 2, reopened.size() );
+    assertEquals( 3, reopened.getLatitude( 1 ), 0 );
+    assertEquals( 4, reopened.getLongitude( 1 ), 0 );
+    assertEquals( 5, reopened.getAttribute( 1, 0 ), 0 );
+  }
+
+  public void testMappedStoreIsFull() throws IOException {
+    PointStore store = PointStore.map( file, 2, 0 );
+    store.add( 1, 2 );
+    store.add( 3, 4 );
+    try {
+      store.add( 5, 6 );
+      fail();
+    } catch( IllegalStateException expected ) {
+    }
+    assertEquals( 2, store.size() );
+  }
+
+  public void testMappedStoreGrows() throws IOException {
+    PointStore store = PointStore.map( file, 2, 1 );
+    store.add( new double[] { 1, 3 }, new double[] { 2, 4 } );
+    store.setAttribute( 1, 0, 5 );
+    store.flush();
+    PointStore grown = PointStore.map( file, 1000, 1 );
+    assertEquals( 20 + 1000 * 3 * 8, file.length() );
+    assertEquals( 2, grown.size() );
+    assertEquals( 3, grown.getLatitude( 1 ), 0 );
+    assertEquals( 4, grown.getLongitude( 1 ), 0 );
+    assertEquals( 5, grown.getAttribute( 1, 0 ), 0 );
+    grown.add( new double[ 998 ], new double[ 998 ] );
+    assertEquals( 1000, grown.size() );
+  }
+
+  public void testMapKeepsLargerCapacity() throws IOException {
+    PointStore.map( file, 10, 0 ).flush();
+    PointStore store = PointStore.map( file, 2, 0 );
+    store.add( new double[ 10 ], new double[ 10 ] );
+    assertEquals( 10, store.size() );
+  }
+
+  public void testMapCorruptFile() throws IOException {
+    PointStore.map( file, 10, 0 ).flush();
+    RandomAccessFile randomAccessFile = new RandomAccessFile( file, "rw" );
+    try {
+      // size larger than the capacity
+      randomAccessFile.seek( 16 );
+      randomAccessFile.writeInt( 11 );
+      assertMapFails();
+      randomAccessFile.seek( 16 );
+      randomAccessFile.writeInt( 10 );
+      randomAccessFile.setLength( 100 );
+      assertMapFails();
+      randomAccessFile.setLength( 3 );
+      assertMapFails();
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  public void testMapIncompatibleFile() throws IOException {
+    PointStore.map( file, 10, 1 );
+    try {
+      PointStore.map( file, 10, 2 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+  }
+
+  private void assertMapFails() throws IOException {
+    try {
+      PointStore.map( file, 10, 0 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+  }
+
+  private static void checkGrow( final PointStore store ) {
+    for( int i = 0; i < 1000; i++ ) {
+      store.add( i * 0.01, i * 0.02 );
+      store.setAttribute( i, 0, i );
+    }
+    assertEquals( 1000, store.size() );
+    for( int i = 0; i < 1000; i++ ) {
+      assertEquals( i * 0.01, store.getLatitude( i ), 0 );
+      assertEquals( i * 0.02, store.getLongitude( i ), 0 );
+      assertEquals( i, store.getAttribute( i, 0 ), 0 );
+    }
+  }
+}
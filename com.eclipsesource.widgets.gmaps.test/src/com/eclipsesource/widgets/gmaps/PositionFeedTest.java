@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class PositionFeedTest extends TestCase {
+
+  public void testCoalescesPositionsOfSameId() {
+    PositionFeed feed = new PositionFeed( 4, 64 );
+    assertTrue( feed.publish( 1, 10, 20 ) );
+    assertTrue( feed.publish( 1, 11, 21 ) );
+    assertTrue( feed.publish( 2, 30, 40 ) );
+    assertTrue( feed.publish( 1, 12, 22 ) );
+    assertEquals( 2, feed.getPendingCount() );
+    assertEquals( 4, feed.getPublishedCount() );
+    assertEquals( 2, feed.getCoalescedCount() );
+    Recorder recorder = new Recorder();
+    feed.drain( recorder );
+    assertEquals( 2, recorder.positions.size() );
+    assertPosition( recorder, 1, 12, 22 );
+    assertPosition( recorder, 2, 30, 40 );
+    assertEquals( 0, feed.getPendingCount() );
+    assertEquals( 2, feed.getDeliveredCount() );
+    assertEquals( 1, feed.getFrameCount() );
+  }
+
+  public void testDrainEmptyFeed() {
+    PositionFeed feed = new PositionFeed( 4, 64 );
+    Recorder recorder = new Recorder();
+    feed.drain( recorder );
+    assertEquals( 0, recorder.positions.size() );
+    assertEquals( 0, feed.getFrameCount() );
+  }
+
+  public void testDropsNewIdsWhenFull() {
+    PositionFeed feed = new PositionFeed( 1, 2 );
+    assertTrue( feed.publish( 1, 0, 0 ) );
+    assertTrue( feed.publish( 2, 0, 0 ) );
+    assertFalse( feed.publish( 3, 0, 0 ) );
+    // pending ids can still be updated
+    assertTrue( feed.publish( 2, 5, 5 ) );
+    assertEquals( 1, feed.getDroppedCount() );
+    feed.drain( new Recorder() );
+    assertTrue( feed.publish( 3, 0, 0 ) );
+  }
+
+  public void testDiscardedPositions() {
+    PositionFeed feed = new PositionFeed( 4, 64 );
+    feed.publish( 1, 0, 0 );
+    feed.publish( 2, 0, 0 );
+    Recorder recorder = new Recorder();
+    recorder.known = 1;
+    feed.drain( recorder );
+    assertEquals( 1, feed.getDeliveredCount() );
+    assertEquals( 1, feed.getDiscardedCount() );
+  }
+
+  public void testListenerIsCalledOncePerDrain() {
+    PositionFeed feed = new PositionFeed( 4, 64 );
+    Counter counter = new Counter();
+    feed.setListener( this, counter );
+    feed.publish( 1, 0, 0 );
+    feed.publish( 2, 0, 0 );
+    assertEquals( 1, counter.count );
+    feed.drain( new Recorder() );
+    feed.publish( 1, 1, 1 );
+    assertEquals( 2, counter.count );
+  }
+
+  public void testListenerIsCalledForPendingPositions() {
+    PositionFeed feed = new PositionFeed( 4, 64 );
+    feed.publish( 1, 0, 0 );
+    Counter counter = new Counter();
+    feed.setListener( this, counter );
+    assertEquals( 1, counter.count );
+  }
+
+  public void testFeedCanOnlyBeUsedByOneOwner() {
+    PositionFeed feed = new PositionFeed( 4, 64 );
+    Object other = new Object();
+    feed.setListener( this, new Counter() );
+    try {
+      feed.setListener( other, new Counter() );
+      fail();
+    } catch( IllegalStateException expected ) {
+    }
+    feed.setListener( other, null );
+    Counter counter = new Counter();
+    feed.setListener( this, counter );
+    feed.publish( 1, 0, 0 );
+    assertEquals( 1, counter.count );
+    feed.setListener( this, null );
+    feed.setListener( other, new Counter() );
+  }
+
+  public void testIllegalCoordinate() {
+    PositionFeed feed = new PositionFeed( 4, 64 );
+    try {
+      feed.publish( 1, Double.NaN, 0 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+    assertEquals( 0, feed.getPublishedCount() );
+  }
+
+  public void testIllegalCapacity() {
+    try {
+      new PositionFeed( 4, 2 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+  }
+
+  public void testConcurrentPublishers() throws InterruptedException {
+    final PositionFeed feed = new PositionFeed( 8, 1024 );
+    final int count = 10000;
+    Thread[] threads = new Thread[ 4 ];
+    for( int i = 0; i < threads.length; i++ ) {
+      final int offset = i * 100;
+      threads[ i ] = new Thread() {
+        public void run() {
+          for( int j = 0; j < count; j++ ) {
+            feed.publish( offset + j % 100, j, j );
+          }
+        }
+      };
+      threads[ i ].start();
+    }
+    Recorder recorder = new Recorder();
+    for( int i = 0; i < threads.length; i++ ) {
+      while( threads[ i ].isAlive() ) {
+        feed.drain( recorder );
+      }
+      threads[ i ].join();
+    }
+    feed.drain( recorder );
+    assertEquals( threads.length * count, feed.getPublishedCount() );
+    assertEquals( 0, feed.getDroppedCount() );
+    assertEquals(   feed.getPublishedCount() - feed.getCoalescedCount(), 
+                    feed.getDeliveredCount() );
+    assertEquals( 400, recorder.positions.size() );
+    // the last position of each id arrived last
+    assertPosition( recorder, 0, count - 100, count - 100 );
+    assertPosition( recorder, 399, count - 1, count - 1 );
+  }
+
+  private static void assertPosition( final Recorder recorder, 
+                                      final int id, 
+                                      final double latitude, 
+                                      final double longitude ) 
+  {
+    double[] position 
+      = ( double[] )recorder.positions.get( new Integer( id ) );
+    assertEquals( latitude, position[ 0 ], 0 );
+    assertEquals( longitude, position[ 1 ], 0 );
+  }
+
+  private static final class Recorder implements PositionFeed.Receiver {
+
+    final Map positions = new HashMap();
+    int known = Integer.MAX_VALUE;
+
+    public boolean position( final int id, 
+                             final double latitude, 
+                             final double longitude ) 
+    {
+      positions.put( new Integer( id ), new double[] { latitude, longitude } );
+      return id <= known;
+    }
+  }
+
+  private static final class Counter implements Runnable {
+
+    int count;
+
+    public void run() {
+      count++;
+    }
+  }
+}
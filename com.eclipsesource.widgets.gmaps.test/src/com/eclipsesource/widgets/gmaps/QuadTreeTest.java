@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class QuadTreeTest extends TestCase {
+
+  public void testEmpty() {
+    QuadTree tree = new QuadTree();
+    IntList result = new IntList();
+    tree.query( 0, 0, 1, 1, result );
+    assertEquals( 0, result.size() );
+  }
+
+  public void testQuery() {
+    QuadTree tree = new QuadTree();
+    tree.insert( 0, 0.1, 0.1 );
+    tree.insert( 1, 0.5, 0.5 );
+    tree.insert( 2, 0.9, 0.2 );
+    assertQuery( tree, 0, 0, 0.6, 0.6, new int[] { 0, 1 } );
+    assertQuery( tree, 0.5, 0.5, 0.5, 0.5, new int[] { 1 } );
+    assertQuery( tree, 0.6, 0.6, 1, 1, new int[ 0 ] );
+  }
+
+  public void testQueryManyPoints() {
+    int count = 5000;
+    double[] x = new double[ count ];
+    double[] y = new double[ count ];
+    QuadTree tree = new QuadTree();
+    Random random = new Random( 3 );
+    for( int id = 0; id < count; id++ ) {
+      // clustered, so that leafs are split deeply
+      x[ id ] = id % 2 == 0 ? random.nextDouble() : 0.5 + id * 1e-9;
+      y[ id ] = id % 2 == 0 ? random.nextDouble() : 0.25;
+      tree.insert( id, x[ id ], y[ id ] );
+    }
+    for( int i = 0; i < 50; i++ ) {
+      double minX = random.nextDouble() * 0.9;
+      double minY = random.nextDouble() * 0.9;
+      double maxX = minX + random.nextDouble() * 0.1;
+      double maxY = minY + random.nextDouble() * 0.1;
+      assertQuery( tree, 
+                   minX, 
+                   minY, 
+                   maxX, 
+                   maxY, 
+                   bruteForce( x, y, minX, minY, maxX, maxY ) );
+    }
+    assertQuery( tree, 
+                 0.4, 
+                 0.2, 
+                 0.6, 
+                 0.3, 
+                 bruteForce( x, y, 0.4, 0.2, 0.6, 0.3 ) );
+  }
+
+  public void testRemove() {
+    QuadTree tree = new QuadTree();
+    for( int id = 0; id < 100; id++ ) {
+      tree.insert( id, id / 100.0, 0.5 );
+    }
+    for( int id = 0; id < 100; id += 2 ) {
+      tree.remove( id );
+    }
+    IntList result = new IntList();
+    tree.query( 0, 0, 1, 1, result );
+    assertEquals( 50, result.size() );
+    for( int i = 0; i < result.size(); i++ ) {
+      assertEquals( 1, result.get( i ) % 2 );
+    }
+  }
+
+  public void testMove() {
+    QuadTree tree = new QuadTree();
+    tree.insert( 0, 0.1, 0.1 );
+    tree.remove( 0 );
+    tree.insert( 0, 0.9, 0.9 );
+    assertQuery( tree, 0, 0, 0.5, 0.5, new int[ 0 ] );
+    assertQuery( tree, 0.5, 0.5, 1, 1, new int[] { 0 } );
+  }
+
+  private static int[] bruteForce( final double[] x, 
+                                   final double[] y, 
+                                   final double minX, 
+                                   final double minY, 
+                                   final double maxX, 
+                                   final double maxY ) 
+  {
+    IntList result = new IntList();
+    for( int id = 0; id < x.length; id++ ) {
+      if(    x[ id ] >= minX 
+          && x[ id ] <= maxX 
+          && y[ id ] >= minY 
+          && y[ id ] <= maxY ) 
+      {
+        result.add( id );
+      }
+    }
+    return result.toArray();
+  }
+
+  private static void assertQuery( final QuadTree tree, 
+                                   final double minX, 
+                                   final double minY, 
+                                   final double maxX, 
+                                   final double maxY, 
+                                   final int[] expected ) 
+  {
+    IntList result = new IntList();
+    tree.query( minX, minY, maxX, maxY, result );
+    int[] actual = result.toArray();
+    Arrays.sort( actual );
+    int[] sorted = ( int[] )expected.clone();
+    Arrays.sort( sorted );
+    assertTrue( Arrays.equals( sorted, actual ) );
+  }
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class SimplifierTest extends TestCase {
+
+  public void testEmptyLine() {
+    assertEquals( 0, Simplifier.computeImportance( new double[ 0 ], 
+                                                   new double[ 0 ] ).length );
+  }
+
+  public void testEndPointsAreAlwaysKept() {
+    double[] importance 
+      = Simplifier.computeImportance( new double[] { 0, 1 }, 
+                                      new double[] { 0, 1 } );
+    assertEquals( Double.POSITIVE_INFINITY, importance[ 0 ], 0 );
+    assertEquals( Double.POSITIVE_INFINITY, importance[ 1 ], 0 );
+    int[] selected = Simplifier.select( importance, Double.MAX_VALUE );
+    assertTrue( Arrays.equals( new int[] { 0, 1 }, selected ) );
+  }
+
+  public void testImportance() {
+    // a peak of height 1 and a bump of height 0.1 on a straight line
+    double[] x = new double[] { 0, 1, 2, 3, 4 };
+    double[] y = new double[] { 0, 1, 0, 0.1, 0 };
+    double[] importance = Simplifier.computeImportance( x, y );
+    assertEquals( 1, importance[ 1 ], 1e-9 );
+    // split off at the peak, from the segment between peak and end point 
+    assertEquals( Math.sqrt( 0.4 ), importance[ 2 ], 1e-9 );
+    assertEquals( 0.1, importance[ 3 ], 1e-9 );
+    assertTrue( Arrays.equals( new int[] { 0, 1, 4 }, 
+                               Simplifier.select( importance, 0.7 ) ) );
+    assertTrue( Arrays.equals( new int[] { 0, 1, 2, 4 }, 
+                               Simplifier.select( importance, 0.5 ) ) );
+    assertTrue( Arrays.equals( new int[] { 0, 1, 2, 3, 4 }, 
+                               Simplifier.select( importance, 0 ) ) );
+  }
+
+  public void testCollinearPointsAreDropped() {
+    double[] x = new double[] { 0, 1, 2, 3 };
+    double[] y = new double[] { 0, 1, 2, 3 };
+    int[] selected 
+      = Simplifier.select( Simplifier.computeImportance( x, y ), 1e-9 );
+    assertTrue( Arrays.equals( new int[] { 0, 3 }, selected ) );
+  }
+
+  public void testSameAsDouglasPeucker() {
+    Random random = new Random( 4 );
+    int count = 1000;
+    double[] x = new double[ count ];
+    double[] y = new double[ count ];
+    double walk = 0;
+    for( int i = 0; i < count; i++ ) {
+      walk += random.nextGaussian();
+      x[ i ] = i;
+      y[ i ] = walk;
+    }
+    double[] importance = Simplifier.computeImportance( x, y );
+    double[] tolerances = new double[] { 0.5, 2, 10 };
+    for( int i = 0; i < tolerances.length; i++ ) {
+      boolean[] kept = new boolean[ count ];
+      kept[ 0 ] = true;
+      kept[ count - 1 ] = true;
+      douglasPeucker( x, y, 0, count - 1, tolerances[ i ], kept );
+      int[] selected = Simplifier.select( importance, tolerances[ i ] );
+      for( int j = 0; j < selected.length; j++ ) {
+        assertTrue( kept[ selected[ j ] ] );
+      }
+      assertEquals( countTrue( kept ), selected.length );
+    }
+  }
+
+  public void testDegeneratedLine() {
+    // every split separates only one vertex, the recursion is very deep
+    int count = 20000;
+    double[] x = new double[ count ];
+    double[] y = new double[ count ];
+    for( int i = 0; i < count; i++ ) {
+      x[ i ] = i * i;
+      y[ i ] = 0;
+    }
+    x[ count - 1 ] = 0;
+    double[] importance = Simplifier.computeImportance( x, y );
+    assertEquals( count, importance.length );
+  }
+
+  private static void douglasPeucker( final double[] x, 
+                                      final double[] y, 
+                                      final int first, 
+                                      final int last, 
+                                      final double tolerance, 
+                                      final boolean[] kept ) 
+  {
+    int farthest = -1;
+    double max = -1;
+    for( int i = first + 1; i < last; i++ ) {
+      double distance = distance( x, y, first, last, i );
+      if( distance > max ) {
+        max = distance;
+        farthest = i;
+      }
+    }
+    if( farthest != -1 && max >= tolerance ) {
+      kept[ farthest ] = true;
+      douglasPeucker( x, y, first, farthest, tolerance, kept );
+      douglasPeucker( x, y, farthest, last, tolerance, kept );
+    }
+  }
+
+  private static double distance( final double[] x, 
+                                  final double[] y, 
+                                  final int first, 
+                                  final int last, 
+                                  final int index ) 
+  {
+    double dx = x[ last ] - x[ first ];
+    double dy = y[ last ] - y[ first ];
+    double px = x[ index ] - x[ first ];
+    double py = y[ index ] - y[ first ];
+    double t = ( px * dx + py * dy ) / ( dx * dx + dy * dy );
+    t = Math.max( 0, Math.min( 1, t ) );
+    double ex = px - t * dx;
+    double ey = py - t * dy;
+    return Math.sqrt( ex * ex + ey * ey );
+  }
+
+  private static int countTrue( final boolean[] values ) {
+    int result = 0;
+    for( int i = 0; i < values.length; i++ ) {
+      if( values[ i ] ) {
+        result++;
+      }
+    }
+    return result;
+  }
+}
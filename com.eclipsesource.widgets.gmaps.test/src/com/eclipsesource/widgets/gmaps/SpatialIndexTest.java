@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class SpatialIndexTest extends TestCase {
+
+  private static final int COUNT = 3000;
+
+  private double[] latitudes;
+  private double[] longitudes;
+  private SpatialIndex index;
+
+  protected void setUp() throws Exception {
+    Random random = new Random( 5 );
+    latitudes = new double[ COUNT ];
+    longitudes = new double[ COUNT ];
+    for( int i = 0; i < COUNT; i++ ) {
+      // uniform on the sphere
+      double z = random.nextDouble() * 2 - 1;
+      latitudes[ i ] = Math.toDegrees( Math.asin( z ) );
+      longitudes[ i ] = random.nextDouble() * 360 - 180;
+    }
+    index = new SpatialIndex( latitudes, longitudes );
+  }
+
+  public void testDistance() {
+    // Berlin - Paris, about 878 km
+    double distance = SpatialIndex.distance( 52.5200, 13.4050, 
+                                             48.8566, 2.3522 );
+    assertEquals( 877500, distance, 2000 );
+    assertEquals( 0, SpatialIndex.distance( 10, 20, 10, 20 ), 0 );
+    double halfCircumference = Math.PI * SpatialIndex.EARTH_RADIUS;
+    assertEquals( halfCircumference, 
+                  SpatialIndex.distance( 0, 0, 0, 180 ), 
+                  1e-6 );
+  }
+
+  public void testEmpty() {
+    SpatialIndex empty = new SpatialIndex( new double[ 0 ], new double[ 0 ] );
+    assertEquals( 0, empty.size() );
+    assertEquals( -1, empty.nearest( 0, 0 ) );
+    assertEquals( 0, empty.withinDistance( 0, 0, 1000, new int[ 1 ] ) );
+  }
+
+  public void testIllegalArguments() {
+    try {
+      new SpatialIndex( new double[ 2 ], new double[ 1 ] );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+  }
+
+  public void testNearest() {
+    Random random = new Random( 6 );
+    for( int i = 0; i < 100; i++ ) {
+      double latitude = random.nextDouble() * 180 - 90;
+      double longitude = random.nextDouble() * 360 - 180;
+      int nearest = index.nearest( latitude, longitude );
+      assertEquals( bruteForceNearest( latitude, longitude ), 
+                    distance( latitude, longitude, nearest ), 
+                    1e-6 );
+    }
+  }
+
+  public void testNearestAcrossAntimeridian() {
+    SpatialIndex small 
+      = new SpatialIndex( new double[] { 0, 0 }, new double[] { 179, -170 } );
+    assertEquals( 0, small.nearest( 0, -179.5 ) );
+    assertEquals( 1, small.nearest( 0, -171 ) );
+  }
+
+  public void testNearestSeveral() {
+    int[] result = new int[ 20 ];
+    assertEquals( 20, index.nearest( 40, -74, result ) );
+    double[] distances = new double[ COUNT ];
+    for( int i = 0; i < COUNT; i++ ) {
+      distances[ i ] = distance( 40, -74, i );
+    }
+    Arrays.sort( distances );
+    for( int i = 0; i < 20; i++ ) {
+      assertEquals( distances[ i ], distance( 40, -74, result[ i ] ), 1e-6 );
+    }
+  }
+
+  public void testNearestMoreThanSize() {
+    SpatialIndex small 
+      = new SpatialIndex( new double[] { 1, 2 }, new double[] { 1, 2 } );
+    int[] result = new int[ 5 ];
+    assertEquals( 2, small.nearest( 0, 0, result ) );
+    assertEquals( 0, result[ 0 ] );
+    assertEquals( 1, result[ 1 ] );
+  }
+
+  public void testWithinDistance() {
+    double meters = 1000000;
+    int[] result = new int[ COUNT ];
+    int count = index.withinDistance( -60, 120, meters, result );
+    int expected = 0;
+    for( int i = 0; i < COUNT; i++ ) {
+      if( distance( -60, 120, i ) <= meters ) {
+        expected++;
+      }
+    }
+    assertEquals( expected, count );
+    for( int i = 0; i < count; i++ ) {
+      assertTrue( distance( -60, 120, result[ i ] ) <= meters + 1e-3 );
+    }
+  }
+
+  public void testWithinDistanceSmallArray() {
+    int[] all = new int[ COUNT ];
+    int count = index.withinDistance( 0, 0, 3000000, all );
+    assertTrue( count > 1 );
+    assertEquals( count, index.withinDistance( 0, 0, 3000000, new int[ 1 ] ) );
+  }
+
+  public void testQueryBounds() {
+    LatLngBounds bounds 
+      = new LatLngBounds( new LatLng( 10, 170 ), new LatLng( 40, -160 ) );
+    assertTrue( bounds.crossesAntimeridian() );
+    int[] result = new int[ COUNT ];
+    int count = index.query( bounds, result );
+    int expected = 0;
+    for( int i = 0; i < COUNT; i++ ) {
+      if( bounds.contains( latitudes[ i ], longitudes[ i ] ) ) {
+        expected++;
+      }
+    }
+    assertTrue( expected > 0 );
+    assertEquals( expected, count );
+    for( int i = 0; i < count; i++ ) {
+      int id = result[ i ];
+      assertTrue( bounds.contains( latitudes[ id ], longitudes[ id ] ) );
+    }
+  }
+
+  private double bruteForceNearest( final double latitude, 
+                                    final double longitude ) 
+  {
+    double result = Double.POSITIVE_INFINITY;
+    for( int i = 0; i < COUNT; i++ ) {
+      result = Math.min( result, distance( latitude, longitude, i ) );
+    }
+    return result;
+  }
+
+  private double distance( final double latitude, 
+                           final double longitude, 
+                           final int id ) 
+  {
+    return SpatialIndex.distance( latitude, 
+                                  longitude, 
+                                  latitudes[ id ], 
+                                  longitudes[ id ] );
+  }
+}
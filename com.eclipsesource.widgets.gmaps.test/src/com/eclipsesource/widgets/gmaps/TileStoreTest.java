@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+
+public class TileStoreTest extends TestCase {
+
+  private static final byte[] JPEG = new byte[] { ( byte )0xFF, ( byte )0xD8 };
+
+  private File directory;
+  private File pack;
+
+  protected void setUp() throws Exception {
+    directory = File.createTempFile( "tiles", "" );
+    directory.delete();
+    directory.mkdir();
+    writeTile( "tiles/0/0/0.png", "t000" );
+    writeTile( "tiles/1/0/1.png", "t101" );
+    writeTile( "tiles/1/1/0.png", "t110" );
+    writeTile( "tiles/2/3/3.png", "t233" );
+    // not tiles
+    writeTile( "tiles/1/0/2.png", "t102" );
+    writeTile( "tiles/x/0/0.png", "tx00" );
+    writeTile( "tiles/1/0/readme.txt", "text" );
+    pack = new File( directory, "tiles.pack" );
+  }
+
+  protected void tearDown() throws Exception {
+    delete( directory );
+  }
+
+  public void testCreatePack() throws IOException {
+    assertEquals( 4, TileStore.createPack( tiles(), pack ) );
+  }
+
+  public void testGetTile() throws IOException {
+    TileStore.createPack( tiles(), pack );
+    TileStore store = new TileStore( new File[] { pack }, 0 );
+    assertEquals( "t000", new String( store.getTile( 0, 0, 0 ) ) );
+    assertEquals( "t101", new String( store.getTile( 1, 0, 1 ) ) );
+    assertEquals( "t233", new String( store.getTile( 2, 3, 3 ) ) );
+    assertNull( store.getTile( 1, 1, 1 ) );
+    assertNull( store.getTile( 1, 0, 2 ) );
+    assertNull( store.getTile( -1, 0, 0 ) );
+    assertNull( store.getTile( 30, 0, 0 ) );
+    assertTrue( store.containsTile( 1, 1, 0 ) );
+    assertFalse( store.containsTile( 2, 0, 0 ) );
+    assertEquals( 2, store.getMaxZoom() );
+    store.close();
+  }
+
+  public void testPacksAreSearchedInOrder() throws IOException {
+    TileStore.createPack( tiles(), pack );
+    delete( tiles() );
+    writeTile( "tiles/0/0/0.png", "new0" );
+    writeTile( "tiles/5/1/2.png", "t512" );
+    File second = new File( directory, "second.pack" );
+    TileStore.createPack( tiles(), second );
+    TileStore store = new TileStore( new File[] { pack, second }, 0 );
+    assertEquals( "t000", new String( store.getTile( 0, 0, 0 ) ) );
+    assertEquals( "t512", new String( store.getTile( 5, 1, 2 ) ) );
+    assertEquals( 5, store.getMaxZoom() );
+    store.close();
+  }
+
+  public void testLeastRecentlyUsedTilesAreEvicted() throws IOException {
+    TileStore.createPack( tiles(), pack );
+    TileStore store = new TileStore( new File[] { pack }, 10 );
+    store.getTile( 0, 0, 0 );
+    store.getTile( 0, 0, 0 );
+    assertEquals( 1, store.getHits() );
+    assertEquals( 1, store.getMisses() );
+    assertEquals( 4, store.getCacheBytes() );
+    store.getTile( 1, 0, 1 );
+    store.getTile( 0, 0, 0 );
+    store.getTile( 1, 1, 0 );
+    assertEquals( 8, store.getCacheBytes() );
+    store.getTile( 0, 0, 0 );
+    store.getTile( 1, 1, 0 );
+    assertEquals( 4, store.getHits() );
+    // 1/0/1 was used least recently and has been evicted
+    store.getTile( 1, 0, 1 );
+    assertEquals( 4, store.getHits() );
+    assertEquals( 4, store.getMisses() );
+    store.close();
+    assertEquals( 0, store.getCacheBytes() );
+  }
+
+  public void testTilesLargerThanCacheAreNotCached() throws IOException {
+    TileStore.createPack( tiles(), pack );
+    TileStore store = new TileStore( new File[] { pack }, 3 );
+    store.getTile( 0, 0, 0 );
+    store.getTile( 0, 0, 0 );
+    assertEquals( 0, store.getHits() );
+    assertEquals( 0, store.getCacheBytes() );
+    store.close();
+  }
+
+  public void testNotAPack() throws IOException {
+    try {
+      new TileStore( new File[] { new File( tiles(), "0/0/0.png" ) }, 0 );
+      fail();
+    } catch( IllegalArgumentException expected ) {
+    }
+  }
+
+  public void testCloseUnregisters() throws IOException {
+    TileStore.createPack( tiles(), pack );
+    TileStore store = new TileStore( new File[] { pack }, 0 );
+    assertSame( store, TileSources.get( store.getId() ) );
+    store.close();
+    assertNull( TileSources.get( store.getId() ) );
+  }
+
+  public void testContentType() {
+    assertEquals( "image/jpeg", TileSources.getContentType( JPEG ) );
+    assertEquals( "image/png", 
+                  TileSources.getContentType( "png".getBytes() ) );
+  }
+
+  public void testDataUrl() {
+    assertEquals( "data:image/png;base64,dGlsZQ==", 
+                  TileSources.toDataUrl( "tile".getBytes() ) );
+    assertEquals( "data:image/jpeg;base64,/9g=", 
+                  TileSources.toDataUrl( JPEG ) );
+  }
+
+  private File tiles() {
+    return new File( directory, "tiles" );
+  }
+
+  private void writeTile( final String path, final String content ) 
+    throws IOException 
+  {
+    File file = new File( directory, path );
+    file.getParentFile().mkdirs();
+    OutputStream out = new FileOutputStream( file );
+    try {
+      out.write( content.getBytes() );
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void delete( final File file ) {
+    File[] children = file.listFiles();
+    for( int i = 0; children != null && i < children.length; i++ ) {
+      delete( children[ i ] );
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import junit.framework.TestCase;
+
+public class TokenBucketTest extends TestCase {
+
+  public void testBurstUpToCapacity() throws InterruptedException {
+    TokenBucket bucket = new TokenBucket( 1, 3 );
+    long start = System.currentTimeMillis();
+    bucket.acquire();
+    bucket.acquire();
+    bucket.acquire();
+    assertTrue( System.currentTimeMillis() - start < 500 );
+  }
+
+  public void testRateIsLimited() throws InterruptedException {
+    TokenBucket bucket = new TokenBucket( 50, 1 );
+    long start = System.currentTimeMillis();
+    for( int i = 0; i < 6; i++ ) {
+      bucket.acquire();
+    }
+    // the first token is available right away, then one every 20 ms
+    assertTrue( System.currentTimeMillis() - start >= 90 );
+  }
+
+  public void testAcquireIsInterruptible() throws InterruptedException {
+    TokenBucket bucket = new TokenBucket( 0.001, 1 );
+    bucket.acquire();
+    Thread.currentThread().interrupt();
+    try {
+      bucket.acquire();
+      fail();
+    } catch( InterruptedException expected ) {
+    }
+  }
+}
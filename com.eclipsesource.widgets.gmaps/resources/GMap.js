@@ -1,6 +1,8 @@
 ///////////////////////////////
 // API - to be called from java
 
+// Creates the map, or re-initializes it if the page is reused by another 
+// GMap (see BrowserPool.java).
 window.init = function( center, zoom, typeId ) {
   var options = {
     disableDefaultUI : true,
@@ -8,19 +10,82 @@ window.init = function( center, zoom, typeId ) {
     center : new google.maps.LatLng( center[ 0 ], center[ 1 ] ),
     mapTypeId : typeId
   };
-  var parent = document.getElementById( "map_canvas" );
-  window.gmap = new google.maps.Map( parent, options );
-  window.geocoder = new google.maps.Geocoder();
+  if( window.gmap ) {
+    reset();
+    // the size of the container may have changed while it was pooled
+    google.maps.event.trigger( gmap, "resize" );
+    gmap.setOptions( options );
+  } else {
+    var parent = document.getElementById( "map_canvas" );
+    window.gmap = new google.maps.Map( parent, options );
+    window.geocoder = new google.maps.Geocoder();
+  }
+  window._mapType = typeId;
   _registerEventListener();
 };
 
+// Removes everything added to the map and all listeners, so that no more 
+// browser-functions are called. The map can then be reused by calling init.
+window.reset = function() {
+  google.maps.event.clearInstanceListeners( gmap );
+  clearMarkers();
+  clearClusters();
+  for( var id in _polylines ) {
+    removePolyline( id );
+  }
+  for( var id in _overlays ) {
+    _overlays[ id ].setMap( null );
+  }
+  _overlays = {};
+  for( var id in _draggables ) {
+    _draggables[ id ].setMap( null );
+  }
+  _draggables = {};
+  if( _infoWindow ) {
+    _infoWindow.close();
+    _infoWindow = null;
+  }
+  setHeatmapLayer( null, null, 0 );
+  if( _tileLayer ) {
+    setTileLayer( null, null, -1 );
+  }
+  if( _cameraTimer !== null ) {
+    clearTimeout( _cameraTimer );
+    _cameraTimer = null;
+  }
+  setCameraEventRate( 0 );
+  _blockEvents = false;
+  _reportPending = false;
+  _lastReport = 0;
+  _lastReportArgs = null;
+  _inFlight = false;
+  if( _eventTimer !== null ) {
+    clearTimeout( _eventTimer );
+    _eventTimer = null;
+  }
+  _events = [];
+};
+
 window.gotoAddress = function( address ) {
-  geocoder.geocode( { "address" : address }, window._handleAddressResolved );
+  geocoder.geocode( { "address" : address }, function( results, status ) {
+    _handleAddressResolved( address, results, status );
+  } );
 };
 
-window.resolveAddress = function() {
-  var req = { "location" : gmap.getCenter() };
-  geocoder.geocode( req, window._handleLocationResolved );
+// Bounds are given as [ south, west, north, east ]
+window.fitBounds = function( bounds ) {
+  var southWest = new google.maps.LatLng( bounds[ 0 ], bounds[ 1 ] );
+  var northEast = new google.maps.LatLng( bounds[ 2 ], bounds[ 3 ] );
+  gmap.fitBounds( new google.maps.LatLngBounds( southWest, northEast ) );
+};
+
+window.resolveAddress = function( location ) {
+  var latLng = location ? new google.maps.LatLng( location[ 0 ], location[ 1 ] )
+                        : gmap.getCenter();
+  var req = { "location" : latLng };
+  geocoder.geocode( req, function( results, status ) {
+    _handleLocationResolved( latLng, results, status );
+  } );
 };
 
 window.setCenter = function( center ) {  
@@ -36,16 +101,68 @@ window.setZoom = function( zoom ) {
 }
 
 window.setType = function( type ) {
-  gmap.setMapTypeId( type );
+  _mapType = type;
+  if( !_tileLayer ) {
+    gmap.setMapTypeId( type );
+  }
 }
 
-window.addMarker = function( name ) {
+// Shows the tiles of a TileStore instead of those of the map type. Tiles are
+// loaded from "url/z/x/y", or from the browser-function onTileRequested if
+// no url is given. Calling it with a null id restores the map type.
+window.setTileLayer = function( url, id, maxZoom ) {
+  _tileLayer = id !== null;
+  if( _tileLayer ) {
+    var layer = new google.maps.ImageMapType( {
+      getTileUrl : _createTileUrlFunction( url, id, "" ),
+      tileSize : new google.maps.Size( 256, 256 ),
+      maxZoom : maxZoom,
+      name : "local"
+    } );
+    gmap.mapTypes.set( "local", layer );
+    gmap.setMapTypeId( "local" );
+  } else {
+    gmap.setMapTypeId( _mapType );
+  }
+};
+
+// Shows the tiles of a Heatmap on top of the map, loaded like those of 
+// setTileLayer. The version is added to the urls, so that changed tiles are 
+// not taken from the browser cache. Calling it with a null id removes it.
+window.setHeatmapLayer = function( url, id, version ) {
+  if( _heatmapLayer ) {
+    var overlays = gmap.overlayMapTypes;
+    for( var i = overlays.getLength() - 1; i >= 0; i-- ) {
+      if( overlays.getAt( i ) === _heatmapLayer ) {
+        overlays.removeAt( i );
+      }
+    }
+    _heatmapLayer = null;
+  }
+  if( id !== null ) {
+    _heatmapLayer = new google.maps.ImageMapType( {
+      getTileUrl : _createTileUrlFunction( url, id, "?v=" + version ),
+      tileSize : new google.maps.Size( 256, 256 ),
+      name : "heatmap"
+    } );
+    gmap.overlayMapTypes.push( _heatmapLayer );
+  }
+};
+
+window.addMarker = function( name, position, id ) {
+  var latLng = position ? new google.maps.LatLng( position[ 0 ], position[ 1 ] )
+                        : gmap.getCenter();
   var marker = new google.maps.Marker( {
-    position : gmap.getCenter(),
+    position : latLng,
     title : name,
     draggable : true
   } );
   marker.setMap( gmap );
+  _draggables[ id ] = marker;
+  google.maps.event.addListener( marker, "dragend", function() {
+    var position = marker.getPosition();
+    _queueEvent( "d", [ id, position.lat(), position.lng() ], true );
+  } );
   var infowindow = new google.maps.InfoWindow( {
       content : name,
       disableAutoPan : true
@@ -55,6 +172,148 @@ window.addMarker = function( name ) {
   } );
 }
 
+// Markers created in bulk, coords are given as [ lat, lng, lat, lng, ... ],
+// ids either as array or as the first id of a sequence.
+window.addMarkers = function( ids, coords, labels ) {
+  var count = coords.length / 2;
+  for( var i = 0; i < count; i++ ) {
+    var latLng = new google.maps.LatLng( coords[ i * 2 ], coords[ i * 2 + 1 ] );
+    var id = typeof ids === "number" ? ids + i : ids[ i ];
+    _createMarker( id, latLng, labels[ i ] );
+  }
+};
+
+window.moveMarker = function( id, position ) {
+  var marker = _markers[ id ];
+  if( marker ) {
+    marker.setPosition( new google.maps.LatLng( position[ 0 ], position[ 1 ] ) );
+  }
+};
+
+window.removeMarkers = function( ids ) {
+  for( var i = 0; i < ids.length; i++ ) {
+    var marker = _markers[ ids[ i ] ];
+    if( marker ) {
+      marker.setMap( null );
+      delete _markers[ ids[ i ] ];
+    }
+  }
+};
+
+window.clearMarkers = function() {
+  for( var id in _markers ) {
+    _markers[ id ].setMap( null );
+  }
+  _markers = {};
+};
+
+// Replaces all clusters. Clusters with a count of 1 are shown as a marker.
+window.setClusters = function( coords, counts, labels ) {
+  clearClusters();
+  for( var i = 0; i < counts.length; i++ ) {
+    var latLng = new google.maps.LatLng( coords[ i * 2 ], coords[ i * 2 + 1 ] );
+    _clusters.push( _createCluster( latLng, counts[ i ], labels[ i ] ) );
+  }
+};
+
+window.clearClusters = function() {
+  for( var i = 0; i < _clusters.length; i++ ) {
+    _clusters[ i ].setMap( null );
+  }
+  _clusters = [];
+};
+
+// Applies the changes of Overlays.java: the ids of the removed overlays, 
+// the ids, coordinates and styles of added ones, the ids and coordinates of
+// moved ones and the ids and styles of restyled ones. Styles are given as 
+// [ label0, color0, label1, color1, ... ].
+window.updateOverlays = function( removed, added, addedCoords, addedStyles, 
+                                  moved, movedCoords, restyled, styles ) 
+{
+  for( var i = 0; i < removed.length; i++ ) {
+    var marker = _overlays[ removed[ i ] ];
+    if( marker ) {
+      marker.setMap( null );
+      delete _overlays[ removed[ i ] ];
+    }
+  }
+  for( var i = 0; i < added.length; i++ ) {
+    var position = new google.maps.LatLng( addedCoords[ i * 2 ], 
+                                           addedCoords[ i * 2 + 1 ] );
+    var marker = new google.maps.Marker( { position : position, map : gmap } );
+    _setOverlayStyle( marker, addedStyles[ i * 2 ], addedStyles[ i * 2 + 1 ] );
+    _overlays[ added[ i ] ] = marker;
+  }
+  for( var i = 0; i < moved.length; i++ ) {
+    var marker = _overlays[ moved[ i ] ];
+    if( marker ) {
+      var position = new google.maps.LatLng( movedCoords[ i * 2 ], 
+                                             movedCoords[ i * 2 + 1 ] );
+      marker.setPosition( position );
+    }
+  }
+  for( var i = 0; i < restyled.length; i++ ) {
+    var marker = _overlays[ restyled[ i ] ];
+    if( marker ) {
+      _setOverlayStyle( marker, styles[ i * 2 ], styles[ i * 2 + 1 ] );
+    }
+  }
+};
+
+// Replaces the polyline with the given id. Each part is a flat array of 
+// coordinates and is shown as a separate line.
+window.setPolyline = function( id, parts ) {
+  removePolyline( id );
+  var lines = [];
+  for( var i = 0; i < parts.length; i++ ) {
+    var coords = parts[ i ];
+    var path = [];
+    for( var j = 0; j < coords.length; j += 2 ) {
+      path.push( new google.maps.LatLng( coords[ j ], coords[ j + 1 ] ) );
+    }
+    lines.push( new google.maps.Polyline( { path : path, map : gmap } ) );
+  }
+  _polylines[ id ] = lines;
+};
+
+window.removePolyline = function( id ) {
+  var lines = _polylines[ id ];
+  if( lines ) {
+    for( var i = 0; i < lines.length; i++ ) {
+      lines[ i ].setMap( null );
+    }
+    delete _polylines[ id ];
+  }
+};
+
+// Returns the values encoded by CoordinateCodec.java as a flat array. 
+// Arithmetic is used instead of bit operations, which are limited to 32 bit.
+window.decodeCoordinates = function( encoded, precision ) {
+  var scale = Math.pow( 10, precision );
+  var result = [];
+  var previous = [ 0, 0 ];
+  var index = 0;
+  while( index < encoded.length ) {
+    var value = 0;
+    var factor = 1;
+    var chunk;
+    do {
+      chunk = encoded.charCodeAt( index++ ) - 63;
+      value += ( chunk % 32 ) * factor;
+      factor *= 32;
+    } while( chunk >= 32 );
+    var slot = result.length % 2;
+    previous[ slot ] += value % 2 ? -( value + 1 ) / 2 : value / 2;
+    result.push( previous[ slot ] / scale );
+  }
+  return result;
+};
+
+// Events per second while the camera moves, 0 reports only at gesture end
+window.setCameraEventRate = function( rate ) {
+  _cameraInterval = rate > 0 ? Math.round( 1000 / rate ) : 0;
+};
+
 ////////////
 // Internals
 
@@ -62,6 +321,103 @@ window.addMarker = function( name ) {
 
 window._blockEvents = false;
 
+window._markers = {};
+
+window._infoWindow = null;
+
+window._clusters = [];
+
+window._polylines = {};
+
+window._overlays = {};
+
+// Markers created with addMarker, by id
+window._draggables = {};
+
+// A color of -1 shows the default marker icon
+window._setOverlayStyle = function( marker, label, color ) {
+  marker.setTitle( label );
+  var icon = null;
+  if( color >= 0 ) {
+    var hex = "00000" + color.toString( 16 );
+    icon = {
+      path : google.maps.SymbolPath.CIRCLE,
+      scale : 6,
+      fillColor : "#" + hex.substring( hex.length - 6 ),
+      fillOpacity : 1,
+      strokeWeight : 1
+    };
+  }
+  marker.setIcon( icon );
+};
+
+window._mapType = null;
+
+window._tileLayer = false;
+
+window._heatmapLayer = null;
+
+window._createTileUrlFunction = function( url, id, suffix ) {
+  return function( coord, zoom ) {
+    var result = null;
+    var tiles = Math.pow( 2, zoom );
+    if( coord.y >= 0 && coord.y < tiles ) {
+      // the map repeats horizontally
+      var x = ( ( coord.x % tiles ) + tiles ) % tiles;
+      if( url ) {
+        result = url + zoom + "/" + x + "/" + coord.y + suffix;
+      } else {
+        result = onTileRequested( id, zoom, x, coord.y );
+      }
+    }
+    return result;
+  };
+};
+
+window._createMarker = function( id, latLng, label ) {
+  var options = { position : latLng, map : gmap };
+  if( label ) {
+    options.title = label;
+  }
+  var marker = new google.maps.Marker( options );
+  google.maps.event.addListener( marker, "click", function() {
+    if( label ) {
+      // All bulk markers share one infowindow, it's created on first use
+      if( !_infoWindow ) {
+        _infoWindow = new google.maps.InfoWindow( { disableAutoPan : true } );
+      }
+      _infoWindow.setContent( label );
+      _infoWindow.open( gmap, marker );
+    }
+    // Markers don't pass clicks on to the map, reported at their position
+    var position = marker.getPosition();
+    _queueEvent( "k", [ position.lat(), position.lng() ], true );
+  } );
+  _markers[ id ] = marker;
+  return marker;
+};
+
+window._createCluster = function( latLng, count, label ) {
+  var result;
+  if( count == 1 ) {
+    result = _createMarker( "cluster", latLng, label );
+    delete _markers[ "cluster" ];
+  } else {
+    result = new google.maps.Marker( {
+      position : latLng,
+      map : gmap,
+      title : String( count ),
+      label : String( count )
+    } );
+    google.maps.event.addListener( result, "click", function() {
+      // Zoom into the cluster, the server sends the clusters of the new level
+      gmap.setCenter( latLng );
+      gmap.setZoom( Math.min( gmap.getZoom() + 2, 20 ) );
+    } );
+  }
+  return result;
+};
+
 window._registerEventListener = function(){
   //The actual "center_changed" event can't be easily used because it can create
   //a lot of events (resulting in requests) while dragging. 
@@ -71,19 +427,50 @@ window._registerEventListener = function(){
   google.maps.event.addListener( gmap, "zoom_changed", function() {
     _handleBoundsChanged();
   } );
+  // Only reported if enabled using setCameraEventRate
+  google.maps.event.addListener( gmap, "bounds_changed", function() {
+    _handleCameraMoved();
+  } );
+  google.maps.event.addListener( gmap, "click", function( event ) {
+    // The marker hit is resolved by the server
+    _queueEvent( "k", [ event.latLng.lat(), event.latLng.lng() ], true );
+  } );
 };
 
-window._handleAddressResolved = function( results, status ) {
+window._reportPending = false;
+
+// Rate limiting of continuous camera events, disabled by default
+window._cameraInterval = 0;
+window._cameraTimer = null;
+window._lastReport = 0;
+window._lastReportArgs = null;
+
+window._cameraPrecision = 6;
+window._inFlight = false;
+
+window._handleAddressResolved = function( address, results, status ) {
   // NOTE: This function is called asynchronously (i.e. not from within java)
   if( status == google.maps.GeocoderStatus.OK && results[ 0 ] ) {
-    var newBounds = results[ 0 ].geometry.viewport;
+    var geometry = results[ 0 ].geometry;
+    var newBounds = geometry.viewport;
     gmap.fitBounds( newBounds );
+    // Reported to cache the result
+    _queueEvent( "g", [ address, 
+                        results[ 0 ].formatted_address,
+                        geometry.location.lat(),
+                        geometry.location.lng(),
+                        newBounds.getSouthWest().lat(),
+                        newBounds.getSouthWest().lng(),
+                        newBounds.getNorthEast().lat(),
+                        newBounds.getNorthEast().lng() ], false );
   }
 };
 
-window._handleLocationResolved = function( results, status ) {
+window._handleLocationResolved = function( latLng, results, status ) {
   if( status == google.maps.GeocoderStatus.OK && results[ 0 ] ) {
-    onAddressResolved( results[ 0 ].formatted_address );
+    _queueEvent( "a", [ results[ 0 ].formatted_address, 
+                        latLng.lat(), 
+                        latLng.lng() ], false );
   }
 };
 
@@ -91,10 +478,122 @@ window._handleBoundsChanged = function() {
   // The script that gets executed from java might create change-events that 
   // call a browser-function. That would be a bad idea (unnecessary traffic, 
   // risk of recursion and buggy in SWT), therefore the "blockEvents" flag:
-  if( !_blockEvents ) {
-    // BrowserFunction:
-    onBoundsChanged( gmap.getCenter().lat(), 
-                     gmap.getCenter().lng(), 
-                     gmap.getZoom() );
+  // The bounds are only final when the map is idle again, so the report is 
+  // delayed until then.
+  if( !_blockEvents && !_reportPending ) {
+    _reportPending = true;
+    google.maps.event.addListenerOnce( gmap, "idle", function() {
+      _reportPending = false;
+      _reportBounds( true );
+    } );
+  }
+};
+
+window._handleCameraMoved = function() {
+  // Throttled to the configured rate. The first change is reported at once 
+  // (leading edge), the last one after the interval (trailing edge). 
+  if( !_blockEvents && _cameraInterval > 0 && _cameraTimer === null ) {
+    var elapsed = new Date().getTime() - _lastReport;
+    if( elapsed >= _cameraInterval && !_inFlight ) {
+      _reportBounds( false );
+    } else {
+      var delay = Math.max( _cameraInterval - elapsed, 0 );
+      _cameraTimer = setTimeout( function() {
+        _cameraTimer = null;
+        _handleCameraMoved();
+      }, delay );
+    }
+  }
+};
+
+// The counterpart of decodeCoordinates
+window._encodeValues = function( values, precision ) {
+  var scale = Math.pow( 10, precision );
+  var result = [];
+  var previous = [ 0, 0 ];
+  for( var i = 0; i < values.length; i++ ) {
+    var scaled = Math.round( values[ i ] * scale );
+    var delta = scaled - previous[ i % 2 ];
+    previous[ i % 2 ] = scaled;
+    var rest = delta < 0 ? -2 * delta - 1 : 2 * delta;
+    while( rest >= 32 ) {
+      result.push( String.fromCharCode( 32 + rest % 32 + 63 ) );
+      rest = Math.floor( rest / 32 );
+    }
+    result.push( String.fromCharCode( rest + 63 ) );
+  }
+  return result.join( "" );
+};
+
+window._reportBounds = function( atGestureEnd ) {
+  var bounds = gmap.getBounds();
+  if( bounds ) {
+    var args = [ gmap.getCenter().lat(), 
+                 gmap.getCenter().lng(), 
+                 gmap.getZoom(),
+                 bounds.getSouthWest().lat(),
+                 bounds.getSouthWest().lng(),
+                 bounds.getNorthEast().lat(),
+                 bounds.getNorthEast().lng() ];
+    if( args.join() !== _lastReportArgs ) {
+      _lastReportArgs = args.join();
+      _lastReport = new Date().getTime();
+      _queueEvent( "c", 
+                   [ _encodeValues( args, _cameraPrecision ), 
+                     _cameraPrecision ], 
+                   atGestureEnd );
+    }
+  }
+};
+
+// Events are sent to the server in batches, through the BrowserFunction 
+// onEvents. Each event is a type character followed by its fields, 
+// preceded by \u001f each. Events are separated by \u001e. 
+window._events = [];
+window._eventTimer = null;
+window._eventDelay = 50;
+
+// Queues an event, and sends all queued events at once if "flush" is true 
+// (e.g. at the end of a gesture), or after a short delay otherwise.
+window._queueEvent = function( type, fields, flush ) {
+  var event = type;
+  for( var i = 0; i < fields.length; i++ ) {
+    var field = String( fields[ i ] ).replace( /[\u001e\u001f]/g, " " );
+    event += "\u001f" + field;
+  }
+  var last = _events.length - 1;
+  if( type === "c" && last >= 0 && _events[ last ].charAt( 0 ) === "c" ) {
+    // Only the latest camera counts, unless other events came in between
+    _events[ last ] = event;
+  } else {
+    _events.push( event );
+  }
+  if( flush ) {
+    _flushEvents();
+  } else if( _eventTimer === null ) {
+    _eventTimer = setTimeout( _flushEvents, _eventDelay );
+  }
+};
+
+window._flushEvents = function() {
+  if( _eventTimer !== null ) {
+    clearTimeout( _eventTimer );
+    _eventTimer = null;
+  }
+  if( _events.length > 0 && _inFlight ) {
+    // Queued while onEvents is called, sent after it returned
+    _eventTimer = setTimeout( _flushEvents, _eventDelay );
+  } else if( _events.length > 0 ) {
+    var batch = _events.join( "\u001e" );
+    _events = [];
+    // Only one call may be in flight, the BrowserFunction returns when the 
+    // server has received the batch.
+    _inFlight = true;
+    try {
+      // BrowserFunction:
+      onEvents( batch );
+    } finally {
+      _inFlight = false;
+    }
   }
 };
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+
+
+public final class Activator implements BundleActivator {
+
+  static final String MAP_PAGE = "GMap.html";
+  // system property to make the global MapMetrics available through JMX
+  static final String JMX_PROPERTY = "com.eclipsesource.widgets.gmaps.jmx";
+
+  private static Bundle bundle = null;
+
+  public void start( final BundleContext context ) throws Exception {
+    setBundle( context.getBundle() );
+    PageCache.preload( MAP_PAGE );
+    if( Boolean.getBoolean( JMX_PROPERTY ) ) {
+      MapMetrics.registerMBean();
+    }
+  }
+
+  public void stop( final BundleContext context ) throws Exception {
+    PageCache.clear();
+    if( Boolean.getBoolean( JMX_PROPERTY ) ) {
+      MapMetrics.unregisterMBean();
+    }
+    setBundle( null );
+  }
+
+  /**
+   * Logs an error to the platform log, or to System.err if the bundle is not
+   * running (e.g. in plain Java tests and benchmarks).
+   */
+  static void log( final String message, final Throwable throwable ) {
+    Bundle current = getBundle();
+    if( current != null ) {
+      String id = current.getSymbolicName();
+      IStatus status 
+        = new Status( IStatus.ERROR, id, IStatus.OK, message, throwable );
+      Platform.getLog( current ).log( status );
+    } else {
+      System.err.println( message );
+      if( throwable != null ) {
+        throwable.printStackTrace();
+      }
+    }
+  }
+
+  private static synchronized void setBundle( final Bundle bundle ) {
+    Activator.bundle = bundle;
+  }
+
+  private static synchronized Bundle getBundle() {
+    return bundle;
+  }
+
+}
@@ -0,0 +1,345 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+/**
+ * Geocodes many addresses (or locations) in background threads, using a 
+ * Geocoder and a GeocodeCache. Unlike GMap#gotoAddress, this does not 
+ * affect any map. 
+ * 
+ * At most maxConcurrency requests are made at the same time, and not more 
+ * than requestsPerSecond per second (results from the cache do not count). 
+ * Both limits are shared by all jobs of a BatchGeocoder. Results are passed 
+ * to the callback as they complete, from the background threads. Use 
+ * Display#asyncExec to update widgets from the callback.
+ * 
+ * An exception thrown by the Geocoder is logged and reported to the 
+ * callback as a failed lookup, an exception thrown by the callback is 
+ * logged. In both cases the job continues with the next address.
+ */
+public final class BatchGeocoder {
+
+  public interface Callback {
+
+    /**
+     * Called for every address of a forward lookup. The result is null if 
+     * the address could not be found or the lookup failed.
+     */
+    public void geocoded( int index, GeocodeResult result );
+
+    /**
+     * Called for every location of a reverse lookup. The address is null if 
+     * the location could not be resolved or the lookup failed.
+     */
+    public void reverseGeocoded( int index, String address );
+
+    /**
+     * Called once after all results have been delivered or the job has been 
+     * cancelled.
+     */
+    public void finished( boolean cancelled );
+
+  }
+
+  private final Geocoder geocoder;
+  private final GeocodeCache cache;
+  private final int maxConcurrency;
+  private final TokenBucket rateLimit;
+  // guards the number of requests in progress, for all jobs
+  private final Object requestLock = new Object();
+  private int activeRequests = 0;
+
+  /**
+   * @param geocoder the geocoder to use
+   * @param cache the cache to use, or null
+   * @param maxConcurrency the maximum number of concurrent requests
+   * @param requestsPerSecond the maximum number of requests per second
+   */
+  public BatchGeocoder( final Geocoder geocoder, 
+                        final GeocodeCache cache, 
+                        final int maxConcurrency, 
+                        final double requestsPerSecond ) 
+  {
+    if( geocoder == null ) {
+      throw new IllegalArgumentException( "Geocoder must not be null" );
+    }
+    if( maxConcurrency < 1 || requestsPerSecond <= 0 ) {
+      throw new IllegalArgumentException( "Illegal limits" );
+    }
+    this.geocoder = geocoder;
+    this.cache = cache;
+    this.maxConcurrency = maxConcurrency;
+    this.rateLimit 
+      = new TokenBucket( requestsPerSecond, Math.max( 1, requestsPerSecond ) );
+  }
+
+  /**
+   * Starts a job that geocodes the given addresses. Null addresses are 
+   * reported as failed lookups.
+   */
+  public Job geocode( final String[] addresses, final Callback callback ) {
+    checkArguments( addresses, callback );
+    Job result = new Job( addresses, null, callback );
+    result.start();
+    return result;
+  }
+
+  /**
+   * Starts a job that looks up the addresses of the given locations. Null
+   * locations are reported as failed lookups.
+   */
+  public Job reverseGeocode( final LatLng[] locations, 
+                             final Callback callback ) 
+  {
+    checkArguments( locations, callback );
+    Job result = new Job( null, locations, callback );
+    result.start();
+    return result;
+  }
+
+  /**
+   * A running batch. The jobs of one BatchGeocoder share its limits.
+   */
+  public final class Job {
+
+    private final String[] addresses;
+    private final LatLng[] locations;
+    private final Callback callback;
+    private final Thread[] workers;
+    private final int size;
+    private int next = 0;
+    private int completed = 0;
+    private int running;
+    private boolean cancelled = false;
+
+    private Job( final String[] addresses, 
+                 final LatLng[] locations, 
+                 final Callback callback ) 
+    {
+      this.addresses = addresses;
+      this.locations = locations;
+      this.callback = callback;
+      size = addresses != null ? addresses.length : locations.length;
+      running = Math.max( 1, Math.min( maxConcurrency, size ) );
+      workers = new Thread[ running ];
+      for( int i = 0; i < workers.length; i++ ) {
+        workers[ i ] = new Thread( new Runnable() {
+          public void run() {
+            work();
+          }
+        }, "GMap BatchGeocoder" );
+        workers[ i ].setDaemon( true );
+      }
+    }
+
+    /**
+     * Stops the job. Results not yet delivered are dropped.
+     */
+    public void cancel() {
+      synchronized( this ) {
+        cancelled = true;
+      }
+      for( int i = 0; i < workers.length; i++ ) {
+        workers[ i ].interrupt();
+      }
+    }
+
+    public synchronized boolean isCancelled() {
+      return cancelled;
+    }
+
+    public synchronized boolean isDone() {
+      return running == 0;
+    }
+
+    public synchronized int getCompletedCount() {
+      return completed;
+    }
+
+    public int getSize() {
+      return size;
+    }
+
+    /**
+     * Waits until the job is done.
+     * 
+     * @param timeout the maximum time in milliseconds to wait, 0 to wait 
+     *                forever
+     * @return whether the job is done
+     */
+    public synchronized boolean await( final long timeout ) 
+      throws InterruptedException 
+    {
+      long end = System.currentTimeMillis() + timeout;
+      while( running > 0 ) {
+        long remaining = end - System.currentTimeMillis();
+        if( timeout > 0 && remaining <= 0 ) {
+          break;
+        }
+        wait( timeout > 0 ? remaining : 0 );
+      }
+      return running == 0;
+    }
+
+    private void start() {
+      for( int i = 0; i < workers.length; i++ ) {
+        workers[ i ].start();
+      }
+    }
+
+    private void work() {
+      try {
+        int index;
+        while( ( index = nextIndex() ) != -1 ) {
+          if( addresses != null ) {
+            geocode( index );
+          } else {
+            reverseGeocode( index );
+          }
+          synchronized( this ) {
+            completed++;
+          }
+        }
+      } catch( InterruptedException e ) {
+        // cancelled
+      } finally {
+        workerFinished();
+      }
+    }
+
+    private void geocode( final int index ) throws InterruptedException {
+      GeocodeResult result = null;
+      try {
+        result = BatchGeocoder.this.geocode( addresses[ index ] );
+      } catch( RuntimeException e ) {
+        Activator.log( "Could not geocode " + addresses[ index ], e );
+      }
+      if( !isCancelled() ) {
+        try {
+          callback.geocoded( index, result );
+        } catch( RuntimeException e ) {
+          Activator.log( "Exception in BatchGeocoder callback", e );
+        }
+      }
+    }
+
+    private void reverseGeocode( final int index ) 
+      throws InterruptedException 
+    {
+      String result = null;
+      try {
+        result = BatchGeocoder.this.reverseGeocode( locations[ index ] );
+      } catch( RuntimeException e ) {
+        Activator.log( "Could not reverse geocode " + locations[ index ], e );
+      }
+      if( !isCancelled() ) {
+        try {
+          callback.reverseGeocoded( index, result );
+        } catch( RuntimeException e ) {
+          Activator.log( "Exception in BatchGeocoder callback", e );
+        }
+      }
+    }
+
+    private synchronized int nextIndex() {
+      return cancelled || next >= size ? -1 : next++;
+    }
+
+    private void workerFinished() {
+      boolean last;
+      boolean wasCancelled;
+      synchronized( this ) {
+        running--;
+        last = running == 0;
+        wasCancelled = cancelled;
+        notifyAll();
+      }
+      if( last ) {
+        try {
+          callback.finished( wasCancelled );
+        } catch( RuntimeException e ) {
+          Activator.log( "Exception in BatchGeocoder callback", e );
+        }
+      }
+    }
+  }
+
+  private static void checkArguments( final Object[] input, 
+                                      final Callback callback ) 
+  {
+    if( input == null ) {
+      throw new IllegalArgumentException( "Input must not be null" );
+    }
+    if( callback == null ) {
+      throw new IllegalArgumentException( "Callback must not be null" );
+    }
+  }
+
+  private GeocodeResult geocode( final String address ) 
+    throws InterruptedException 
+  {
+    GeocodeResult result = null;
+    if( address != null && cache != null ) {
+      result = cache.get( address );
+    }
+    if( result == null && address != null ) {
+      acquireRequest();
+      try {
+        rateLimit.acquire();
+        result = geocoder.geocode( address );
+      } finally {
+        releaseRequest();
+      }
+      if( result != null && cache != null ) {
+        cache.put( address, result );
+      }
+    }
+    return result;
+  }
+
+  private String reverseGeocode( final LatLng location ) 
+    throws InterruptedException 
+  {
+    String result = null;
+    if( location != null && cache != null ) {
+      result = cache.getAddress( location );
+    }
+    if( result == null && location != null ) {
+      acquireRequest();
+      try {
+        rateLimit.acquire();
+        result = geocoder.reverseGeocode( location );
+      } finally {
+        releaseRequest();
+      }
+      if( result != null && cache != null ) {
+        cache.putAddress( location, result );
+      }
+    }
+    return result;
+  }
+
+  private void acquireRequest() throws InterruptedException {
+    synchronized( requestLock ) {
+      while( activeRequests >= maxConcurrency ) {
+        requestLock.wait();
+      }
+      activeRequests++;
+    }
+  }
+
+  private void releaseRequest() {
+    synchronized( requestLock ) {
+      activeRequests--;
+      requestLock.notify();
+    }
+  }
+
+}
@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.browser.Browser;
+import org.eclipse.swt.browser.ProgressEvent;
+import org.eclipse.swt.browser.ProgressListener;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Shell;
+
+/**
+ * A pool of browsers with the map page already loaded, per Display (i.e. 
+ * per session in RAP). Loading the page and the Google Maps API takes much
+ * longer than showing a map in a loaded page, so a GMap takes a browser 
+ * from the pool if there is one, and returns it when it is disposed. 
+ * Between two maps, the page is reset (see "reset" in GMap.js).
+ * 
+ * The pool is disabled by default, it is enabled by setting a maximum size
+ * larger than 0. Browsers that were not used for the idle timeout are 
+ * disposed. Browsers are kept in a hidden shell while they are pooled, 
+ * platforms that can not move a browser to another parent are not 
+ * supported (see Control#isReparentable).
+ */
+public final class BrowserPool {
+
+  private static final String SESSION_KEY = BrowserPool.class.getName();
+  private static final long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000;
+
+  private final Display display;
+  // idle entries, the most recently returned last
+  private final List entries = new ArrayList();
+  // entries of the browsers taken from the pool
+  private final List acquired = new ArrayList();
+  private int maxSize = 0;
+  private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+  private Shell shell;
+  private boolean evictionScheduled = false;
+  private final Runnable evictRunnable = new Runnable() {
+    public void run() {
+      evictionScheduled = false;
+      if( !display.isDisposed() ) {
+        evictIdle();
+      }
+    }
+  };
+
+  private BrowserPool( final Display display ) {
+    this.display = display;
+  }
+
+  /**
+   * Returns the pool of the given display, creating it if necessary. Must 
+   * be called from the UI thread.
+   */
+  public static BrowserPool getPool( final Display display ) {
+    BrowserPool result = findPool( display );
+    if( result == null ) {
+      result = new BrowserPool( display );
+      display.setData( SESSION_KEY, result );
+    }
+    return result;
+  }
+
+  static BrowserPool findPool( final Display display ) {
+    return ( BrowserPool )display.getData( SESSION_KEY );
+  }
+
+  /**
+   * Sets the maximum number of idle browsers, 0 disables the pool. Browsers
+   * in excess are disposed.
+   */
+  public void setMaxSize( final int maxSize ) {
+    checkThread();
+    if( maxSize < 0 ) {
+      throw new IllegalArgumentException( "Illegal size" );
+    }
+    this.maxSize = maxSize;
+    while( entries.size() > maxSize ) {
+      ( ( Entry )entries.remove( 0 ) ).browser.dispose();
+    }
+  }
+
+  public int getMaxSize() {
+    checkThread();
+    return maxSize;
+  }
+
+  /**
+   * Sets the time in milliseconds after which an unused browser is 
+   * disposed. The default is five minutes.
+   */
+  public void setIdleTimeout( final long idleTimeout ) {
+    checkThread();
+    if( idleTimeout <= 0 ) {
+      throw new IllegalArgumentException( "Illegal timeout" );
+    }
+    this.idleTimeout = idleTimeout;
+    scheduleEviction();
+  }
+
+  public long getIdleTimeout() {
+    checkThread();
+    return idleTimeout;
+  }
+
+  /**
+   * Returns the number of browsers available in the pool.
+   */
+  public int getSize() {
+    checkThread();
+    return entries.size();
+  }
+
+  /**
+   * Creates browsers and loads the map page until the pool has its maximum
+   * size, so that even the first maps do not need to load the page.
+   */
+  public void prewarm() {
+    checkThread();
+    while( entries.size() < maxSize ) {
+      Browser browser = new Browser( getShell(), SWT.NONE );
+      Entry entry = new Entry( browser );
+      HtmlLoader.load( browser, Activator.MAP_PAGE );
+      entry.idleSince = System.currentTimeMillis();
+      entries.add( entry );
+    }
+    scheduleEviction();
+  }
+
+  /**
+   * Disposes all browsers in the pool.
+   */
+  public void clear() {
+    checkThread();
+    while( !entries.isEmpty() ) {
+      ( ( Entry )entries.remove( 0 ) ).browser.dispose();
+    }
+  }
+
+  /**
+   * Takes a browser from the pool and moves it to the given parent, or 
+   * returns null if there is none. The most recently used one is taken, 
+   * preferring browsers that have finished loading.
+   */
+  Browser acquire( final Composite parent ) {
+    Entry result = null;
+    for( int i = entries.size() - 1; i >= 0 && result == null; i-- ) {
+      Entry entry = ( Entry )entries.get( i );
+      if( entry.loaded ) {
+        result = entry;
+      }
+    }
+    if( result == null && !entries.isEmpty() ) {
+      result = ( Entry )entries.get( entries.size() - 1 );
+    }
+    Browser browser = null;
+    if( result != null && result.browser.setParent( parent ) ) {
+      entries.remove( result );
+      acquired.add( result );
+      browser = result.browser;
+    }
+    return browser;
+  }
+
+  /**
+   * Returns whether the page of a browser taken from the pool has been 
+   * loaded, i.e. whether the map can be initialized right away.
+   */
+  boolean isLoaded( final Browser browser ) {
+    Entry entry = findAcquired( browser );
+    return entry != null && entry.loaded;
+  }
+
+  /**
+   * Moves the given browser back into the pool, if it is reusable (i.e. its
+   * page has been reset) and the pool is enabled and not full. Returns false
+   * if the browser was not taken back, it must then be disposed together 
+   * with its parent.
+   */
+  boolean release( final Browser browser, final boolean reusable ) {
+    Entry entry = findAcquired( browser );
+    boolean result = false;
+    if( entry == null ) {
+      entry = new Entry( browser );
+      // Note: A browser created by a GMap shows the map page, which has 
+      //       been loaded if it is reusable.
+      entry.loaded = reusable;
+    } else {
+      acquired.remove( entry );
+    }
+    if(    reusable 
+        && maxSize > 0 
+        && entries.size() < maxSize 
+        && !browser.isDisposed() 
+        && browser.isReparentable() ) 
+    {
+      result = browser.setParent( getShell() );
+    }
+    if( result ) {
+      entry.idleSince = System.currentTimeMillis();
+      entries.add( entry );
+      scheduleEviction();
+    } else {
+      entry.dispose();
+    }
+    return result;
+  }
+
+  private Entry findAcquired( final Browser browser ) {
+    Entry result = null;
+    for( int i = 0; i < acquired.size() && result == null; i++ ) {
+      Entry entry = ( Entry )acquired.get( i );
+      if( entry.browser == browser ) {
+        result = entry;
+      }
+    }
+    return result;
+  }
+
+  private void evictIdle() {
+    long now = System.currentTimeMillis();
+    for( int i = entries.size() - 1; i >= 0; i-- ) {
+      Entry entry = ( Entry )entries.get( i );
+      if( now - entry.idleSince >= idleTimeout ) {
+        entries.remove( i );
+        entry.browser.dispose();
+      }
+    }
+    scheduleEviction();
+  }
+
+  private void scheduleEviction() {
+    if( !evictionScheduled && !entries.isEmpty() ) {
+      long oldest = Long.MAX_VALUE;
+      for( int i = 0; i < entries.size(); i++ ) {
+        oldest = Math.min( oldest, ( ( Entry )entries.get( i ) ).idleSince );
+      }
+      long delay = oldest + idleTimeout - System.currentTimeMillis();
+      delay = Math.min( delay, Integer.MAX_VALUE );
+      evictionScheduled = true;
+      display.timerExec( ( int )Math.max( 1, delay ), evictRunnable );
+    }
+  }
+
+  private Shell getShell() {
+    if( shell == null || shell.isDisposed() ) {
+      // Note: The shell is never opened. It has the size of a typical map, 
+      //       so that the maps are laid out before they are shown.
+      shell = new Shell( display );
+      shell.setSize( 600, 400 );
+    }
+    return shell;
+  }
+
+  private void checkThread() {
+    if( display.getThread() != Thread.currentThread() ) {
+      SWT.error( SWT.ERROR_THREAD_INVALID_ACCESS );
+    }
+  }
+
+  private static final class Entry {
+
+    final Browser browser;
+    boolean loaded = false;
+    long idleSince;
+    private final ProgressListener listener = new ProgressListener() {
+      public void completed( final ProgressEvent event ) {
+        loaded = true;
+      }
+      public void changed( final ProgressEvent event ) {
+      }
+    };
+
+    Entry( final Browser browser ) {
+      this.browser = browser;
+      browser.addProgressListener( listener );
+    }
+
+    void dispose() {
+      if( !browser.isDisposed() ) {
+        browser.removeProgressListener( listener );
+      }
+    }
+  }
+
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import org.eclipse.core.runtime.ListenerList;
+
+
+/**
+ * Delivers camera events to listeners on a background thread, so that slow 
+ * listeners do not block the UI thread. Events that arrive while the 
+ * listeners are still busy are combined, the listeners then get a single 
+ * event covering all of them, unless the changes cancel each other out.
+ */
+final class CameraDispatcher implements Runnable {
+
+  private final ListenerList listeners = new ListenerList();
+  private CameraEvent pending = null;
+  private Thread thread = null;
+  private boolean disposed = false;
+
+  void addListener( final CameraListener listener ) {
+    listeners.add( listener );
+  }
+
+  void removeListener( final CameraListener listener ) {
+    listeners.remove( listener );
+  }
+
+  boolean hasListeners() {
+    return !listeners.isEmpty();
+  }
+
+  synchronized void dispatch( final CameraEvent event ) {
+    if( !disposed ) {
+      pending = pending == null ? event : CameraEvent.merge( pending, event );
+      if( thread == null ) {
+        thread = new Thread( this, "GMap camera events" );
+        thread.setDaemon( true );
+        thread.start();
+      }
+      notifyAll();
+    }
+  }
+
+  synchronized void dispose() {
+    disposed = true;
+    pending = null;
+    notifyAll();
+  }
+
+  public void run() {
+    CameraEvent event = take();
+    while( event != null ) {
+      // Note: Merged events can cancel out, e.g. zooming in and out again
+      if( event.changes != 0 ) {
+        notifyListeners( event );
+      }
+      event = take();
+    }
+  }
+
+  private void notifyListeners( final CameraEvent event ) {
+    Object[] allListeners = listeners.getListeners();
+    for( int i = 0; i < allListeners.length; i++ ) {
+      CameraListener listener = ( CameraListener )allListeners[ i ];
+      try {
+        listener.cameraChanged( event );
+      } catch( RuntimeException exception ) {
+        // Keep the thread alive for the other listeners and later events
+        Thread current = Thread.currentThread();
+        current.getThreadGroup().uncaughtException( current, exception );
+      }
+    }
+  }
+
+  private synchronized CameraEvent take() {
+    while( pending == null && !disposed ) {
+      try {
+        wait();
+      } catch( InterruptedException e ) {
+        disposed = true;
+      }
+    }
+    CameraEvent result = pending;
+    pending = null;
+    return result;
+  }
+
+}
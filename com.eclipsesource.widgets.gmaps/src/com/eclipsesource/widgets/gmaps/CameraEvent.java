@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+
+/**
+ * Describes a change of the camera of a GMap. Events are immutable, so they 
+ * can safely be passed to other threads.
+ */
+public final class CameraEvent {
+
+  public static final int CENTER = 1;
+  public static final int ZOOM = 2;
+  public static final int BOUNDS = 4;
+
+  public final LatLng oldCenter;
+  public final LatLng newCenter;
+  public final int oldZoom;
+  public final int newZoom;
+  /** The visible area before the change, null if it was not known yet */
+  public final LatLngBounds oldBounds;
+  /** The visible area after the change, null if it is not known yet */
+  public final LatLngBounds newBounds;
+  /** Which of CENTER, ZOOM and BOUNDS changed */
+  public final int changes;
+
+  CameraEvent( final LatLng oldCenter, 
+               final LatLng newCenter, 
+               final int oldZoom, 
+               final int newZoom, 
+               final LatLngBounds oldBounds, 
+               final LatLngBounds newBounds ) 
+  {
+    this.oldCenter = oldCenter;
+    this.newCenter = newCenter;
+    this.oldZoom = oldZoom;
+    this.newZoom = newZoom;
+    this.oldBounds = oldBounds;
+    this.newBounds = newBounds;
+    int changes = 0;
+    if( !oldCenter.equals( newCenter ) ) {
+      changes |= CENTER;
+    }
+    if( oldZoom != newZoom ) {
+      changes |= ZOOM;
+    }
+    if( newBounds != null && !newBounds.equals( oldBounds ) ) {
+      changes |= BOUNDS;
+    }
+    this.changes = changes;
+  }
+
+  /**
+   * Combines two consecutive events into one.
+   */
+  static CameraEvent merge( final CameraEvent first, 
+                            final CameraEvent second ) 
+  {
+    return new CameraEvent( first.oldCenter, 
+                            second.newCenter, 
+                            first.oldZoom, 
+                            second.newZoom, 
+                            first.oldBounds, 
+                            second.newBounds );
+  }
+
+  public boolean isCenterChanged() {
+    return ( changes & CENTER ) != 0;
+  }
+
+  public boolean isZoomChanged() {
+    return ( changes & ZOOM ) != 0;
+  }
+
+  public boolean isBoundsChanged() {
+    return ( changes & BOUNDS ) != 0;
+  }
+
+  public String toString() {
+    return "CameraEvent(" + newCenter + ", " + newZoom + ", " + newBounds + ")";
+  }
+
+}
@@ -0,0 +1,23 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+
+/**
+ * Receives the changes of the camera (center, zoom and visible bounds) of a
+ * GMap. All changes within one event cycle are combined into one event.
+ * 
+ * @see GMap#addCameraListener(CameraListener, boolean)
+ */
+public interface CameraListener {
+
+  public void cameraChanged( CameraEvent event );
+
+}
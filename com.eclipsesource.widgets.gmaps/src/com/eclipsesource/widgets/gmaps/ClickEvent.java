@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+
+/**
+ * Describes a click on a GMap. The marker hit is resolved on the server, 
+ * using a SpatialIndex of the markers created with GMap#addMarkers. Events
+ * are immutable.
+ */
+public final class ClickEvent {
+
+  /** The position clicked */
+  public final LatLng position;
+  /** The id of the marker hit, or -1 if the click was not near a marker */
+  public final int marker;
+  /** The zoom level of the map at the time of the click */
+  public final int zoom;
+
+  ClickEvent( final LatLng position, final int marker, final int zoom ) {
+    this.position = position;
+    this.marker = marker;
+    this.zoom = zoom;
+  }
+
+  public boolean isMarkerHit() {
+    return marker != -1;
+  }
+
+}
@@ -0,0 +1,22 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+
+/**
+ * Receives the clicks of the user on a GMap.
+ * 
+ * @see GMap#addClickListener(ClickListener)
+ */
+public interface ClickListener {
+
+  public void mapClicked( ClickEvent event );
+
+}
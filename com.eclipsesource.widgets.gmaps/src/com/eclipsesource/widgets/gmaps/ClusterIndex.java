@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+/**
+ * Grid based clustering of markers for all zoom levels. At every zoom level
+ * the projected world is divided into cells of CELL_SIZE pixels and all 
+ * markers within one cell form a cluster, represented by the average of 
+ * their positions. 
+ * 
+ * Since the cells of a zoom level contain exactly four cells of the next 
+ * level, a marker is in cell ( x >> 1, y >> 1 ) one level up. This allows 
+ * all levels to be precomputed and to be updated incrementally when markers 
+ * are added, moved or removed. Changing the zoom level only selects another
+ * level.
+ * 
+ * The levels grow with the number of non-empty cells. Cells that become 
+ * empty are removed and their slots are reused, so moving markers around 
+ * does not grow the index.
+ */
+final class ClusterIndex {
+
+  static final int CELL_SIZE_SHIFT = 6; // 64 pixels
+  private static final int LEVELS = Mercator.MAX_ZOOM + 1;
+  private static final int FINEST_CELLS = 
+    1 << ( Mercator.MAX_ZOOM + 8 - CELL_SIZE_SHIFT );
+  private static final int PARALLEL_THRESHOLD = 20000;
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final Level[] levels = new Level[ LEVELS ];
+
+  ClusterIndex() {
+    for( int i = 0; i < LEVELS; i++ ) {
+      levels[ i ] = new Level( i + 8 - CELL_SIZE_SHIFT );
+    }
+  }
+
+  /**
+   * Adds all markers of the store. The (expensive) projection is done in
+   * parallel for large stores.
+   */
+  void addAll( final MarkerStore store ) {
+    final int size = store.size();
+    final int[] cellX = new int[ size ];
+    final int[] cellY = new int[ size ];
+    Parallel.run( size, PARALLEL_THRESHOLD, new Parallel.Task() {
+      public void run( final int from, final int to ) {
+        for( int id = from; id < to; id++ ) {
+          if( store.contains( id ) ) {
+            cellX[ id ] = toCell( Mercator.toX( store.getLongitude( id ) ) );
+            cellY[ id ] = toCell( Mercator.toY( store.getLatitude( id ) ) );
+          }
+        }
+      }
+    } );
+    for( int id = 0; id < size; id++ ) {
+      if( store.contains( id ) ) {
+        add( id, 
+             cellX[ id ], 
+             cellY[ id ], 
+             store.getLatitude( id ), 
+             store.getLongitude( id ), 
+             1 );
+      }
+    }
+  }
+
+  void add( final int id, final double latitude, final double longitude ) {
+    add( id, 
+         toCell( Mercator.toX( longitude ) ), 
+         toCell( Mercator.toY( latitude ) ), 
+         latitude, 
+         longitude, 
+         1 );
+  }
+
+  void remove( final int id, final double latitude, final double longitude ) {
+    add( id, 
+         toCell( Mercator.toX( longitude ) ), 
+         toCell( Mercator.toY( latitude ) ), 
+         latitude, 
+         longitude, 
+         -1 );
+  }
+
+  Level getLevel( final int zoom ) {
+    return levels[ zoom ];
+  }
+
+  private void add( final int id, 
+                    final int finestX, 
+                    final int finestY, 
+                    final double latitude, 
+                    final double longitude, 
+                    final int sign ) 
+  {
+    for( int zoom = 0; zoom < LEVELS; zoom++ ) {
+      int shift = Mercator.MAX_ZOOM - zoom;
+      levels[ zoom ].add( finestX >> shift, 
+                          finestY >> shift, 
+                          id, 
+                          latitude, 
+                          longitude, 
+                          sign );
+    }
+  }
+
+  private static int toCell( final double projected ) {
+    return ( int )( projected * FINEST_CELLS );
+  }
+
+  /**
+   * The clusters of one zoom level. Clusters are accessed by index. Indices
+   * of clusters that became empty are skipped by iterating with next, and 
+   * are reused for new clusters.
+   */
+  static final class Level {
+
+    // number of cells per axis is 1 << gridShift
+    private final int gridShift;
+    private final LongIntMap cells = new LongIntMap( INITIAL_CAPACITY );
+    private final IntList freeIndices = new IntList();
+    private long[] keys = new long[ INITIAL_CAPACITY ];
+    private int[] counts = new int[ INITIAL_CAPACITY ];
+    private double[] latitudeSums = new double[ INITIAL_CAPACITY ];
+    private double[] longitudeSums = new double[ INITIAL_CAPACITY ];
+    private long[] idSums = new long[ INITIAL_CAPACITY ];
+    private int size = 0;
+
+    private Level( final int gridShift ) {
+      this.gridShift = gridShift;
+    }
+
+    /**
+     * Returns the index of the next non-empty cluster starting at the given
+     * index, or -1.
+     */
+    int next( final int index ) {
+      int result = index;
+      while( result < size && counts[ result ] == 0 ) {
+        result++;
+      }
+      return result < size ? result : -1;
+    }
+
+    /**
+     * Adds the indices of the non-empty clusters whose cells intersect the
+     * given rectangle (in projected coordinates) to the result. x2 may 
+     * exceed 1 if the rectangle crosses the 180th meridian. Small rectangles
+     * are looked up cell by cell, otherwise all clusters are tested by their
+     * cell.
+     */
+    void query( final double x1, 
+                final double y1, 
+                final double x2, 
+                final double y2, 
+                final IntList result ) 
+    {
+      int gridSize = 1 << gridShift;
+      int mask = gridSize - 1;
+      int minX = toGridCell( x1 ) & mask;
+      int columns = Math.min( gridSize, toGridCell( x2 ) - minX + 1 );
+      int minY = Math.max( 0, toGridCell( y1 ) );
+      int maxY = Math.min( mask, toGridCell( y2 ) );
+      long area = ( long )columns * ( maxY - minY + 1 );
+      if( area <= cells.size() ) {
+        for( int column = 0; column < columns; column++ ) {
+          int x = ( minX + column ) & mask;
+          for( int y = minY; y <= maxY; y++ ) {
+            int index = cells.get( toKey( x, y ) );
+            if( index != LongIntMap.NOT_FOUND ) {
+              result.add( index );
+            }
+          }
+        }
+      } else {
+        for( int index = 0; index < size; index++ ) {
+          if( counts[ index ] != 0 ) {
+            int x = ( int )( keys[ index ] >>> 32 );
+            int y = ( int )keys[ index ];
+            if(    ( ( x - minX ) & mask ) < columns 
+                && y >= minY 
+                && y <= maxY ) 
+            {
+              result.add( index );
+            }
+          }
+        }
+      }
+    }
+
+    int getCount( final int index ) {
+      return counts[ index ];
+    }
+
+    double getLatitude( final int index ) {
+      return latitudeSums[ index ] / counts[ index ];
+    }
+
+    double getLongitude( final int index ) {
+      return longitudeSums[ index ] / counts[ index ];
+    }
+
+    /**
+     * The id of the marker if the cluster contains exactly one, otherwise -1.
+     */
+    int getMarkerId( final int index ) {
+      // Note: the sum of ids is the id itself if there is only one
+      return counts[ index ] == 1 ? ( int )idSums[ index ] : -1;
+    }
+
+    /**
+     * Returns the number of slots in use, including those of empty clusters
+     * that are waiting to be reused.
+     */
+    int size() {
+      return size;
+    }
+
+    private void add( final int cellX, 
+                      final int cellY, 
+                      final int id, 
+                      final double latitude, 
+                      final double longitude, 
+                      final int sign ) 
+    {
+      long key = toKey( cellX, cellY );
+      int index = cells.get( key );
+      if( index == LongIntMap.NOT_FOUND ) {
+        index = allocate();
+        keys[ index ] = key;
+        cells.put( key, index );
+      }
+      counts[ index ] += sign;
+      latitudeSums[ index ] += sign * latitude;
+      longitudeSums[ index ] += sign * longitude;
+      idSums[ index ] += sign * id;
+      if( counts[ index ] == 0 ) {
+        // avoid accumulating rounding errors in reused cells
+        latitudeSums[ index ] = 0;
+        longitudeSums[ index ] = 0;
+        idSums[ index ] = 0;
+        cells.remove( key );
+        freeIndices.add( index );
+      }
+    }
+
+    private int allocate() {
+      int result;
+      int free = freeIndices.size();
+      if( free > 0 ) {
+        result = freeIndices.get( free - 1 );
+        freeIndices.removeFast( free - 1 );
+      } else {
+        result = size++;
+        ensureCapacity( size );
+      }
+      return result;
+    }
+
+    private int toGridCell( final double projected ) {
+      return ( int )Math.floor( projected * ( 1 << gridShift ) );
+    }
+
+    private static long toKey( final int cellX, final int cellY ) {
+      return ( ( long )cellX << 32 ) | cellY;
+    }
+
+    private void ensureCapacity( final int capacity ) {
+      if( capacity > counts.length ) {
+        int length = counts.length;
+        int newCapacity = Math.max( capacity, length * 2 );
+        long[] newKeys = new long[ newCapacity ];
+        int[] newCounts = new int[ newCapacity ];
+        double[] newLatitudeSums = new double[ newCapacity ];
+        double[] newLongitudeSums = new double[ newCapacity ];
+        long[] newIdSums = new long[ newCapacity ];
+        System.arraycopy( keys, 0, newKeys, 0, length );
+        System.arraycopy( counts, 0, newCounts, 0, length );
+        System.arraycopy( latitudeSums, 0, newLatitudeSums, 0, length );
+        System.arraycopy( longitudeSums, 0, newLongitudeSums, 0, length );
+        System.arraycopy( idSums, 0, newIdSums, 0, length );
+        keys = newKeys;
+        counts = newCounts;
+        latitudeSums = newLatitudeSums;
+        longitudeSums = newLongitudeSums;
+        idSums = newIdSums;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.swt.browser.Browser;
+
+/**
+ * Collects the scripts created by the GMap and sends them to the browser in
+ * a single evaluation, either at the end of the current event cycle
+ * (using asyncExec) or when flush is called explicitly.
+ *
+ * Scripts can be added with a key. A script with the same key as a script
+ * still pending replaces it (keeping the original position), since only the
+ * last call of setters like setCenter matters.
+ * 
+ * Instead of a script, a Command can be added. Its script is created only 
+ * when the queue is flushed, so that expensive scripts depending on the 
+ * state of the map (like the clusters for the current zoom) are created 
+ * only once per flush.
+ * 
+ * Until the queue is marked as ready (i.e. the document is loaded), nothing
+ * is sent. The pending scripts can then be drained and sent together with
+ * the initialization script. The browser can therefore also be set later, 
+ * for maps that are loaded lazily.
+ */
+final class CommandQueue {
+
+  interface Command {
+    /**
+     * Returns the script to execute, or null if there is nothing to do.
+     */
+    String createScript();
+  }
+
+  private Browser browser;
+  private final MapMetrics metrics;
+  private int mapType;
+  private final List scripts = new ArrayList();
+  // key -> Integer (index in scripts)
+  private final Map keyIndex = new HashMap();
+  private boolean immediate = false;
+  private boolean ready = false;
+  private boolean flushScheduled = false;
+  private final Runnable flushRunnable = new Runnable() {
+    public void run() {
+      flushScheduled = false;
+      if( browser != null && !browser.isDisposed() ) {
+        flush();
+      }
+    }
+  };
+
+  CommandQueue( final Browser browser, final MapMetrics metrics ) {
+    this.browser = browser;
+    this.metrics = metrics;
+  }
+
+  void setBrowser( final Browser browser ) {
+    this.browser = browser;
+  }
+
+  /**
+   * Sets the type of the map, for which the evaluations are counted.
+   */
+  void setMapType( final int mapType ) {
+    this.mapType = mapType;
+  }
+
+  void setImmediate( final boolean immediate ) {
+    this.immediate = immediate;
+    if( immediate ) {
+      flush();
+    }
+  }
+
+  boolean isImmediate() {
+    return immediate;
+  }
+
+  void setReady() {
+    ready = true;
+  }
+
+  void add( final String script ) {
+    add( null, script );
+  }
+
+  void add( final String key, final Command command ) {
+    add( key, ( Object )command );
+  }
+
+  void add( final String key, final String script ) {
+    add( key, ( Object )script );
+  }
+
+  private void add( final String key, final Object script ) {
+    Integer index = key != null ? ( Integer )keyIndex.get( key ) : null;
+    if( index != null ) {
+      scripts.set( index.intValue(), script );
+    } else {
+      if( key != null ) {
+        keyIndex.put( key, new Integer( scripts.size() ) );
+      }
+      scripts.add( script );
+    }
+    if( immediate ) {
+      flush();
+    } else if( ready ) {
+      scheduleFlush();
+    }
+  }
+
+  void flush() {
+    if( ready && browser != null && !scripts.isEmpty() ) {
+      String script = drain();
+      if( script.length() > 0 ) {
+        evaluate( script );
+      }
+    }
+  }
+
+  /**
+   * Evaluates the given script right away. All scripts are sent through 
+   * here, so that they are counted.
+   */
+  void evaluate( final String script ) {
+    metrics.scriptEvaluated( mapType, script.length() );
+    browser.evaluate( script );
+  }
+
+  /**
+   * Returns all pending scripts as one and clears the queue.
+   */
+  String drain() {
+    JsWriter result = JsWriter.obtain();
+    drain( result );
+    return result.finish();
+  }
+
+  /**
+   * Writes all pending scripts to the given writer and clears the queue.
+   */
+  void drain( final JsWriter writer ) {
+    for( int i = 0; i < scripts.size(); i++ ) {
+      Object script = scripts.get( i );
+      if( script instanceof Command ) {
+        script = ( ( Command )script ).createScript();
+      }
+      if( script != null ) {
+        writer.statement( ( String )script );
+      }
+    }
+    scripts.clear();
+    keyIndex.clear();
+  }
+
+  private void scheduleFlush() {
+    if( !flushScheduled ) {
+      flushScheduled = true;
+      browser.getDisplay().asyncExec( flushRunnable );
+    }
+  }
+
+}
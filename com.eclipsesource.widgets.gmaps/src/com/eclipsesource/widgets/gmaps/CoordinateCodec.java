@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+/**
+ * Encodes coordinates for the transfer between Java and GMap.js, using the 
+ * scheme of Google's encoded polylines: every value is rounded to a fixed
+ * number of decimal places, stored as the difference to the value two 
+ * positions before (i.e. latitude to latitude and longitude to longitude), 
+ * and written in 5-bit chunks as printable characters. Positions close to 
+ * each other therefore take only a few characters each.
+ * 
+ * The encoded values are written straight into the script as an argument 
+ * of decodeCoordinates (see GMap.js), which returns them as flat array:
+ * 
+ * <pre>
+ * script.beginCoordinates( codec );
+ * script.coordinates( latitude, longitude );
+ * ...
+ * script.endCoordinates();
+ * </pre>
+ * 
+ * An instance keeps the state of the values written last and must not be
+ * used for more than one script at a time.
+ */
+final class CoordinateCodec {
+
+  static final int DEFAULT_PRECISION = 6;
+  static final int MAX_PRECISION = 7;
+  private static final int STRIDE = 2;
+  private static final long[] SCALES = new long[ MAX_PRECISION + 1 ];
+
+  static {
+    SCALES[ 0 ] = 1;
+    for( int i = 1; i < SCALES.length; i++ ) {
+      SCALES[ i ] = SCALES[ i - 1 ] * 10;
+    }
+  }
+
+  private int precision;
+  private long scale;
+  private final long[] previous = new long[ STRIDE ];
+  private int position;
+
+  CoordinateCodec() {
+    setPrecision( DEFAULT_PRECISION );
+  }
+
+  void setPrecision( final int precision ) {
+    if( precision < 0 || precision > MAX_PRECISION ) {
+      throw new IllegalArgumentException( "Illegal precision" );
+    }
+    this.precision = precision;
+    scale = SCALES[ precision ];
+  }
+
+  int getPrecision() {
+    return precision;
+  }
+
+  void begin( final JsWriter script ) {
+    previous[ 0 ] = 0;
+    previous[ 1 ] = 0;
+    position = 0;
+    script.append( "decodeCoordinates( \"" );
+  }
+
+  void append( final JsWriter script, 
+               final double latitude, 
+               final double longitude ) 
+  {
+    appendValue( script, latitude );
+    appendValue( script, longitude );
+  }
+
+  void end( final JsWriter script ) {
+    script.append( "\", " );
+    script.append( precision );
+    script.append( " )" );
+  }
+
+  /**
+   * Decodes values encoded with the same scheme (e.g. by GMap.js). 
+   * 
+   * @throws IllegalArgumentException if the precision is out of range, or
+   *                                  the string is not a valid encoding
+   */
+  static double[] decode( final String encoded, final int precision ) {
+    if( precision < 0 || precision > MAX_PRECISION ) {
+      throw new IllegalArgumentException( "Illegal precision" );
+    }
+    double scale = SCALES[ precision ];
+    double[] values = new double[ encoded.length() ];
+    long[] previous = new long[ STRIDE ];
+    int count = 0;
+    int index = 0;
+    while( index < encoded.length() ) {
+      long value = 0;
+      int shift = 0;
+      int chunk;
+      do {
+        // Note: A value must end within the string and fit into a long
+        if( index == encoded.length() || shift > 60 ) {
+          throw new IllegalArgumentException( "Illegal encoded value" );
+        }
+        chunk = encoded.charAt( index++ ) - 63;
+        if( chunk < 0 || chunk > 0x3F ) {
+          throw new IllegalArgumentException( "Illegal encoded value" );
+        }
+        value |= ( long )( chunk & 0x1F ) << shift;
+        shift += 5;
+      } while( chunk >= 0x20 );
+      long delta = ( value & 1 ) != 0 ? ~( value >> 1 ) : value >> 1;
+      long scaled = previous[ count % STRIDE ] + delta;
+      previous[ count % STRIDE ] = scaled;
+      values[ count++ ] = scaled / scale;
+    }
+    double[] result = new double[ count ];
+    System.arraycopy( values, 0, result, 0, count );
+    return result;
+  }
+
+  private void appendValue( final JsWriter script, final double value ) {
+    long scaled = Math.round( value * scale );
+    int slot = position++ % STRIDE;
+    long delta = scaled - previous[ slot ];
+    previous[ slot ] = scaled;
+    long rest = delta < 0 ? ~( delta << 1 ) : delta << 1;
+    while( rest >= 0x20 ) {
+      appendChar( script, ( int )( ( 0x20 | ( rest & 0x1F ) ) + 63 ) );
+      rest >>= 5;
+    }
+    appendChar( script, ( int )( rest + 63 ) );
+  }
+
+  private static void appendChar( final JsWriter script, final int ch ) {
+    // All characters are printable ASCII, only the backslash needs escaping
+    if( ch == '\\' ) {
+      script.append( '\\' );
+    }
+    script.append( ( char )ch );
+  }
+
+}
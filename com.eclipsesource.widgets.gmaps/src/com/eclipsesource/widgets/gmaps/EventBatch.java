@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+/**
+ * Reads the batches of events sent by GMap.js through the BrowserFunction 
+ * "onEvents". All events of the browser (camera changes, clicks, dragged 
+ * markers and geocoding results) use this single channel, so that events 
+ * occurring close to each other take only one round-trip. 
+ * 
+ * A batch is a string of events separated by U+001E. Each event is a type 
+ * character followed by its fields, each preceded by U+001F. Fields are 
+ * read on demand, without splitting the batch:
+ * 
+ * <pre>
+ * EventBatch events = new EventBatch( batch );
+ * while( events.next() ) {
+ *   if( events.isValid() && events.getType() == EventBatch.CLICK ) {
+ *     double latitude = events.getDouble( 0 );
+ *     ...
+ * </pre>
+ * 
+ * The getters throw an IllegalArgumentException for missing fields or 
+ * malformed numbers. Events should therefore be checked with isValid first.
+ */
+final class EventBatch {
+
+  /** encoded camera (see CoordinateCodec), precision */
+  static final char CAMERA = 'c';
+  /** latitude, longitude */
+  static final char CLICK = 'k';
+  /** marker id, latitude, longitude */
+  static final char MARKER_DRAGGED = 'd';
+  /** address, latitude, longitude */
+  static final char ADDRESS_RESOLVED = 'a';
+  /** address, result, latitude, longitude, south, west, north, east */
+  static final char ADDRESS_GEOCODED = 'g';
+
+  private static final int MAX_TO_STRING = 64;
+  private static final char EVENT_SEPARATOR = '\u001e';
+  private static final char FIELD_SEPARATOR = '\u001f';
+
+  private final String batch;
+  private int position = 0;
+  private char type;
+  // the start of each field of the current event, and its end
+  private int[] fieldStarts = new int[ 8 ];
+  private int fieldCount;
+  private int eventStart;
+  private int eventEnd;
+
+  EventBatch( final String batch ) {
+    this.batch = batch != null ? batch : "";
+  }
+
+  /**
+   * Moves to the next event.
+   * 
+   * @return false if there are no more events
+   */
+  boolean next() {
+    boolean result = false;
+    // Empty events (which are not sent) are skipped
+    while( !result && position < batch.length() ) {
+      int end = batch.indexOf( EVENT_SEPARATOR, position );
+      eventEnd = end != -1 ? end : batch.length();
+      if( eventEnd > position ) {
+        eventStart = position;
+        type = batch.charAt( position );
+        findFields();
+        result = true;
+      }
+      position = eventEnd + 1;
+    }
+    return result;
+  }
+
+  char getType() {
+    return type;
+  }
+
+  int getFieldCount() {
+    return fieldCount;
+  }
+
+  /**
+   * Whether the current event is of a known type and has the fields of 
+   * that type, with finite numbers where numbers are expected. The encoded
+   * camera is checked when it is decoded.
+   */
+  boolean isValid() {
+    boolean result;
+    switch( type ) {
+      case CAMERA:
+        result = fieldCount == 2 && areNumbers( 1, 1 );
+      break;
+      case CLICK:
+        result = fieldCount == 2 && areNumbers( 0, 2 );
+      break;
+      case MARKER_DRAGGED:
+        result = fieldCount == 3 && areNumbers( 0, 3 );
+      break;
+      case ADDRESS_RESOLVED:
+        result = fieldCount == 3 && areNumbers( 1, 2 );
+      break;
+      case ADDRESS_GEOCODED:
+        result = fieldCount == 8 && areNumbers( 2, 6 );
+      break;
+      default:
+        result = false;
+      break;
+    }
+    return result;
+  }
+
+  String getString( final int field ) {
+    return batch.substring( fieldStarts[ checkField( field ) ], 
+                            getFieldEnd( field ) );
+  }
+
+  double getDouble( final int field ) {
+    try {
+      return Double.parseDouble( getString( field ) );
+    } catch( NumberFormatException e ) {
+      throw new IllegalArgumentException( "Illegal number in event" );
+    }
+  }
+
+  int getInt( final int field ) {
+    return ( int )getDouble( field );
+  }
+
+  /**
+   * Returns the current event as sent, shortened if it is long. For error 
+   * messages.
+   */
+  public String toString() {
+    int end = Math.min( eventEnd, eventStart + MAX_TO_STRING );
+    String result = batch.substring( eventStart, end );
+    return result.replace( FIELD_SEPARATOR, '|' );
+  }
+
+  private boolean areNumbers( final int first, final int count ) {
+    boolean result = true;
+    for( int i = first; result && i < first + count; i++ ) {
+      try {
+        double value = Double.parseDouble( getString( i ) );
+        result = !Double.isNaN( value ) && !Double.isInfinite( value );
+      } catch( NumberFormatException e ) {
+        result = false;
+      }
+    }
+    return result;
+  }
+
+  private void findFields() {
+    fieldCount = 0;
+    for( int i = position + 1; i < eventEnd; i++ ) {
+      if( batch.charAt( i ) == FIELD_SEPARATOR ) {
+        if( fieldCount == fieldStarts.length ) {
+          int[] newStarts = new int[ fieldCount * 2 ];
+          System.arraycopy( fieldStarts, 0, newStarts, 0, fieldCount );
+          fieldStarts = newStarts;
+        }
+        fieldStarts[ fieldCount++ ] = i + 1;
+      }
+    }
+  }
+
+  private int getFieldEnd( final int field ) {
+    return field + 1 < fieldCount 
+           ? fieldStarts[ field + 1 ] - 1 
+           : eventEnd;
+  }
+
+  private int checkField( final int field ) {
+    if( field < 0 || field >= fieldCount ) {
+      throw new IllegalArgumentException( "Missing field in event: " + type );
+    }
+    return field;
+  }
+
+}
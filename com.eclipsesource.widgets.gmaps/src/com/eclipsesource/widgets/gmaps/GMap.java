@@ -11,42 +11,141 @@
  ******************************************************************************/
 package com.eclipsesource.widgets.gmaps;
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.eclipse.core.runtime.ListenerList;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.browser.Browser;
 import org.eclipse.swt.browser.BrowserFunction;
 import org.eclipse.swt.browser.ProgressEvent;
 import org.eclipse.swt.browser.ProgressListener;
+import org.eclipse.swt.events.ControlAdapter;
+import org.eclipse.swt.events.ControlEvent;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
+import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.layout.FillLayout;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.Layout;
+import org.eclipse.swt.widgets.Listener;
 
 public class GMap extends Composite {
 
   private static final String[] AVAILABLE_TYPES = new String[] {
-    "ROADMAP",
-    "SATELLITE",
-    "HYBRID",
+    "ROADMAP", 
+    "SATELLITE", 
+    "HYBRID", 
     "TERRAIN"
   };
   public final static int TYPE_ROADMAP = 0;
   public final static int TYPE_SATELLITE = 1;
   public final static int TYPE_HYBRID = 2;
   public final static int TYPE_TERRAIN = 3;
+  // how close (in pixels) a click must be to a marker to hit it
+  private static final int CLICK_TOLERANCE = 12;
+  private static final String UI_CALLBACK 
+    = "org.eclipse.rwt.lifecycle.UICallBack";
   
   private Browser browser;
+  private CommandQueue commands;
+  private MapMetrics metrics;
+  // when loading started, and when pending geocode requests were made
+  private long loadStart;
+  private long resolveStart = 0;
+  private long gotoStart = 0;
+  private CoordinateCodec codec;
+  private MarkerLayer markers;
+  private PolylineLayer polylines;
+  private Overlays overlays;
+  private PositionFeed positionFeed = null;
+  private int frameInterval;
+  private long lastFrame = 0;
+  private Runnable frameRunnable;
+  private PositionFeed.Receiver feedReceiver;
   private int type = TYPE_ROADMAP;
   private String address = "";
   private LatLng center = new LatLng( 0, 0 );
   private int zoom = 8;
+  private LatLngBounds bounds = null;
+  private int cameraEventRate = 0;
+  private Geocoder geocoder = null;
+  private GeocodeCache geocodeCache = GeocodeCache.getShared();
+  // results of the browser geocoder
+  private final GeocodeCache sessionCache;
+  private TileStore tileStore = null;
+  private Heatmap heatmap = null;
+  private Runnable heatmapListener;
   private boolean loaded = false;
   private ListenerList listeners = new ListenerList();
+  private ListenerList cameraListeners = new ListenerList();
+  private ListenerList clickListeners = new ListenerList();
+  private ListenerList markerListeners = new ListenerList();
+  // the names of the markers created with addMarker, by id
+  private List markerNames = new ArrayList();
+  private CameraDispatcher cameraDispatcher = new CameraDispatcher();
+  // the camera at the time of the first change not yet reported
+  private LatLng eventCenter = null;
+  private int eventZoom;
+  private LatLngBounds eventBounds;
+  private List loadedRunnables = new ArrayList();
+  private List browserFunctions = new ArrayList();
+  private ProgressListener progressListener = null;
+  // listens to the map and its parents until it is shown (lazy maps only)
+  private Listener showListener = null;
 
   public GMap( final Composite parent, final int style ) {
+    this( parent, style, false );
+  }
+
+  /**
+   * Creates a map. If lazy is true, the browser is not created and the map 
+   * is not loaded until the map is visible and has a size for the first 
+   * time. This avoids the loading costs for maps that are never shown, e.g.
+   * in background tabs. The map can be used as usual meanwhile, the state 
+   * set is applied when the map is loaded. 
+   */
+  public GMap( final Composite parent, final int style, final boolean lazy ) {
     super( parent, style );
     super.setLayout( new FillLayout() );
-    browser = new Browser( this, SWT.NONE );
-    loadMap();
+    metrics = new MapMetrics( MapMetrics.getSessionMetrics( getDisplay() ) );
+    sessionCache = GeocodeCache.getSessionCache( getDisplay() );
+    commands = new CommandQueue( null, metrics );
+    commands.setMapType( type );
+    codec = new CoordinateCodec();
+    markers = new MarkerLayer( commands, codec, zoom );
+    polylines = new PolylineLayer( commands, codec, zoom );
+    overlays = new Overlays( commands, codec );
+    heatmapListener = createHeatmapListener();
+    addControlListener( new ControlAdapter() {
+      public void controlResized( final ControlEvent event ) {
+        updateBounds();
+      }
+    } );
+    addDisposeListener( new DisposeListener() {
+      public void widgetDisposed( final DisposeEvent event ) {
+        cameraDispatcher.dispose();
+        if( heatmap != null ) {
+          heatmap.removeChangeListener( heatmapListener );
+        }
+        removeShowListener();
+        releaseBrowser();
+        if( positionFeed != null ) {
+          positionFeed.setListener( GMap.this, null );
+          setServerPush( false );
+        }
+      }
+    } );
+    if( lazy ) {
+      loadWhenShown();
+    } else {
+      loadMap();
+    }
   }
   
   public void setLayout( Layout layout ) {
@@ -57,10 +156,12 @@ public class GMap extends Composite {
   public void setCenter( final LatLng center ) {
     checkWidget();
     if( !this.center.equals( center ) && center != null ) {
+      cameraChanging();
       this.center = center;
       if( loaded ) {
-        browser.evaluate( "setCenter( [ " + center.toString() + " ] );" );
+        commands.add( "setCenter", createJsSetCenter() );
       }
+      updateBounds();
       fireCenterChanged();
     }
   }
@@ -79,8 +180,11 @@ public class GMap extends Composite {
       throw new IllegalArgumentException( "Illegal map type" );
     }
     this.type = type;
+    commands.setMapType( type );
     if( loaded ) {
-      browser.evaluate( "setType( " + createJsMapType() + " )" );
+      JsWriter script = JsWriter.obtain();
+      script.call( "setType" ).expression( createJsMapType() ).end();
+      commands.add( "setType", script.finish() );
     }
   }
   
@@ -99,10 +203,16 @@ public class GMap extends Composite {
       throw new IllegalArgumentException( "Illegal zoom value" );      
     }
     if( zoom != this.zoom ) {
+      cameraChanging();
       this.zoom = zoom;
+      markers.setZoom( zoom );
+      polylines.setZoom( zoom );
       if( loaded ) {
-        browser.evaluate( "setZoom( " + Integer.toString( zoom ) + " )");
+        JsWriter script = JsWriter.obtain();
+        script.call( "setZoom" ).value( zoom ).end();
+        commands.add( "setZoom", script.finish() );
       }
+      updateBounds();
       fireZoomChanged();
     }
   }
@@ -111,16 +221,40 @@ public class GMap extends Composite {
     checkWidget();
     return zoom;
   }
+
+  /**
+   * Returns the area currently visible, or null if the map has no size yet.
+   * The bounds are reported by the browser after the user moved the map,
+   * after changes made by the application they are computed on the server.
+   */
+  public LatLngBounds getVisibleBounds() {
+    checkWidget();
+    return bounds;
+  }
   
   /**
    * Sets the location of the map to the best result that matching the address.
-   * There will be some delay while the geocoder is queried.
+   * There will be some delay while the geocoder is queried, unless the 
+   * address is found in the geocode cache.
+   * If the map is not loaded yet, the query is sent once it is.
+   * 
+   * @see GMap#setGeocoder(Geocoder)
    */
   public void gotoAddress( final String address ) {
     checkWidget();
-    if( loaded && address != null ) {
+    if( address != null ) {
       this.address = address;
-      browser.evaluate( "gotoAddress( " + createJsAddress() + " )" );
+      long start = System.currentTimeMillis();
+      GeocodeResult result = geocode( address );
+      if( result != null ) {
+        metrics.geocoded( System.currentTimeMillis() - start );
+        commands.add( createJsShowResult( result ) );
+      } else {
+        gotoStart = start;
+        JsWriter script = JsWriter.obtain();
+        script.call( "gotoAddress" ).string( address ).end();
+        commands.add( script.finish() );
+      }
     }
   }
   
@@ -129,10 +263,63 @@ public class GMap extends Composite {
    * Result will be received asynchronously.
    * 
    * @see MapListener#addressResolved()
+   * @see GMap#setGeocoder(Geocoder)
    */
   public void resolveAddress() {
     checkWidget();
-    browser.evaluate( "resolveAddress()" );
+    resolveStart = System.currentTimeMillis();
+    final String result = reverseGeocode( center );
+    if( result != null ) {
+      getDisplay().asyncExec( new Runnable() {
+        public void run() {
+          if( !isDisposed() ) {
+            resolvedAddress( result );
+          }
+        }
+      } );
+    } else {
+      JsWriter script = JsWriter.obtain();
+      script.call( "resolveAddress" ).latLng( center ).end();
+      commands.add( script.finish() );
+    }
+  }
+
+  /**
+   * Sets a geocoder to be used by gotoAddress and resolveAddress instead of 
+   * the geocoder of the Google Maps API in the browser. If it returns no 
+   * result, the browser is queried as before. Results of both are cached,
+   * those of the browser only for the session.
+   * 
+   * @param geocoder the geocoder, or null to only use the browser
+   * @see GeocodeCache#getShared()
+   * @see GeocodeCache#getSessionCache(Display)
+   */
+  public void setGeocoder( final Geocoder geocoder ) {
+    checkWidget();
+    this.geocoder = geocoder;
+  }
+
+  public Geocoder getGeocoder() {
+    checkWidget();
+    return geocoder;
+  }
+
+  /**
+   * Sets the cache for the results of the Geocoder. By default all maps 
+   * share the same cache. The results of the browser geocoder are always 
+   * kept in the cache of the session.
+   * 
+   * @param cache the cache, or null to disable caching of both
+   * @see GeocodeCache#getSessionCache(Display)
+   */
+  public void setGeocodeCache( final GeocodeCache cache ) {
+    checkWidget();
+    this.geocodeCache = cache;
+  }
+
+  public GeocodeCache getGeocodeCache() {
+    checkWidget();
+    return geocodeCache;
   }
   
   /**
@@ -150,12 +337,373 @@ public class GMap extends Composite {
   
   /**
    * This adds a draggable marker with a an infowindow to the current center.
-   * However, its currently not possible to get the location of the marker
-   * should the user move it. 
+   * When the user drops it at a new position, the MarkerListeners are 
+   * notified. Use addDraggableMarker to get the id of the marker.
+   * 
+   * @see GMap#addMarkerListener(MarkerListener)
    */
   public void addMarker( final String name ) {
+    addDraggableMarker( name );
+  }
+
+  /**
+   * Same as addMarker(String), but returns the id of the marker.
+   * 
+   * @return the id of the marker, as reported in MarkerEvents
+   * @see GMap#addMarkerListener(MarkerListener)
+   */
+  public int addDraggableMarker( final String name ) {
+    checkWidget();
+    int id = markerNames.size();
+    markerNames.add( name );
+    JsWriter script = JsWriter.obtain();
+    script.call( "addMarker" ).string( name ).latLng( center ).value( id );
+    script.end();
+    commands.add( script.finish() );
+    return id;
+  }
+
+  /**
+   * Adds a marker for each given position. This is much more efficient than
+   * calling addMarker for each of them, as all markers are sent to the 
+   * browser in a compact format with one script. The labels are optional 
+   * and are shown as tooltip and in an infowindow.
+   * 
+   * @return the ids of the markers, which can be used to move or remove them
+   */
+  public int[] addMarkers( final double[] latitudes, 
+                           final double[] longitudes, 
+                           final String[] labels ) 
+  {
+    checkWidget();
+    checkCoordinates( latitudes, longitudes );
+    if( labels != null && labels.length != latitudes.length ) {
+      throw new IllegalArgumentException( "Illegal number of labels" );
+    }
+    return markers.add( latitudes, longitudes, labels );
+  }
+
+  /**
+   * Adds a marker for each position in the given store, see 
+   * addMarkers(double[], double[], String[]). The positions are copied, 
+   * later changes of the store do not affect the markers.
+   * 
+   * @return the ids of the markers, which can be used to move or remove them
+   */
+  public int[] addMarkers( final PointStore points, final String[] labels ) {
+    checkWidget();
+    double[] latitudes = getLatitudes( points );
+    return addMarkers( latitudes, getLongitudes( points ), labels );
+  }
+
+  /**
+   * Moves a marker created by addMarkers to the given position.
+   */
+  public void moveMarker( final int id, 
+                          final double latitude, 
+                          final double longitude ) 
+  {
+    checkWidget();
+    checkCoordinate( latitude, longitude );
+    checkMarker( id );
+    markers.move( id, latitude, longitude );
+  }
+
+  /**
+   * Removes markers created by addMarkers. Each id may only be given once.
+   */
+  public void removeMarkers( final int[] ids ) {
+    checkWidget();
+    for( int i = 0; i < ids.length; i++ ) {
+      checkMarker( ids[ i ] );
+    }
+    int[] sorted = ( int[] )ids.clone();
+    Arrays.sort( sorted );
+    for( int i = 1; i < sorted.length; i++ ) {
+      if( sorted[ i ] == sorted[ i - 1 ] ) {
+        String message = "Duplicate marker: " + sorted[ i ];
+        throw new IllegalArgumentException( message );
+      }
+    }
+    markers.remove( ids );
+  }
+
+  /**
+   * If clustering is enabled, markers created by addMarkers are not sent to 
+   * the browser individually. Instead, markers close to each other (at the 
+   * current zoom level) are combined to a cluster, and only the clusters are
+   * shown. The clusters for all zoom levels are computed on the server and 
+   * updated incrementally when markers are added, moved or removed.
+   */
+  public void setClustering( final boolean clustering ) {
+    checkWidget();
+    markers.setClustering( clustering );
+  }
+
+  public boolean isClustering() {
+    checkWidget();
+    return markers.isClustering();
+  }
+
+  /**
+   * Markers created by addMarkers (or clusters) and polylines are only sent 
+   * to the browser if they are within the visible area of the map, extended 
+   * by this margin on each side. Markers outside of it are removed from the 
+   * browser. The margin is given as a fraction of the visible area, the 
+   * default is 0.5.
+   */
+  public void setViewportMargin( final double margin ) {
+    checkWidget();
+    if( margin < 0 || Double.isNaN( margin ) ) {
+      throw new IllegalArgumentException( "Illegal margin" );
+    }
+    markers.setMargin( margin );
+    polylines.setMargin( margin );
+  }
+
+  public double getViewportMargin() {
+    checkWidget();
+    return markers.getMargin();
+  }
+
+  /**
+   * Adds a polyline through the given positions. For each zoom level, the
+   * line is simplified to the vertices that make a visible difference at
+   * that level, and only the parts within the viewport (see 
+   * setViewportMargin) are sent to the browser. Long and detailed lines
+   * therefore stay fast at any zoom level.
+   * 
+   * @return the id of the polyline, which can be used to remove it
+   */
+  public int addPolyline( final double[] latitudes, 
+                          final double[] longitudes ) 
+  {
+    checkWidget();
+    checkCoordinates( latitudes, longitudes );
+    if( latitudes.length < 2 ) {
+      throw new IllegalArgumentException( "Polyline needs two positions" );
+    }
+    return polylines.add( latitudes, longitudes );
+  }
+
+  /**
+   * Adds a polyline through the positions in the given store, in the order 
+   * of their ids. The positions are copied, later changes of the store do 
+   * not affect the polyline.
+   * 
+   * @return the id of the polyline, which can be used to remove it
+   */
+  public int addPolyline( final PointStore points ) {
+    checkWidget();
+    return addPolyline( getLatitudes( points ), getLongitudes( points ) );
+  }
+
+  /**
+   * Removes a polyline created by addPolyline.
+   */
+  public void removePolyline( final int id ) {
+    checkWidget();
+    if( !polylines.contains( id ) ) {
+      throw new IllegalArgumentException( "Unknown polyline: " + id );
+    }
+    polylines.remove( id );
+  }
+
+  /**
+   * Returns the markers that can be updated and removed individually. Only
+   * the changes since the last update are sent to the browser.
+   */
+  public Overlays getOverlays() {
+    checkWidget();
+    return overlays;
+  }
+
+  /**
+   * Applies the positions published to the given feed to the overlays with
+   * the same ids, at most the given number of times per second. Positions
+   * of ids that are not in the overlays are discarded. A feed can only be 
+   * used by one map, null removes the feed (the frame rate is ignored 
+   * then). In RAP, server push (UICallBack) is activated while a feed is 
+   * set, so that positions published from other threads reach the client 
+   * without user interaction.
+   *
+   * @throws IllegalStateException if the feed is used by another map
+   */
+  public void setPositionFeed( final PositionFeed feed, 
+                               final int framesPerSecond ) 
+  {
+    checkWidget();
+    if( feed != null ) {
+      if( framesPerSecond <= 0 || framesPerSecond > 1000 ) {
+        throw new IllegalArgumentException( "Illegal frame rate" );
+      }
+      if( frameRunnable == null ) {
+        createFrameRunnable();
+      }
+      final Display display = getDisplay();
+      feed.setListener( this, new Runnable() {
+        public void run() {
+          // Note: Called in the publishing thread
+          if( !display.isDisposed() ) {
+            display.asyncExec( frameRunnable );
+          }
+        }
+      } );
+      frameInterval = 1000 / framesPerSecond;
+    }
+    if( positionFeed != null && positionFeed != feed ) {
+      positionFeed.setListener( this, null );
+    }
+    if( positionFeed == null && feed != null ) {
+      setServerPush( true );
+    } else if( positionFeed != null && feed == null ) {
+      setServerPush( false );
+    }
+    positionFeed = feed;
+  }
+
+  public PositionFeed getPositionFeed() {
+    checkWidget();
+    return positionFeed;
+  }
+
+  /**
+   * Sets the number of decimal places of the coordinates sent to the 
+   * browser for markers, clusters and polylines. The default is 6 (about 
+   * 10 cm), lower values make the transferred data smaller.
+   */
+  public void setCoordinatePrecision( final int decimalPlaces ) {
+    checkWidget();
+    if( decimalPlaces < 0 || decimalPlaces > CoordinateCodec.MAX_PRECISION ) {
+      throw new IllegalArgumentException( "Illegal precision" );
+    }
+    codec.setPrecision( decimalPlaces );
+  }
+
+  public int getCoordinatePrecision() {
+    checkWidget();
+    return codec.getPrecision();
+  }
+
+  /**
+   * Shows the tiles of the given store instead of those of the map type, 
+   * null restores the map type. The tiles are served by the ResourceServlet 
+   * in RAP, and passed to the browser directly otherwise. Tiles around the 
+   * visible area are prefetched when the camera changes.
+   * 
+   * Note: Where the ResourceServlet is not available (e.g. in RCP), the 
+   * browser requests each tile from the UI thread and waits for it.
+   * 
+   * Note: The Google Maps API itself is still loaded from the network.
+   */
+  public void setTileStore( final TileStore store ) {
+    checkWidget();
+    tileStore = store;
+    commands.add( "setTileLayer", createJsTileLayer() );
+    if( store != null && bounds != null ) {
+      store.prefetch( bounds, zoom );
+    }
+  }
+
+  public TileStore getTileStore() {
+    checkWidget();
+    return tileStore;
+  }
+
+  /**
+   * Shows the given heatmap on top of the map, null removes it. The tiles 
+   * of the heatmap are reloaded whenever its points change. Where the 
+   * ResourceServlet is not available (e.g. in RCP), they are rendered in 
+   * the UI thread while the browser waits, see setTileStore.
+   */
+  public void setHeatmap( final Heatmap heatmap ) {
+    checkWidget();
+    if( this.heatmap != null ) {
+      this.heatmap.removeChangeListener( heatmapListener );
+    }
+    this.heatmap = heatmap;
+    if( heatmap != null ) {
+      heatmap.addChangeListener( heatmapListener );
+    }
+    addHeatmapCommand();
+  }
+
+  public Heatmap getHeatmap() {
+    checkWidget();
+    return heatmap;
+  }
+
+  /**
+   * By default, changes of center and zoom made by the user are reported 
+   * at the end of a gesture (e.g. when dragging ends). With a rate larger 
+   * than 0, changes are also reported continuously while the map moves, but 
+   * not more often than the given number of times per second. Reports that 
+   * arrive faster than they can be processed are combined. 
+   */
+  public void setCameraEventRate( final int eventsPerSecond ) {
+    checkWidget();
+    if( eventsPerSecond < 0 || eventsPerSecond > 60 ) {
+      throw new IllegalArgumentException( "Illegal event rate" );
+    }
+    if( eventsPerSecond != cameraEventRate ) {
+      cameraEventRate = eventsPerSecond;
+      JsWriter script = JsWriter.obtain();
+      script.call( "setCameraEventRate" ).value( eventsPerSecond ).end();
+      commands.add( "setCameraEventRate", script.finish() );
+    }
+  }
+
+  public int getCameraEventRate() {
+    checkWidget();
+    return cameraEventRate;
+  }
+
+  /**
+   * Sends all scripts created by previous calls to the browser. Normally this
+   * is done automatically at the end of the current event cycle. Has no 
+   * effect before the map is loaded, pending scripts are then sent together 
+   * with the initialization.
+   * 
+   * @see GMap#setImmediate(boolean)
+   */
+  public void flush() {
+    checkWidget();
+    commands.flush();
+  }
+
+  /**
+   * Runs the given runnable once the map is loaded and initialized, or right
+   * away if it already is. Calls made on the map before are not lost either 
+   * way, this is intended for work that needs the map to be ready.
+   */
+  public void whenLoaded( final Runnable runnable ) {
+    checkWidget();
+    if( loaded ) {
+      runnable.run();
+    } else {
+      loadedRunnables.add( runnable );
+    }
+  }
+  
+  public boolean isLoaded() {
+    checkWidget();
+    return loaded;
+  }
+
+  /**
+   * By default, the scripts created by the setters and other methods are 
+   * collected and sent to the browser together at the end of the current 
+   * event cycle. Redundant calls (e.g. multiple setCenter) are dropped. 
+   * If immediate is true, every call is executed right away instead.
+   */
+  public void setImmediate( final boolean immediate ) {
+    checkWidget();
+    commands.setImmediate( immediate );
+  }
+
+  public boolean isImmediate() {
     checkWidget();
-    browser.evaluate( "addMarker( \"" + name + "\" )" );
+    return commands.isImmediate();
   }
 
   public void addMapListener( final MapListener listener ) {
@@ -165,59 +713,435 @@ public class GMap extends Composite {
   public void removeMapListener( final MapListener listener ) {
     listeners.remove( listener );
   }
+
+  /**
+   * Returns the metrics of this map. They are also added to the metrics of
+   * the session and the JVM.
+   * 
+   * @see MapMetrics#getSessionMetrics(org.eclipse.swt.widgets.Display)
+   * @see MapMetrics#getGlobalMetrics()
+   */
+  public MapMetrics getMetrics() {
+    checkWidget();
+    return metrics;
+  }
+
+  /**
+   * Adds a listener that is notified once per event cycle about all changes
+   * of center, zoom and visible bounds, whether made by the user or by the
+   * application. If background is true, the listener is called on a worker
+   * thread instead of the UI thread, which is meant for listeners doing 
+   * expensive work like database queries. Such a listener must not access 
+   * the map (or other widgets) directly. If it can not keep up, it gets 
+   * fewer events, each covering all changes since the previous one.
+   */
+  public void addCameraListener( final CameraListener listener, 
+                                 final boolean background ) 
+  {
+    checkWidget();
+    if( background ) {
+      cameraDispatcher.addListener( listener );
+    } else {
+      cameraListeners.add( listener );
+    }
+  }
+
+  public void removeCameraListener( final CameraListener listener ) {
+    checkWidget();
+    cameraDispatcher.removeListener( listener );
+    cameraListeners.remove( listener );
+  }
+
+  /**
+   * Adds a listener that is notified when the user clicks the map or a 
+   * marker. The marker hit (if any) is resolved on the server, so clicks 
+   * close to markers created with addMarkers are recognized even if the 
+   * marker is currently not shown in the browser (e.g. due to clustering).
+   * 
+   * @see ClickEvent#marker
+   */
+  public void addClickListener( final ClickListener listener ) {
+    checkWidget();
+    clickListeners.add( listener );
+  }
+
+  public void removeClickListener( final ClickListener listener ) {
+    checkWidget();
+    clickListeners.remove( listener );
+  }
+
+  /**
+   * Adds a listener that is notified when the user drags a marker created 
+   * with addMarker or addDraggableMarker to a new position.
+   */
+  public void addMarkerListener( final MarkerListener listener ) {
+    checkWidget();
+    markerListeners.add( listener );
+  }
+
+  public void removeMarkerListener( final MarkerListener listener ) {
+    checkWidget();
+    markerListeners.remove( listener );
+  }
   
   //////////////////////////////////
   // map creation and event-handling
   
   private void loadMap() {
-    HtmlLoader.load( browser, "GMap.html" );
-    browser.addProgressListener( new ProgressListener() {
-      public void completed( ProgressEvent event ) {
-        // Note: Calling execute/eval before the document is loaded wont work.
-        loaded = true;
-        StringBuffer script = new StringBuffer();
-        script.append( "init( " );
-        script.append( "[ " + center.toString() + " ], " );
-        script.append( zoom + "," );
-        script.append( createJsMapType() );
-        script.append( ");" );
-        browser.evaluate( script.toString() );
-        createBrowserFunctions();
-      }     
-      public void changed( ProgressEvent event ) {
+    loadStart = System.currentTimeMillis();
+    BrowserPool pool = BrowserPool.findPool( getDisplay() );
+    browser = pool != null ? pool.acquire( this ) : null;
+    boolean pageLoaded = browser != null && pool.isLoaded( browser );
+    if( browser == null ) {
+      browser = new Browser( this, SWT.NONE );
+      HtmlLoader.load( browser, Activator.MAP_PAGE );
+    }
+    commands.setBrowser( browser );
+    layout();
+    if( pageLoaded ) {
+      // Note: Initialized later, so that the setters called after the 
+      //       constructor are part of the init script.
+      getDisplay().asyncExec( new Runnable() {
+        public void run() {
+          if( !loaded && !isDisposed() ) {
+            initMap();
+          }
+        }
+      } );
+    } else {
+      progressListener = new ProgressListener() {
+        public void completed( ProgressEvent event ) {
+          // Note: Calling execute/eval before the document is loaded wont 
+          //       work.
+          if( !loaded && !isDisposed() ) {
+            initMap();
+          }
+        }     
+        public void changed( ProgressEvent event ) {
+        }
+      };
+      browser.addProgressListener( progressListener );
+    }
+  }
+
+  /**
+   * Returns the browser to the BrowserPool, if there is one. Its page is 
+   * reset and the browser-functions of this map are removed.
+   */
+  private void releaseBrowser() {
+    BrowserPool pool = BrowserPool.findPool( getDisplay() );
+    if( pool != null && browser != null && !browser.isDisposed() ) {
+      if( progressListener != null ) {
+        browser.removeProgressListener( progressListener );
       }
-    } );
+      for( int i = 0; i < browserFunctions.size(); i++ ) {
+        ( ( BrowserFunction )browserFunctions.get( i ) ).dispose();
+      }
+      browserFunctions.clear();
+      commands.setBrowser( null );
+      if( loaded ) {
+        browser.evaluate( "reset();" );
+      }
+      pool.release( browser, loaded );
+    }
+  }
+
+  private void createFrameRunnable() {
+    feedReceiver = new PositionFeed.Receiver() {
+      public boolean position( final int id, 
+                               final double latitude, 
+                               final double longitude ) 
+      {
+        boolean result = overlays.contains( id );
+        if( result ) {
+          overlays.move( id, latitude, longitude );
+        }
+        return result;
+      }
+    };
+    frameRunnable = new Runnable() {
+      public void run() {
+        if( !isDisposed() && positionFeed != null ) {
+          long now = System.currentTimeMillis();
+          long wait = lastFrame + frameInterval - now;
+          if( wait > 0 ) {
+            getDisplay().timerExec( ( int )wait, this );
+          } else {
+            lastFrame = now;
+            positionFeed.drain( feedReceiver );
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Activates or deactivates the RAP server push for the position feed. 
+   * UICallBack is called reflectively, so this bundle also runs in RCP, 
+   * which needs no server push.
+   */
+  private void setServerPush( final boolean active ) {
+    if( "rap".equals( SWT.getPlatform() ) ) {
+      try {
+        Class callBack = Class.forName( UI_CALLBACK );
+        String name = active ? "activate" : "deactivate";
+        Method method 
+          = callBack.getMethod( name, new Class[] { String.class } );
+        method.invoke( null, new Object[] { getServerPushId() } );
+      } catch( Exception e ) {
+        Activator.log( "Could not change server push", e );
+      }
+    }
+  }
+
+  private String getServerPushId() {
+    return GMap.class.getName() + "#" + System.identityHashCode( this );
+  }
+
+  private void loadWhenShown() {
+    final Runnable check = new Runnable() {
+      public void run() {
+        if( !isDisposed() && browser == null && isShown() ) {
+          removeShowListener();
+          loadMap();
+        }
+      }
+    };
+    // Note: Show is sent before the control is actually visible, the check 
+    //       is therefore done asynchronously. The parents are observed since 
+    //       they are the ones that are shown (e.g. the content of a tab).
+    showListener = new Listener() {
+      public void handleEvent( final Event event ) {
+        getDisplay().asyncExec( check );
+      }
+    };
+    Control control = this;
+    while( control != null ) {
+      control.addListener( SWT.Show, showListener );
+      control.addListener( SWT.Resize, showListener );
+      control = control.getParent();
+    }
+    getDisplay().asyncExec( check );
+  }
+
+  private void removeShowListener() {
+    if( showListener != null ) {
+      Control control = this;
+      while( control != null && !control.isDisposed() ) {
+        control.removeListener( SWT.Show, showListener );
+        control.removeListener( SWT.Resize, showListener );
+        control = control.getParent();
+      }
+      showListener = null;
+    }
+  }
+
+  private boolean isShown() {
+    Point size = getSize();
+    return isVisible() && size.x > 0 && size.y > 0;
+  }
+
+  private void initMap() {
+    loaded = true;
+    createBrowserFunctions();
+    // Everything that was queued before the document was loaded is sent 
+    // with the same evaluation
+    JsWriter script = JsWriter.obtain();
+    script.call( "init" ).latLng( center ).value( zoom );
+    script.expression( createJsMapType() ).end();
+    commands.drain( script );
+    commands.evaluate( script.finish() );
+    commands.setReady();
+    metrics.mapLoaded( System.currentTimeMillis() - loadStart );
+    Object[] runnables = loadedRunnables.toArray();
+    loadedRunnables.clear();
+    for( int i = 0; i < runnables.length; i++ ) {
+      ( ( Runnable )runnables[ i ] ).run();
+    }
   }
 
   private void createBrowserFunctions() {
-    new BrowserFunction( browser, "onBoundsChanged" ) {
+    // All events of the browser arrive in batches through this function, 
+    // see EventBatch
+    browserFunctions.add( new BrowserFunction( browser, "onEvents" ) {
       public Object function( Object[] arguments ) {
-        syncCenter( ( Double )arguments[ 0 ], ( Double )arguments[ 1 ] );
-        syncZoom( ( Double )arguments[ 2 ] );
+        if( arguments.length > 0 && arguments[ 0 ] instanceof String ) {
+          final String batch = ( String )arguments[ 0 ];
+          // Handled after the call returned to the browser. Batches are 
+          // handled in the order they arrived, like the events within them.
+          getDisplay().asyncExec( new Runnable() {
+            public void run() {
+              if( !isDisposed() ) {
+                handleEvents( batch );
+              }
+            }
+          } );
+        }
         return null;
       }
-    };
-    new BrowserFunction( browser, "onAddressResolved" ) {
+    } );
+    // Tiles are returned as result, so they can not be batched. Only used 
+    // if the ResourceServlet is not available (e.g. in RCP). The browser 
+    // waits while the tile is read or rendered in the UI thread.
+    browserFunctions.add( new BrowserFunction( browser, "onTileRequested" ) {
       public Object function( Object[] arguments ) {
-        resolvedAddress( ( String ) arguments[ 0 ] );
-        return null;
+        // Only the sources shown by this map can be requested
+        Object id = isTileRequest( arguments ) ? arguments[ 0 ] : null;
+        TileSources.Source source = null;
+        if( id == null ) {
+          Activator.log( "Skipped malformed tile request", null );
+        } else if( tileStore != null && tileStore.getId().equals( id ) ) {
+          source = tileStore;
+        } else if( heatmap != null && heatmap.getId().equals( id ) ) {
+          source = heatmap;
+        }
+        byte[] tile = null;
+        if( source != null ) {
+          tile = source.getTile( ( int )toDouble( arguments[ 1 ] ), 
+                                 ( int )toDouble( arguments[ 2 ] ), 
+                                 ( int )toDouble( arguments[ 3 ] ) );
+        }
+        return tile != null ? TileSources.toDataUrl( tile ) : null;
       }
-    };
+    } );
   }
 
-  private void syncCenter( final Double latitude, final Double longitude ) {
-    LatLng newCenter 
-      = new LatLng( latitude.doubleValue(), longitude.doubleValue() );
+  private void handleEvents( final String batch ) {
+    EventBatch events = new EventBatch( batch );
+    int count = 0;
+    while( events.next() ) {
+      count++;
+      // Fields are checked up front, so that a malformed event never 
+      // reaches the listeners and doesn't stop the rest of the batch
+      if( events.isValid() ) {
+        handleEvent( events );
+      } else {
+        Activator.log( "Skipped malformed event: " + events, null );
+      }
+    }
+    metrics.eventsReceived( count );
+  }
+
+  private void handleEvent( final EventBatch events ) {
+    switch( events.getType() ) {
+      case EventBatch.CAMERA:
+        metrics.boundsChangedReceived();
+        syncCamera( events );
+      break;
+      case EventBatch.CLICK:
+        mapClicked( events.getDouble( 0 ), events.getDouble( 1 ) );
+      break;
+      case EventBatch.MARKER_DRAGGED:
+        markerDragged( events.getInt( 0 ), 
+                       events.getDouble( 1 ), 
+                       events.getDouble( 2 ) );
+      break;
+      case EventBatch.ADDRESS_RESOLVED:
+        addressResolved( events );
+      break;
+      case EventBatch.ADDRESS_GEOCODED:
+        addressGeocoded( events );
+      break;
+    }
+  }
+
+  private void addressResolved( final EventBatch events ) {
+    metrics.addressResolvedReceived();
+    String result = events.getString( 0 );
+    if( geocodeCache != null ) {
+      LatLng location = new LatLng( events.getDouble( 1 ), 
+                                    events.getDouble( 2 ) );
+      sessionCache.putAddress( location, result );
+    }
+    resolvedAddress( result );
+  }
+
+  private void addressGeocoded( final EventBatch events ) {
+    metrics.addressGeocodedReceived();
+    if( gotoStart != 0 ) {
+      metrics.geocoded( System.currentTimeMillis() - gotoStart );
+      gotoStart = 0;
+    }
+    if( geocodeCache != null ) {
+      LatLng southWest = new LatLng( events.getDouble( 4 ), 
+                                     events.getDouble( 5 ) );
+      LatLng northEast = new LatLng( events.getDouble( 6 ), 
+                                     events.getDouble( 7 ) );
+      LatLng location = new LatLng( events.getDouble( 2 ), 
+                                    events.getDouble( 3 ) );
+      GeocodeResult result 
+        = new GeocodeResult( events.getString( 1 ), 
+                             location, 
+                             new LatLngBounds( southWest, northEast ) );
+      sessionCache.put( events.getString( 0 ), result );
+    }
+  }
+
+  private void syncCamera( final EventBatch events ) {
+    double[] camera = null;
+    try {
+      camera = CoordinateCodec.decode( events.getString( 0 ), 
+                                       events.getInt( 1 ) );
+    } catch( IllegalArgumentException e ) {
+      // the camera is rejected below
+    }
+    if( camera != null && camera.length >= 3 ) {
+      syncCenter( camera[ 0 ], camera[ 1 ] );
+      syncZoom( camera[ 2 ] );
+      if( camera.length >= 7 ) {
+        syncBounds( camera[ 3 ], camera[ 4 ], camera[ 5 ], camera[ 6 ] );
+      }
+    } else {
+      Activator.log( "Skipped malformed camera event: " + events, null );
+    }
+  }
+
+  private void syncCenter( final double latitude, final double longitude ) {
+    LatLng newCenter = new LatLng( latitude, longitude );
     if( !center.equals( newCenter ) ) {
+      cameraChanging();
       center = newCenter;
       fireCenterChanged();
     }
   }
 
-  private void syncZoom( final Double zoom ) {
-    int newZoom = zoom.intValue();
+  private void syncBounds( final double south, 
+                           final double west, 
+                           final double north, 
+                           final double east ) 
+  {
+    LatLng southWest = new LatLng( south, west );
+    LatLng northEast = new LatLng( north, east );
+    setVisibleBounds( new LatLngBounds( southWest, northEast ) );
+  }
+
+  private void updateBounds() {
+    Point size = getSize();
+    if( size.x > 0 && size.y > 0 ) {
+      setVisibleBounds( Viewport.createBounds( center, 
+                                               zoom, 
+                                               size.x, 
+                                               size.y ) );
+    }
+  }
+
+  private void setVisibleBounds( final LatLngBounds bounds ) {
+    cameraChanging();
+    this.bounds = bounds;
+    markers.setBounds( bounds );
+    polylines.setBounds( bounds );
+    if( tileStore != null ) {
+      tileStore.prefetch( bounds, zoom );
+    }
+  }
+
+  private void syncZoom( final double zoom ) {
+    int newZoom = ( int )zoom;
     if( newZoom != this.zoom ) {
+      cameraChanging();
       this.zoom = newZoom;
+      markers.setZoom( newZoom );
+      polylines.setZoom( newZoom );
       fireZoomChanged();
     }
   }
@@ -225,24 +1149,263 @@ public class GMap extends Composite {
   private void resolvedAddress( String string ) {
     // TODO : - Failed or obsolete results are handled neither here nor in js. 
     //        - Multiple results are ignored.
-    //        - Calling the GeoCoder from client is somewhat unnecessary, could 
-    //          be done directly from java using Google Maps Web Services.
     this.address = string;
+    if( resolveStart != 0 ) {
+      metrics.geocoded( System.currentTimeMillis() - resolveStart );
+      resolveStart = 0;
+    }
     fireAddressResolved();
   }
 
+  private GeocodeResult geocode( final String address ) {
+    GeocodeResult result = null;
+    if( geocodeCache != null ) {
+      result = geocodeCache.get( address );
+      if( result == null ) {
+        result = sessionCache.get( address );
+      }
+    }
+    if( result == null && geocoder != null ) {
+      result = geocoder.geocode( address );
+      if( result != null && geocodeCache != null ) {
+        geocodeCache.put( address, result );
+      }
+    }
+    return result;
+  }
+
+  private String reverseGeocode( final LatLng location ) {
+    String result = null;
+    if( geocodeCache != null ) {
+      result = geocodeCache.getAddress( location );
+      if( result == null ) {
+        result = sessionCache.getAddress( location );
+      }
+    }
+    if( result == null && geocoder != null ) {
+      result = geocoder.reverseGeocode( location );
+      if( result != null && geocodeCache != null ) {
+        geocodeCache.putAddress( location, result );
+      }
+    }
+    return result;
+  }
+
   /////////
   // Helper
   
+  private static double[] getLatitudes( final PointStore points ) {
+    double[] result = new double[ points.size() ];
+    points.getLatitudes( 0, result, 0, result.length );
+    return result;
+  }
+
+  private static double[] getLongitudes( final PointStore points ) {
+    double[] result = new double[ points.size() ];
+    points.getLongitudes( 0, result, 0, result.length );
+    return result;
+  }
+
+  private static void checkCoordinates( final double[] latitudes, 
+                                        final double[] longitudes ) 
+  {
+    if( latitudes.length != longitudes.length ) {
+      throw new IllegalArgumentException( "Illegal number of coordinates" );
+    }
+    for( int i = 0; i < latitudes.length; i++ ) {
+      checkCoordinate( latitudes[ i ], longitudes[ i ] );
+    }
+  }
+
+  private static void checkCoordinate( final double latitude, 
+                                       final double longitude ) 
+  {
+    if(    Double.isNaN( latitude ) 
+        || Double.isInfinite( latitude ) 
+        || Double.isNaN( longitude ) 
+        || Double.isInfinite( longitude ) ) 
+    {
+      throw new IllegalArgumentException( "Illegal coordinate" );
+    }
+  }
+
+  private void checkMarker( final int id ) {
+    if( !markers.contains( id ) ) {
+      throw new IllegalArgumentException( "Unknown marker: " + id );
+    }
+  }
+
+  private String createJsSetCenter() {
+    JsWriter script = JsWriter.obtain();
+    script.call( "setCenter" ).latLng( center ).end();
+    return script.finish();
+  }
+
   private String createJsMapType() {
     String typeStr = AVAILABLE_TYPES[ type ];
     return "google.maps.MapTypeId." + typeStr;
   }
   
-  private String createJsAddress() {
-    return "\"" + address + "\"";
+  private String createJsTileLayer() {
+    JsWriter script = JsWriter.obtain();
+    script.call( "setTileLayer" );
+    if( tileStore == null ) {
+      script.expression( "null" ).expression( "null" ).value( -1 );
+    } else {
+      String id = tileStore.getId();
+      writeTileUrl( script, id );
+      script.string( id ).value( tileStore.getMaxZoom() );
+    }
+    script.end();
+    return script.finish();
   }
-  
+
+  private void addHeatmapCommand() {
+    commands.add( "setHeatmapLayer", new CommandQueue.Command() {
+      public String createScript() {
+        JsWriter script = JsWriter.obtain();
+        script.call( "setHeatmapLayer" );
+        if( heatmap == null ) {
+          script.expression( "null" ).expression( "null" ).value( 0 );
+        } else {
+          String id = heatmap.getId();
+          writeTileUrl( script, id );
+          script.string( id ).value( heatmap.getVersion() );
+        }
+        script.end();
+        return script.finish();
+      }
+    } );
+  }
+
+  private static void writeTileUrl( final JsWriter script, 
+                                    final String sourceId ) 
+  {
+    if( HtmlLoader.isServed() ) {
+      script.string( HtmlLoader.getTileUrl( sourceId ) );
+    } else {
+      script.expression( "null" );
+    }
+  }
+
+  private Runnable createHeatmapListener() {
+    final Display display = getDisplay();
+    final Runnable update = new Runnable() {
+      public void run() {
+        if( !isDisposed() && heatmap != null ) {
+          addHeatmapCommand();
+        }
+      }
+    };
+    return new Runnable() {
+      public void run() {
+        // Note: Called in the thread that changed the heatmap
+        if( !display.isDisposed() ) {
+          display.asyncExec( update );
+        }
+      }
+    };
+  }
+
+  private static String createJsShowResult( final GeocodeResult result ) {
+    JsWriter script = JsWriter.obtain();
+    if( result.viewport != null ) {
+      script.call( "fitBounds" ).bounds( result.viewport ).end();
+    } else {
+      script.call( "setCenter" ).latLng( result.location ).end();
+    }
+    return script.finish();
+  }
+
+  private static boolean isTileRequest( final Object[] arguments ) {
+    // [ id, zoom, x, y ]
+    boolean result = arguments.length == 4 && arguments[ 0 ] instanceof String;
+    for( int i = 1; i < arguments.length && result; i++ ) {
+      result = arguments[ i ] instanceof Number;
+    }
+    return result;
+  }
+
+  private static double toDouble( final Object number ) {
+    return ( ( Number )number ).doubleValue();
+  }
+
+  /**
+   * Must be called before center, zoom or bounds are changed. The first
+   * call within an event cycle remembers the current camera and schedules 
+   * the event.
+   */
+  private void cameraChanging() {
+    boolean hasListeners 
+      = !cameraListeners.isEmpty() || cameraDispatcher.hasListeners();
+    if( eventCenter == null && hasListeners ) {
+      eventCenter = center;
+      eventZoom = zoom;
+      eventBounds = bounds;
+      getDisplay().asyncExec( new Runnable() {
+        public void run() {
+          if( !isDisposed() ) {
+            fireCameraChanged();
+          }
+        }
+      } );
+    }
+  }
+
+  private void fireCameraChanged() {
+    CameraEvent event = new CameraEvent( eventCenter, 
+                                         center, 
+                                         eventZoom, 
+                                         zoom, 
+                                         eventBounds, 
+                                         bounds );
+    eventCenter = null;
+    if( event.changes != 0 ) {
+      Object[] allListeners = cameraListeners.getListeners();
+      for( int i = 0; i < allListeners.length; i++ ) {
+        CameraListener listener = ( CameraListener )allListeners[ i ];
+        listener.cameraChanged( event );
+      }
+      if( cameraDispatcher.hasListeners() ) {
+        cameraDispatcher.dispatch( event );
+      }
+    }
+  }
+
+  private void mapClicked( final double latitude, final double longitude ) {
+    if( !clickListeners.isEmpty() ) {
+      // The size of a pixel at the position clicked
+      double pixel =   2 * Math.PI * SpatialIndex.EARTH_RADIUS 
+                     * Math.cos( Math.toRadians( latitude ) ) 
+                     / ( Mercator.TILE_SIZE * ( 1 << zoom ) );
+      int marker 
+        = markers.findNearest( latitude, longitude, pixel * CLICK_TOLERANCE );
+      ClickEvent event 
+        = new ClickEvent( new LatLng( latitude, longitude ), marker, zoom );
+      Object[] allListeners = clickListeners.getListeners();
+      for( int i = 0; i < allListeners.length; i++ ) {
+        ClickListener listener = ( ClickListener )allListeners[ i ];
+        listener.mapClicked( event );
+      }
+    }
+  }
+
+  private void markerDragged( final int id, 
+                              final double latitude, 
+                              final double longitude ) 
+  {
+    if( id >= 0 && id < markerNames.size() ) {
+      String name = ( String )markerNames.get( id );
+      MarkerEvent event 
+        = new MarkerEvent( id, name, new LatLng( latitude, longitude ) );
+      Object[] allListeners = markerListeners.getListeners();
+      for( int i = 0; i < allListeners.length; i++ ) {
+        MarkerListener listener = ( MarkerListener )allListeners[ i ];
+        listener.markerDragged( event );
+      }
+    }
+  }
+
   private void fireCenterChanged() {
     Object[] allListeners = listeners.getListeners();
     for( int i = 0; i < allListeners.length; i++ ) {
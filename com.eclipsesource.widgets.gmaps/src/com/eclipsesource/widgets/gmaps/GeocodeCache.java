@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * A thread-safe LRU cache for geocoding results. The results of a Geocoder
+ * set on a map are kept in a cache shared by all maps of the JVM (i.e. all 
+ * sessions in RAP), see getShared. The results of the browser geocoder are 
+ * only cached for the session they were received in, see getSessionCache, 
+ * as they are reported by the client.
+ * 
+ * Forward lookups are keyed by the normalized address (lower case, 
+ * whitespace collapsed), reverse lookups by the location rounded to a 
+ * number of decimal places (the precision). Entries are evicted when the 
+ * cache is full (least recently used first) or when they are older than 
+ * the time to live.
+ */
+public final class GeocodeCache {
+
+  private static final String SESSION_KEY = GeocodeCache.class.getName();
+  private static final long DAY = 24 * 60 * 60 * 1000L;
+  private static final GeocodeCache shared = new GeocodeCache( 10000, DAY, 4 );
+
+  private final Map addresses;
+  private final Map locations;
+  private int maxSize;
+  private long timeToLive;
+  private int precision;
+  private double scale;
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  /**
+   * @param maxSize the maximum number of entries, each for forward and 
+   *                reverse lookups
+   * @param timeToLive the time in milliseconds after which entries expire
+   * @param precision the number of decimal places of locations used as key 
+   *                  for reverse lookups, between 0 and 7
+   */
+  public GeocodeCache( final int maxSize, 
+                       final long timeToLive, 
+                       final int precision ) 
+  {
+    setMaxSize( maxSize );
+    setTimeToLive( timeToLive );
+    setPrecision( precision );
+    addresses = createMap();
+    locations = createMap();
+  }
+
+  /**
+   * The cache used by all maps for the results of their Geocoder.
+   */
+  public static GeocodeCache getShared() {
+    return shared;
+  }
+
+  /**
+   * Returns the cache for the results of the browser geocoder of all maps 
+   * of the given display. In RAP, this is the session of the display. Must 
+   * be called from the UI thread.
+   */
+  public static GeocodeCache getSessionCache( final Display display ) {
+    GeocodeCache result = ( GeocodeCache )display.getData( SESSION_KEY );
+    if( result == null ) {
+      result = new GeocodeCache( 1000, DAY, 4 );
+      display.setData( SESSION_KEY, result );
+    }
+    return result;
+  }
+
+  public synchronized void setMaxSize( final int maxSize ) {
+    if( maxSize < 0 ) {
+      throw new IllegalArgumentException( "Illegal size" );
+    }
+    this.maxSize = maxSize;
+  }
+
+  public synchronized int getMaxSize() {
+    return maxSize;
+  }
+
+  public synchronized void setTimeToLive( final long timeToLive ) {
+    if( timeToLive < 0 ) {
+      throw new IllegalArgumentException( "Illegal time to live" );
+    }
+    this.timeToLive = timeToLive;
+  }
+
+  public synchronized long getTimeToLive() {
+    return timeToLive;
+  }
+
+  /**
+   * Changing the precision clears the cached reverse lookups.
+   */
+  public synchronized void setPrecision( final int precision ) {
+    if( precision < 0 || precision > 7 ) {
+      throw new IllegalArgumentException( "Illegal precision" );
+    }
+    this.precision = precision;
+    scale = Math.pow( 10, precision );
+    if( locations != null ) {
+      locations.clear();
+    }
+  }
+
+  public synchronized int getPrecision() {
+    return precision;
+  }
+
+  public synchronized GeocodeResult get( final String address ) {
+    return ( GeocodeResult )lookup( addresses, normalize( address ) );
+  }
+
+  public synchronized void put( final String address, 
+                                final GeocodeResult result ) 
+  {
+    store( addresses, normalize( address ), result );
+  }
+
+  public synchronized String getAddress( final LatLng location ) {
+    return ( String )lookup( locations, createKey( location ) );
+  }
+
+  public synchronized void putAddress( final LatLng location, 
+                                       final String address ) 
+  {
+    store( locations, createKey( location ), address );
+  }
+
+  public synchronized void clear() {
+    addresses.clear();
+    locations.clear();
+  }
+
+  public synchronized int size() {
+    return addresses.size() + locations.size();
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * Returns the fraction of lookups that could be answered from the cache.
+   */
+  public synchronized double getHitRate() {
+    long lookups = hits + misses;
+    return lookups > 0 ? ( double )hits / lookups : 0;
+  }
+
+  static String normalize( final String address ) {
+    StringBuffer result = new StringBuffer( address.length() );
+    boolean space = false;
+    for( int i = 0; i < address.length(); i++ ) {
+      char ch = address.charAt( i );
+      if( Character.isWhitespace( ch ) || ch == ',' ) {
+        space = result.length() > 0;
+      } else {
+        if( space ) {
+          result.append( ' ' );
+          space = false;
+        }
+        result.append( Character.toLowerCase( ch ) );
+      }
+    }
+    return result.toString();
+  }
+
+  private Object createKey( final LatLng location ) {
+    long latitude = Math.round( location.latitude * scale );
+    long longitude = Math.round( location.longitude * scale );
+    return new Long( ( latitude << 32 ) ^ ( longitude & 0xFFFFFFFFL ) );
+  }
+
+  private Object lookup( final Map map, final Object key ) {
+    Object result = null;
+    Entry entry = ( Entry )map.get( key );
+    if( entry != null ) {
+      if( System.currentTimeMillis() - entry.time > timeToLive ) {
+        map.remove( key );
+        evictions++;
+      } else {
+        result = entry.value;
+      }
+    }
+    if( result != null ) {
+      hits++;
+    } else {
+      misses++;
+    }
+    return result;
+  }
+
+  private void store( final Map map, final Object key, final Object value ) {
+    if( value != null && maxSize > 0 ) {
+      map.put( key, new Entry( value ) );
+    }
+  }
+
+  private Map createMap() {
+    return new LinkedHashMap( 16, 0.75f, true ) {
+      private static final long serialVersionUID = 1L;
+      protected boolean removeEldestEntry( final Map.Entry eldest ) {
+        boolean result = size() > maxSize;
+        if( result ) {
+          evictions++;
+        }
+        return result;
+      }
+    };
+  }
+
+  private static final class Entry {
+
+    final Object value;
+    final long time;
+
+    Entry( final Object value ) {
+      this.value = value;
+      this.time = System.currentTimeMillis();
+    }
+  }
+
+}
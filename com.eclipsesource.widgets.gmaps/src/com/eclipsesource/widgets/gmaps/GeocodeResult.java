@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+
+public final class GeocodeResult {
+
+  public final String address;
+  public final LatLng location;
+  public final LatLngBounds viewport;
+
+  /**
+   * @param address the formatted address
+   * @param location the location of the address
+   * @param viewport the area recommended to show the address, may be null
+   */
+  public GeocodeResult( final String address, 
+                        final LatLng location, 
+                        final LatLngBounds viewport ) 
+  {
+    if( location == null ) {
+      throw new IllegalArgumentException( "Location must not be null" );
+    }
+    this.address = address;
+    this.location = location;
+    this.viewport = viewport;
+  }
+
+  public String toString() {
+    return address + " (" + location.toString() + ")";
+  }
+
+}
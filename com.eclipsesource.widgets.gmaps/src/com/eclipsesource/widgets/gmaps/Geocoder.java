@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+/**
+ * A geocoder that can be used by the GMap instead of the one of the Google 
+ * Maps API in the browser, e.g. one using the Google Maps Web Services or a
+ * local database. Results are cached by the GeocodeCache.
+ * 
+ * Implementations must be thread-safe. The methods may be called from the 
+ * UI thread, so they should return fast. 
+ * 
+ * @see GMap#setGeocoder(Geocoder)
+ */
+public interface Geocoder {
+
+  /**
+   * Returns the best result for the given address, or null if the address 
+   * is unknown to this geocoder.
+   */
+  public GeocodeResult geocode( String address );
+
+  /**
+   * Returns the address of the given location, or null if it is unknown to 
+   * this geocoder.
+   */
+  public String reverseGeocode( LatLng location );
+
+}
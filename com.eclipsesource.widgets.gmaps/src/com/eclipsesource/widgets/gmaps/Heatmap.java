@@ -0,0 +1,476 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.core.runtime.ListenerList;
+
+/**
+ * A density map for a large number of points, shown as overlay of a GMap
+ * (see GMap#setHeatmap). The points are never sent to the browser. Instead,
+ * the points of a tile are counted in a grid of cells on the server, the 
+ * counts are smoothed and the result is sent to the browser as PNG image. 
+ * A tile is rendered in the thread that requests it. Tiles requested at the
+ * same time (the browser loads several at once) are rendered concurrently.
+ *
+ * Rendered tiles are cached by zoom, x and y. Adding or removing points 
+ * removes only the tiles around these points from the cache, and increases
+ * the version, which is part of the tile urls. All other tiles are served
+ * from the cache again.
+ *
+ * A Heatmap can be shared by several maps and is thread-safe.
+ */
+public final class Heatmap implements TileSources.Source {
+
+  private static final int CELL_SIZE = 2; // pixels
+  private static final int GRID_SIZE = Mercator.TILE_SIZE / CELL_SIZE;
+  // smoothing radius, in cells
+  private static final int RADIUS = 6;
+  private static final int SPAN = GRID_SIZE + 2 * RADIUS;
+  private static final int MAX_CACHED_TILES = 1024;
+  private static final int POINTS_PER_TASK = 16384;
+  private static final float[] KERNEL = createKernel();
+  private static final int[] PALETTE = createPalette();
+  private static byte[] emptyTile;
+
+  private final String id;
+  private final QuadTree tree = new QuadTree();
+  // projected coordinates by id, NaN for removed points
+  private double[] pointX = new double[ 64 ];
+  private double[] pointY = new double[ 64 ];
+  private int nextPointId = 0;
+  private int size = 0;
+  private double maximum = 20;
+  private long version = 0;
+  // key (Long) -> byte[]
+  private final LinkedHashMap cache 
+    = new LinkedHashMap( 256, 0.75f, true );
+  private final int[] cachedTiles = new int[ Mercator.MAX_ZOOM + 1 ];
+  // key (Long) -> Boolean, false if invalidated while rendering
+  private final Map rendering = new HashMap();
+  private final ListenerList listeners = new ListenerList();
+
+  public Heatmap() {
+    id = TileSources.register( this );
+  }
+
+  /**
+   * Adds a point and returns its id.
+   */
+  public int add( final double latitude, final double longitude ) {
+    return add( new double[] { latitude }, new double[] { longitude } );
+  }
+
+  /**
+   * Adds all given points and returns the id of the first one. The other
+   * points have the following ids.
+   */
+  public int add( final double[] latitudes, final double[] longitudes ) {
+    if( latitudes.length != longitudes.length ) {
+      throw new IllegalArgumentException( "Illegal number of coordinates" );
+    }
+    final double[] x = new double[ latitudes.length ];
+    final double[] y = new double[ latitudes.length ];
+    for( int i = 0; i < latitudes.length; i++ ) {
+      checkCoordinate( latitudes[ i ], longitudes[ i ] );
+    }
+    // Projecting is the expensive part of adding, it is done outside of 
+    // the lock
+    Parallel.run( latitudes.length, POINTS_PER_TASK, new Parallel.Task() {
+      public void run( final int from, final int to ) {
+        for( int i = from; i < to; i++ ) {
+          x[ i ] = Mercator.toX( longitudes[ i ] );
+          y[ i ] = Mercator.toY( latitudes[ i ] );
+        }
+      }
+    } );
+    int result;
+    synchronized( this ) {
+      result = nextPointId;
+      ensureCapacity( nextPointId + x.length );
+      for( int i = 0; i < x.length; i++ ) {
+        int pointId = nextPointId++;
+        pointX[ pointId ] = x[ i ];
+        pointY[ pointId ] = y[ i ];
+        tree.insert( pointId, x[ i ], y[ i ] );
+        invalidate( x[ i ], y[ i ] );
+      }
+      size += x.length;
+      version++;
+    }
+    fireChanged();
+    return result;
+  }
+
+  public void remove( final int pointId ) {
+    synchronized( this ) {
+      if(    pointId < 0 
+          || pointId >= nextPointId 
+          || Double.isNaN( pointX[ pointId ] ) ) 
+      {
+        throw new IllegalArgumentException( "Unknown point: " + pointId );
+      }
+      tree.remove( pointId );
+      invalidate( pointX[ pointId ], pointY[ pointId ] );
+      pointX[ pointId ] = Double.NaN;
+      pointY[ pointId ] = Double.NaN;
+      size--;
+      version++;
+    }
+    fireChanged();
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Sets the smoothed number of points per cell that is shown in the 
+   * strongest color. The default is 20.
+   */
+  public void setMaximum( final double maximum ) {
+    if( !( maximum > 0 ) ) {
+      throw new IllegalArgumentException( "Illegal maximum" );
+    }
+    synchronized( this ) {
+      this.maximum = maximum;
+      cache.clear();
+      for( int i = 0; i < cachedTiles.length; i++ ) {
+        cachedTiles[ i ] = 0;
+      }
+      invalidateRendering();
+      version++;
+    }
+    fireChanged();
+  }
+
+  public synchronized double getMaximum() {
+    return maximum;
+  }
+
+  /**
+   * Returns a number that changes whenever the tiles change.
+   */
+  public synchronized long getVersion() {
+    return version;
+  }
+
+  /**
+   * Returns the tile with the given coordinates as PNG image.
+   */
+  public byte[] getTile( final int zoom, final int x, final int y ) {
+    byte[] result = null;
+    if( TileSources.isValid( zoom, x, y ) ) {
+      Long key = new Long( TileSources.toKey( zoom, x, y ) );
+      double[] points;
+      double currentMaximum;
+      synchronized( this ) {
+        result = ( byte[] )cache.get( key );
+        points = result == null ? collectPoints( zoom, x, y ) : null;
+        currentMaximum = maximum;
+        if( points != null ) {
+          rendering.put( key, Boolean.TRUE );
+        }
+      }
+      if( result == null ) {
+        try {
+          result = render( zoom, x, y, points, currentMaximum );
+        } finally {
+          synchronized( this ) {
+            Object valid = rendering.remove( key );
+            if( Boolean.TRUE.equals( valid ) && result != null ) {
+              putIntoCache( key, zoom, result );
+            }
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Makes the tiles unavailable to maps. A heatmap that is no longer 
+   * referenced by the application or a map is released without this.
+   */
+  public void dispose() {
+    TileSources.unregister( id );
+    synchronized( this ) {
+      cache.clear();
+    }
+  }
+
+  String getId() {
+    return id;
+  }
+
+  /**
+   * The given runnable is called after every change, in the thread that 
+   * made the change.
+   */
+  void addChangeListener( final Runnable listener ) {
+    listeners.add( listener );
+  }
+
+  void removeChangeListener( final Runnable listener ) {
+    listeners.remove( listener );
+  }
+
+  /////////
+  // helper
+
+  private void fireChanged() {
+    Object[] runnables = listeners.getListeners();
+    for( int i = 0; i < runnables.length; i++ ) {
+      ( ( Runnable )runnables[ i ] ).run();
+    }
+  }
+
+  /**
+   * Returns the projected coordinates of the points within the tile and 
+   * the smoothing radius around it, as [ x0, y0, x1, y1, ... ].
+   */
+  private double[] collectPoints( final int zoom, final int x, final int y ) {
+    double tileSize = 1.0 / ( 1 << zoom );
+    double margin = tileSize * RADIUS / GRID_SIZE;
+    IntList ids = new IntList();
+    tree.query( x * tileSize - margin, 
+                y * tileSize - margin, 
+                ( x + 1 ) * tileSize + margin, 
+                ( y + 1 ) * tileSize + margin, 
+                ids );
+    double[] result = new double[ ids.size() * 2 ];
+    for( int i = 0; i < ids.size(); i++ ) {
+      result[ i * 2 ] = pointX[ ids.get( i ) ];
+      result[ i * 2 + 1 ] = pointY[ ids.get( i ) ];
+    }
+    return result;
+  }
+
+  private static byte[] render( final int zoom, 
+                                final int x, 
+                                final int y, 
+                                final double[] points, 
+                                final double maximum ) 
+  {
+    byte[] result;
+    if( points.length == 0 ) {
+      result = getEmptyTile();
+    } else {
+      float[] counts = count( zoom, x, y, points );
+      float[] density = smooth( counts );
+      result = PngEncoder.encode( Mercator.TILE_SIZE, 
+                                  Mercator.TILE_SIZE, 
+                                  colorize( density, maximum ) );
+    }
+    return result;
+  }
+
+  /**
+   * Counts the points per cell of the tile, including the cells within the
+   * smoothing radius around it.
+   */
+  private static float[] count( final int zoom, 
+                                final int x, 
+                                final int y, 
+                                final double[] points ) 
+  {
+    double scale = ( double )GRID_SIZE * ( 1 << zoom );
+    int offsetX = x * GRID_SIZE - RADIUS;
+    int offsetY = y * GRID_SIZE - RADIUS;
+    float[] result = new float[ SPAN * SPAN ];
+    for( int i = 0; i < points.length; i += 2 ) {
+      int cellX = ( int )Math.floor( points[ i ] * scale ) - offsetX;
+      int cellY = ( int )Math.floor( points[ i + 1 ] * scale ) - offsetY;
+      if( cellX >= 0 && cellX < SPAN && cellY >= 0 && cellY < SPAN ) {
+        result[ cellY * SPAN + cellX ]++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Applies the smoothing kernel to the counts.
+   */
+  private static float[] smooth( final float[] counts ) {
+    float[] result = new float[ GRID_SIZE * GRID_SIZE ];
+    int kernelSize = 2 * RADIUS + 1;
+    for( int row = 0; row < GRID_SIZE; row++ ) {
+      for( int column = 0; column < GRID_SIZE; column++ ) {
+        float sum = 0;
+        for( int ky = 0; ky < kernelSize; ky++ ) {
+          int start = ( row + ky ) * SPAN + column;
+          int kernelStart = ky * kernelSize;
+          for( int kx = 0; kx < kernelSize; kx++ ) {
+            sum += counts[ start + kx ] * KERNEL[ kernelStart + kx ];
+          }
+        }
+        result[ row * GRID_SIZE + column ] = sum;
+      }
+    }
+    return result;
+  }
+
+  private static int[] colorize( final float[] density, 
+                                 final double maximum ) 
+  {
+    int[] result = new int[ Mercator.TILE_SIZE * Mercator.TILE_SIZE ];
+    double logMaximum = Math.log( 1 + maximum );
+    for( int row = 0; row < GRID_SIZE; row++ ) {
+      for( int column = 0; column < GRID_SIZE; column++ ) {
+        double value = density[ row * GRID_SIZE + column ];
+        double intensity = Math.min( 1, Math.log( 1 + value ) / logMaximum );
+        int color = PALETTE[ ( int )( intensity * ( PALETTE.length - 1 ) ) ];
+        if( color != 0 ) {
+          int start = row * CELL_SIZE * Mercator.TILE_SIZE + column * CELL_SIZE;
+          for( int dy = 0; dy < CELL_SIZE; dy++ ) {
+            int pixel = start + dy * Mercator.TILE_SIZE;
+            for( int dx = 0; dx < CELL_SIZE; dx++ ) {
+              result[ pixel + dx ] = color;
+            }
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  private static synchronized byte[] getEmptyTile() {
+    if( emptyTile == null ) {
+      int[] pixels = new int[ Mercator.TILE_SIZE * Mercator.TILE_SIZE ];
+      emptyTile 
+        = PngEncoder.encode( Mercator.TILE_SIZE, Mercator.TILE_SIZE, pixels );
+    }
+    return emptyTile;
+  }
+
+  private void putIntoCache( final Long key, 
+                             final int zoom, 
+                             final byte[] tile ) 
+  {
+    if( cache.put( key, tile ) == null ) {
+      cachedTiles[ zoom ]++;
+    }
+    Iterator iterator = cache.keySet().iterator();
+    while( cache.size() > MAX_CACHED_TILES ) {
+      long eldest = ( ( Long )iterator.next() ).longValue();
+      cachedTiles[ ( int )( eldest >>> 48 ) ]--;
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Removes the tiles that contain the given point, or have it within their
+   * smoothing radius, from the cache.
+   */
+  private void invalidate( final double x, final double y ) {
+    for( int zoom = 0; zoom < cachedTiles.length; zoom++ ) {
+      if( cachedTiles[ zoom ] > 0 || !rendering.isEmpty() ) {
+        int tiles = 1 << zoom;
+        double margin = ( double )RADIUS / GRID_SIZE;
+        int minX = Math.max( 0, toTile( x * tiles - margin ) );
+        int maxX = Math.min( tiles - 1, toTile( x * tiles + margin ) );
+        int minY = Math.max( 0, toTile( y * tiles - margin ) );
+        int maxY = Math.min( tiles - 1, toTile( y * tiles + margin ) );
+        for( int tileX = minX; tileX <= maxX; tileX++ ) {
+          for( int tileY = minY; tileY <= maxY; tileY++ ) {
+            Long key = new Long( TileSources.toKey( zoom, tileX, tileY ) );
+            if( cache.remove( key ) != null ) {
+              cachedTiles[ zoom ]--;
+            }
+            if( rendering.containsKey( key ) ) {
+              rendering.put( key, Boolean.FALSE );
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static int toTile( final double value ) {
+    return ( int )Math.floor( value );
+  }
+
+  private void invalidateRendering() {
+    Iterator iterator = rendering.entrySet().iterator();
+    while( iterator.hasNext() ) {
+      ( ( Map.Entry )iterator.next() ).setValue( Boolean.FALSE );
+    }
+  }
+
+  private void ensureCapacity( final int capacity ) {
+    if( capacity > pointX.length ) {
+      int newCapacity = Math.max( pointX.length * 2, capacity );
+      double[] newX = new double[ newCapacity ];
+      double[] newY = new double[ newCapacity ];
+      System.arraycopy( pointX, 0, newX, 0, nextPointId );
+      System.arraycopy( pointY, 0, newY, 0, nextPointId );
+      pointX = newX;
+      pointY = newY;
+    }
+  }
+
+  private static void checkCoordinate( final double latitude, 
+                                       final double longitude ) 
+  {
+    if(    Double.isNaN( latitude ) 
+        || Double.isInfinite( latitude ) 
+        || Double.isNaN( longitude ) 
+        || Double.isInfinite( longitude ) ) 
+    {
+      throw new IllegalArgumentException( "Illegal coordinate" );
+    }
+  }
+
+  private static float[] createKernel() {
+    int kernelSize = 2 * RADIUS + 1;
+    float[] result = new float[ kernelSize * kernelSize ];
+    for( int ky = 0; ky < kernelSize; ky++ ) {
+      for( int kx = 0; kx < kernelSize; kx++ ) {
+        double dx = kx - RADIUS;
+        double dy = ky - RADIUS;
+        double distance = Math.sqrt( dx * dx + dy * dy ) / ( RADIUS + 1 );
+        result[ ky * kernelSize + kx ] = ( float )Math.max( 0, 1 - distance );
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Creates the colors from transparent blue over cyan, green and yellow to 
+   * red, as ARGB.
+   */
+  private static int[] createPalette() {
+    int[][] stops = {
+      { 0, 0, 255 }, { 0, 255, 255 }, { 0, 255, 0 }, { 255, 255, 0 }, 
+      { 255, 0, 0 }
+    };
+    int[] result = new int[ 256 ];
+    for( int i = 1; i < result.length; i++ ) {
+      double position 
+        = ( double )i / ( result.length - 1 ) * ( stops.length - 1 );
+      int stop = Math.min( ( int )position, stops.length - 2 );
+      double fraction = position - stop;
+      int color = 0;
+      for( int c = 0; c < 3; c++ ) {
+        int from = stops[ stop ][ c ];
+        double value = from + ( stops[ stop + 1 ][ c ] - from ) * fraction;
+        color = ( color << 8 ) | ( int )Math.round( value );
+      }
+      int alpha = Math.min( 204, i * 4 );
+      result[ i ] = ( alpha << 24 ) | color;
+    }
+    return result;
+  }
+
+}
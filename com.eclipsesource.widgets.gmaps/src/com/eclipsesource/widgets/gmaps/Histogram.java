@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+
+/**
+ * Records durations (in milliseconds) in buckets of powers of two, which 
+ * takes constant memory and time regardless of the number of values. 
+ * Percentiles are therefore approximate: they return the upper limit of the
+ * bucket containing the requested value.
+ */
+public final class Histogram {
+
+  // bucket i contains the values below 2^i (and at least 2^(i-1))
+  private static final int BUCKET_COUNT = 32;
+
+  private final long[] buckets = new long[ BUCKET_COUNT ];
+  private long count;
+  private long sum;
+  private long max;
+
+  synchronized void record( final long value ) {
+    long positive = Math.max( 0, value );
+    int bucket = 0;
+    while( bucket < BUCKET_COUNT - 1 && positive >= 1L << bucket ) {
+      bucket++;
+    }
+    buckets[ bucket ]++;
+    count++;
+    sum += positive;
+    max = Math.max( max, positive );
+  }
+
+  synchronized void reset() {
+    for( int i = 0; i < BUCKET_COUNT; i++ ) {
+      buckets[ i ] = 0;
+    }
+    count = 0;
+    sum = 0;
+    max = 0;
+  }
+
+  public synchronized long getCount() {
+    return count;
+  }
+
+  public synchronized double getMean() {
+    return count > 0 ? ( double )sum / count : 0;
+  }
+
+  public synchronized long getMax() {
+    return max;
+  }
+
+  /**
+   * Returns an upper limit for the given percentile (between 0 and 100) of 
+   * the recorded values, or 0 if there are none.
+   */
+  public synchronized long getPercentile( final double percentile ) {
+    if( percentile < 0 || percentile > 100 ) {
+      throw new IllegalArgumentException( "Illegal percentile" );
+    }
+    long result = 0;
+    if( count > 0 ) {
+      long rank = ( long )Math.ceil( count * percentile / 100 );
+      long seen = 0;
+      int bucket = 0;
+      seen += buckets[ bucket ];
+      while( seen < rank && bucket < BUCKET_COUNT - 1 ) {
+        bucket++;
+        seen += buckets[ bucket ];
+      }
+      result = Math.min( max, ( 1L << bucket ) - 1 );
+    }
+    return result;
+  }
+
+  public synchronized String toString() {
+    return   "count=" + count + ", mean=" + getMean() + ", p50=" 
+           + getPercentile( 50 ) + ", p99=" + getPercentile( 99 ) 
+           + ", max=" + max;
+  }
+
+}
@@ -14,13 +14,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 
+import org.eclipse.swt.SWT;
 import org.eclipse.swt.browser.Browser;
 
 /**
  * This class can load a local html-file and the local scripts it references 
  * into a browser-widget using setText. This method (and not setUrl) is used 
- * because it is the only way that works in RAP *and* RCP, as they both have 
- * some restrictions.
+ * by default because it is the only way that works in RAP *and* RCP, as they 
+ * both have some restrictions.
  * 
  * While in RCP it would be possible to simply load the html form the 
  * file-system, this wont work out-of-the-box if the file is inside a jar.
@@ -32,25 +33,97 @@ import org.eclipse.swt.browser.Browser;
  * 
  * If you are only targeting RAP, the last method is strongly recommended as it 
  * is more efficient, especially when loading the same content several times.
+ * Therefore, if running in RAP and the ResourceServlet has been registered 
+ * (see plugin.xml), the page is loaded using setUrl instead. The url contains
+ * a hash of the content, so it can be cached by the browser indefinitely. 
  * 
  * Note that loading the html from another server wont work in RAP due to 
  * the browsers security-restrictions. 
+ * 
+ * The result of inlining is cached process-wide, see PageCache.
  **/
 
 final class HtmlLoader {
   
+  private static String servletPath = null;
+
   static void load( final Browser browser, final String htmlFile ) {
-    browser.setText( getHtmlContent( htmlFile ) );
+    if( isServed() ) {
+      browser.setUrl( getUrl( getServletPath(), htmlFile ) );
+    } else {
+      browser.setText( PageCache.get( htmlFile ) );
+    }
+  }
+
+  static synchronized void setServletPath( final String path ) {
+    servletPath = path;
+  }
+
+  static synchronized String getServletPath() {
+    return servletPath;
+  }
+
+  /**
+   * Returns whether pages are loaded from the ResourceServlet, which can
+   * then serve other resources of the map as well.
+   */
+  static boolean isServed() {
+    return getServletPath() != null && isRAP();
+  }
+
+  /**
+   * Returns the url of the tiles of the given TileSources id, relative to 
+   * the page.
+   */
+  static String getTileUrl( final String sourceId ) {
+    return "../" + ResourceServlet.TILES + "/" + sourceId + "/";
   }
 
-  private static String getHtmlContent( final String url ) {
-    StringBuffer html = getFileContent( url );
-    inlineScripts( html );
-    return html.toString();
+  static String getUrl( final String path, final String htmlFile ) {
+    // Note: The url is relative to the RAP entry point, because the 
+    //       http-registry alias is relative to the context path.
+    StringBuffer url = new StringBuffer();
+    url.append( path.substring( 1 ) );
+    url.append( '/' );
+    url.append( PageCache.getHash( htmlFile ) );
+    url.append( '/' );
+    url.append( htmlFile );
+    return url.toString();
   }
 
-  private static StringBuffer getFileContent( final String file ) {
+  private static boolean isRAP() {
+    return "rap".equals( SWT.getPlatform() );
+  }
+
+  static String getHtmlContent( final String url ) {
+    return createHtmlContent( url, false );
+  }
+
+  /**
+   * Like getHtmlContent, but returns null if the page or one of its scripts
+   * could not be read, instead of inserting an error message.
+   */
+  static String readHtmlContent( final String url ) {
+    return createHtmlContent( url, true );
+  }
+
+  private static String createHtmlContent( final String url, 
+                                           final boolean strict ) 
+  {
+    String result = null;
+    StringBuffer html = getFileContent( url, strict );
+    if( html != null && inlineScripts( html, strict ) ) {
+      result = html.toString();
+    }
+    return result;
+  }
+
+  // returns null in strict mode if the file could not be read
+  private static StringBuffer getFileContent( final String file, 
+                                              final boolean strict ) 
+  {
     StringBuffer buffer = new StringBuffer();
+    boolean failed = false;
     InputStream stream = 
       HtmlLoader.class.getClassLoader().getResourceAsStream( file );
     if( stream != null ) {
@@ -68,21 +141,29 @@ final class HtmlLoader {
         }
       } catch( IOException e ) {
         buffer.append( "Could not read File: " + e.toString() );
+        failed = true;
       }
     } else {
       buffer.append( "File not found!" );
+      failed = true;
+    }
+    if( failed && strict ) {
+      buffer = null;
     }
     return buffer;    
   }
 
-  private static void inlineScripts( final StringBuffer html ) {
+  private static boolean inlineScripts( final StringBuffer html, 
+                                        final boolean strict ) 
+  {
+    boolean result = true;
     String srcAttrStr = "src=\"./";
     String quotStr = "\"";
     String tagStr = "<script ";
     String closingTagStr = "</script>";
     String newTagStr = "<script type=\"text/javascript\">";
     int offset = html.length();
-    while( ( offset = html.lastIndexOf( tagStr, offset ) ) != -1 ) {
+    while( result && ( offset = html.lastIndexOf( tagStr, offset ) ) != -1 ) {
       int closeTag = html.indexOf( closingTagStr, offset );
       int srcAttr = html.indexOf( srcAttrStr, offset );
       if( srcAttr != -1 && srcAttr < closeTag ) {
@@ -90,17 +171,23 @@ final class HtmlLoader {
         int srcAttrEnd = html.indexOf( quotStr, srcAttrStart );
         if( srcAttrEnd != -1 ) {
           String filename = html.substring( srcAttrStart, srcAttrEnd );
-          StringBuffer newScriptTag = new StringBuffer();
-          newScriptTag.append( newTagStr );
-          newScriptTag.append( getFileContent( filename ) );
-          newScriptTag.append( closingTagStr );
-          html.replace( offset, 
-                        closeTag + closingTagStr.length(), 
-                        newScriptTag.toString() );
+          StringBuffer content = getFileContent( filename, strict );
+          if( content != null ) {
+            StringBuffer newScriptTag = new StringBuffer();
+            newScriptTag.append( newTagStr );
+            newScriptTag.append( content );
+            newScriptTag.append( closingTagStr );
+            html.replace( offset, 
+                          closeTag + closingTagStr.length(), 
+                          newScriptTag.toString() );
+          } else {
+            result = false;
+          }
         }
       }
       offset--;
     }
+    return result;
   }
 
 
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+/**
+ * A growable list of ints, used to collect ids without boxing them. 
+ */
+final class IntList {
+
+  private int[] values;
+  private int size = 0;
+
+  IntList() {
+    this( 16 );
+  }
+
+  IntList( final int capacity ) {
+    values = new int[ Math.max( capacity, 1 ) ];
+  }
+
+  void add( final int value ) {
+    if( size == values.length ) {
+      int[] newValues = new int[ size * 2 ];
+      System.arraycopy( values, 0, newValues, 0, size );
+      values = newValues;
+    }
+    values[ size++ ] = value;
+  }
+
+  int get( final int index ) {
+    return values[ index ];
+  }
+
+  void set( final int index, final int value ) {
+    values[ index ] = value;
+  }
+
+  int size() {
+    return size;
+  }
+
+  void clear() {
+    size = 0;
+  }
+
+  /**
+   * Removes the element at the given index by replacing it with the last one.
+   */
+  void removeFast( final int index ) {
+    values[ index ] = values[ --size ];
+  }
+
+  int[] toArray() {
+    int[] result = new int[ size ];
+    System.arraycopy( values, 0, result, 0, size );
+    return result;
+  }
+
+}
@@ -0,0 +1,396 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+/**
+ * Writes the scripts sent to the browser. Function calls, arrays and values
+ * are written directly into a char buffer, strings are escaped, commas 
+ * between the arguments and array elements are inserted automatically:
+ * 
+ * <pre>
+ * JsWriter writer = JsWriter.obtain();
+ * writer.call( "setZoom" ).value( 12 ).end();
+ * String script = writer.finish();
+ * </pre>
+ * 
+ * Writers (and their buffers) are pooled, so that only the resulting 
+ * string is allocated. A writer must not be used after finish or recycle 
+ * was called.
+ */
+final class JsWriter {
+
+  private static final int POOL_SIZE = 4;
+  // larger buffers are left to the garbage collector
+  private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+  private static final JsWriter[] POOL = new JsWriter[ POOL_SIZE ];
+  private static int pooled = 0;
+  // Coordinates are written with 6 decimal places (about 10 cm)
+  private static final int DECIMALS = 6;
+  private static final long SCALE = 1000000L;
+  // larger values would overflow when scaled
+  private static final double MAX_FIXED = 1e12;
+  // sign and up to 19 digits, plus the decimal point for coordinates
+  private static final int MAX_NUMBER_LENGTH = 21;
+
+  private char[] chars = new char[ 256 ];
+  private int length;
+  private CoordinateCodec codec;
+  // one bit per nesting level, set for arrays
+  private long arrays;
+  private int depth;
+  private boolean separate;
+
+  private JsWriter() {
+    // use obtain
+  }
+
+  static JsWriter obtain() {
+    JsWriter result = null;
+    synchronized( POOL ) {
+      if( pooled > 0 ) {
+        result = POOL[ --pooled ];
+        POOL[ pooled ] = null;
+      }
+    }
+    if( result == null ) {
+      result = new JsWriter();
+    }
+    return result;
+  }
+
+  /**
+   * Returns the script written and returns the writer to the pool.
+   */
+  String finish() {
+    String result = new String( chars, 0, length );
+    recycle();
+    return result;
+  }
+
+  /**
+   * Returns the writer to the pool without creating the script.
+   */
+  void recycle() {
+    length = 0;
+    codec = null;
+    arrays = 0;
+    depth = 0;
+    separate = false;
+    if( chars.length <= MAX_POOLED_CAPACITY ) {
+      synchronized( POOL ) {
+        if( pooled < POOL_SIZE ) {
+          POOL[ pooled++ ] = this;
+        }
+      }
+    }
+  }
+
+  int length() {
+    return length;
+  }
+
+  /////////////
+  // Structure
+
+  JsWriter call( final String function ) {
+    separate();
+    append( function );
+    append( "( " );
+    push( false );
+    return this;
+  }
+
+  /**
+   * Ends the current call. Calls on the outermost level are ended as a 
+   * statement.
+   */
+  JsWriter end() {
+    pop();
+    append( depth == 0 ? " );" : " )" );
+    return this;
+  }
+
+  JsWriter beginArray() {
+    separate();
+    append( '[' );
+    push( true );
+    return this;
+  }
+
+  JsWriter endArray() {
+    pop();
+    append( ']' );
+    return this;
+  }
+
+  /**
+   * Appends a complete script (e.g. one created by another writer) as a 
+   * statement of its own.
+   */
+  JsWriter statement( final String script ) {
+    append( script );
+    append( '\n' );
+    separate = false;
+    return this;
+  }
+
+  //////////
+  // Values
+
+  JsWriter value( final long value ) {
+    separate();
+    append( value );
+    return this;
+  }
+
+  JsWriter value( final boolean value ) {
+    separate();
+    append( value ? "true" : "false" );
+    return this;
+  }
+
+  /**
+   * Appends an expression as is. Must not be used for values given by the
+   * application, use string for those.
+   */
+  JsWriter expression( final String expression ) {
+    separate();
+    append( expression );
+    return this;
+  }
+
+  /**
+   * Appends a string literal, or null. Characters that would end the 
+   * literal or the script are escaped.
+   */
+  JsWriter string( final String value ) {
+    separate();
+    if( value == null ) {
+      append( "null" );
+    } else {
+      int count = value.length();
+      ensureCapacity( count + 2 );
+      chars[ length++ ] = '"';
+      for( int i = 0; i < count; i++ ) {
+        char ch = value.charAt( i );
+        switch( ch ) {
+          case '"':
+            append( "\\\"" );
+          break;
+          case '\\':
+            append( "\\\\" );
+          break;
+          case '\n':
+            append( "\\n" );
+          break;
+          case '\r':
+            append( "\\r" );
+          break;
+          case '\t':
+            append( "\\t" );
+          break;
+          default:
+            // '<' is escaped to prevent "</script>" in inlined scripts
+            if( ch < 0x20 || ch == '\u2028' || ch == '\u2029' || ch == '<' ) {
+              appendUnicodeEscape( ch );
+            } else {
+              append( ch );
+            }
+          break;
+        }
+      }
+      append( '"' );
+    }
+    return this;
+  }
+
+  /**
+   * Appends the coordinate with a fixed number of decimal places. Values 
+   * that are too large for this (which are no valid coordinates anyway) 
+   * are written like other doubles.
+   */
+  JsWriter coordinate( final double value ) {
+    separate();
+    if( Math.abs( value ) < MAX_FIXED ) {
+      appendFixed( value );
+    } else {
+      append( String.valueOf( value ) );
+    }
+    return this;
+  }
+
+  /**
+   * Appends the position as an array [ latitude, longitude ].
+   */
+  JsWriter latLng( final LatLng latLng ) {
+    beginArray();
+    coordinate( latLng.latitude );
+    coordinate( latLng.longitude );
+    return endArray();
+  }
+
+  /**
+   * Appends the bounds as an array [ south, west, north, east ].
+   */
+  JsWriter bounds( final LatLngBounds bounds ) {
+    beginArray();
+    coordinate( bounds.southWest.latitude );
+    coordinate( bounds.southWest.longitude );
+    coordinate( bounds.northEast.latitude );
+    coordinate( bounds.northEast.longitude );
+    return endArray();
+  }
+
+  JsWriter ints( final IntList values ) {
+    beginArray();
+    for( int i = 0; i < values.size(); i++ ) {
+      if( i > 0 ) {
+        append( ',' );
+      }
+      append( values.get( i ) );
+    }
+    return endArray();
+  }
+
+  ////////////////////////////////////////////
+  // Coordinates encoded with a CoordinateCodec
+
+  JsWriter beginCoordinates( final CoordinateCodec codec ) {
+    separate();
+    this.codec = codec;
+    codec.begin( this );
+    return this;
+  }
+
+  JsWriter coordinates( final double latitude, final double longitude ) {
+    codec.append( this, latitude, longitude );
+    return this;
+  }
+
+  JsWriter endCoordinates() {
+    codec.end( this );
+    codec = null;
+    return this;
+  }
+
+  ///////////////////////////////////////
+  // Unformatted output, e.g. for codecs
+
+  void append( final char ch ) {
+    if( length == chars.length ) {
+      ensureCapacity( 1 );
+    }
+    chars[ length++ ] = ch;
+  }
+
+  void append( final String string ) {
+    int count = string.length();
+    ensureCapacity( count );
+    string.getChars( 0, count, chars, length );
+    length += count;
+  }
+
+  void append( final long value ) {
+    ensureCapacity( MAX_NUMBER_LENGTH );
+    // not using Math.abs, which would fail for Long.MIN_VALUE
+    long rest = value;
+    int end = length + MAX_NUMBER_LENGTH;
+    int position = end;
+    do {
+      chars[ --position ] = ( char )( '0' + Math.abs( rest % 10 ) );
+      rest /= 10;
+    } while( rest != 0 );
+    if( value < 0 ) {
+      chars[ --position ] = '-';
+    }
+    moveToEnd( position, end );
+  }
+
+  //////////
+  // Helper
+
+  private void separate() {
+    if( separate ) {
+      append( isArray() ? "," : ", " );
+    }
+    separate = true;
+  }
+
+  private boolean isArray() {
+    return depth > 0 && ( arrays & ( 1L << ( depth - 1 ) ) ) != 0;
+  }
+
+  private void push( final boolean array ) {
+    if( depth == 64 ) {
+      throw new IllegalStateException( "Nested too deeply" );
+    }
+    if( array ) {
+      arrays |= 1L << depth;
+    } else {
+      arrays &= ~( 1L << depth );
+    }
+    depth++;
+    separate = false;
+  }
+
+  private void pop() {
+    depth--;
+    // statements are not separated
+    separate = depth > 0;
+  }
+
+  private void appendFixed( final double value ) {
+    ensureCapacity( MAX_NUMBER_LENGTH );
+    long scaled = Math.round( value * SCALE );
+    long rest = Math.abs( scaled );
+    int end = length + MAX_NUMBER_LENGTH;
+    int position = end;
+    for( int i = 0; i < DECIMALS; i++ ) {
+      chars[ --position ] = ( char )( '0' + rest % 10 );
+      rest /= 10;
+    }
+    chars[ --position ] = '.';
+    do {
+      chars[ --position ] = ( char )( '0' + rest % 10 );
+      rest /= 10;
+    } while( rest > 0 );
+    if( scaled < 0 ) {
+      chars[ --position ] = '-';
+    }
+    moveToEnd( position, end );
+  }
+
+  /**
+   * Moves the chars formatted from the back of the reserved space to the 
+   * current end.
+   */
+  private void moveToEnd( final int from, final int to ) {
+    int count = to - from;
+    System.arraycopy( chars, from, chars, length, count );
+    length += count;
+  }
+
+  private void appendUnicodeEscape( final char ch ) {
+    append( "\\u" );
+    for( int shift = 12; shift >= 0; shift -= 4 ) {
+      append( Character.forDigit( ( ch >> shift ) & 0xF, 16 ) );
+    }
+  }
+
+  private void ensureCapacity( final int count ) {
+    if( length + count > chars.length ) {
+      int capacity = Math.max( length + count, chars.length * 2 );
+      char[] newChars = new char[ capacity ];
+      System.arraycopy( chars, 0, newChars, 0, length );
+      chars = newChars;
+    }
+  }
+
+}
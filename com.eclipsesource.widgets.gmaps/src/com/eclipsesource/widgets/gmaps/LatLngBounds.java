@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+/**
+ * A rectangle in geographical coordinates. If the longitude of southWest is
+ * larger than that of northEast, the bounds cross the 180th meridian.
+ */
+public final class LatLngBounds {
+
+  public final LatLng southWest;
+  public final LatLng northEast;
+
+  public LatLngBounds( final LatLng southWest, final LatLng northEast ) {
+    if( southWest == null || northEast == null ) {
+      throw new IllegalArgumentException( "Corners must not be null" );
+    }
+    this.southWest = southWest;
+    this.northEast = northEast;
+  }
+
+  public boolean contains( final double latitude, final double longitude ) {
+    boolean result 
+      = latitude >= southWest.latitude && latitude <= northEast.latitude;
+    if( result ) {
+      if( crossesAntimeridian() ) {
+        result 
+          = longitude >= southWest.longitude || longitude <= northEast.longitude;
+      } else {
+        result 
+          = longitude >= southWest.longitude && longitude <= northEast.longitude;
+      }
+    }
+    return result;
+  }
+
+  public boolean contains( final LatLng latLng ) {
+    return contains( latLng.latitude, latLng.longitude );
+  }
+
+  public boolean crossesAntimeridian() {
+    return southWest.longitude > northEast.longitude;
+  }
+
+  public String toString() {
+    return southWest.toString() + "," + northEast.toString();
+  }
+
+  public int hashCode() {
+    return 31 * southWest.hashCode() + northEast.hashCode();
+  }
+
+  public boolean equals( final Object obj ) {
+    boolean result = false;
+    if( this == obj ) {
+      result = true;
+    } else if( obj != null && getClass() == obj.getClass() ) {
+      LatLngBounds other = ( LatLngBounds )obj;
+      result 
+        =    southWest.equals( other.southWest ) 
+          && northEast.equals( other.northEast );
+    }
+    return result;
+  }
+
+}
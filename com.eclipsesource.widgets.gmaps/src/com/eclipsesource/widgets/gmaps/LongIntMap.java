@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.Arrays;
+
+/**
+ * A minimal hash map from long to int using open addressing, to avoid boxing
+ * keys and values in the spatial data structures. Long.MIN_VALUE can not be
+ * used as key.
+ */
+final class LongIntMap {
+
+  static final int NOT_FOUND = -1;
+  private static final long EMPTY = Long.MIN_VALUE;
+
+  private long[] keys;
+  private int[] values;
+  private int size = 0;
+
+  LongIntMap( final int expectedSize ) {
+    int capacity = 16;
+    while( capacity < expectedSize * 2 ) {
+      capacity <<= 1;
+    }
+    allocate( capacity );
+  }
+
+  int get( final long key ) {
+    int mask = keys.length - 1;
+    int index = hash( key ) & mask;
+    int result = NOT_FOUND;
+    boolean done = false;
+    while( !done ) {
+      long current = keys[ index ];
+      if( current == key ) {
+        result = values[ index ];
+        done = true;
+      } else if( current == EMPTY ) {
+        done = true;
+      } else {
+        index = ( index + 1 ) & mask;
+      }
+    }
+    return result;
+  }
+
+  void put( final long key, final int value ) {
+    if( ( size + 1 ) * 2 > keys.length ) {
+      rehash( keys.length * 2 );
+    }
+    int mask = keys.length - 1;
+    int index = hash( key ) & mask;
+    while( keys[ index ] != EMPTY && keys[ index ] != key ) {
+      index = ( index + 1 ) & mask;
+    }
+    if( keys[ index ] == EMPTY ) {
+      keys[ index ] = key;
+      size++;
+    }
+    values[ index ] = value;
+  }
+
+  /**
+   * Removes the entry with the given key and returns its value, or 
+   * NOT_FOUND.
+   */
+  int remove( final long key ) {
+    int mask = keys.length - 1;
+    int index = hash( key ) & mask;
+    while( keys[ index ] != EMPTY && keys[ index ] != key ) {
+      index = ( index + 1 ) & mask;
+    }
+    int result = NOT_FOUND;
+    if( keys[ index ] == key ) {
+      result = values[ index ];
+      // Move following entries of the probe sequence into the gap, so that
+      // lookups don't stop early at it
+      int gap = index;
+      int next = ( gap + 1 ) & mask;
+      while( keys[ next ] != EMPTY ) {
+        int home = hash( keys[ next ] ) & mask;
+        if( ( ( next - home ) & mask ) >= ( ( next - gap ) & mask ) ) {
+          keys[ gap ] = keys[ next ];
+          values[ gap ] = values[ next ];
+          gap = next;
+        }
+        next = ( next + 1 ) & mask;
+      }
+      keys[ gap ] = EMPTY;
+      size--;
+    }
+    return result;
+  }
+
+  int size() {
+    return size;
+  }
+
+  void clear() {
+    if( size > 0 ) {
+      Arrays.fill( keys, EMPTY );
+      size = 0;
+    }
+  }
+
+  private void rehash( final int capacity ) {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    allocate( capacity );
+    size = 0;
+    for( int i = 0; i < oldKeys.length; i++ ) {
+      if( oldKeys[ i ] != EMPTY ) {
+        put( oldKeys[ i ], oldValues[ i ] );
+      }
+    }
+  }
+
+  private void allocate( final int capacity ) {
+    keys = new long[ capacity ];
+    values = new int[ capacity ];
+    Arrays.fill( keys, EMPTY );
+  }
+
+  private static int hash( final long key ) {
+    long hash = key * 0x9E3779B97F4A7C15L;
+    return ( int )( hash ^ ( hash >>> 32 ) );
+  }
+
+}
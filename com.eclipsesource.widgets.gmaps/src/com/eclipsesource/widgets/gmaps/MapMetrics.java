@@ -0,0 +1,342 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.lang.reflect.Method;
+
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * Counts the traffic between GMaps and their browsers: the number of 
+ * evaluated scripts and their size (per map type), the callbacks received 
+ * from the browser and the batches of events they arrived in, the time 
+ * from creating a map until it is initialized, and the time geocoding 
+ * requests take.
+ * 
+ * Metrics are kept per map (see GMap#getMetrics()), per session, i.e. per 
+ * Display (see getSessionMetrics), and for the whole JVM (see 
+ * getGlobalMetrics). Every value recorded for a map is added to the metrics 
+ * of its session and of the JVM. Recording only increments a few counters,
+ * so metrics are always enabled.
+ */
+public final class MapMetrics implements MapMetricsMBean {
+
+  private static final String SESSION_KEY = MapMetrics.class.getName();
+  private static final String OBJECT_NAME 
+    = "com.eclipsesource.widgets.gmaps:type=MapMetrics";
+  private static final int TYPE_COUNT = GMap.TYPE_TERRAIN + 1;
+  private static final MapMetrics global = new MapMetrics( null );
+
+  private final MapMetrics parent;
+  // per map type
+  private final long[] evaluations = new long[ TYPE_COUNT ];
+  private final long[] scriptCharacters = new long[ TYPE_COUNT ];
+  private long boundsChangedCallbacks;
+  private long addressResolvedCallbacks;
+  private long addressGeocodedCallbacks;
+  private long eventBatches;
+  private long events;
+  private final Histogram loadTimes = new Histogram();
+  private final Histogram geocodeLatencies = new Histogram();
+
+  MapMetrics( final MapMetrics parent ) {
+    this.parent = parent;
+  }
+
+  /**
+   * Returns the metrics of all maps in the JVM.
+   */
+  public static MapMetrics getGlobalMetrics() {
+    return global;
+  }
+
+  /**
+   * Returns the metrics of all maps of the given display. In RAP, this is 
+   * the session of the display. Must be called from the UI thread.
+   */
+  public static MapMetrics getSessionMetrics( final Display display ) {
+    MapMetrics result = ( MapMetrics )display.getData( SESSION_KEY );
+    if( result == null ) {
+      result = new MapMetrics( global );
+      display.setData( SESSION_KEY, result );
+    }
+    return result;
+  }
+
+  /**
+   * Makes the global metrics available through JMX, with the object name 
+   * "com.eclipsesource.widgets.gmaps:type=MapMetrics". JMX is looked up 
+   * reflectively, so this bundle also runs on platforms without it. This 
+   * is done on bundle start if the system property 
+   * "com.eclipsesource.widgets.gmaps.jmx" is set to true.
+   * 
+   * @return whether the metrics could be registered
+   */
+  public static boolean registerMBean() {
+    boolean result;
+    try {
+      Boolean registered = ( Boolean )invokeServer( "isRegistered", null );
+      if( !registered.booleanValue() ) {
+        invokeServer( "registerMBean", global );
+      }
+      result = true;
+    } catch( Exception e ) {
+      result = false;
+    }
+    return result;
+  }
+
+  /**
+   * Removes the metrics registered by registerMBean from JMX.
+   */
+  public static void unregisterMBean() {
+    try {
+      invokeServer( "unregisterMBean", null );
+    } catch( Exception e ) {
+      // not registered or no JMX, nothing to do
+    }
+  }
+
+  ////////////
+  // Recording
+
+  void scriptEvaluated( final int mapType, final int length ) {
+    synchronized( this ) {
+      evaluations[ mapType ]++;
+      scriptCharacters[ mapType ] += length;
+    }
+    if( parent != null ) {
+      parent.scriptEvaluated( mapType, length );
+    }
+  }
+
+  void boundsChangedReceived() {
+    synchronized( this ) {
+      boundsChangedCallbacks++;
+    }
+    if( parent != null ) {
+      parent.boundsChangedReceived();
+    }
+  }
+
+  void addressResolvedReceived() {
+    synchronized( this ) {
+      addressResolvedCallbacks++;
+    }
+    if( parent != null ) {
+      parent.addressResolvedReceived();
+    }
+  }
+
+  void addressGeocodedReceived() {
+    synchronized( this ) {
+      addressGeocodedCallbacks++;
+    }
+    if( parent != null ) {
+      parent.addressGeocodedReceived();
+    }
+  }
+
+  void eventsReceived( final int count ) {
+    synchronized( this ) {
+      eventBatches++;
+      events += count;
+    }
+    if( parent != null ) {
+      parent.eventsReceived( count );
+    }
+  }
+
+  void mapLoaded( final long time ) {
+    loadTimes.record( time );
+    if( parent != null ) {
+      parent.mapLoaded( time );
+    }
+  }
+
+  void geocoded( final long time ) {
+    geocodeLatencies.record( time );
+    if( parent != null ) {
+      parent.geocoded( time );
+    }
+  }
+
+  //////////
+  // Reading
+
+  public synchronized long getEvaluations() {
+    long result = 0;
+    for( int i = 0; i < evaluations.length; i++ ) {
+      result += evaluations[ i ];
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of scripts evaluated while the maps had the given 
+   * type.
+   * 
+   * @see GMap#setType(int)
+   */
+  public synchronized long getEvaluations( final int mapType ) {
+    return evaluations[ checkType( mapType ) ];
+  }
+
+  /**
+   * Returns the total length of all evaluated scripts.
+   */
+  public synchronized long getScriptCharacters() {
+    long result = 0;
+    for( int i = 0; i < scriptCharacters.length; i++ ) {
+      result += scriptCharacters[ i ];
+    }
+    return result;
+  }
+
+  public synchronized long getScriptCharacters( final int mapType ) {
+    return scriptCharacters[ checkType( mapType ) ];
+  }
+
+  public synchronized long getBoundsChangedCallbacks() {
+    return boundsChangedCallbacks;
+  }
+
+  public synchronized long getAddressResolvedCallbacks() {
+    return addressResolvedCallbacks;
+  }
+
+  public synchronized long getAddressGeocodedCallbacks() {
+    return addressGeocodedCallbacks;
+  }
+
+  /**
+   * Returns the number of calls from the browsers, each delivering a batch
+   * of events.
+   */
+  public synchronized long getEventBatches() {
+    return eventBatches;
+  }
+
+  /**
+   * Returns the number of events received from the browsers, of all types.
+   */
+  public synchronized long getEvents() {
+    return events;
+  }
+
+  /**
+   * Returns the times (in ms) from the creation of a map until it was 
+   * loaded and initialized in the browser.
+   */
+  public Histogram getLoadTimes() {
+    return loadTimes;
+  }
+
+  /**
+   * Returns the times (in ms) from a call of resolveAddress or gotoAddress
+   * until the result was received. Results taken from the geocode cache or
+   * the Geocoder are included.
+   */
+  public Histogram getGeocodeLatencies() {
+    return geocodeLatencies;
+  }
+
+  public long getMapsLoaded() {
+    return loadTimes.getCount();
+  }
+
+  public double getMeanLoadTime() {
+    return loadTimes.getMean();
+  }
+
+  public long getMaxLoadTime() {
+    return loadTimes.getMax();
+  }
+
+  public long getGeocodes() {
+    return geocodeLatencies.getCount();
+  }
+
+  public double getMeanGeocodeLatency() {
+    return geocodeLatencies.getMean();
+  }
+
+  public long getMaxGeocodeLatency() {
+    return geocodeLatencies.getMax();
+  }
+
+  /**
+   * Sets all values of these metrics to zero. The metrics of the session 
+   * and the JVM are not affected.
+   */
+  public void reset() {
+    synchronized( this ) {
+      for( int i = 0; i < evaluations.length; i++ ) {
+        evaluations[ i ] = 0;
+        scriptCharacters[ i ] = 0;
+      }
+      boundsChangedCallbacks = 0;
+      addressResolvedCallbacks = 0;
+      addressGeocodedCallbacks = 0;
+      eventBatches = 0;
+      events = 0;
+    }
+    loadTimes.reset();
+    geocodeLatencies.reset();
+  }
+
+  public String toString() {
+    return   "MapMetrics(evaluations=" + getEvaluations() 
+           + ", characters=" + getScriptCharacters() 
+           + ", boundsChanged=" + getBoundsChangedCallbacks() 
+           + ", addressResolved=" + getAddressResolvedCallbacks() 
+           + ", addressGeocoded=" + getAddressGeocodedCallbacks() 
+           + ", eventBatches=" + getEventBatches() 
+           + ", events=" + getEvents() 
+           + ", loadTimes=(" + loadTimes + ")" 
+           + ", geocodeLatencies=(" + geocodeLatencies + "))";
+  }
+
+  /**
+   * Calls the given method of the platform MBeanServer with the object name
+   * of the metrics, preceded by the given MBean unless it is null.
+   */
+  private static Object invokeServer( final String method, 
+                                      final Object mbean ) 
+    throws Exception 
+  {
+    Class factory = Class.forName( "java.lang.management.ManagementFactory" );
+    Method getServer = factory.getMethod( "getPlatformMBeanServer", 
+                                          new Class[ 0 ] );
+    Object server = getServer.invoke( null, new Object[ 0 ] );
+    Class nameClass = Class.forName( "javax.management.ObjectName" );
+    Object name = nameClass.getConstructor( new Class[] { String.class } )
+      .newInstance( new Object[] { OBJECT_NAME } );
+    Class[] types;
+    Object[] arguments;
+    if( mbean != null ) {
+      types = new Class[] { Object.class, nameClass };
+      arguments = new Object[] { mbean, name };
+    } else {
+      types = new Class[] { nameClass };
+      arguments = new Object[] { name };
+    }
+    Class serverClass = Class.forName( "javax.management.MBeanServer" );
+    return serverClass.getMethod( method, types ).invoke( server, arguments );
+  }
+
+  private static int checkType( final int mapType ) {
+    if( mapType < 0 || mapType >= TYPE_COUNT ) {
+      throw new IllegalArgumentException( "Illegal map type" );
+    }
+    return mapType;
+  }
+
+}
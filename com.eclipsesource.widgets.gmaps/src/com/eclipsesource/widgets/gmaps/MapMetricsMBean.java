@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+
+/**
+ * The attributes of MapMetrics that are available through JMX.
+ * 
+ * @see MapMetrics#registerMBean()
+ */
+public interface MapMetricsMBean {
+
+  public long getEvaluations();
+
+  public long getScriptCharacters();
+
+  public long getBoundsChangedCallbacks();
+
+  public long getAddressResolvedCallbacks();
+
+  public long getAddressGeocodedCallbacks();
+
+  public long getEventBatches();
+
+  public long getEvents();
+
+  public long getMapsLoaded();
+
+  public double getMeanLoadTime();
+
+  public long getMaxLoadTime();
+
+  public long getGeocodes();
+
+  public double getMeanGeocodeLatency();
+
+  public long getMaxGeocodeLatency();
+
+  public void reset();
+
+}
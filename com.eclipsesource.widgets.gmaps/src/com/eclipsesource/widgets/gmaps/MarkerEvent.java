@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+
+/**
+ * Describes a marker dragged to a new position by the user. Events are 
+ * immutable.
+ */
+public final class MarkerEvent {
+
+  /** The id of the marker, as returned by GMap#addDraggableMarker */
+  public final int marker;
+  /** The name the marker was created with */
+  public final String name;
+  /** The position the marker was dropped at */
+  public final LatLng position;
+
+  MarkerEvent( final int marker, final String name, final LatLng position ) {
+    this.marker = marker;
+    this.name = name;
+    this.position = position;
+  }
+
+}
@@ -0,0 +1,400 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+/**
+ * Manages the markers created with GMap#addMarkers and decides what is sent
+ * to the browser: Either the markers, or (if clustering is enabled) the 
+ * clusters for the current zoom level. In both cases only what is within 
+ * the viewport (plus a margin) is sent. Markers that leave that area are 
+ * removed from the browser again.
+ */
+final class MarkerLayer {
+
+  private static final double DEFAULT_MARGIN = 0.5;
+
+  private final CommandQueue commands;
+  private final CoordinateCodec codec;
+  private final MarkerStore store = new MarkerStore();
+  private final QuadTree tree = new QuadTree();
+  private ClusterIndex clusters = null;
+  private int zoom;
+  private LatLngBounds bounds = null;
+  private double margin = DEFAULT_MARGIN;
+  // markers currently existing in the browser
+  private boolean[] sent = new boolean[ 64 ];
+  private final IntList sentIds = new IntList();
+  // for hit tests, created on demand, ids in the index -> marker ids
+  private SpatialIndex index = null;
+  private int[] indexIds = null;
+  // indexes of the clusters in the viewport, reused for every update
+  private final IntList visibleClusters = new IntList();
+  private final CommandQueue.Command clusterCommand 
+    = new CommandQueue.Command() 
+  {
+    public String createScript() {
+      return createClustersScript();
+    }
+  };
+  private final CommandQueue.Command viewportCommand 
+    = new CommandQueue.Command() 
+  {
+    public String createScript() {
+      return createViewportScript();
+    }
+  };
+
+  MarkerLayer( final CommandQueue commands, 
+               final CoordinateCodec codec, 
+               final int zoom ) 
+  {
+    this.commands = commands;
+    this.codec = codec;
+    this.zoom = zoom;
+  }
+
+  int[] add( final double[] latitudes, 
+             final double[] longitudes, 
+             final String[] labels ) 
+  {
+    int firstId = store.add( latitudes, longitudes, labels );
+    int count = latitudes.length;
+    int[] result = new int[ count ];
+    for( int i = 0; i < count; i++ ) {
+      result[ i ] = firstId + i;
+    }
+    insertIntoTree( latitudes, longitudes, firstId );
+    invalidateIndex();
+    if( clusters != null ) {
+      for( int i = 0; i < count; i++ ) {
+        clusters.add( firstId + i, latitudes[ i ], longitudes[ i ] );
+      }
+    }
+    scheduleUpdate();
+    return result;
+  }
+
+  void move( final int id, final double latitude, final double longitude ) {
+    // the old position is needed to update the clusters
+    store.checkId( id );
+    if( clusters != null ) {
+      removeFromClusters( id );
+      clusters.add( id, latitude, longitude );
+    }
+    store.move( id, latitude, longitude );
+    invalidateIndex();
+    tree.remove( id );
+    tree.insert( id, Mercator.toX( longitude ), Mercator.toY( latitude ) );
+    if( clusters == null && isSent( id ) ) {
+      JsWriter script = JsWriter.obtain();
+      script.call( "moveMarker" ).value( id );
+      script.beginArray().coordinate( latitude ).coordinate( longitude );
+      script.endArray().end();
+      commands.add( "moveMarker" + id, script.finish() );
+    }
+    scheduleUpdate();
+  }
+
+  void remove( final int[] ids ) {
+    IntList removed = new IntList( ids.length );
+    for( int i = 0; i < ids.length; i++ ) {
+      int id = ids[ i ];
+      // the position of a removed marker is kept, see MarkerStore
+      store.remove( id );
+      if( clusters != null ) {
+        removeFromClusters( id );
+      }
+      tree.remove( id );
+      invalidateIndex();
+      if( isSent( id ) ) {
+        sent[ id ] = false;
+        removed.add( id );
+      }
+    }
+    if( removed.size() > 0 ) {
+      removeSentIds( removed );
+      commands.add( createRemoveScript( removed ) );
+    }
+    scheduleUpdate();
+  }
+
+  void setClustering( final boolean clustering ) {
+    if( clustering && clusters == null ) {
+      clusters = new ClusterIndex();
+      clusters.addAll( store );
+      clearSent();
+      commands.add( "clearMarkers();" );
+      scheduleUpdate();
+    } else if( !clustering && clusters != null ) {
+      clusters = null;
+      commands.add( "setClusters", "clearClusters();" );
+      scheduleUpdate();
+    }
+  }
+
+  boolean isClustering() {
+    return clusters != null;
+  }
+
+  void setZoom( final int zoom ) {
+    if( zoom != this.zoom ) {
+      this.zoom = zoom;
+      if( clusters != null ) {
+        scheduleUpdate();
+      }
+    }
+  }
+
+  void setBounds( final LatLngBounds bounds ) {
+    if( bounds != null && !bounds.equals( this.bounds ) ) {
+      this.bounds = bounds;
+      scheduleUpdate();
+    }
+  }
+
+  /**
+   * The margin around the viewport within which markers are sent, as a 
+   * fraction of the viewport size.
+   */
+  void setMargin( final double margin ) {
+    this.margin = margin;
+    scheduleUpdate();
+  }
+
+  double getMargin() {
+    return margin;
+  }
+
+  boolean contains( final int id ) {
+    return store.contains( id );
+  }
+
+  /**
+   * Returns the id of the marker closest to the given position, if it is 
+   * within the given distance in meters, or -1. The index used is rebuilt 
+   * on the first call after markers were changed.
+   */
+  int findNearest( final double latitude, 
+                   final double longitude, 
+                   final double meters ) 
+  {
+    if( index == null ) {
+      createIndex();
+    }
+    int result = -1;
+    int nearest = index.nearest( latitude, longitude );
+    if( nearest != -1 ) {
+      int id = indexIds[ nearest ];
+      double distance = SpatialIndex.distance( latitude, 
+                                               longitude, 
+                                               store.getLatitude( id ), 
+                                               store.getLongitude( id ) );
+      if( distance <= meters ) {
+        result = id;
+      }
+    }
+    return result;
+  }
+
+  private void insertIntoTree( final double[] latitudes, 
+                               final double[] longitudes, 
+                               final int firstId ) 
+  {
+    final int count = latitudes.length;
+    final double[] x = new double[ count ];
+    final double[] y = new double[ count ];
+    Parallel.run( count, 20000, new Parallel.Task() {
+      public void run( final int from, final int to ) {
+        for( int i = from; i < to; i++ ) {
+          x[ i ] = Mercator.toX( longitudes[ i ] );
+          y[ i ] = Mercator.toY( latitudes[ i ] );
+        }
+      }
+    } );
+    for( int i = 0; i < count; i++ ) {
+      tree.insert( firstId + i, x[ i ], y[ i ] );
+    }
+  }
+
+  private void createIndex() {
+    int count = store.count();
+    double[] latitudes = new double[ count ];
+    double[] longitudes = new double[ count ];
+    indexIds = new int[ count ];
+    int position = 0;
+    for( int id = 0; id < store.size(); id++ ) {
+      if( store.contains( id ) ) {
+        latitudes[ position ] = store.getLatitude( id );
+        longitudes[ position ] = store.getLongitude( id );
+        indexIds[ position++ ] = id;
+      }
+    }
+    index = new SpatialIndex( latitudes, longitudes );
+  }
+
+  private void invalidateIndex() {
+    index = null;
+    indexIds = null;
+  }
+
+  private void removeFromClusters( final int id ) {
+    clusters.remove( id, store.getLatitude( id ), store.getLongitude( id ) );
+  }
+
+  ////////////////
+  // Sent markers
+
+  private boolean isSent( final int id ) {
+    return id < sent.length && sent[ id ];
+  }
+
+  private void markSent( final int id ) {
+    if( id >= sent.length ) {
+      boolean[] newSent = new boolean[ Math.max( id + 1, sent.length * 2 ) ];
+      System.arraycopy( sent, 0, newSent, 0, sent.length );
+      sent = newSent;
+    }
+    sent[ id ] = true;
+    sentIds.add( id );
+  }
+
+  private void removeSentIds( final IntList ids ) {
+    // ids are already unmarked in sent
+    for( int i = sentIds.size() - 1; i >= 0; i-- ) {
+      if( !sent[ sentIds.get( i ) ] ) {
+        sentIds.removeFast( i );
+      }
+    }
+  }
+
+  private void clearSent() {
+    for( int i = 0; i < sentIds.size(); i++ ) {
+      sent[ sentIds.get( i ) ] = false;
+    }
+    sentIds.clear();
+  }
+
+  ////////////
+  // Scripting
+
+  private void scheduleUpdate() {
+    if( clusters != null ) {
+      commands.add( "setClusters", clusterCommand );
+    } else {
+      commands.add( "viewport", viewportCommand );
+    }
+  }
+
+  private String createViewportScript() {
+    String result = null;
+    if( clusters == null && bounds != null ) {
+      Viewport viewport = new Viewport( bounds, margin );
+      IntList visible = new IntList();
+      viewport.query( tree, visible );
+      // Using "sent" to mark the visible ids, the flag is restored below
+      for( int i = 0; i < visible.size(); i++ ) {
+        int id = visible.get( i );
+        if( isSent( id ) ) {
+          sent[ id ] = false;
+          visible.set( i, -1 );
+        }
+      }
+      IntList evicted = new IntList();
+      for( int i = sentIds.size() - 1; i >= 0; i-- ) {
+        int id = sentIds.get( i );
+        if( sent[ id ] ) {
+          sent[ id ] = false;
+          evicted.add( id );
+          sentIds.removeFast( i );
+        } else {
+          sent[ id ] = true;
+        }
+      }
+      IntList added = new IntList( visible.size() );
+      for( int i = 0; i < visible.size(); i++ ) {
+        int id = visible.get( i );
+        if( id != -1 ) {
+          markSent( id );
+          added.add( id );
+        }
+      }
+      JsWriter script = JsWriter.obtain();
+      if( evicted.size() > 0 ) {
+        writeRemoveScript( script, evicted );
+      }
+      if( added.size() > 0 ) {
+        writeAddScript( script, added );
+      }
+      if( script.length() > 0 ) {
+        result = script.finish();
+      } else {
+        script.recycle();
+      }
+    }
+    return result;
+  }
+
+  private String createClustersScript() {
+    String result = null;
+    if( clusters != null && bounds != null ) {
+      Viewport viewport = new Viewport( bounds, margin );
+      ClusterIndex.Level level = clusters.getLevel( zoom );
+      IntList visible = visibleClusters;
+      visible.clear();
+      viewport.query( level, visible );
+      JsWriter script = JsWriter.obtain();
+      script.call( "setClusters" ).beginCoordinates( codec );
+      for( int i = 0; i < visible.size(); i++ ) {
+        int cluster = visible.get( i );
+        script.coordinates( level.getLatitude( cluster ), 
+                            level.getLongitude( cluster ) );
+      }
+      script.endCoordinates().beginArray();
+      for( int i = 0; i < visible.size(); i++ ) {
+        script.value( level.getCount( visible.get( i ) ) );
+      }
+      script.endArray().beginArray();
+      for( int i = 0; i < visible.size(); i++ ) {
+        int id = level.getMarkerId( visible.get( i ) );
+        script.string( id != -1 ? store.getLabel( id ) : null );
+      }
+      script.endArray().end();
+      result = script.finish();
+    }
+    return result;
+  }
+
+  private void writeAddScript( final JsWriter script, final IntList ids ) {
+    int count = ids.size();
+    script.call( "addMarkers" ).ints( ids ).beginCoordinates( codec );
+    for( int i = 0; i < count; i++ ) {
+      int id = ids.get( i );
+      script.coordinates( store.getLatitude( id ), store.getLongitude( id ) );
+    }
+    script.endCoordinates().beginArray();
+    for( int i = 0; i < count; i++ ) {
+      script.string( store.getLabel( ids.get( i ) ) );
+    }
+    script.endArray().end();
+  }
+
+  private static String createRemoveScript( final IntList ids ) {
+    JsWriter script = JsWriter.obtain();
+    writeRemoveScript( script, ids );
+    return script.finish();
+  }
+
+  private static void writeRemoveScript( final JsWriter script, 
+                                         final IntList ids ) 
+  {
+    script.call( "removeMarkers" ).ints( ids ).end();
+  }
+
+}
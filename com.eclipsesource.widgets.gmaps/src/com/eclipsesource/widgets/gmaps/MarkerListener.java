@@ -0,0 +1,23 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+
+/**
+ * Receives the changes the user made to markers created with 
+ * GMap#addMarker(String) or GMap#addDraggableMarker(String).
+ * 
+ * @see GMap#addMarkerListener(MarkerListener)
+ */
+public interface MarkerListener {
+
+  public void markerDragged( MarkerEvent event );
+
+}
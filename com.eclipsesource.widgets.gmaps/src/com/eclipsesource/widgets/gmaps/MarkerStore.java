@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+/**
+ * Keeps the markers added with GMap#addMarkers in primitive arrays. The id of
+ * a marker is its index, ids are never reused. Removed markers are only 
+ * flagged as such.
+ */
+final class MarkerStore {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private double[] latitudes = new double[ INITIAL_CAPACITY ];
+  private double[] longitudes = new double[ INITIAL_CAPACITY ];
+  private String[] labels = new String[ INITIAL_CAPACITY ];
+  private boolean[] removed = new boolean[ INITIAL_CAPACITY ];
+  private int size = 0;
+  private int removedCount = 0;
+
+  /**
+   * Adds the given markers and returns the id of the first one. The other 
+   * markers have the following ids.
+   */
+  int add( final double[] lats, final double[] lngs, final String[] names ) {
+    int firstId = size;
+    ensureCapacity( size + lats.length );
+    System.arraycopy( lats, 0, latitudes, size, lats.length );
+    System.arraycopy( lngs, 0, longitudes, size, lngs.length );
+    if( names != null ) {
+      System.arraycopy( names, 0, labels, size, names.length );
+    }
+    size += lats.length;
+    return firstId;
+  }
+
+  void move( final int id, final double latitude, final double longitude ) {
+    checkId( id );
+    latitudes[ id ] = latitude;
+    longitudes[ id ] = longitude;
+  }
+
+  void remove( final int id ) {
+    checkId( id );
+    removed[ id ] = true;
+    labels[ id ] = null;
+    removedCount++;
+  }
+
+  boolean contains( final int id ) {
+    return id >= 0 && id < size && !removed[ id ];
+  }
+
+  /**
+   * The number of ids in use, including removed markers.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * The number of markers that are not removed.
+   */
+  int count() {
+    return size - removedCount;
+  }
+
+  double getLatitude( final int id ) {
+    return latitudes[ id ];
+  }
+
+  double getLongitude( final int id ) {
+    return longitudes[ id ];
+  }
+
+  String getLabel( final int id ) {
+    return labels[ id ];
+  }
+
+  void checkId( final int id ) {
+    if( !contains( id ) ) {
+      throw new IllegalArgumentException( "Unknown marker: " + id );
+    }
+  }
+
+  private void ensureCapacity( final int capacity ) {
+    if( capacity > latitudes.length ) {
+      int newCapacity = Math.max( capacity, latitudes.length * 2 );
+      double[] newLatitudes = new double[ newCapacity ];
+      double[] newLongitudes = new double[ newCapacity ];
+      String[] newLabels = new String[ newCapacity ];
+      boolean[] newRemoved = new boolean[ newCapacity ];
+      System.arraycopy( latitudes, 0, newLatitudes, 0, size );
+      System.arraycopy( longitudes, 0, newLongitudes, 0, size );
+      System.arraycopy( labels, 0, newLabels, 0, size );
+      System.arraycopy( removed, 0, newRemoved, 0, size );
+      latitudes = newLatitudes;
+      longitudes = newLongitudes;
+      labels = newLabels;
+      removed = newRemoved;
+    }
+  }
+
+}
@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+/**
+ * The projection used by Google Maps. Coordinates are projected to the range
+ * [0, 1), at zoom level z the world is 256 * 2^z pixels wide and high. 
+ */
+final class Mercator {
+
+  static final int TILE_SIZE = 256;
+  static final int MAX_ZOOM = 20;
+
+  private static final double MAX_SIN = 0.9999;
+
+  private Mercator() {
+    // prevent instantiation
+  }
+
+  static double toX( final double longitude ) {
+    double result = ( longitude + 180 ) / 360;
+    return clamp( result - Math.floor( result ) );
+  }
+
+  static double toY( final double latitude ) {
+    double sin = Math.sin( Math.toRadians( latitude ) );
+    sin = Math.max( -MAX_SIN, Math.min( MAX_SIN, sin ) );
+    double result 
+      = 0.5 - Math.log( ( 1 + sin ) / ( 1 - sin ) ) / ( 4 * Math.PI );
+    return clamp( result );
+  }
+
+  static double toLongitude( final double x ) {
+    return x * 360 - 180;
+  }
+
+  static double toLatitude( final double y ) {
+    double n = Math.PI - 2 * Math.PI * y;
+    double sinh = 0.5 * ( Math.exp( n ) - Math.exp( -n ) );
+    return Math.toDegrees( Math.atan( sinh ) );
+  }
+
+  private static double clamp( final double value ) {
+    return Math.max( 0, Math.min( value, 1 - 1E-12 ) );
+  }
+
+}
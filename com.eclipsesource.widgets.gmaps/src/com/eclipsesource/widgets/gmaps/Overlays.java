@@ -0,0 +1,319 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+/**
+ * A retained model of the markers of a GMap (see GMap#getOverlays), meant 
+ * for markers that change frequently, like the vehicles of a dashboard. 
+ * Markers are added, updated and removed by id, the browser is updated at
+ * the end of the event cycle (or on GMap#flush). 
+ * 
+ * The state last sent to the browser is kept as well, so only the markers 
+ * that actually differ from it are sent: added, moved, restyled and 
+ * removed markers, all in one script. A marker that is changed several 
+ * times is sent once, a marker that is changed back to its previous state 
+ * is not sent at all.
+ * 
+ * Like the map, the overlays must only be accessed from the UI thread.
+ */
+public final class Overlays {
+
+  /**
+   * The color of markers shown with the default marker icon.
+   */
+  public static final int DEFAULT_COLOR = -1;
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final CommandQueue commands;
+  private final CoordinateCodec codec;
+  private int size = 0;
+  private int count = 0;
+  // current state, by id
+  private boolean[] exists = new boolean[ INITIAL_CAPACITY ];
+  private double[] latitudes = new double[ INITIAL_CAPACITY ];
+  private double[] longitudes = new double[ INITIAL_CAPACITY ];
+  private String[] labels = new String[ INITIAL_CAPACITY ];
+  private int[] colors = new int[ INITIAL_CAPACITY ];
+  // state last sent to the browser, by id
+  private boolean[] sentExists = new boolean[ INITIAL_CAPACITY ];
+  private double[] sentLatitudes = new double[ INITIAL_CAPACITY ];
+  private double[] sentLongitudes = new double[ INITIAL_CAPACITY ];
+  private String[] sentLabels = new String[ INITIAL_CAPACITY ];
+  private int[] sentColors = new int[ INITIAL_CAPACITY ];
+  // ids changed since the last update
+  private boolean[] dirty = new boolean[ INITIAL_CAPACITY ];
+  private final IntList dirtyIds = new IntList();
+  private final CommandQueue.Command updateCommand 
+    = new CommandQueue.Command() 
+  {
+    public String createScript() {
+      return createUpdateScript();
+    }
+  };
+
+  Overlays( final CommandQueue commands, final CoordinateCodec codec ) {
+    this.commands = commands;
+    this.codec = codec;
+  }
+
+  /**
+   * Adds a marker and returns its id. Ids are never reused.
+   * 
+   * @param label the tooltip of the marker, may be null
+   * @param color the color as 0xRRGGBB, or DEFAULT_COLOR
+   */
+  public int add( final double latitude, 
+                  final double longitude, 
+                  final String label, 
+                  final int color ) 
+  {
+    checkCoordinate( latitude, longitude );
+    checkColor( color );
+    ensureCapacity( size + 1 );
+    int id = size++;
+    exists[ id ] = true;
+    latitudes[ id ] = latitude;
+    longitudes[ id ] = longitude;
+    labels[ id ] = label;
+    colors[ id ] = color;
+    count++;
+    changed( id );
+    return id;
+  }
+
+  public void move( final int id, 
+                    final double latitude, 
+                    final double longitude ) 
+  {
+    checkId( id );
+    checkCoordinate( latitude, longitude );
+    latitudes[ id ] = latitude;
+    longitudes[ id ] = longitude;
+    changed( id );
+  }
+
+  public void setLabel( final int id, final String label ) {
+    checkId( id );
+    labels[ id ] = label;
+    changed( id );
+  }
+
+  public void setColor( final int id, final int color ) {
+    checkId( id );
+    checkColor( color );
+    colors[ id ] = color;
+    changed( id );
+  }
+
+  public void remove( final int id ) {
+    checkId( id );
+    exists[ id ] = false;
+    labels[ id ] = null;
+    count--;
+    changed( id );
+  }
+
+  /**
+   * Removes all markers.
+   */
+  public void clear() {
+    for( int id = 0; id < size; id++ ) {
+      if( exists[ id ] ) {
+        remove( id );
+      }
+    }
+  }
+
+  public boolean contains( final int id ) {
+    return id >= 0 && id < size && exists[ id ];
+  }
+
+  /**
+   * Returns the number of markers.
+   */
+  public int size() {
+    return count;
+  }
+
+  public double getLatitude( final int id ) {
+    checkId( id );
+    return latitudes[ id ];
+  }
+
+  public double getLongitude( final int id ) {
+    checkId( id );
+    return longitudes[ id ];
+  }
+
+  public String getLabel( final int id ) {
+    checkId( id );
+    return labels[ id ];
+  }
+
+  public int getColor( final int id ) {
+    checkId( id );
+    return colors[ id ];
+  }
+
+  /////////
+  // helper
+
+  private void changed( final int id ) {
+    if( !dirty[ id ] ) {
+      dirty[ id ] = true;
+      dirtyIds.add( id );
+    }
+    commands.add( "updateOverlays", updateCommand );
+  }
+
+  private String createUpdateScript() {
+    IntList removed = new IntList();
+    IntList added = new IntList();
+    IntList moved = new IntList();
+    IntList restyled = new IntList();
+    for( int i = 0; i < dirtyIds.size(); i++ ) {
+      int id = dirtyIds.get( i );
+      dirty[ id ] = false;
+      if( !exists[ id ] ) {
+        if( sentExists[ id ] ) {
+          removed.add( id );
+        }
+      } else if( !sentExists[ id ] ) {
+        added.add( id );
+      } else {
+        if(    latitudes[ id ] != sentLatitudes[ id ] 
+            || longitudes[ id ] != sentLongitudes[ id ] ) 
+        {
+          moved.add( id );
+        }
+        if(    colors[ id ] != sentColors[ id ] 
+            || !isEqual( labels[ id ], sentLabels[ id ] ) ) 
+        {
+          restyled.add( id );
+        }
+      }
+      sentExists[ id ] = exists[ id ];
+      sentLatitudes[ id ] = latitudes[ id ];
+      sentLongitudes[ id ] = longitudes[ id ];
+      sentLabels[ id ] = labels[ id ];
+      sentColors[ id ] = colors[ id ];
+    }
+    dirtyIds.clear();
+    String result = null;
+    int changes = removed.size() + added.size() + moved.size() 
+                  + restyled.size();
+    if( changes > 0 ) {
+      JsWriter script = JsWriter.obtain();
+      script.call( "updateOverlays" );
+      script.ints( removed ).ints( added );
+      writeCoordinates( script, added );
+      writeStyles( script, added );
+      script.ints( moved );
+      writeCoordinates( script, moved );
+      script.ints( restyled );
+      writeStyles( script, restyled );
+      script.end();
+      result = script.finish();
+    }
+    return result;
+  }
+
+  private void writeCoordinates( final JsWriter script, final IntList ids ) {
+    script.beginCoordinates( codec );
+    for( int i = 0; i < ids.size(); i++ ) {
+      int id = ids.get( i );
+      script.coordinates( latitudes[ id ], longitudes[ id ] );
+    }
+    script.endCoordinates();
+  }
+
+  /**
+   * Writes labels and colors as one array: [ label0, color0, ... ].
+   */
+  private void writeStyles( final JsWriter script, final IntList ids ) {
+    script.beginArray();
+    for( int i = 0; i < ids.size(); i++ ) {
+      int id = ids.get( i );
+      script.string( labels[ id ] ).value( colors[ id ] );
+    }
+    script.endArray();
+  }
+
+  private static boolean isEqual( final String string1, final String string2 ) {
+    return string1 == null ? string2 == null : string1.equals( string2 );
+  }
+
+  private void ensureCapacity( final int capacity ) {
+    if( capacity > exists.length ) {
+      int newCapacity = Math.max( exists.length * 2, capacity );
+      exists = grow( exists, newCapacity );
+      latitudes = grow( latitudes, newCapacity );
+      longitudes = grow( longitudes, newCapacity );
+      labels = grow( labels, newCapacity );
+      colors = grow( colors, newCapacity );
+      sentExists = grow( sentExists, newCapacity );
+      sentLatitudes = grow( sentLatitudes, newCapacity );
+      sentLongitudes = grow( sentLongitudes, newCapacity );
+      sentLabels = grow( sentLabels, newCapacity );
+      sentColors = grow( sentColors, newCapacity );
+      dirty = grow( dirty, newCapacity );
+    }
+  }
+
+  private static boolean[] grow( final boolean[] array, final int capacity ) {
+    boolean[] result = new boolean[ capacity ];
+    System.arraycopy( array, 0, result, 0, array.length );
+    return result;
+  }
+
+  private static double[] grow( final double[] array, final int capacity ) {
+    double[] result = new double[ capacity ];
+    System.arraycopy( array, 0, result, 0, array.length );
+    return result;
+  }
+
+  private static int[] grow( final int[] array, final int capacity ) {
+    int[] result = new int[ capacity ];
+    System.arraycopy( array, 0, result, 0, array.length );
+    return result;
+  }
+
+  private static String[] grow( final String[] array, final int capacity ) {
+    String[] result = new String[ capacity ];
+    System.arraycopy( array, 0, result, 0, array.length );
+    return result;
+  }
+
+  private void checkId( final int id ) {
+    if( !contains( id ) ) {
+      throw new IllegalArgumentException( "Unknown overlay: " + id );
+    }
+  }
+
+  private static void checkColor( final int color ) {
+    if( color != DEFAULT_COLOR && ( color < 0 || color > 0xFFFFFF ) ) {
+      throw new IllegalArgumentException( "Illegal color" );
+    }
+  }
+
+  private static void checkCoordinate( final double latitude, 
+                                       final double longitude ) 
+  {
+    if(    Double.isNaN( latitude ) 
+        || Double.isInfinite( latitude ) 
+        || Double.isNaN( longitude ) 
+        || Double.isInfinite( longitude ) ) 
+    {
+      throw new IllegalArgumentException( "Illegal coordinate" );
+    }
+  }
+
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A process-wide cache for the html-pages created by the HtmlLoader, i.e.
+ * the pages with all local scripts already inlined. The pages are read only
+ * once and then shared by all maps (and all sessions in RAP). The cache is
+ * cleared when the bundle is stopped. A refreshed bundle loads this class
+ * again, so it starts with an empty cache anyway.
+ *
+ * Pages that could not be read completely are not cached, they are read 
+ * again on the next request.
+ *
+ * For every page a content hash is kept as well, which allows the page to be
+ * served under an immutable url that browsers can cache indefinitely.
+ */
+public final class PageCache {
+
+  static final String ENCODING = "UTF-8";
+
+  // page name -> Entry
+  private static final Map pages = new HashMap();
+  private static long hits = 0;
+  private static long misses = 0;
+
+  private PageCache() {
+    // prevent instantiation
+  }
+
+  /**
+   * Loads the given page into the cache, unless it is already present.
+   * Can be called at bundle activation to avoid the first map paying for it.
+   */
+  public static void preload( final String page ) {
+    synchronized( pages ) {
+      if( !pages.containsKey( page ) ) {
+        load( page );
+      }
+    }
+  }
+
+  /**
+   * Removes all entries from the cache. They will be re-read on next use.
+   */
+  public static void clear() {
+    synchronized( pages ) {
+      pages.clear();
+    }
+  }
+
+  /**
+   * Returns how often a page could be taken from the cache.
+   */
+  public static long getHits() {
+    synchronized( pages ) {
+      return hits;
+    }
+  }
+
+  /**
+   * Returns how often a page had to be read from the classloader.
+   */
+  public static long getMisses() {
+    synchronized( pages ) {
+      return misses;
+    }
+  }
+
+  static String get( final String page ) {
+    return getEntry( page ).content;
+  }
+
+  static String getHash( final String page ) {
+    return getEntry( page ).getHash();
+  }
+
+  static boolean contains( final String page ) {
+    synchronized( pages ) {
+      return pages.containsKey( page );
+    }
+  }
+
+  private static Entry getEntry( final String page ) {
+    Entry result;
+    synchronized( pages ) {
+      result = ( Entry )pages.get( page );
+      if( result != null ) {
+        hits++;
+      } else {
+        // Note: Reading while holding the lock is intended, concurrent first
+        // requests would otherwise all read the same files.
+        result = load( page );
+      }
+    }
+    return result;
+  }
+
+  // must be called while holding the lock on pages
+  private static Entry load( final String page ) {
+    Entry result;
+    misses++;
+    String content = HtmlLoader.readHtmlContent( page );
+    if( content != null ) {
+      result = new Entry( content );
+      pages.put( page, result );
+    } else {
+      // the page with error messages, which must not be cached
+      result = new Entry( HtmlLoader.getHtmlContent( page ) );
+    }
+    return result;
+  }
+
+  private static final class Entry {
+
+    final String content;
+    private String hash;
+
+    Entry( final String content ) {
+      this.content = content;
+    }
+
+    synchronized String getHash() {
+      if( hash == null ) {
+        hash = createHash( content );
+      }
+      return hash;
+    }
+
+    private static String createHash( final String content ) {
+      String result;
+      try {
+        MessageDigest digest = MessageDigest.getInstance( "MD5" );
+        byte[] bytes = digest.digest( content.getBytes( ENCODING ) );
+        StringBuffer buffer = new StringBuffer( bytes.length * 2 );
+        for( int i = 0; i < bytes.length; i++ ) {
+          buffer.append( Character.forDigit( ( bytes[ i ] >> 4 ) & 0xF, 16 ) );
+          buffer.append( Character.forDigit( bytes[ i ] & 0xF, 16 ) );
+        }
+        result = buffer.toString();
+      } catch( NoSuchAlgorithmException e ) {
+        result = Integer.toHexString( content.hashCode() );
+      } catch( UnsupportedEncodingException e ) {
+        result = Integer.toHexString( content.hashCode() );
+      }
+      return result;
+    }
+  }
+
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+/**
+ * Splits work on index ranges across all available processors. Small ranges
+ * are processed in the calling thread. 
+ */
+final class Parallel {
+
+  /**
+   * Work on the range [ from, to ). Tasks for different ranges are executed
+   * concurrently and must therefore not write to shared state, except for 
+   * disjoint array ranges.
+   */
+  interface Task {
+    void run( int from, int to );
+  }
+
+  private Parallel() {
+    // prevent instantiation
+  }
+
+  static void run( final int count, final int threshold, final Task task ) {
+    int threads = Math.min( Runtime.getRuntime().availableProcessors(), 
+                            count / Math.max( threshold, 1 ) );
+    if( threads <= 1 ) {
+      task.run( 0, count );
+    } else {
+      Worker[] workers = new Worker[ threads ];
+      int chunk = ( count + threads - 1 ) / threads;
+      for( int i = 0; i < threads; i++ ) {
+        int from = i * chunk;
+        int to = Math.min( from + chunk, count );
+        workers[ i ] = new Worker( task, from, to );
+      }
+      // The calling thread processes the first chunk itself
+      for( int i = 1; i < threads; i++ ) {
+        workers[ i ].start();
+      }
+      workers[ 0 ].run();
+      for( int i = 1; i < threads; i++ ) {
+        workers[ i ].await();
+      }
+      for( int i = 0; i < threads; i++ ) {
+        workers[ i ].rethrow();
+      }
+    }
+  }
+
+  private static final class Worker extends Thread {
+
+    private final Task task;
+    private final int from;
+    private final int to;
+    private RuntimeException exception;
+    private Error error;
+
+    Worker( final Task task, final int from, final int to ) {
+      super( "GMap Parallel Worker" );
+      setDaemon( true );
+      this.task = task;
+      this.from = from;
+      this.to = to;
+    }
+
+    public void run() {
+      try {
+        task.run( from, to );
+      } catch( RuntimeException e ) {
+        exception = e;
+      } catch( Error e ) {
+        error = e;
+      }
+    }
+
+    void await() {
+      boolean interrupted = false;
+      while( isAlive() ) {
+        try {
+          join();
+        } catch( InterruptedException e ) {
+          interrupted = true;
+        }
+      }
+      if( interrupted ) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    void rethrow() {
+      if( exception != null ) {
+        throw exception;
+      }
+      if( error != null ) {
+        throw error;
+      }
+    }
+  }
+
+}
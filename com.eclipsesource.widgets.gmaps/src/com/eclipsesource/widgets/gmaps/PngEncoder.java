@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes ARGB pixels as PNG image (8 bit RGBA, no interlacing). Independent
+ * of SWT, since images are created on server threads in RAP.
+ */
+final class PngEncoder {
+
+  private static final byte[] SIGNATURE = { 
+    ( byte )0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' 
+  };
+  private static final int COLOR_TYPE_RGBA = 6;
+
+  private PngEncoder() {
+    // prevent instantiation
+  }
+
+  static byte[] encode( final int width, 
+                        final int height, 
+                        final int[] argb ) 
+  {
+    if( argb.length < width * height ) {
+      throw new IllegalArgumentException( "Not enough pixels" );
+    }
+    // each row starts with the filter type (0 = none)
+    byte[] raw = new byte[ height * ( 1 + width * 4 ) ];
+    int index = 0;
+    for( int y = 0; y < height; y++ ) {
+      raw[ index++ ] = 0;
+      for( int x = 0; x < width; x++ ) {
+        int pixel = argb[ y * width + x ];
+        raw[ index++ ] = ( byte )( pixel >> 16 );
+        raw[ index++ ] = ( byte )( pixel >> 8 );
+        raw[ index++ ] = ( byte )pixel;
+        raw[ index++ ] = ( byte )( pixel >>> 24 );
+      }
+    }
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    try {
+      DataOutputStream out = new DataOutputStream( result );
+      out.write( SIGNATURE );
+      ByteArrayOutputStream header = new ByteArrayOutputStream( 13 );
+      DataOutputStream headerOut = new DataOutputStream( header );
+      headerOut.writeInt( width );
+      headerOut.writeInt( height );
+      headerOut.writeByte( 8 ); // bit depth
+      headerOut.writeByte( COLOR_TYPE_RGBA );
+      headerOut.writeByte( 0 ); // compression
+      headerOut.writeByte( 0 ); // filter
+      headerOut.writeByte( 0 ); // interlace
+      writeChunk( out, "IHDR", header.toByteArray() );
+      writeChunk( out, "IDAT", deflate( raw ) );
+      writeChunk( out, "IEND", new byte[ 0 ] );
+    } catch( IOException e ) {
+      // ByteArrayOutputStream does not throw
+      throw new IllegalStateException( e.getMessage() );
+    }
+    return result.toByteArray();
+  }
+
+  private static byte[] deflate( final byte[] data ) {
+    Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+    try {
+      deflater.setInput( data );
+      deflater.finish();
+      ByteArrayOutputStream result = new ByteArrayOutputStream();
+      byte[] buffer = new byte[ 8192 ];
+      while( !deflater.finished() ) {
+        int length = deflater.deflate( buffer );
+        result.write( buffer, 0, length );
+      }
+      return result.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static void writeChunk( final DataOutputStream out, 
+                                  final String type, 
+                                  final byte[] data ) 
+    throws IOException 
+  {
+    byte[] typeBytes = type.getBytes( "US-ASCII" );
+    CRC32 crc = new CRC32();
+    crc.update( typeBytes );
+    crc.update( data );
+    out.writeInt( data.length );
+    out.write( typeBytes );
+    out.write( data );
+    out.writeInt( ( int )crc.getValue() );
+  }
+
+}
@@ -0,0 +1,474 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A store for a large number of positions that does not need an object per
+ * position. Latitudes, longitudes and any number of attribute columns (e.g.
+ * speed or heading) are kept in separate columns of primitive values, either
+ * on the heap, in direct memory outside of the heap, or in a memory-mapped
+ * file. A mapped store survives a restart of the application: opening the
+ * same file again makes all positions available without reading them.
+ *
+ * Points are identified by their index, i.e. the first point added has the
+ * id 0. Reading points and querying bounds does not create any objects, 
+ * and a Cursor can be reused to iterate over the points any number of 
+ * times.
+ *
+ * A PointStore is not thread-safe.
+ *
+ * @see GMap#addMarkers(PointStore, String[])
+ * @see GMap#addPolyline(PointStore)
+ */
+public final class PointStore {
+
+  private static final int MAGIC = 0x474D5053; // "GMPS"
+  private static final int VERSION = 1;
+  // magic, version, capacity, column count, size
+  private static final int HEADER_SIZE = 5 * 4;
+  private static final int SIZE_OFFSET = 4 * 4;
+  private static final int INITIAL_CAPACITY = 64;
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+  private final boolean direct;
+  private final MappedByteBuffer mapped;
+  // latitudes, longitudes, attribute columns
+  private DoubleBuffer[] columns;
+  private int capacity;
+  private int size;
+
+  /**
+   * Creates an empty store on the heap.
+   */
+  public PointStore( final int attributeCount ) {
+    this( attributeCount, false );
+  }
+
+  /**
+   * Creates an empty store. If direct is true, the values are kept outside
+   * of the heap, which keeps them out of the way of the garbage collector.
+   */
+  public PointStore( final int attributeCount, final boolean direct ) {
+    if( attributeCount < 0 ) {
+      throw new IllegalArgumentException( "Illegal attribute count" );
+    }
+    this.direct = direct;
+    mapped = null;
+    capacity = INITIAL_CAPACITY;
+    columns = new DoubleBuffer[ 2 + attributeCount ];
+    for( int i = 0; i < columns.length; i++ ) {
+      columns[ i ] = allocate( capacity );
+    }
+  }
+
+  private PointStore( final MappedByteBuffer mapped, 
+                      final int capacity, 
+                      final int columnCount ) 
+  {
+    direct = true;
+    this.mapped = mapped;
+    this.capacity = capacity;
+    size = mapped.getInt( SIZE_OFFSET );
+    columns = new DoubleBuffer[ columnCount ];
+    for( int i = 0; i < columnCount; i++ ) {
+      int start = HEADER_SIZE + i * capacity * 8;
+      mapped.limit( start + capacity * 8 );
+      mapped.position( start );
+      columns[ i ] = mapped.slice().asDoubleBuffer();
+    }
+    mapped.clear();
+  }
+
+  /**
+   * Opens a store backed by the given file, creating the file if it does
+   * not exist. An existing file must have been created with the same number
+   * of attributes, its points are available right away. If its capacity is
+   * smaller than the given one, the file is grown, a larger capacity is 
+   * kept. Unlike other stores, a mapped store can not grow beyond its 
+   * capacity.
+   */
+  public static PointStore map( final File file, 
+                                final int capacity, 
+                                final int attributeCount ) 
+    throws IOException 
+  {
+    if( capacity <= 0 || attributeCount < 0 ) {
+      throw new IllegalArgumentException( "Illegal capacity" );
+    }
+    int columnCount = 2 + attributeCount;
+    long fileLength = file.exists() ? file.length() : 0;
+    boolean exists = fileLength > 0;
+    RandomAccessFile randomAccessFile = new RandomAccessFile( file, "rw" );
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      int fileCapacity = 0;
+      int fileSize = 0;
+      if( exists ) {
+        ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+        channel.read( header, 0 );
+        if(    fileLength < HEADER_SIZE 
+            || header.getInt( 0 ) != MAGIC 
+            || header.getInt( 4 ) != VERSION 
+            || header.getInt( 12 ) != columnCount ) 
+        {
+          throw new IllegalArgumentException( "Incompatible file: " + file );
+        }
+        fileCapacity = header.getInt( 8 );
+        fileSize = header.getInt( SIZE_OFFSET );
+        if(    fileCapacity <= 0 
+            || fileSize < 0 
+            || fileSize > fileCapacity 
+            || fileLength < getFileLength( fileCapacity, columnCount ) ) 
+        {
+          throw new IllegalArgumentException( "Corrupt file: " + file );
+        }
+      }
+      int newCapacity = Math.max( capacity, fileCapacity );
+      long length = getFileLength( newCapacity, columnCount );
+      if( length > Integer.MAX_VALUE ) {
+        throw new IllegalArgumentException( "Capacity too large" );
+      }
+      MappedByteBuffer mapped 
+        = channel.map( FileChannel.MapMode.READ_WRITE, 0, length );
+      if( !exists ) {
+        mapped.putInt( 0, MAGIC );
+        mapped.putInt( 4, VERSION );
+        mapped.putInt( 12, columnCount );
+        mapped.putInt( SIZE_OFFSET, 0 );
+      } else if( newCapacity > fileCapacity ) {
+        moveColumns( mapped, fileCapacity, newCapacity, columnCount, fileSize );
+      }
+      mapped.putInt( 8, newCapacity );
+      return new PointStore( mapped, newCapacity, columnCount );
+    } finally {
+      // The mapping stays valid after the channel is closed
+      randomAccessFile.close();
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int getAttributeCount() {
+    return columns.length - 2;
+  }
+
+  /**
+   * Returns a cursor positioned before the first point.
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Adds a point and returns its id.
+   */
+  public int add( final double latitude, final double longitude ) {
+    checkCoordinate( latitude, longitude );
+    ensureCapacity( size + 1 );
+    int id = size;
+    columns[ 0 ].put( id, latitude );
+    columns[ 1 ].put( id, longitude );
+    setSize( size + 1 );
+    return id;
+  }
+
+  /**
+   * Adds all given points and returns the id of the first one. The other
+   * points have the following ids.
+   */
+  public int add( final double[] latitudes, final double[] longitudes ) {
+    if( latitudes.length != longitudes.length ) {
+      throw new IllegalArgumentException( "Illegal number of coordinates" );
+    }
+    for( int i = 0; i < latitudes.length; i++ ) {
+      checkCoordinate( latitudes[ i ], longitudes[ i ] );
+    }
+    ensureCapacity( size + latitudes.length );
+    int firstId = size;
+    put( columns[ 0 ], firstId, latitudes );
+    put( columns[ 1 ], firstId, longitudes );
+    setSize( size + latitudes.length );
+    return firstId;
+  }
+
+  public void set( final int id, 
+                   final double latitude, 
+                   final double longitude ) 
+  {
+    checkId( id );
+    checkCoordinate( latitude, longitude );
+    columns[ 0 ].put( id, latitude );
+    columns[ 1 ].put( id, longitude );
+  }
+
+  public double getLatitude( final int id ) {
+    checkId( id );
+    return columns[ 0 ].get( id );
+  }
+
+  public double getLongitude( final int id ) {
+    checkId( id );
+    return columns[ 1 ].get( id );
+  }
+
+  public void setAttribute( final int id, 
+                            final int attribute, 
+                            final double value ) 
+  {
+    checkId( id );
+    getAttributeColumn( attribute ).put( id, value );
+  }
+
+  public double getAttribute( final int id, final int attribute ) {
+    checkId( id );
+    return getAttributeColumn( attribute ).get( id );
+  }
+
+  /**
+   * Copies the latitudes of the points starting with the given id into the
+   * given array.
+   */
+  public void getLatitudes( final int id, 
+                            final double[] target, 
+                            final int offset, 
+                            final int length ) 
+  {
+    get( columns[ 0 ], id, target, offset, length );
+  }
+
+  /**
+   * Copies the longitudes of the points starting with the given id into the
+   * given array.
+   */
+  public void getLongitudes( final int id, 
+                             final double[] target, 
+                             final int offset, 
+                             final int length ) 
+  {
+    get( columns[ 1 ], id, target, offset, length );
+  }
+
+  /**
+   * Finds the points within the given bounds. The ids of the points found
+   * are written into the given array as long as there is room.
+   *
+   * @return the number of points found, which may be larger than the array
+   */
+  public int query( final LatLngBounds bounds, final int[] result ) {
+    DoubleBuffer latitudes = columns[ 0 ];
+    DoubleBuffer longitudes = columns[ 1 ];
+    int count = 0;
+    for( int id = 0; id < size; id++ ) {
+      if( bounds.contains( latitudes.get( id ), longitudes.get( id ) ) ) {
+        if( count < result.length ) {
+          result[ count ] = id;
+        }
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Removes all points. The attribute columns are kept.
+   */
+  public void clear() {
+    setSize( 0 );
+  }
+
+  /**
+   * Writes the changes of a mapped store to its file. Other stores are not
+   * affected.
+   */
+  public void flush() {
+    if( mapped != null ) {
+      mapped.force();
+    }
+  }
+
+  private void setSize( final int size ) {
+    this.size = size;
+    if( mapped != null ) {
+      mapped.putInt( SIZE_OFFSET, size );
+    }
+  }
+
+  private void ensureCapacity( final int minCapacity ) {
+    if( minCapacity > capacity ) {
+      if( mapped != null ) {
+        throw new IllegalStateException( "Store is full" );
+      }
+      int newCapacity = Math.max( capacity * 2, minCapacity );
+      for( int i = 0; i < columns.length; i++ ) {
+        DoubleBuffer column = allocate( newCapacity );
+        DoubleBuffer values = columns[ i ];
+        values.position( 0 );
+        values.limit( size );
+        column.put( values );
+        columns[ i ] = column;
+      }
+      capacity = newCapacity;
+    }
+  }
+
+  private DoubleBuffer allocate( final int capacity ) {
+    DoubleBuffer result;
+    if( direct ) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect( capacity * 8 );
+      result = buffer.order( ByteOrder.nativeOrder() ).asDoubleBuffer();
+    } else {
+      result = DoubleBuffer.allocate( capacity );
+    }
+    return result;
+  }
+
+  private DoubleBuffer getAttributeColumn( final int attribute ) {
+    if( attribute < 0 || attribute >= columns.length - 2 ) {
+      throw new IllegalArgumentException( "Unknown attribute: " + attribute );
+    }
+    return columns[ 2 + attribute ];
+  }
+
+  private void get( final DoubleBuffer column, 
+                    final int id, 
+                    final double[] target, 
+                    final int offset, 
+                    final int length ) 
+  {
+    if( id < 0 || length < 0 || id + length > size ) {
+      throw new IllegalArgumentException( "Illegal range" );
+    }
+    // Only absolute access is used elsewhere, so the position is free
+    column.position( id );
+    column.get( target, offset, length );
+  }
+
+  private static void put( final DoubleBuffer column, 
+                           final int id, 
+                           final double[] values ) 
+  {
+    column.position( id );
+    column.put( values );
+  }
+
+  private static long getFileLength( final int capacity, 
+                                     final int columnCount ) 
+  {
+    return HEADER_SIZE + ( long )capacity * columnCount * 8;
+  }
+
+  /**
+   * Moves the columns of a grown file to their new positions. The columns 
+   * only move towards the end of the file, so they are copied from the 
+   * last to the first, and each from its end to its start.
+   */
+  private static void moveColumns( final ByteBuffer buffer, 
+                                   final int oldCapacity, 
+                                   final int newCapacity, 
+                                   final int columnCount, 
+                                   final int size ) 
+  {
+    byte[] bytes = new byte[ Math.min( COPY_BUFFER_SIZE, size * 8 ) ];
+    for( int i = columnCount - 1; i > 0; i-- ) {
+      int from = HEADER_SIZE + i * oldCapacity * 8;
+      int to = HEADER_SIZE + i * newCapacity * 8;
+      int remaining = size * 8;
+      while( remaining > 0 ) {
+        int count = Math.min( bytes.length, remaining );
+        remaining -= count;
+        buffer.position( from + remaining );
+        buffer.get( bytes, 0, count );
+        buffer.position( to + remaining );
+        buffer.put( bytes, 0, count );
+      }
+    }
+    buffer.clear();
+  }
+
+  private void checkId( final int id ) {
+    if( id < 0 || id >= size ) {
+      throw new IllegalArgumentException( "Unknown point: " + id );
+    }
+  }
+
+  private static void checkCoordinate( final double latitude, 
+                                       final double longitude ) 
+  {
+    if(    Double.isNaN( latitude ) 
+        || Double.isInfinite( latitude ) 
+        || Double.isNaN( longitude ) 
+        || Double.isInfinite( longitude ) ) 
+    {
+      throw new IllegalArgumentException( "Illegal coordinate" );
+    }
+  }
+
+  /**
+   * Iterates over the points of the store, in the order of their ids. A 
+   * cursor reads the values from the store, so it shows changes made while
+   * iterating. Use reset to iterate again.
+   */
+  public final class Cursor {
+
+    private int id = -1;
+
+    private Cursor() {
+      // use PointStore#cursor
+    }
+
+    /**
+     * Moves to the next point.
+     * 
+     * @return false if there is no next point
+     */
+    public boolean next() {
+      boolean result = id + 1 < size;
+      if( result ) {
+        id++;
+      }
+      return result;
+    }
+
+    /**
+     * Moves the cursor back to before the first point.
+     */
+    public void reset() {
+      id = -1;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    public double getLatitude() {
+      return PointStore.this.getLatitude( id );
+    }
+
+    public double getLongitude() {
+      return PointStore.this.getLongitude( id );
+    }
+
+    public double getAttribute( final int attribute ) {
+      return PointStore.this.getAttribute( id, attribute );
+    }
+  }
+
+}
@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Manages the polylines of a GMap. For every zoom level only the vertices 
+ * that are distinguishable at that level are sent (see Simplifier), and only
+ * the parts of a line that are within the viewport (plus a margin). A line 
+ * is only sent again if that selection changed.
+ */
+final class PolylineLayer {
+
+  // Vertices closer than this (in pixels) to the simplified line are dropped
+  private static final double TOLERANCE = 1;
+  private static final int PARALLEL_THRESHOLD = 50000;
+
+  private final CommandQueue commands;
+  private final CoordinateCodec codec;
+  // Polyline by id, null for removed ids
+  private final List polylines = new ArrayList();
+  private int zoom;
+  private LatLngBounds bounds = null;
+  private double margin = 0.5;
+  private final CommandQueue.Command updateCommand 
+    = new CommandQueue.Command() 
+  {
+    public String createScript() {
+      return createUpdateScript();
+    }
+  };
+
+  PolylineLayer( final CommandQueue commands, 
+                 final CoordinateCodec codec, 
+                 final int zoom ) 
+  {
+    this.commands = commands;
+    this.codec = codec;
+    this.zoom = zoom;
+  }
+
+  int add( final double[] latitudes, final double[] longitudes ) {
+    int id = polylines.size();
+    polylines.add( new Polyline( latitudes, longitudes ) );
+    scheduleUpdate();
+    return id;
+  }
+
+  void remove( final int id ) {
+    Polyline polyline = getPolyline( id );
+    polylines.set( id, null );
+    if( polyline.sent != null ) {
+      JsWriter script = JsWriter.obtain();
+      script.call( "removePolyline" ).value( id ).end();
+      commands.add( script.finish() );
+    }
+  }
+
+  boolean contains( final int id ) {
+    return id >= 0 && id < polylines.size() && polylines.get( id ) != null;
+  }
+
+  void setZoom( final int zoom ) {
+    if( zoom != this.zoom ) {
+      this.zoom = zoom;
+      scheduleUpdate();
+    }
+  }
+
+  void setBounds( final LatLngBounds bounds ) {
+    if( bounds != null && !bounds.equals( this.bounds ) ) {
+      this.bounds = bounds;
+      scheduleUpdate();
+    }
+  }
+
+  void setMargin( final double margin ) {
+    this.margin = margin;
+    scheduleUpdate();
+  }
+
+  private Polyline getPolyline( final int id ) {
+    if( !contains( id ) ) {
+      throw new IllegalArgumentException( "Unknown polyline: " + id );
+    }
+    return ( Polyline )polylines.get( id );
+  }
+
+  private void scheduleUpdate() {
+    if( !polylines.isEmpty() ) {
+      commands.add( "polylines", updateCommand );
+    }
+  }
+
+  private String createUpdateScript() {
+    JsWriter script = JsWriter.obtain();
+    if( bounds != null ) {
+      Viewport viewport = new Viewport( bounds, margin );
+      for( int id = 0; id < polylines.size(); id++ ) {
+        Polyline polyline = ( Polyline )polylines.get( id );
+        if( polyline != null ) {
+          int[] parts = polyline.clip( zoom, viewport );
+          if( !polyline.isSent( zoom, parts ) ) {
+            polyline.writeScript( script, codec, id, zoom, parts );
+          }
+        }
+      }
+    }
+    String result = null;
+    if( script.length() > 0 ) {
+      result = script.finish();
+    } else {
+      script.recycle();
+    }
+    return result;
+  }
+
+  private static final class Polyline {
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] x;
+    private final double[] y;
+    private final double[] importance;
+    // indices of the vertices for each zoom level, created on demand
+    private final int[][] levels = new int[ Mercator.MAX_ZOOM + 1 ][];
+    // what was sent last: zoom level followed by the parts
+    private int[] sent = null;
+
+    Polyline( final double[] latitudes, final double[] longitudes ) {
+      final int count = latitudes.length;
+      this.latitudes = new double[ count ];
+      this.longitudes = new double[ count ];
+      System.arraycopy( latitudes, 0, this.latitudes, 0, count );
+      System.arraycopy( longitudes, 0, this.longitudes, 0, count );
+      x = new double[ count ];
+      y = new double[ count ];
+      Parallel.run( count, PARALLEL_THRESHOLD, new Parallel.Task() {
+        public void run( final int from, final int to ) {
+          for( int i = from; i < to; i++ ) {
+            x[ i ] = Mercator.toX( longitudes[ i ] );
+            y[ i ] = Mercator.toY( latitudes[ i ] );
+          }
+        }
+      } );
+      importance = Simplifier.computeImportance( x, y );
+    }
+
+    /**
+     * Returns the parts of the line at the given zoom level that are within
+     * the viewport, as pairs of start and end index into the level. 
+     */
+    int[] clip( final int zoom, final Viewport viewport ) {
+      int[] level = getLevel( zoom );
+      IntList result = new IntList();
+      int start = -1;
+      for( int i = 0; i < level.length - 1; i++ ) {
+        int a = level[ i ];
+        int b = level[ i + 1 ];
+        boolean visible = viewport.intersects( Math.min( x[ a ], x[ b ] ), 
+                                               Math.min( y[ a ], y[ b ] ), 
+                                               Math.max( x[ a ], x[ b ] ), 
+                                               Math.max( y[ a ], y[ b ] ) );
+        if( visible && start == -1 ) {
+          start = i;
+        } else if( !visible && start != -1 ) {
+          result.add( start );
+          result.add( i );
+          start = -1;
+        }
+      }
+      if( start != -1 ) {
+        result.add( start );
+        result.add( level.length - 1 );
+      }
+      return result.toArray();
+    }
+
+    boolean isSent( final int zoom, final int[] parts ) {
+      boolean result = sent != null && sent.length == parts.length + 1;
+      if( result ) {
+        // If nothing is visible, the zoom level does not matter
+        result = parts.length == 0 || sent[ 0 ] == zoom;
+        for( int i = 0; i < parts.length && result; i++ ) {
+          result = sent[ i + 1 ] == parts[ i ];
+        }
+      }
+      return result;
+    }
+
+    void writeScript( final JsWriter script, 
+                      final CoordinateCodec codec, 
+                      final int id, 
+                      final int zoom, 
+                      final int[] parts ) 
+    {
+      int[] level = getLevel( zoom );
+      script.call( "setPolyline" ).value( id ).beginArray();
+      for( int part = 0; part < parts.length; part += 2 ) {
+        script.beginCoordinates( codec );
+        for( int i = parts[ part ]; i <= parts[ part + 1 ]; i++ ) {
+          int vertex = level[ i ];
+          script.coordinates( latitudes[ vertex ], longitudes[ vertex ] );
+        }
+        script.endCoordinates();
+      }
+      script.endArray().end();
+      sent = new int[ parts.length + 1 ];
+      sent[ 0 ] = zoom;
+      System.arraycopy( parts, 0, sent, 1, parts.length );
+    }
+
+    private int[] getLevel( final int zoom ) {
+      if( levels[ zoom ] == null ) {
+        double tolerance 
+          = TOLERANCE / ( Mercator.TILE_SIZE * Math.pow( 2, zoom ) );
+        levels[ zoom ] = Simplifier.select( importance, tolerance );
+      }
+      return levels[ zoom ];
+    }
+  }
+
+}
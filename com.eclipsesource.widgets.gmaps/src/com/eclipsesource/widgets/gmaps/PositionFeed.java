@@ -0,0 +1,351 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+/**
+ * Receives positions of overlays from any thread, e.g. from the threads of
+ * a telemetry system, and passes them to a GMap (see GMap#setPositionFeed).
+ * The map applies them to its Overlays once per frame, in the UI thread.
+ *
+ * Only the latest position per id is kept until the next frame, older ones
+ * are overwritten (coalesced). The ids are split across stripes with a 
+ * lock each, so that threads publishing different ids rarely wait for each
+ * other. The number of pending ids per stripe is limited; when a stripe is
+ * full, positions for new ids are dropped and publish returns false, which
+ * allows publishers to slow down.
+ */
+public final class PositionFeed {
+
+  /**
+   * Receives the positions when a feed is drained.
+   */
+  interface Receiver {
+    /**
+     * Returns false if the id is unknown and the position was discarded.
+     */
+    boolean position( int id, double latitude, double longitude );
+  }
+
+  private static final int DEFAULT_STRIPES = 16;
+  private static final int DEFAULT_CAPACITY = 65536;
+
+  private final Stripe[] stripes;
+  private final int stripeCapacity;
+  private final Object signalLock = new Object();
+  private volatile boolean signalled = false;
+  private Runnable listener = null;
+  private Object owner = null;
+  // statistics, guarded by signalLock
+  private long delivered = 0;
+  private long discarded = 0;
+  private long frames = 0;
+
+  public PositionFeed() {
+    this( DEFAULT_STRIPES, DEFAULT_CAPACITY );
+  }
+
+  /**
+   * @param stripeCount the number of stripes, rounded up to a power of two
+   * @param capacity the maximum number of pending ids
+   */
+  public PositionFeed( final int stripeCount, final int capacity ) {
+    if( stripeCount <= 0 || capacity < stripeCount ) {
+      throw new IllegalArgumentException( "Illegal stripe count or capacity" );
+    }
+    int count = 1;
+    while( count < stripeCount ) {
+      count <<= 1;
+    }
+    stripes = new Stripe[ count ];
+    stripeCapacity = ( capacity + count - 1 ) / count;
+    for( int i = 0; i < count; i++ ) {
+      stripes[ i ] = new Stripe( Math.min( stripeCapacity, 64 ) );
+    }
+  }
+
+  /**
+   * Publishes the position of the overlay with the given id. Can be called 
+   * from any thread. Returns false if the position was dropped because too
+   * many ids are pending.
+   */
+  public boolean publish( final int id, 
+                          final double latitude, 
+                          final double longitude ) 
+  {
+    if(    Double.isNaN( latitude ) 
+        || Double.isInfinite( latitude ) 
+        || Double.isNaN( longitude ) 
+        || Double.isInfinite( longitude ) ) 
+    {
+      throw new IllegalArgumentException( "Illegal coordinate" );
+    }
+    Stripe stripe = stripes[ hash( id ) & ( stripes.length - 1 ) ];
+    boolean result;
+    synchronized( stripe ) {
+      result = stripe.put( id, latitude, longitude, stripeCapacity );
+    }
+    if( result && !signalled ) {
+      signal();
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of positions published, including coalesced and 
+   * dropped ones.
+   */
+  public long getPublishedCount() {
+    long result = 0;
+    for( int i = 0; i < stripes.length; i++ ) {
+      synchronized( stripes[ i ] ) {
+        result += stripes[ i ].published;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of positions that were overwritten by a newer one 
+   * before they were delivered.
+   */
+  public long getCoalescedCount() {
+    long result = 0;
+    for( int i = 0; i < stripes.length; i++ ) {
+      synchronized( stripes[ i ] ) {
+        result += stripes[ i ].coalesced;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of positions dropped because the feed was full.
+   */
+  public long getDroppedCount() {
+    long result = 0;
+    for( int i = 0; i < stripes.length; i++ ) {
+      synchronized( stripes[ i ] ) {
+        result += stripes[ i ].dropped;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of ids with a position not yet delivered.
+   */
+  public int getPendingCount() {
+    int result = 0;
+    for( int i = 0; i < stripes.length; i++ ) {
+      synchronized( stripes[ i ] ) {
+        result += stripes[ i ].size;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of positions applied to a map.
+   */
+  public long getDeliveredCount() {
+    synchronized( signalLock ) {
+      return delivered;
+    }
+  }
+
+  /**
+   * Returns the number of positions delivered for ids that were not known 
+   * to the map.
+   */
+  public long getDiscardedCount() {
+    synchronized( signalLock ) {
+      return discarded;
+    }
+  }
+
+  /**
+   * Returns the number of frames in which positions were delivered.
+   */
+  public long getFrameCount() {
+    synchronized( signalLock ) {
+      return frames;
+    }
+  }
+
+  /**
+   * Sets the runnable that is called (in the publishing thread) when 
+   * positions become pending after the feed was drained. The owner is the
+   * map that uses the feed; a null listener releases the feed, unless it is
+   * used by another owner.
+   *
+   * @throws IllegalStateException if the feed is used by another owner
+   */
+  void setListener( final Object owner, final Runnable listener ) {
+    synchronized( signalLock ) {
+      if( this.owner != null && this.owner != owner ) {
+        if( listener != null ) {
+          throw new IllegalStateException( "Feed is used by another map" );
+        }
+      } else {
+        this.owner = listener != null ? owner : null;
+        this.listener = listener;
+        signalled = false;
+      }
+    }
+    if( listener != null && getPendingCount() > 0 ) {
+      signal();
+    }
+  }
+
+  /**
+   * Passes all pending positions to the given receiver and removes them.
+   */
+  void drain( final Receiver receiver ) {
+    synchronized( signalLock ) {
+      // Note: Reset before the stripes are taken, positions published from
+      //       now on signal again.
+      signalled = false;
+    }
+    int count = 0;
+    int unknown = 0;
+    for( int i = 0; i < stripes.length; i++ ) {
+      Stripe stripe = stripes[ i ];
+      Buffer buffer;
+      synchronized( stripe ) {
+        buffer = stripe.swap();
+      }
+      for( int j = 0; j < buffer.size; j++ ) {
+        int id = buffer.ids[ j ];
+        double latitude = buffer.coordinates[ j * 2 ];
+        double longitude = buffer.coordinates[ j * 2 + 1 ];
+        if( !receiver.position( id, latitude, longitude ) ) {
+          unknown++;
+        }
+      }
+      count += buffer.size;
+      buffer.clear();
+    }
+    synchronized( signalLock ) {
+      delivered += count - unknown;
+      discarded += unknown;
+      if( count > 0 ) {
+        frames++;
+      }
+    }
+  }
+
+  private void signal() {
+    Runnable runnable = null;
+    synchronized( signalLock ) {
+      if( !signalled ) {
+        signalled = true;
+        runnable = listener;
+      }
+    }
+    if( runnable != null ) {
+      runnable.run();
+    }
+  }
+
+  private static int hash( final int id ) {
+    int hash = id * 0x9E3779B9;
+    return hash ^ ( hash >>> 16 );
+  }
+
+  /**
+   * The pending positions of a stripe. A second buffer is kept, so that the
+   * stripe can be drained without holding its lock.
+   */
+  private static final class Stripe {
+
+    Buffer buffer;
+    Buffer spare;
+    int size;
+    long published;
+    long coalesced;
+    long dropped;
+
+    Stripe( final int capacity ) {
+      buffer = new Buffer( capacity );
+      spare = new Buffer( capacity );
+    }
+
+    boolean put( final int id, 
+                 final double latitude, 
+                 final double longitude, 
+                 final int maxSize ) 
+    {
+      published++;
+      boolean result = true;
+      int index = buffer.index.get( id );
+      if( index != LongIntMap.NOT_FOUND ) {
+        coalesced++;
+      } else if( buffer.size < maxSize ) {
+        index = buffer.add( id );
+        size = buffer.size;
+      } else {
+        dropped++;
+        result = false;
+      }
+      if( result ) {
+        buffer.coordinates[ index * 2 ] = latitude;
+        buffer.coordinates[ index * 2 + 1 ] = longitude;
+      }
+      return result;
+    }
+
+    /**
+     * Returns the pending positions, new positions go into the spare 
+     * buffer. The returned buffer must be cleared before the next swap.
+     */
+    Buffer swap() {
+      Buffer result = buffer;
+      buffer = spare;
+      spare = result;
+      size = 0;
+      return result;
+    }
+  }
+
+  private static final class Buffer {
+
+    final LongIntMap index;
+    int[] ids;
+    double[] coordinates;
+    int size = 0;
+
+    Buffer( final int capacity ) {
+      index = new LongIntMap( capacity );
+      ids = new int[ capacity ];
+      coordinates = new double[ capacity * 2 ];
+    }
+
+    int add( final int id ) {
+      if( size == ids.length ) {
+        int[] newIds = new int[ size * 2 ];
+        System.arraycopy( ids, 0, newIds, 0, size );
+        ids = newIds;
+        double[] newCoordinates = new double[ size * 4 ];
+        System.arraycopy( coordinates, 0, newCoordinates, 0, size * 2 );
+        coordinates = newCoordinates;
+      }
+      int result = size++;
+      ids[ result ] = id;
+      index.put( id, result );
+      return result;
+    }
+
+    void clear() {
+      index.clear();
+      size = 0;
+    }
+  }
+
+}
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+/**
+ * A point quadtree over the projected world [0, 1) x [0, 1), storing int ids. 
+ * Nodes and points are kept in primitive arrays, the four children of a node
+ * are stored consecutively. Leafs are split when they contain more than 
+ * BUCKET_SIZE points. Nodes are never merged again.
+ */
+final class QuadTree {
+
+  private static final int BUCKET_SIZE = 32;
+  private static final int MAX_DEPTH = 24;
+  private static final int[] EMPTY_BUCKET = new int[ 0 ];
+
+  // points, by id
+  private double[] pointX = new double[ 64 ];
+  private double[] pointY = new double[ 64 ];
+  // nodes
+  private int nodeCount = 0;
+  private double[] nodeX = new double[ 64 ];
+  private double[] nodeY = new double[ 64 ];
+  private int[] nodeDepth = new int[ 64 ];
+  private int[] firstChild = new int[ 64 ];
+  private int[][] buckets = new int[ 64 ][];
+  private int[] bucketSizes = new int[ 64 ];
+  // reused stack for queries
+  private int[] stack = new int[ MAX_DEPTH * 4 + 4 ];
+
+  QuadTree() {
+    createNode( 0, 0, 0 );
+  }
+
+  void insert( final int id, final double x, final double y ) {
+    ensurePointCapacity( id + 1 );
+    pointX[ id ] = x;
+    pointY[ id ] = y;
+    int leaf = findLeaf( x, y );
+    addToBucket( leaf, id );
+    if( bucketSizes[ leaf ] > BUCKET_SIZE && nodeDepth[ leaf ] < MAX_DEPTH ) {
+      split( leaf );
+    }
+  }
+
+  void remove( final int id ) {
+    int leaf = findLeaf( pointX[ id ], pointY[ id ] );
+    int[] bucket = buckets[ leaf ];
+    int size = bucketSizes[ leaf ];
+    boolean found = false;
+    for( int i = 0; i < size && !found; i++ ) {
+      if( bucket[ i ] == id ) {
+        bucket[ i ] = bucket[ size - 1 ];
+        bucketSizes[ leaf ] = size - 1;
+        found = true;
+      }
+    }
+  }
+
+  /**
+   * Adds the ids of all points in the given rectangle to the result.
+   */
+  void query( final double minX, 
+              final double minY,
+              final double maxX,
+              final double maxY,
+              final IntList result ) 
+  {
+    int top = 0;
+    stack[ top++ ] = 0;
+    while( top > 0 ) {
+      int node = stack[ --top ];
+      double size = getSize( node );
+      boolean intersects =    nodeX[ node ] <= maxX 
+                           && nodeX[ node ] + size >= minX
+                           && nodeY[ node ] <= maxY 
+                           && nodeY[ node ] + size >= minY;
+      if( intersects ) {
+        int child = firstChild[ node ];
+        if( child != -1 ) {
+          for( int i = 0; i < 4; i++ ) {
+            stack[ top++ ] = child + i;
+          }
+        } else {
+          int[] bucket = buckets[ node ];
+          for( int i = 0; i < bucketSizes[ node ]; i++ ) {
+            int id = bucket[ i ];
+            double x = pointX[ id ];
+            double y = pointY[ id ];
+            if( x >= minX && x <= maxX && y >= minY && y <= maxY ) {
+              result.add( id );
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private int findLeaf( final double x, final double y ) {
+    int node = 0;
+    while( firstChild[ node ] != -1 ) {
+      node = firstChild[ node ] + getQuadrant( node, x, y );
+    }
+    return node;
+  }
+
+  private int getQuadrant( final int node, final double x, final double y ) {
+    double half = getSize( node ) / 2;
+    int result = x >= nodeX[ node ] + half ? 1 : 0;
+    if( y >= nodeY[ node ] + half ) {
+      result += 2;
+    }
+    return result;
+  }
+
+  private void split( final int node ) {
+    double half = getSize( node ) / 2;
+    int depth = nodeDepth[ node ] + 1;
+    double x = nodeX[ node ];
+    double y = nodeY[ node ];
+    int child = createNode( x, y, depth );
+    createNode( x + half, y, depth );
+    createNode( x, y + half, depth );
+    createNode( x + half, y + half, depth );
+    int[] bucket = buckets[ node ];
+    int size = bucketSizes[ node ];
+    buckets[ node ] = EMPTY_BUCKET;
+    bucketSizes[ node ] = 0;
+    firstChild[ node ] = child;
+    for( int i = 0; i < size; i++ ) {
+      int id = bucket[ i ];
+      int leaf = child + getQuadrant( node, pointX[ id ], pointY[ id ] );
+      addToBucket( leaf, id );
+    }
+    for( int i = 0; i < 4; i++ ) {
+      if(    bucketSizes[ child + i ] > BUCKET_SIZE 
+          && nodeDepth[ child + i ] < MAX_DEPTH ) 
+      {
+        split( child + i );
+      }
+    }
+  }
+
+  private void addToBucket( final int node, final int id ) {
+    int[] bucket = buckets[ node ];
+    int size = bucketSizes[ node ];
+    if( size == bucket.length ) {
+      int[] newBucket = new int[ Math.max( 4, size * 2 ) ];
+      System.arraycopy( bucket, 0, newBucket, 0, size );
+      bucket = newBucket;
+      buckets[ node ] = bucket;
+    }
+    bucket[ size ] = id;
+    bucketSizes[ node ] = size + 1;
+  }
+
+  private int createNode( final double x, final double y, final int depth ) {
+    if( nodeCount == nodeX.length ) {
+      int capacity = nodeCount * 2;
+      nodeX = grow( nodeX, capacity );
+      nodeY = grow( nodeY, capacity );
+      nodeDepth = grow( nodeDepth, capacity );
+      firstChild = grow( firstChild, capacity );
+      bucketSizes = grow( bucketSizes, capacity );
+      int[][] newBuckets = new int[ capacity ][];
+      System.arraycopy( buckets, 0, newBuckets, 0, nodeCount );
+      buckets = newBuckets;
+    }
+    int result = nodeCount++;
+    nodeX[ result ] = x;
+    nodeY[ result ] = y;
+    nodeDepth[ result ] = depth;
+    firstChild[ result ] = -1;
+    buckets[ result ] = EMPTY_BUCKET;
+    bucketSizes[ result ] = 0;
+    return result;
+  }
+
+  private double getSize( final int node ) {
+    return 1.0 / ( 1 << nodeDepth[ node ] );
+  }
+
+  private void ensurePointCapacity( final int capacity ) {
+    if( capacity > pointX.length ) {
+      int newCapacity = Math.max( capacity, pointX.length * 2 );
+      pointX = grow( pointX, newCapacity );
+      pointY = grow( pointY, newCapacity );
+    }
+  }
+
+  private static double[] grow( final double[] array, final int capacity ) {
+    double[] result = new double[ capacity ];
+    System.arraycopy( array, 0, result, 0, array.length );
+    return result;
+  }
+
+  private static int[] grow( final int[] array, final int capacity ) {
+    int[] result = new int[ capacity ];
+    System.arraycopy( array, 0, result, 0, array.length );
+    return result;
+  }
+
+}
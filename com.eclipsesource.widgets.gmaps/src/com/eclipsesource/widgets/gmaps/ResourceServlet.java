@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the pages of the PageCache in RAP, so that the browser can load and 
+ * cache them instead of receiving them with every map via setText. 
+ * 
+ * Urls have the form "<alias>/<hash>/<page>". As the hash changes with the 
+ * content, responses can be cached by the browser for a long time. Only pages
+ * that have already been loaded into the PageCache are served.
+ * 
+ * The tiles of a TileStore or Heatmap are served with urls of the form 
+ * "<alias>/tiles/<id>/<zoom>/<x>/<y>". The ids are random (see TileSources),
+ * and the tiles may only be cached by the browser, not by shared caches.
+ * 
+ * Registered using the "org.eclipse.equinox.http.registry.servlets" extension
+ * point. Not intended to be used by clients.
+ */
+public final class ResourceServlet extends HttpServlet {
+
+  private static final long serialVersionUID = 1L;
+
+  static final String ALIAS = "/gmap";
+  static final String TILES = "tiles";
+  private static final long MAX_AGE = 365L * 24 * 60 * 60;
+  private static final long TILE_MAX_AGE = 24 * 60 * 60;
+
+  public void init() throws ServletException {
+    HtmlLoader.setServletPath( ALIAS );
+  }
+
+  public void destroy() {
+    HtmlLoader.setServletPath( null );
+  }
+
+  protected void doGet( final HttpServletRequest request,
+                        final HttpServletResponse response )
+    throws ServletException, IOException
+  {
+    String path = request.getPathInfo();
+    int separator = path != null ? path.indexOf( '/', 1 ) : -1;
+    if( separator == -1 ) {
+      response.sendError( HttpServletResponse.SC_NOT_FOUND );
+    } else if( TILES.equals( path.substring( 1, separator ) ) ) {
+      writeTile( response, path.substring( separator + 1 ) );
+    } else {
+      String hash = path.substring( 1, separator );
+      String page = path.substring( separator + 1 );
+      if(    !PageCache.contains( page ) 
+          || !hash.equals( PageCache.getHash( page ) ) ) 
+      {
+        response.sendError( HttpServletResponse.SC_NOT_FOUND );
+      } else {
+        String etag = "\"" + hash + "\"";
+        response.setHeader( "ETag", etag );
+        response.setHeader( "Cache-Control", "public, max-age=" + MAX_AGE );
+        response.setDateHeader( "Expires", 
+                                System.currentTimeMillis() + MAX_AGE * 1000 );
+        if( etag.equals( request.getHeader( "If-None-Match" ) ) ) {
+          response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+        } else {
+          writePage( response, page );
+        }
+      }
+    }
+  }
+
+  private static void writeTile( final HttpServletResponse response, 
+                                 final String path ) 
+    throws IOException
+  {
+    // "<id>/<zoom>/<x>/<y>"
+    int separator = path.indexOf( '/' );
+    String id = separator > 0 ? path.substring( 0, separator ) : null;
+    int[] values = new int[ 3 ];
+    int start = separator + 1;
+    boolean valid = id != null;
+    for( int i = 0; i < values.length && valid; i++ ) {
+      int end = i < values.length - 1 
+              ? path.indexOf( '/', start ) 
+              : path.length();
+      valid = end != -1;
+      if( valid ) {
+        try {
+          values[ i ] = Integer.parseInt( path.substring( start, end ) );
+        } catch( NumberFormatException e ) {
+          valid = false;
+        }
+        start = end + 1;
+      }
+    }
+    TileSources.Source source = valid ? TileSources.get( id ) : null;
+    byte[] tile = source != null 
+                ? source.getTile( values[ 0 ], values[ 1 ], values[ 2 ] ) 
+                : null;
+    if( tile == null ) {
+      response.sendError( HttpServletResponse.SC_NOT_FOUND );
+    } else {
+      response.setHeader( "Cache-Control", 
+                          "private, max-age=" + TILE_MAX_AGE );
+      response.setContentType( TileSources.getContentType( tile ) );
+      response.setContentLength( tile.length );
+      OutputStream stream = response.getOutputStream();
+      try {
+        stream.write( tile );
+      } finally {
+        stream.close();
+      }
+    }
+  }
+
+  private static void writePage( final HttpServletResponse response, 
+                                 final String page ) 
+    throws IOException
+  {
+    byte[] content = PageCache.get( page ).getBytes( PageCache.ENCODING );
+    response.setContentType( "text/html; charset=" + PageCache.ENCODING );
+    response.setContentLength( content.length );
+    OutputStream stream = response.getOutputStream();
+    try {
+      stream.write( content );
+    } finally {
+      stream.close();
+    }
+  }
+
+}
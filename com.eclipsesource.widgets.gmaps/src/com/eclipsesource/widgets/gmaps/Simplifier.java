@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+/**
+ * Douglas-Peucker simplification for all tolerances at once. Instead of 
+ * simplifying for a given tolerance, the importance of every vertex is 
+ * computed, i.e. the largest tolerance at which Douglas-Peucker would still 
+ * keep it. Selecting all vertices with an importance above a tolerance then 
+ * gives the same result as running Douglas-Peucker with that tolerance.
+ * 
+ * The recursion is split into independent ranges first, which are then 
+ * processed in parallel for large lines.
+ */
+final class Simplifier {
+
+  private static final int PARALLEL_THRESHOLD = 50000;
+
+  private Simplifier() {
+    // prevent instantiation
+  }
+
+  /**
+   * Computes the importance of the vertices with the given projected 
+   * coordinates. The end points have an infinite importance.
+   */
+  static double[] computeImportance( final double[] x, final double[] y ) {
+    final int count = x.length;
+    final double[] result = new double[ count ];
+    if( count > 0 ) {
+      result[ 0 ] = Double.POSITIVE_INFINITY;
+      result[ count - 1 ] = Double.POSITIVE_INFINITY;
+    }
+    if( count > 2 ) {
+      // Split the top of the recursion into ranges that can be processed 
+      // independently: [ first, last, parent importance ] 
+      int parts = count >= PARALLEL_THRESHOLD
+                ? Runtime.getRuntime().availableProcessors() * 4
+                : 1;
+      int[] ranges = new int[] { 0, count - 1 };
+      double[] parents = new double[] { Double.POSITIVE_INFINITY };
+      while( ranges.length / 2 < parts && ranges.length / 2 < count / 16 ) {
+        int[] newRanges = new int[ ranges.length * 2 ];
+        double[] newParents = new double[ parents.length * 2 ];
+        int size = 0;
+        for( int i = 0; i < parents.length; i++ ) {
+          int first = ranges[ i * 2 ];
+          int last = ranges[ i * 2 + 1 ];
+          if( last - first > 1 ) {
+            int split = findFarthest( x, y, first, last );
+            double distance = distance( x, y, first, last, split );
+            double importance = Math.min( parents[ i ], distance );
+            result[ split ] = importance;
+            newRanges[ size * 2 ] = first;
+            newRanges[ size * 2 + 1 ] = split;
+            newParents[ size++ ] = importance;
+            newRanges[ size * 2 ] = split;
+            newRanges[ size * 2 + 1 ] = last;
+            newParents[ size++ ] = importance;
+          }
+        }
+        ranges = new int[ size * 2 ];
+        parents = new double[ size ];
+        System.arraycopy( newRanges, 0, ranges, 0, size * 2 );
+        System.arraycopy( newParents, 0, parents, 0, size );
+        if( size == 0 ) {
+          break;
+        }
+      }
+      final int[] finalRanges = ranges;
+      final double[] finalParents = parents;
+      Parallel.run( parents.length, 1, new Parallel.Task() {
+        public void run( final int from, final int to ) {
+          for( int i = from; i < to; i++ ) {
+            simplify( x, 
+                      y, 
+                      finalRanges[ i * 2 ], 
+                      finalRanges[ i * 2 + 1 ], 
+                      finalParents[ i ], 
+                      result );
+          }
+        }
+      } );
+    }
+    return result;
+  }
+
+  /**
+   * Returns the indices of all vertices with at least the given importance.
+   */
+  static int[] select( final double[] importance, final double tolerance ) {
+    int count = 0;
+    for( int i = 0; i < importance.length; i++ ) {
+      if( importance[ i ] >= tolerance ) {
+        count++;
+      }
+    }
+    int[] result = new int[ count ];
+    int index = 0;
+    for( int i = 0; i < importance.length; i++ ) {
+      if( importance[ i ] >= tolerance ) {
+        result[ index++ ] = i;
+      }
+    }
+    return result;
+  }
+
+  private static void simplify( final double[] x,
+                                final double[] y,
+                                final int first,
+                                final int last,
+                                final double parent,
+                                final double[] result )
+  {
+    // explicit stack instead of recursion, the depth can reach the number of
+    // vertices for degenerated lines
+    int[] stack = new int[ 64 ];
+    double[] parents = new double[ 32 ];
+    int top = 0;
+    stack[ 0 ] = first;
+    stack[ 1 ] = last;
+    parents[ 0 ] = parent;
+    top = 1;
+    while( top > 0 ) {
+      top--;
+      int from = stack[ top * 2 ];
+      int to = stack[ top * 2 + 1 ];
+      double parentImportance = parents[ top ];
+      if( to - from > 1 ) {
+        int split = findFarthest( x, y, from, to );
+        double importance 
+          = Math.min( parentImportance, distance( x, y, from, to, split ) );
+        result[ split ] = importance;
+        if( top + 2 > parents.length ) {
+          int[] newStack = new int[ stack.length * 2 ];
+          double[] newParents = new double[ parents.length * 2 ];
+          System.arraycopy( stack, 0, newStack, 0, stack.length );
+          System.arraycopy( parents, 0, newParents, 0, parents.length );
+          stack = newStack;
+          parents = newParents;
+        }
+        stack[ top * 2 ] = from;
+        stack[ top * 2 + 1 ] = split;
+        parents[ top++ ] = importance;
+        stack[ top * 2 ] = split;
+        stack[ top * 2 + 1 ] = to;
+        parents[ top++ ] = importance;
+      }
+    }
+  }
+
+  private static int findFarthest( final double[] x, 
+                                   final double[] y, 
+                                   final int first, 
+                                   final int last ) 
+  {
+    int result = first + 1;
+    double max = -1;
+    for( int i = first + 1; i < last; i++ ) {
+      double distance = distance( x, y, first, last, i );
+      if( distance > max ) {
+        max = distance;
+        result = i;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Distance of vertex i to the segment from vertex a to vertex b.
+   */
+  private static double distance( final double[] x,
+                                  final double[] y,
+                                  final int a,
+                                  final int b,
+                                  final int i )
+  {
+    double dx = x[ b ] - x[ a ];
+    double dy = y[ b ] - y[ a ];
+    double px = x[ i ] - x[ a ];
+    double py = y[ i ] - y[ a ];
+    double lengthSquared = dx * dx + dy * dy;
+    double result;
+    if( lengthSquared == 0 ) {
+      result = Math.sqrt( px * px + py * py );
+    } else {
+      double t = ( px * dx + py * dy ) / lengthSquared;
+      t = Math.max( 0, Math.min( 1, t ) );
+      double ex = px - t * dx;
+      double ey = py - t * dy;
+      result = Math.sqrt( ex * ex + ey * ey );
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,660 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+/**
+ * An immutable index over a set of positions that answers nearest neighbour, 
+ * radius and bounds queries, e.g. to find the markers closest to a click or 
+ * the 20 vehicles closest to an incident.
+ * 
+ * Distances are great-circle distances on a spherical earth. Internally the
+ * positions are converted to points on the unit sphere and stored in a 
+ * balanced KD-tree, since the straight-line distance between two such 
+ * points grows with their great-circle distance. Queries therefore work
+ * across the poles and the 180th meridian without special cases.
+ * 
+ * The positions are identified by their index in the arrays given to the
+ * constructor. The tree is built in parallel for large sets and kept in 
+ * primitive arrays. Queries do not create any objects apart from a small 
+ * state per query, and can be executed concurrently by several threads.
+ * 
+ * @see GMap#addClickListener(ClickListener)
+ */
+public final class SpatialIndex {
+
+  /** The mean radius of the earth in meters */
+  public static final double EARTH_RADIUS = 6371008.8;
+
+  // Ranges of up to LEAF_SIZE points are not split and scanned linearly
+  private static final int LEAF_SIZE = 8;
+  // Subtrees smaller than this are built in the thread that splits them
+  private static final int PARALLEL_THRESHOLD = 50000;
+  // x, y, z, latitude and longitude per point, in the order of the tree
+  private static final int STRIDE = 5;
+  private static final int LATITUDE = 3;
+  private static final int LONGITUDE = 4;
+
+  private final int size;
+  private final double[] points;
+  private final int[] ids;
+  // the axis the range of a node is split at, stored at its median
+  private final byte[] axes;
+
+  /**
+   * Creates an index of the given positions. The arrays are copied.
+   */
+  public SpatialIndex( final double[] latitudes, final double[] longitudes ) {
+    if( latitudes.length != longitudes.length ) {
+      throw new IllegalArgumentException( "Illegal number of longitudes" );
+    }
+    size = latitudes.length;
+    points = new double[ size * STRIDE ];
+    ids = new int[ size ];
+    axes = new byte[ size ];
+    Parallel.run( size, 20000, new Parallel.Task() {
+      public void run( final int from, final int to ) {
+        for( int i = from; i < to; i++ ) {
+          setPoint( i, latitudes[ i ], longitudes[ i ] );
+        }
+      }
+    } );
+    build();
+  }
+
+  /**
+   * Creates an index of the positions in the given store.
+   */
+  public SpatialIndex( final PointStore points ) {
+    this( getLatitudes( points ), getLongitudes( points ) );
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the id of the position closest to the given one, or -1 if the
+   * index is empty.
+   */
+  public int nearest( final double latitude, final double longitude ) {
+    int[] result = new int[ 1 ];
+    return nearest( latitude, longitude, result ) > 0 ? result[ 0 ] : -1;
+  }
+
+  /**
+   * Finds the positions closest to the given one. As many ids as fit into
+   * the result array are written, ordered by distance.
+   *
+   * @return the number of ids written, less than the length of the array
+   *         only if the index contains fewer positions
+   */
+  public int nearest( final double latitude, 
+                      final double longitude, 
+                      final int[] result ) 
+  {
+    Query query = new Query( latitude, longitude );
+    query.limit = Double.POSITIVE_INFINITY;
+    int count = Math.min( result.length, size );
+    if( count > 0 ) {
+      query.heapIds = result;
+      query.heapDistances = new double[ count ];
+      query.capacity = count;
+      searchNearest( query, 0, size );
+      query.sortHeap();
+    }
+    return count;
+  }
+
+  /**
+   * Finds the positions within the given distance (in meters) of the given 
+   * one. The ids are written into the result array, in no particular 
+   * order, as long as there is room.
+   *
+   * @return the number of positions found, which may be larger than the 
+   *         array
+   */
+  public int withinDistance( final double latitude, 
+                             final double longitude, 
+                             final double meters, 
+                             final int[] result ) 
+  {
+    Query query = new Query( latitude, longitude );
+    query.limit = toSquaredChord( meters );
+    query.result = result;
+    searchWithinDistance( query, 0, size );
+    return query.count;
+  }
+
+  /**
+   * Finds the positions within the given bounds, which may cross the 180th
+   * meridian. The ids are written into the result array, in no particular 
+   * order, as long as there is room.
+   *
+   * @return the number of positions found, which may be larger than the 
+   *         array
+   */
+  public int query( final LatLngBounds bounds, final int[] result ) {
+    Query query = new Query( bounds );
+    query.result = result;
+    searchBounds( query, 0, size );
+    return query.count;
+  }
+
+  /**
+   * Returns the great-circle distance between two positions in meters.
+   */
+  public static double distance( final double latitude1, 
+                                 final double longitude1, 
+                                 final double latitude2, 
+                                 final double longitude2 ) 
+  {
+    double lat1 = Math.toRadians( latitude1 );
+    double lat2 = Math.toRadians( latitude2 );
+    double sinLat = Math.sin( ( lat2 - lat1 ) / 2 );
+    double sinLng 
+      = Math.sin( Math.toRadians( longitude2 - longitude1 ) / 2 );
+    double a 
+      = sinLat * sinLat + Math.cos( lat1 ) * Math.cos( lat2 ) * sinLng * sinLng;
+    return 2 * EARTH_RADIUS * Math.asin( Math.min( 1, Math.sqrt( a ) ) );
+  }
+
+  ///////////
+  // Queries
+
+  private void searchNearest( final Query query, 
+                              final int from, 
+                              final int to ) 
+  {
+    if( to - from <= LEAF_SIZE ) {
+      for( int i = from; i < to; i++ ) {
+        query.offer( ids[ i ], getSquaredDistance( query, i ) );
+      }
+    } else {
+      int median = ( from + to ) >>> 1;
+      query.offer( ids[ median ], getSquaredDistance( query, median ) );
+      double delta = getPlaneDistance( query, median );
+      // The half containing the query point first, the other one only if 
+      // it can contain closer points
+      if( delta < 0 ) {
+        searchNearest( query, from, median );
+        if( delta * delta < query.limit ) {
+          searchNearest( query, median + 1, to );
+        }
+      } else {
+        searchNearest( query, median + 1, to );
+        if( delta * delta < query.limit ) {
+          searchNearest( query, from, median );
+        }
+      }
+    }
+  }
+
+  private void searchWithinDistance( final Query query, 
+                                     final int from, 
+                                     final int to ) 
+  {
+    if( to - from <= LEAF_SIZE ) {
+      for( int i = from; i < to; i++ ) {
+        if( getSquaredDistance( query, i ) <= query.limit ) {
+          query.add( ids[ i ] );
+        }
+      }
+    } else {
+      int median = ( from + to ) >>> 1;
+      if( getSquaredDistance( query, median ) <= query.limit ) {
+        query.add( ids[ median ] );
+      }
+      double delta = getPlaneDistance( query, median );
+      if( delta <= 0 || delta * delta <= query.limit ) {
+        searchWithinDistance( query, from, median );
+      }
+      if( delta >= 0 || delta * delta <= query.limit ) {
+        searchWithinDistance( query, median + 1, to );
+      }
+    }
+  }
+
+  private void searchBounds( final Query query, 
+                             final int from, 
+                             final int to ) 
+  {
+    if( to - from <= LEAF_SIZE ) {
+      for( int i = from; i < to; i++ ) {
+        addIfInBounds( query, i );
+      }
+    } else {
+      int median = ( from + to ) >>> 1;
+      addIfInBounds( query, median );
+      int axis = axes[ median ];
+      double value = points[ median * STRIDE + axis ];
+      if( query.min[ axis ] <= value ) {
+        searchBounds( query, from, median );
+      }
+      if( query.max[ axis ] >= value ) {
+        searchBounds( query, median + 1, to );
+      }
+    }
+  }
+
+  private void addIfInBounds( final Query query, final int index ) {
+    int offset = index * STRIDE;
+    if( query.bounds.contains( points[ offset + LATITUDE ], 
+                               points[ offset + LONGITUDE ] ) ) 
+    {
+      query.add( ids[ index ] );
+    }
+  }
+
+  private double getSquaredDistance( final Query query, final int index ) {
+    int offset = index * STRIDE;
+    double dx = points[ offset ] - query.point[ 0 ];
+    double dy = points[ offset + 1 ] - query.point[ 1 ];
+    double dz = points[ offset + 2 ] - query.point[ 2 ];
+    return dx * dx + dy * dy + dz * dz;
+  }
+
+  /**
+   * The signed distance of the query point to the plane splitting the 
+   * range of the given node, negative on the lower side.
+   */
+  private double getPlaneDistance( final Query query, final int median ) {
+    int axis = axes[ median ];
+    return query.point[ axis ] - points[ median * STRIDE + axis ];
+  }
+
+  /**
+   * The state of a single query.
+   */
+  private static final class Query {
+
+    final double[] point = new double[ 3 ];
+    // the squared chord length within which points are searched
+    double limit;
+    // for bounds queries, the bounds and the box around them on the sphere
+    final LatLngBounds bounds;
+    final double[] min;
+    final double[] max;
+    // the result of radius and bounds queries
+    int[] result;
+    int count;
+    // the nearest points found so far, as a max-heap by distance
+    int[] heapIds;
+    double[] heapDistances;
+    int capacity;
+
+    Query( final double latitude, final double longitude ) {
+      toPoint( latitude, longitude, point, 0 );
+      bounds = null;
+      min = null;
+      max = null;
+    }
+
+    Query( final LatLngBounds bounds ) {
+      this.bounds = bounds;
+      min = new double[ 3 ];
+      max = new double[ 3 ];
+      computeBox( bounds, min, max );
+    }
+
+    void add( final int id ) {
+      if( count < result.length ) {
+        result[ count ] = id;
+      }
+      count++;
+    }
+
+    void offer( final int id, final double distance ) {
+      if( count < capacity ) {
+        heapIds[ count ] = id;
+        heapDistances[ count ] = distance;
+        siftUp( count++ );
+        if( count == capacity ) {
+          limit = heapDistances[ 0 ];
+        }
+      } else if( distance < heapDistances[ 0 ] ) {
+        heapIds[ 0 ] = id;
+        heapDistances[ 0 ] = distance;
+        siftDown( 0, count );
+        limit = heapDistances[ 0 ];
+      }
+    }
+
+    /**
+     * Sorts the heap by ascending distance (heap sort, in place).
+     */
+    void sortHeap() {
+      for( int end = count - 1; end > 0; end-- ) {
+        swap( 0, end );
+        siftDown( 0, end );
+      }
+    }
+
+    private void siftUp( final int index ) {
+      int child = index;
+      while( child > 0 ) {
+        int parent = ( child - 1 ) / 2;
+        if( heapDistances[ parent ] >= heapDistances[ child ] ) {
+          break;
+        }
+        swap( parent, child );
+        child = parent;
+      }
+    }
+
+    private void siftDown( final int index, final int end ) {
+      int parent = index;
+      int child = parent * 2 + 1;
+      while( child < end ) {
+        if(    child + 1 < end 
+            && heapDistances[ child + 1 ] > heapDistances[ child ] ) 
+        {
+          child++;
+        }
+        if( heapDistances[ parent ] >= heapDistances[ child ] ) {
+          break;
+        }
+        swap( parent, child );
+        parent = child;
+        child = parent * 2 + 1;
+      }
+    }
+
+    private void swap( final int index1, final int index2 ) {
+      int id = heapIds[ index1 ];
+      heapIds[ index1 ] = heapIds[ index2 ];
+      heapIds[ index2 ] = id;
+      double distance = heapDistances[ index1 ];
+      heapDistances[ index1 ] = heapDistances[ index2 ];
+      heapDistances[ index2 ] = distance;
+    }
+  }
+
+  ////////////
+  // Building
+
+  private void setPoint( final int index, 
+                         final double latitude, 
+                         final double longitude ) 
+  {
+    if(    Double.isNaN( latitude ) 
+        || Double.isInfinite( latitude ) 
+        || Double.isNaN( longitude ) 
+        || Double.isInfinite( longitude ) ) 
+    {
+      throw new IllegalArgumentException( "Illegal coordinate" );
+    }
+    int offset = index * STRIDE;
+    toPoint( latitude, longitude, points, offset );
+    points[ offset + LATITUDE ] = latitude;
+    points[ offset + LONGITUDE ] = longitude;
+    ids[ index ] = index;
+  }
+
+  /**
+   * Splits the ranges at their medians down to LEAF_SIZE. The upper levels 
+   * are split in this thread until there are enough subtrees to build them 
+   * in parallel.
+   */
+  private void build() {
+    int threads = Runtime.getRuntime().availableProcessors();
+    IntList ranges = new IntList();
+    ranges.add( 0 );
+    ranges.add( size );
+    boolean split = threads > 1;
+    while( split ) {
+      IntList next = new IntList();
+      split = false;
+      for( int i = 0; i < ranges.size(); i += 2 ) {
+        int from = ranges.get( i );
+        int to = ranges.get( i + 1 );
+        if( to - from > PARALLEL_THRESHOLD ) {
+          int median = splitRange( from, to );
+          next.add( from );
+          next.add( median );
+          next.add( median + 1 );
+          next.add( to );
+          split = true;
+        } else {
+          next.add( from );
+          next.add( to );
+        }
+      }
+      ranges = next;
+      split = split && ranges.size() / 2 < threads * 4;
+    }
+    final int[] subtrees = ranges.toArray();
+    Parallel.run( subtrees.length / 2, 1, new Parallel.Task() {
+      public void run( final int from, final int to ) {
+        for( int i = from; i < to; i++ ) {
+          buildSubtree( subtrees[ i * 2 ], subtrees[ i * 2 + 1 ] );
+        }
+      }
+    } );
+  }
+
+  private void buildSubtree( final int from, final int to ) {
+    if( to - from > LEAF_SIZE ) {
+      int median = splitRange( from, to );
+      buildSubtree( from, median );
+      buildSubtree( median + 1, to );
+    }
+  }
+
+  /**
+   * Partitions the range at its median along the axis of the largest 
+   * extent, and returns the index of the median.
+   */
+  private int splitRange( final int from, final int to ) {
+    int axis = getWidestAxis( from, to );
+    int median = ( from + to ) >>> 1;
+    select( axis, from, to - 1, median );
+    axes[ median ] = ( byte )axis;
+    return median;
+  }
+
+  private int getWidestAxis( final int from, final int to ) {
+    double minX = 1;
+    double maxX = -1;
+    double minY = 1;
+    double maxY = -1;
+    double minZ = 1;
+    double maxZ = -1;
+    for( int i = from; i < to; i++ ) {
+      int offset = i * STRIDE;
+      double x = points[ offset ];
+      double y = points[ offset + 1 ];
+      double z = points[ offset + 2 ];
+      minX = Math.min( minX, x );
+      maxX = Math.max( maxX, x );
+      minY = Math.min( minY, y );
+      maxY = Math.max( maxY, y );
+      minZ = Math.min( minZ, z );
+      maxZ = Math.max( maxZ, z );
+    }
+    int result = 0;
+    double extent = maxX - minX;
+    if( maxY - minY > extent ) {
+      result = 1;
+      extent = maxY - minY;
+    }
+    if( maxZ - minZ > extent ) {
+      result = 2;
+    }
+    return result;
+  }
+
+  /**
+   * Quickselect: reorders the points in [ left, right ] so that the point at
+   * index k has all smaller values of the axis before it, and all larger 
+   * values after it.
+   */
+  private void select( final int axis, 
+                       final int left, 
+                       final int right, 
+                       final int k ) 
+  {
+    int lower = left;
+    int upper = right;
+    while( lower < upper ) {
+      double pivot = getValue( ( lower + upper ) >>> 1, axis );
+      int i = lower;
+      int j = upper;
+      while( i <= j ) {
+        while( getValue( i, axis ) < pivot ) {
+          i++;
+        }
+        while( getValue( j, axis ) > pivot ) {
+          j--;
+        }
+        if( i <= j ) {
+          swap( i++, j-- );
+        }
+      }
+      if( k <= j ) {
+        upper = j;
+      } else if( k >= i ) {
+        lower = i;
+      } else {
+        lower = upper;
+      }
+    }
+  }
+
+  private double getValue( final int index, final int axis ) {
+    return points[ index * STRIDE + axis ];
+  }
+
+  private void swap( final int index1, final int index2 ) {
+    int offset1 = index1 * STRIDE;
+    int offset2 = index2 * STRIDE;
+    for( int i = 0; i < STRIDE; i++ ) {
+      double value = points[ offset1 + i ];
+      points[ offset1 + i ] = points[ offset2 + i ];
+      points[ offset2 + i ] = value;
+    }
+    int id = ids[ index1 ];
+    ids[ index1 ] = ids[ index2 ];
+    ids[ index2 ] = id;
+  }
+
+  //////////////////////
+  // Spherical geometry
+
+  private static void toPoint( final double latitude, 
+                               final double longitude, 
+                               final double[] target, 
+                               final int offset ) 
+  {
+    double lat = Math.toRadians( latitude );
+    double lng = Math.toRadians( longitude );
+    double cosLat = Math.cos( lat );
+    target[ offset ] = cosLat * Math.cos( lng );
+    target[ offset + 1 ] = cosLat * Math.sin( lng );
+    target[ offset + 2 ] = Math.sin( lat );
+  }
+
+  /**
+   * Converts a distance on the surface to the squared length of the chord 
+   * between the points on the unit sphere.
+   */
+  private static double toSquaredChord( final double meters ) {
+    double result;
+    double angle = meters / EARTH_RADIUS;
+    if( angle >= Math.PI ) {
+      result = Double.POSITIVE_INFINITY;
+    } else {
+      double chord = 2 * Math.sin( Math.max( angle, 0 ) / 2 );
+      result = chord * chord;
+    }
+    return result;
+  }
+
+  /**
+   * Computes a box on the unit sphere that contains all points within the
+   * given bounds. It may be larger than necessary, the points found in it
+   * are tested against the bounds.
+   */
+  private static void computeBox( final LatLngBounds bounds, 
+                                  final double[] min, 
+                                  final double[] max ) 
+  {
+    double south = Math.toRadians( bounds.southWest.latitude );
+    double north = Math.toRadians( bounds.northEast.latitude );
+    double west = bounds.southWest.longitude;
+    double east = bounds.northEast.longitude;
+    if( east < west ) {
+      east += 360;
+    }
+    // the range of cos( latitude ), which is not negative
+    double minCos = Math.min( Math.cos( south ), Math.cos( north ) );
+    double maxCos = south <= 0 && north >= 0 
+                    ? 1 
+                    : Math.max( Math.cos( south ), Math.cos( north ) );
+    // the ranges of cos( longitude ) and sin( longitude )
+    double[] range = new double[ 4 ];
+    computeLongitudeRange( west, east, range );
+    min[ 0 ] = Math.min( minCos * range[ 0 ], maxCos * range[ 0 ] );
+    max[ 0 ] = Math.max( minCos * range[ 1 ], maxCos * range[ 1 ] );
+    min[ 1 ] = Math.min( minCos * range[ 2 ], maxCos * range[ 2 ] );
+    max[ 1 ] = Math.max( minCos * range[ 3 ], maxCos * range[ 3 ] );
+    min[ 2 ] = Math.sin( south );
+    max[ 2 ] = Math.sin( north );
+    // rounding errors must not exclude points on the edges
+    for( int i = 0; i < 3; i++ ) {
+      min[ i ] -= 1E-9;
+      max[ i ] += 1E-9;
+    }
+  }
+
+  /**
+   * Computes min and max of cos and sin over the longitudes [ west, east ],
+   * with east >= west.
+   */
+  private static void computeLongitudeRange( final double west, 
+                                             final double east, 
+                                             final double[] range ) 
+  {
+    double cosWest = Math.cos( Math.toRadians( west ) );
+    double cosEast = Math.cos( Math.toRadians( east ) );
+    double sinWest = Math.sin( Math.toRadians( west ) );
+    double sinEast = Math.sin( Math.toRadians( east ) );
+    range[ 0 ] = Math.min( cosWest, cosEast );
+    range[ 1 ] = Math.max( cosWest, cosEast );
+    range[ 2 ] = Math.min( sinWest, sinEast );
+    range[ 3 ] = Math.max( sinWest, sinEast );
+    // the extremes are reached at multiples of 90 degrees within the range
+    double first = Math.ceil( west / 90 ) * 90;
+    for( double angle = first; angle <= east; angle += 90 ) {
+      int quadrant = ( ( int )Math.round( angle / 90 ) % 4 + 4 ) % 4;
+      if( quadrant == 0 ) {
+        range[ 1 ] = 1;
+      } else if( quadrant == 1 ) {
+        range[ 3 ] = 1;
+      } else if( quadrant == 2 ) {
+        range[ 0 ] = -1;
+      } else {
+        range[ 2 ] = -1;
+      }
+    }
+  }
+
+  private static double[] getLatitudes( final PointStore points ) {
+    double[] result = new double[ points.size() ];
+    points.getLatitudes( 0, result, 0, result.length );
+    return result;
+  }
+
+  private static double[] getLongitudes( final PointStore points ) {
+    double[] result = new double[ points.size() ];
+    points.getLongitudes( 0, result, 0, result.length );
+    return result;
+  }
+
+}
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A Geocoder that only knows the addresses added to it. Useful for tests and
+ * for a fixed set of well known locations (e.g. depots) without any network
+ * access. Reverse lookups return the address closest to the given location 
+ * within the given maximum distance.
+ */
+public final class StaticGeocoder implements Geocoder {
+
+  private final Map results = new HashMap();
+  private final double maxDistance;
+
+  /**
+   * @param maxDistance the maximum distance in degrees for reverse lookups
+   */
+  public StaticGeocoder( final double maxDistance ) {
+    this.maxDistance = maxDistance;
+  }
+
+  public synchronized void add( final GeocodeResult result ) {
+    results.put( GeocodeCache.normalize( result.address ), result );
+  }
+
+  public synchronized GeocodeResult geocode( final String address ) {
+    return ( GeocodeResult )results.get( GeocodeCache.normalize( address ) );
+  }
+
+  public synchronized String reverseGeocode( final LatLng location ) {
+    String result = null;
+    double bestDistance = maxDistance;
+    Iterator iterator = results.values().iterator();
+    while( iterator.hasNext() ) {
+      GeocodeResult candidate = ( GeocodeResult )iterator.next();
+      double latDistance = candidate.location.latitude - location.latitude;
+      double lngDistance = candidate.location.longitude - location.longitude;
+      double distance = Math.sqrt(   latDistance * latDistance 
+                                   + lngDistance * lngDistance );
+      if( distance <= bestDistance ) {
+        bestDistance = distance;
+        result = candidate.address;
+      }
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A process-wide registry of the objects providing map tiles (TileStore and 
+ * Heatmap), so that the ResourceServlet and the browser-functions of the 
+ * maps can find them by id.
+ * 
+ * Ids are random, so that the tiles of a source can only be requested by 
+ * those who were given its id. Sources are only weakly referenced: a source
+ * that is no longer used by the application is removed even if it was 
+ * never disposed.
+ */
+final class TileSources {
+
+  interface Source {
+    /**
+     * Returns the image of the given tile, or null if there is none.
+     */
+    byte[] getTile( int zoom, int x, int y );
+  }
+
+  private static final int ID_LENGTH = 16; // bytes
+
+  // String -> SourceReference
+  private static final Map sources = new HashMap();
+  private static final ReferenceQueue collected = new ReferenceQueue();
+  private static final SecureRandom random = new SecureRandom();
+
+  private TileSources() {
+    // prevent instantiation
+  }
+
+  static synchronized String register( final Source source ) {
+    removeCollected();
+    String result;
+    do {
+      result = createId();
+    } while( sources.containsKey( result ) );
+    sources.put( result, new SourceReference( result, source, collected ) );
+    return result;
+  }
+
+  static synchronized void unregister( final String id ) {
+    sources.remove( id );
+  }
+
+  static synchronized Source get( final String id ) {
+    removeCollected();
+    SourceReference reference = ( SourceReference )sources.get( id );
+    return reference != null ? ( Source )reference.get() : null;
+  }
+
+  static boolean isValid( final int zoom, final int x, final int y ) {
+    return    zoom >= 0 
+           && zoom <= Mercator.MAX_ZOOM 
+           && x >= 0 
+           && y >= 0 
+           && x < 1 << zoom 
+           && y < 1 << zoom;
+  }
+
+  static long toKey( final int zoom, final int x, final int y ) {
+    return ( ( long )zoom << 48 ) | ( ( long )x << 24 ) | y;
+  }
+
+  /**
+   * Returns the content type of the given tile, based on its first bytes.
+   */
+  static String getContentType( final byte[] tile ) {
+    boolean jpeg 
+      =    tile.length > 1 
+        && tile[ 0 ] == ( byte )0xFF 
+        && tile[ 1 ] == ( byte )0xD8;
+    return jpeg ? "image/jpeg" : "image/png";
+  }
+
+  /**
+   * Returns the tile as data url, for browsers that can not load it from
+   * the ResourceServlet.
+   */
+  static String toDataUrl( final byte[] tile ) {
+    StringBuffer result = new StringBuffer( 32 + tile.length * 4 / 3 );
+    result.append( "data:" );
+    result.append( getContentType( tile ) );
+    result.append( ";base64," );
+    appendBase64( result, tile );
+    return result.toString();
+  }
+
+  private static String createId() {
+    byte[] bytes = new byte[ ID_LENGTH ];
+    random.nextBytes( bytes );
+    StringBuffer result = new StringBuffer( ID_LENGTH * 2 );
+    for( int i = 0; i < bytes.length; i++ ) {
+      result.append( Character.forDigit( ( bytes[ i ] >> 4 ) & 0xF, 16 ) );
+      result.append( Character.forDigit( bytes[ i ] & 0xF, 16 ) );
+    }
+    return result.toString();
+  }
+
+  private static void removeCollected() {
+    SourceReference reference = ( SourceReference )collected.poll();
+    while( reference != null ) {
+      sources.remove( reference.id );
+      reference = ( SourceReference )collected.poll();
+    }
+  }
+
+  private static void appendBase64( final StringBuffer buffer, 
+                                    final byte[] bytes ) 
+  {
+    String digits 
+      = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    for( int i = 0; i < bytes.length; i += 3 ) {
+      int remaining = Math.min( 3, bytes.length - i );
+      int value = ( bytes[ i ] & 0xFF ) << 16;
+      if( remaining > 1 ) {
+        value |= ( bytes[ i + 1 ] & 0xFF ) << 8;
+      }
+      if( remaining > 2 ) {
+        value |= bytes[ i + 2 ] & 0xFF;
+      }
+      char third = digits.charAt( ( value >> 6 ) & 0x3F );
+      char fourth = digits.charAt( value & 0x3F );
+      buffer.append( digits.charAt( ( value >> 18 ) & 0x3F ) );
+      buffer.append( digits.charAt( ( value >> 12 ) & 0x3F ) );
+      buffer.append( remaining > 1 ? third : '=' );
+      buffer.append( remaining > 2 ? fourth : '=' );
+    }
+  }
+
+  private static final class SourceReference extends WeakReference {
+
+    final String id;
+
+    SourceReference( final String id, 
+                     final Source source, 
+                     final ReferenceQueue queue ) 
+    {
+      super( source, queue );
+      this.id = id;
+    }
+  }
+
+}
@@ -0,0 +1,471 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Provides map tiles from local pack files, so that a map can be shown
+ * without loading tiles from the network (see GMap#setTileStore).
+ *
+ * A pack file contains the tiles of an area (as created by createPack) and
+ * an index sorted by zoom, x and y. Packs are memory-mapped, finding a tile
+ * is a binary search in the mapped index. Recently used tiles are kept on
+ * the heap, up to the given number of bytes. The tiles around the visible
+ * area of a map, and those of the next zoom level, are loaded in the
+ * background before they are requested.
+ *
+ * A TileStore can be shared by all maps (and sessions) and is thread-safe.
+ */
+public final class TileStore implements TileSources.Source {
+
+  private static final int MAGIC = 0x474D5450; // "GMTP"
+  private static final int VERSION = 1;
+  // magic, version, tile count
+  private static final int HEADER_SIZE = 3 * 4;
+  // key, offset, length
+  private static final int ENTRY_SIZE = 8 + 8 + 4;
+  // maximum number of tiles loaded by one prefetch
+  private static final int MAX_PREFETCH = 256;
+
+  private final String id;
+  private final Pack[] packs;
+  private final long maxCacheBytes;
+  private final int maxZoom;
+  // key (Long) -> byte[]
+  private final LinkedHashMap cache = new LinkedHashMap( 256, 0.75f, true );
+  private long cacheBytes = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private final Prefetcher prefetcher = new Prefetcher();
+  private boolean closed = false;
+
+  /**
+   * Opens the given pack files. Tiles are looked up in the packs in the
+   * given order.
+   *
+   * @param maxCacheBytes the size of the tiles kept on the heap
+   */
+  public TileStore( final File[] packFiles, final long maxCacheBytes ) 
+    throws IOException 
+  {
+    if( maxCacheBytes < 0 ) {
+      throw new IllegalArgumentException( "Illegal cache size" );
+    }
+    this.maxCacheBytes = maxCacheBytes;
+    packs = new Pack[ packFiles.length ];
+    int zoom = 0;
+    for( int i = 0; i < packFiles.length; i++ ) {
+      packs[ i ] = new Pack( packFiles[ i ] );
+      zoom = Math.max( zoom, packs[ i ].getMaxZoom() );
+    }
+    maxZoom = zoom;
+    id = TileSources.register( this );
+  }
+
+  /**
+   * Creates a pack file from a directory with the structure used by most
+   * tile servers and tools: "zoom/x/y.png" (or .jpg).
+   *
+   * @return the number of tiles in the pack
+   */
+  public static int createPack( final File tileDirectory, final File packFile ) 
+    throws IOException 
+  {
+    List tiles = new ArrayList();
+    collectTiles( tileDirectory, tiles );
+    Object[] sorted = tiles.toArray();
+    Arrays.sort( sorted );
+    DataOutputStream out = new DataOutputStream(
+      new BufferedOutputStream( new FileOutputStream( packFile ) ) );
+    try {
+      out.writeInt( MAGIC );
+      out.writeInt( VERSION );
+      out.writeInt( sorted.length );
+      long offset = HEADER_SIZE + ( long )sorted.length * ENTRY_SIZE;
+      for( int i = 0; i < sorted.length; i++ ) {
+        TileFile tile = ( TileFile )sorted[ i ];
+        out.writeLong( tile.key );
+        out.writeLong( offset );
+        out.writeInt( ( int )tile.file.length() );
+        offset += tile.file.length();
+      }
+      byte[] buffer = new byte[ 8192 ];
+      for( int i = 0; i < sorted.length; i++ ) {
+        File file = ( ( TileFile )sorted[ i ] ).file;
+        InputStream in = new FileInputStream( file );
+        try {
+          int read;
+          while( ( read = in.read( buffer ) ) != -1 ) {
+            out.write( buffer, 0, read );
+          }
+        } finally {
+          in.close();
+        }
+      }
+    } finally {
+      out.close();
+    }
+    return sorted.length;
+  }
+
+  /**
+   * Returns the tile with the given coordinates, or null if there is none.
+   */
+  public byte[] getTile( final int zoom, final int x, final int y ) {
+    byte[] result = null;
+    if( TileSources.isValid( zoom, x, y ) ) {
+      Long key = new Long( TileSources.toKey( zoom, x, y ) );
+      synchronized( this ) {
+        result = ( byte[] )cache.get( key );
+        if( result != null ) {
+          hits++;
+        } else {
+          misses++;
+        }
+      }
+      if( result == null ) {
+        result = readTile( key.longValue() );
+        if( result != null ) {
+          putIntoCache( key, result );
+        }
+      }
+    }
+    return result;
+  }
+
+  public boolean containsTile( final int zoom, final int x, final int y ) {
+    boolean result = false;
+    if( TileSources.isValid( zoom, x, y ) ) {
+      long key = TileSources.toKey( zoom, x, y );
+      for( int i = 0; i < packs.length && !result; i++ ) {
+        result = packs[ i ].find( key ) != -1;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the highest zoom level contained in any of the packs.
+   */
+  public int getMaxZoom() {
+    return maxZoom;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getCacheBytes() {
+    return cacheBytes;
+  }
+
+  /**
+   * Loads the tiles of the given area at the given zoom level and the next
+   * one in the background. Only the latest request is processed if several
+   * are made before the previous one is done.
+   */
+  public void prefetch( final LatLngBounds bounds, final int zoom ) {
+    if( maxCacheBytes > 0 ) {
+      prefetcher.request( bounds, zoom );
+    }
+  }
+
+  /**
+   * Stops the prefetching and makes the tiles unavailable to maps. The
+   * mapped files are released by the garbage collector.
+   */
+  public void close() {
+    TileSources.unregister( id );
+    synchronized( this ) {
+      closed = true;
+      cache.clear();
+      cacheBytes = 0;
+    }
+    prefetcher.stop();
+  }
+
+  String getId() {
+    return id;
+  }
+
+  private byte[] readTile( final long key ) {
+    byte[] result = null;
+    for( int i = 0; i < packs.length && result == null; i++ ) {
+      result = packs[ i ].read( key );
+    }
+    return result;
+  }
+
+  private synchronized void putIntoCache( final Long key, final byte[] tile ) {
+    if( !closed && tile.length <= maxCacheBytes ) {
+      byte[] previous = ( byte[] )cache.put( key, tile );
+      cacheBytes += tile.length - ( previous != null ? previous.length : 0 );
+      Iterator iterator = cache.values().iterator();
+      while( cacheBytes > maxCacheBytes ) {
+        cacheBytes -= ( ( byte[] )iterator.next() ).length;
+        iterator.remove();
+      }
+    }
+  }
+
+  private synchronized boolean isCached( final long key ) {
+    // Note: containsKey does not change the order of an access-ordered map
+    return cache.containsKey( new Long( key ) );
+  }
+
+  private static void collectTiles( final File directory, final List tiles ) {
+    File[] zoomDirectories = listFiles( directory );
+    for( int z = 0; z < zoomDirectories.length; z++ ) {
+      int zoom = parseInt( zoomDirectories[ z ].getName() );
+      File[] xDirectories = listFiles( zoomDirectories[ z ] );
+      for( int i = 0; zoom != -1 && i < xDirectories.length; i++ ) {
+        int x = parseInt( xDirectories[ i ].getName() );
+        File[] files = listFiles( xDirectories[ i ] );
+        for( int j = 0; x != -1 && j < files.length; j++ ) {
+          String name = files[ j ].getName();
+          int dot = name.indexOf( '.' );
+          int y = parseInt( dot != -1 ? name.substring( 0, dot ) : name );
+          boolean valid = y != -1 && TileSources.isValid( zoom, x, y );
+          if( valid && files[ j ].isFile() ) {
+            long key = TileSources.toKey( zoom, x, y );
+            tiles.add( new TileFile( key, files[ j ] ) );
+          }
+        }
+      }
+    }
+  }
+
+  private static File[] listFiles( final File directory ) {
+    File[] result = directory.listFiles();
+    return result != null ? result : new File[ 0 ];
+  }
+
+  private static int parseInt( final String string ) {
+    int result;
+    try {
+      result = Integer.parseInt( string );
+    } catch( NumberFormatException e ) {
+      result = -1;
+    }
+    return result;
+  }
+
+  private static final class Pack {
+
+    private final MappedByteBuffer buffer;
+    private final int count;
+
+    Pack( final File file ) throws IOException {
+      RandomAccessFile randomAccessFile = new RandomAccessFile( file, "r" );
+      try {
+        FileChannel channel = randomAccessFile.getChannel();
+        if( channel.size() > Integer.MAX_VALUE ) {
+          throw new IllegalArgumentException( "Pack too large: " + file );
+        }
+        buffer 
+          = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+      } finally {
+        // The mapping stays valid after the channel is closed
+        randomAccessFile.close();
+      }
+      if(    buffer.limit() < HEADER_SIZE 
+          || buffer.getInt( 0 ) != MAGIC 
+          || buffer.getInt( 4 ) != VERSION ) 
+      {
+        throw new IllegalArgumentException( "Not a tile pack: " + file );
+      }
+      count = buffer.getInt( 8 );
+    }
+
+    int getMaxZoom() {
+      return count > 0 ? ( int )( getKey( count - 1 ) >>> 48 ) : 0;
+    }
+
+    /**
+     * Returns the index of the tile with the given key, or -1.
+     */
+    int find( final long key ) {
+      int low = 0;
+      int high = count - 1;
+      int result = -1;
+      while( low <= high && result == -1 ) {
+        int middle = ( low + high ) >>> 1;
+        long middleKey = getKey( middle );
+        if( middleKey < key ) {
+          low = middle + 1;
+        } else if( middleKey > key ) {
+          high = middle - 1;
+        } else {
+          result = middle;
+        }
+      }
+      return result;
+    }
+
+    byte[] read( final long key ) {
+      byte[] result = null;
+      int index = find( key );
+      if( index != -1 ) {
+        int entry = HEADER_SIZE + index * ENTRY_SIZE;
+        int offset = ( int )buffer.getLong( entry + 8 );
+        result = new byte[ buffer.getInt( entry + 16 ) ];
+        // Note: There are no absolute bulk reads, the position of the shared
+        // buffer has to be guarded
+        synchronized( this ) {
+          buffer.position( offset );
+          buffer.get( result );
+        }
+      }
+      return result;
+    }
+
+    private long getKey( final int index ) {
+      return buffer.getLong( HEADER_SIZE + index * ENTRY_SIZE );
+    }
+  }
+
+  private static final class TileFile implements Comparable {
+
+    final long key;
+    final File file;
+
+    TileFile( final long key, final File file ) {
+      this.key = key;
+      this.file = file;
+    }
+
+    public int compareTo( final Object object ) {
+      long other = ( ( TileFile )object ).key;
+      return key < other ? -1 : ( key == other ? 0 : 1 );
+    }
+  }
+
+  /**
+   * Loads tiles into the cache on a background thread.
+   */
+  private final class Prefetcher implements Runnable {
+
+    private LatLngBounds bounds = null;
+    private int zoom;
+    private Thread thread = null;
+    private boolean stopped = false;
+
+    synchronized void request( final LatLngBounds bounds, final int zoom ) {
+      if( !stopped ) {
+        this.bounds = bounds;
+        this.zoom = zoom;
+        if( thread == null ) {
+          thread = new Thread( this, "GMap tile prefetcher" );
+          thread.setDaemon( true );
+          thread.start();
+        }
+        notifyAll();
+      }
+    }
+
+    synchronized void stop() {
+      stopped = true;
+      bounds = null;
+      notifyAll();
+    }
+
+    public void run() {
+      Object[] request = take();
+      while( request != null ) {
+        LatLngBounds area = ( LatLngBounds )request[ 0 ];
+        int level = ( ( Integer )request[ 1 ] ).intValue();
+        int loaded = prefetch( area, level, 0 );
+        if( level < maxZoom ) {
+          prefetch( area, level + 1, loaded );
+        }
+        request = take();
+      }
+    }
+
+    private synchronized Object[] take() {
+      while( bounds == null && !stopped ) {
+        try {
+          wait();
+        } catch( InterruptedException e ) {
+          stopped = true;
+        }
+      }
+      Object[] result = null;
+      if( bounds != null ) {
+        result = new Object[] { bounds, new Integer( zoom ) };
+        bounds = null;
+      }
+      return result;
+    }
+
+    private synchronized boolean isObsolete() {
+      return stopped || bounds != null;
+    }
+
+    /**
+     * Loads the tiles of the given area, starting with the center, and
+     * returns the number of tiles loaded in total.
+     */
+    private int prefetch( final LatLngBounds area, 
+                          final int level, 
+                          final int loaded ) 
+    {
+      int tiles = 1 << level;
+      int minX = ( int )( Mercator.toX( area.southWest.longitude ) * tiles );
+      int maxX = ( int )( Mercator.toX( area.northEast.longitude ) * tiles );
+      int minY = ( int )( Mercator.toY( area.northEast.latitude ) * tiles );
+      int maxY = ( int )( Mercator.toY( area.southWest.latitude ) * tiles );
+      double span = area.northEast.longitude - area.southWest.longitude;
+      if( maxX < minX || span >= 360 ) {
+        // crosses the antimeridian (or covers the whole world)
+        maxX += tiles;
+      }
+      maxX = Math.min( maxX, minX + tiles - 1 );
+      maxY = Math.min( maxY, tiles - 1 );
+      int count = loaded;
+      for( int x = minX; x <= maxX && count < MAX_PREFETCH; x++ ) {
+        for( int y = minY; y <= maxY && count < MAX_PREFETCH; y++ ) {
+          if( isObsolete() ) {
+            return count;
+          }
+          long key = TileSources.toKey( level, x % tiles, y );
+          if( !isCached( key ) ) {
+            byte[] tile = readTile( key );
+            if( tile != null ) {
+              putIntoCache( new Long( key ), tile );
+            }
+          }
+          count++;
+        }
+      }
+      return count;
+    }
+  }
+
+}
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+/**
+ * Limits the rate of requests. Tokens are refilled continuously at the given 
+ * rate, up to the capacity (which allows short bursts). 
+ */
+final class TokenBucket {
+
+  private final double rate;
+  private final double capacity;
+  private double tokens;
+  private long lastRefill;
+
+  /**
+   * @param rate tokens per second
+   * @param capacity maximum number of tokens
+   */
+  TokenBucket( final double rate, final double capacity ) {
+    this.rate = rate;
+    this.capacity = capacity;
+    this.tokens = capacity;
+    this.lastRefill = System.currentTimeMillis();
+  }
+
+  /**
+   * Blocks until a token is available and takes it.
+   */
+  synchronized void acquire() throws InterruptedException {
+    refill();
+    while( tokens < 1 ) {
+      long wait = ( long )Math.ceil( ( 1 - tokens ) * 1000 / rate );
+      wait( Math.max( wait, 1 ) );
+      refill();
+    }
+    tokens -= 1;
+  }
+
+  private void refill() {
+    long now = System.currentTimeMillis();
+    tokens = Math.min( capacity, tokens + ( now - lastRefill ) * rate / 1000 );
+    lastRefill = now;
+  }
+
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2010 EclipseSource and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, 
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   EclipseSource - initial API and implementation
+ ******************************************************************************/
+package com.eclipsesource.widgets.gmaps;
+
+/**
+ * The visible area of the map (plus a margin) in projected coordinates. The 
+ * range of x may exceed 1 if the area crosses the 180th meridian.
+ */
+final class Viewport {
+
+  private final double minX;
+  private final double maxX;
+  private final double minY;
+  private final double maxY;
+
+  Viewport( final LatLngBounds bounds, final double margin ) {
+    double west = Mercator.toX( bounds.southWest.longitude );
+    double east = Mercator.toX( bounds.northEast.longitude );
+    double width = east >= west ? east - west : 1 - west + east;
+    if( bounds.northEast.longitude - bounds.southWest.longitude >= 360 ) {
+      // -180 and 180 are the same projected x, but mean the whole world
+      width = 1;
+    }
+    double top = Mercator.toY( bounds.northEast.latitude );
+    double bottom = Mercator.toY( bounds.southWest.latitude );
+    double height = bottom - top;
+    if( width * ( 1 + 2 * margin ) >= 1 ) {
+      minX = 0;
+      maxX = 1;
+    } else {
+      double x = west - width * margin;
+      minX = x < 0 ? x + 1 : x;
+      maxX = minX + width * ( 1 + 2 * margin );
+    }
+    minY = Math.max( 0, top - height * margin );
+    maxY = Math.min( 1, bottom + height * margin );
+  }
+
+  /**
+   * Creates the bounds for a map of the given size in pixels.
+   */
+  static LatLngBounds createBounds( final LatLng center, 
+                                    final int zoom, 
+                                    final int width, 
+                                    final int height ) 
+  {
+    double worldSize = Mercator.TILE_SIZE * Math.pow( 2, zoom );
+    double halfWidth = width / worldSize / 2;
+    double halfHeight = height / worldSize / 2;
+    double x = Mercator.toX( center.longitude );
+    double y = Mercator.toY( center.latitude );
+    double west;
+    double east;
+    if( halfWidth >= 0.5 ) {
+      west = -180;
+      east = 180;
+    } else {
+      west = Mercator.toLongitude( wrap( x - halfWidth ) );
+      east = Mercator.toLongitude( wrap( x + halfWidth ) );
+    }
+    double north = Mercator.toLatitude( Math.max( 0, y - halfHeight ) );
+    double south = Mercator.toLatitude( Math.min( 1, y + halfHeight ) );
+    return new LatLngBounds( new LatLng( south, west ), 
+                             new LatLng( north, east ) );
+  }
+
+  boolean contains( final double x, final double y ) {
+    boolean result = y >= minY && y <= maxY;
+    if( result ) {
+      result =    ( x >= minX && x <= maxX ) 
+               || ( x + 1 >= minX && x + 1 <= maxX );
+    }
+    return result;
+  }
+
+  /**
+   * Whether the given rectangle (in projected coordinates) intersects the 
+   * viewport.
+   */
+  boolean intersects( final double x1, 
+                      final double y1, 
+                      final double x2, 
+                      final double y2 ) 
+  {
+    boolean result = y1 <= maxY && y2 >= minY;
+    if( result ) {
+      result =    ( x1 <= maxX && x2 >= minX ) 
+               || ( x1 + 1 <= maxX && x2 + 1 >= minX );
+    }
+    return result;
+  }
+
+  boolean contains( final LatLng latLng ) {
+    return contains( Mercator.toX( latLng.longitude ), 
+                     Mercator.toY( latLng.latitude ) );
+  }
+
+  void query( final QuadTree tree, final IntList result ) {
+    if( maxX > 1 ) {
+      tree.query( minX, minY, 1, maxY, result );
+      tree.query( 0, minY, maxX - 1, maxY, result );
+    } else {
+      tree.query( minX, minY, maxX, maxY, result );
+    }
+  }
+
+  void query( final ClusterIndex.Level level, final IntList result ) {
+    level.query( minX, minY, maxX, maxY, result );
+  }
+
+  private static double wrap( final double x ) {
+    return x - Math.floor( x );
+  }
+
+}